@@ -0,0 +1,75 @@
+package bench;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+import client.AsyncTCPClient;
+import client.TCPClient;
+import server.KeyValue;
+import server.NIOHandler;
+
+/**
+ * Drives the NIO server from a single caller thread, first with a blocking binary-protocol
+ * {@link TCPClient} and then with an {@link AsyncTCPClient} that keeps an increasing number of
+ * requests in flight. Every async request has a timeout on the shared timer wheel.
+ *
+ * <p>Usage: {@code java bench.AsyncClientBenchmark [requests] [inFlight,...]}
+ */
+public class AsyncClientBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+    String[] windows = (args.length > 1 ? args[1] : "1,16,256,4096").split(",");
+    BenchSupport.quietLogging();
+
+    int port = BenchSupport.freePort();
+    BenchSupport.startServer(new NIOHandler(port, new KeyValue(), 1));
+
+    TCPClient blocking = new TCPClient("localhost", port);
+    blocking.setBinaryProtocol(true);
+    blocking.connect();
+    try {
+      runBlocking(blocking, requests / 10);
+      double seconds = runBlocking(blocking, requests);
+      System.out.printf("blocking        requests=%,d  %,10.0f req/s%n", requests, requests / seconds);
+    } finally {
+      blocking.disconnect();
+    }
+
+    try (AsyncTCPClient client = new AsyncTCPClient("localhost", port)) {
+      client.connect();
+      runAsync(client, requests / 10, 256);
+      for (String window : windows) {
+        int inFlight = Integer.parseInt(window);
+        double seconds = runAsync(client, requests, inFlight);
+        System.out.printf("async in-flight=%-5d requests=%,d  %,10.0f req/s%n", inFlight, requests, requests / seconds);
+      }
+    }
+    System.exit(0);
+  }
+
+  private static double runBlocking(TCPClient client, int requests) throws Exception {
+    long begin = System.nanoTime();
+    for (int i = 0; i < requests; i++) {
+      client.sendRequest(request(i));
+      client.receiveResponse();
+    }
+    return (System.nanoTime() - begin) / 1e9;
+  }
+
+  private static double runAsync(AsyncTCPClient client, int requests, int inFlight) throws Exception {
+    Semaphore window = new Semaphore(inFlight);
+    CompletableFuture<?>[] responses = new CompletableFuture<?>[requests];
+    long begin = System.nanoTime();
+    for (int i = 0; i < requests; i++) {
+      window.acquire();
+      responses[i] = client.sendAsync(request(i)).whenComplete((response, failure) -> window.release());
+    }
+    CompletableFuture.allOf(responses).join();
+    return (System.nanoTime() - begin) / 1e9;
+  }
+
+  private static String request(int i) {
+    return i % 2 == 0 ? "PUT key" + i + " " + i : "GET key" + (i - 1);
+  }
+}
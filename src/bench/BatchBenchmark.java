@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import client.AbstractClient;
+import client.TCPClient;
+import client.UDPClient;
+import server.KeyValue;
+import server.TCPHandler;
+import server.UDPHandler;
+
+/**
+ * Compares inserting keys with one PUT per key against a single MPUT of all keys, over TCP and
+ * UDP with both the text and the binary protocol.
+ *
+ * <p>Usage: {@code java bench.BatchBenchmark [keys] [rounds]}
+ */
+public class BatchBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    BenchSupport.quietLogging();
+
+    int tcpPort = BenchSupport.freePort();
+    BenchSupport.startServer(new TCPHandler(tcpPort, new KeyValue()));
+    int udpPort = BenchSupport.freePort();
+    BenchSupport.startServer(new UDPHandler(udpPort, new KeyValue()));
+
+    Map<String, Integer> entries = new LinkedHashMap<>();
+    for (int i = 0; i < keys; i++) {
+      entries.put("key" + i, i);
+    }
+    for (int round = 0; round < rounds; round++) {
+      for (boolean binary : new boolean[] {false, true}) {
+        run("tcp", new TCPClient("localhost", tcpPort), binary, entries);
+        run("udp", new UDPClient("localhost", udpPort), binary, entries);
+      }
+    }
+  }
+
+  private static void run(String transport, AbstractClient client, boolean binary, Map<String, Integer> entries)
+          throws Exception {
+    client.setBinaryProtocol(binary);
+    client.connect();
+    try {
+      long begin = System.nanoTime();
+      for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+        client.sendRequest("PUT " + entry.getKey() + " " + entry.getValue());
+        client.receiveResponse();
+      }
+      double singleMillis = (System.nanoTime() - begin) / 1e6;
+
+      begin = System.nanoTime();
+      client.sendMultiPut(entries);
+      double batchMillis = (System.nanoTime() - begin) / 1e6;
+
+      System.out.printf("%s %-6s keys=%,d  %,d x PUT %8.2f ms  1 x MPUT %6.2f ms  (x%.0f)%n",
+              transport, binary ? "binary" : "text", entries.size(), entries.size(), singleMillis, batchMillis,
+              singleMillis / batchMillis);
+    } finally {
+      client.disconnect();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package bench;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+/**
+ * Helpers shared by the benchmark programs.
+ */
+final class BenchSupport {
+
+  private BenchSupport() {
+  }
+
+  /**
+   * Raises the server and client loggers to ERROR so that per-request INFO lines
+   * do not dominate the measurement.
+   */
+  static void quietLogging() {
+    Configurator.setLevel("server.ServerLogger", Level.ERROR);
+    Configurator.setLevel("client.ClientLogger", Level.ERROR);
+  }
+
+  /**
+   * Finds a port that is currently free on the local host.
+   *
+   * @return A free port number.
+   * @throws IOException if no port can be reserved.
+   */
+  static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  /**
+   * Starts the given server handler on a daemon thread and waits briefly for it to bind.
+   *
+   * @param handler The handler to run.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  static void startServer(Runnable handler) throws InterruptedException {
+    Thread serverThread = new Thread(handler, "bench-server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    Thread.sleep(200);
+  }
+
+  /**
+   * Returns the given percentile of the recorded latencies.
+   *
+   * @param sortedNanos Latencies in nanoseconds, sorted ascending.
+   * @param percentile  The percentile, between 0 and 100.
+   * @return The latency at that percentile in microseconds.
+   */
+  static double percentileMicros(long[] sortedNanos, double percentile) {
+    if (sortedNanos.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(percentile / 100.0 * sortedNanos.length) - 1;
+    return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))] / 1000.0;
+  }
+
+  /**
+   * Concatenates and sorts per-thread latency arrays.
+   *
+   * @param perThread The latencies recorded by each worker.
+   * @return All latencies, sorted ascending.
+   */
+  static long[] merge(long[][] perThread) {
+    long[] all = Arrays.stream(perThread).flatMapToLong(Arrays::stream).toArray();
+    Arrays.sort(all);
+    return all;
+  }
+}
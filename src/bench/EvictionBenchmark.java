@@ -0,0 +1,115 @@
+package bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import client.ZipfianGenerator;
+import server.ClockEvictionPolicy;
+import server.EvictionPolicy;
+import server.KeyValue;
+import server.TinyLfuEvictionPolicy;
+
+/**
+ * Runs a bounded store as a read-through cache, where every miss is followed by a PUT of the
+ * key, and reports the hit rate and throughput of each eviction policy under skewed workloads:
+ * Zipfian reads with a mild and a strong skew, and the strong skew mixed with a scan that
+ * touches every key once per pass, which pushes the popular keys out of a recency-only cache.
+ *
+ * <p>Usage: {@code java bench.EvictionBenchmark [keys] [cachePercent] [operations] [threads]}
+ */
+public class EvictionBenchmark {
+  // A quarter of the requests of the scan workload read the next key of the scan.
+  private static final double SCAN_SHARE = 0.25;
+
+  private enum Workload {
+    ZIPF_07("zipf 0.7", 0.7, 0),
+    ZIPF_099("zipf 0.99", 0.99, 0),
+    ZIPF_099_SCAN("zipf 0.99 + scan", 0.99, SCAN_SHARE);
+
+    final String label;
+    final double theta;
+    final double scanShare;
+
+    Workload(String label, double theta, double scanShare) {
+      this.label = label;
+      this.theta = theta;
+      this.scanShare = scanShare;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int cachePercent = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int operations = args.length > 2 ? Integer.parseInt(args[2]) : 5_000_000;
+    int threads = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+    BenchSupport.quietLogging();
+    long capacity = (long) keys * cachePercent / 100;
+    String[] names = new String[keys];
+    for (int i = 0; i < keys; i++) {
+      names[i] = "key" + i;
+    }
+    // Rank i of the Zipfian distribution reads names[i]; shuffling spreads the popular keys over
+    // the key space, so that the scan, which reads names in the order they were created, does not
+    // start with them.
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (int i = keys - 1; i > 0; i--) {
+      int j = random.nextInt(i + 1);
+      String name = names[i];
+      names[i] = names[j];
+      names[j] = name;
+    }
+
+    System.out.printf("%,d keys, cache of %,d keys, %,d operations on %d thread(s)%n", keys, capacity, operations, threads);
+    System.out.printf("%-18s %-8s %9s %14s%n", "workload", "policy", "hit rate", "ops/s");
+    for (Workload workload : Workload.values()) {
+      ZipfianGenerator zipfian = new ZipfianGenerator(keys, workload.theta);
+      for (String policyName : new String[] {"clock", "tinylfu"}) {
+        EvictionPolicy policy = "clock".equals(policyName)
+                ? new ClockEvictionPolicy(capacity, EvictionPolicy.ENTRIES)
+                : new TinyLfuEvictionPolicy(capacity, EvictionPolicy.ENTRIES, capacity);
+        KeyValue store = new KeyValue();
+        store.setEvictionPolicy(policy);
+        // Warm up with the same workload until the cache is full and the policy has settled.
+        run(store, zipfian, workload, names, operations / 2, threads);
+        long start = System.nanoTime();
+        long hits = run(store, zipfian, workload, names, operations, threads);
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%-18s %-8s %8.2f%% %,14.0f%n", workload.label, policyName,
+                100.0 * hits / ((long) operations / threads * threads), (long) operations / threads * threads * 1e9 / elapsed);
+        if (store.size() > capacity) {
+          System.out.printf("  store holds %,d keys, over its bound of %,d%n", store.size(), capacity);
+        }
+        store.close();
+      }
+    }
+  }
+
+  private static long run(KeyValue store, ZipfianGenerator zipfian, Workload workload, String[] names,
+                          int operations, int threads) throws InterruptedException {
+    AtomicLong hits = new AtomicLong();
+    AtomicLong scanPosition = new AtomicLong();
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      workers[t] = new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long threadHits = 0;
+        for (int i = operations / threads; i > 0; i--) {
+          String key = workload.scanShare > 0 && random.nextDouble() < workload.scanShare
+                  ? "key" + scanPosition.getAndIncrement() % names.length
+                  : names[zipfian.next()];
+          if (store.get(key) != null) {
+            threadHits++;
+          } else {
+            store.put(key, 1);
+          }
+        }
+        hits.addAndGet(threadHits);
+      }, "cache-client-" + t);
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    return hits.get();
+  }
+}
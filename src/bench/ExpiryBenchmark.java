@@ -0,0 +1,99 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import server.KeyValue;
+
+/**
+ * Gives millions of keys a TTL that runs out at the same moment, and measures how long the expiry
+ * wheel takes to reclaim them and the GET latency of other keys before and while that happens.
+ *
+ * <p>Usage: {@code java bench.ExpiryBenchmark [expiringKeys] [spreadMillis]}, where the TTLs are
+ * spread evenly over {@code spreadMillis} (0 for all at once).
+ */
+public class ExpiryBenchmark {
+  private static final int LIVE_KEYS = 100_000;
+  private static final long TTL_MILLIS = 15_000;
+  private static final int MAX_SAMPLES = 20_000_000;
+
+  public static void main(String[] args) throws Exception {
+    int expiringKeys = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+    long spreadMillis = args.length > 1 ? Long.parseLong(args[1]) : 0;
+    BenchSupport.quietLogging();
+
+    KeyValue store = new KeyValue();
+    for (int i = 0; i < LIVE_KEYS; i++) {
+      store.put("live" + i, i);
+    }
+    long loadStart = System.nanoTime();
+    for (int i = 0; i < expiringKeys; i++) {
+      long spread = spreadMillis == 0 ? 0 : spreadMillis * i / expiringKeys;
+      store.put("ttl" + i, i, TTL_MILLIS - (System.nanoTime() - loadStart) / 1_000_000 + spread);
+    }
+    long expiryStart = loadStart + TTL_MILLIS * 1_000_000;
+    System.out.printf("Loaded %,d keys with a TTL in %d ms; they expire %d ms after loading started%n",
+            expiringKeys, (System.nanoTime() - loadStart) / 1_000_000, TTL_MILLIS);
+
+    // One reader samples GETs of keys without TTL until every expiring key is reclaimed.
+    long[] sampleTimes = new long[MAX_SAMPLES];
+    long[] latencies = new long[MAX_SAMPLES];
+    int[] count = new int[1];
+    AtomicBoolean stop = new AtomicBoolean();
+    Thread reader = new Thread(() -> {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      int n = 0;
+      while (!stop.get() && n < MAX_SAMPLES) {
+        String key = "live" + random.nextInt(LIVE_KEYS);
+        long start = System.nanoTime();
+        store.get(key);
+        long end = System.nanoTime();
+        sampleTimes[n] = start;
+        latencies[n++] = end - start;
+      }
+      count[0] = n;
+    }, "reader");
+    reader.start();
+
+    long reclaimedAt = 0;
+    while (System.nanoTime() - expiryStart < 60_000_000_000L) {
+      if (store.size() <= LIVE_KEYS && System.nanoTime() > expiryStart) {
+        reclaimedAt = System.nanoTime();
+        break;
+      }
+      Thread.sleep(5);
+    }
+    Thread.sleep(200);
+    stop.set(true);
+    reader.join();
+
+    if (reclaimedAt == 0) {
+      System.out.printf("Not all keys reclaimed after 60 s: %,d left%n", store.size() - LIVE_KEYS);
+    } else {
+      System.out.printf("All %,d keys reclaimed %d ms after the TTL ran out (%,.0f keys/s)%n", expiringKeys,
+              (reclaimedAt - expiryStart - spreadMillis * 1_000_000) / 1_000_000,
+              expiringKeys * 1e9 / (reclaimedAt - expiryStart));
+    }
+    report("GET before expiry", sampleTimes, latencies, count[0], 0, expiryStart);
+    report("GET during expiry", sampleTimes, latencies, count[0], expiryStart,
+            reclaimedAt == 0 ? Long.MAX_VALUE : reclaimedAt);
+    store.close();
+  }
+
+  private static void report(String title, long[] sampleTimes, long[] latencies, int count, long from, long to) {
+    long[] window = new long[count];
+    int n = 0;
+    for (int i = 0; i < count; i++) {
+      if (sampleTimes[i] >= from && sampleTimes[i] < to) {
+        window[n++] = latencies[i];
+      }
+    }
+    long[] sorted = Arrays.copyOf(window, n);
+    Arrays.sort(sorted);
+    System.out.printf("%-18s samples=%,d  p50=%.2fus p99=%.2fus p99.9=%.2fus p99.99=%.2fus max=%.0fus%n", title, n,
+            BenchSupport.percentileMicros(sorted, 50), BenchSupport.percentileMicros(sorted, 99),
+            BenchSupport.percentileMicros(sorted, 99.9), BenchSupport.percentileMicros(sorted, 99.99),
+            BenchSupport.percentileMicros(sorted, 100));
+  }
+}
@@ -0,0 +1,112 @@
+package bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import server.KeyValue;
+
+/**
+ * Hammers {@link KeyValue} from many threads at once.
+ * The first phase checks that no write is lost: every thread inserts its own range of keys
+ * while the others do the same, and afterwards every key must hold the value written for it.
+ * The second phase measures how throughput of a 90% GET / 10% PUT mix scales from one thread
+ * up to the number of available processors.
+ *
+ * <p>Usage: {@code java bench.KeyValueStressBenchmark [keysPerThread] [opsPerThread]}
+ */
+public class KeyValueStressBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int keysPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int opsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 2_000_000;
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+
+    checkNoLostUpdates(Math.max(4, maxThreads), keysPerThread);
+
+    KeyValue store = new KeyValue();
+    for (int i = 0; i < keysPerThread; i++) {
+      store.put("key" + i, i);
+    }
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      measureThroughput(store, threads, keysPerThread, opsPerThread);
+    }
+    if (Integer.bitCount(maxThreads) != 1) {
+      measureThroughput(store, maxThreads, keysPerThread, opsPerThread);
+    }
+  }
+
+  private static void checkNoLostUpdates(int threads, int keysPerThread) throws InterruptedException {
+    KeyValue store = new KeyValue();
+    runConcurrently(threads, thread -> {
+      for (int i = 0; i < keysPerThread; i++) {
+        store.put("t" + thread + "-" + i, i);
+        // Also overwrite a small set of shared keys to create contention on the same bins.
+        store.put("shared" + (i & 63), thread);
+      }
+    });
+
+    long missing = 0;
+    for (int thread = 0; thread < threads; thread++) {
+      for (int i = 0; i < keysPerThread; i++) {
+        Integer value = store.get("t" + thread + "-" + i);
+        if (value == null || value != i) {
+          missing++;
+        }
+      }
+    }
+    int expectedSize = threads * keysPerThread + 64;
+    System.out.printf("lost-update check: threads=%d writes=%d size=%d (expected %d) missing=%d -> %s%n",
+            threads, threads * keysPerThread * 2L, store.size(), expectedSize, missing,
+            missing == 0 && store.size() == expectedSize ? "OK" : "FAILED");
+    if (missing != 0 || store.size() != expectedSize) {
+      System.exit(1);
+    }
+  }
+
+  private static void measureThroughput(KeyValue store, int threads, int keys, int opsPerThread)
+          throws InterruptedException {
+    AtomicLong sink = new AtomicLong();
+    long start = System.nanoTime();
+    runConcurrently(threads, thread -> {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      long hits = 0;
+      for (int i = 0; i < opsPerThread; i++) {
+        String key = "key" + random.nextInt(keys);
+        if (random.nextInt(10) == 0) {
+          store.put(key, i);
+        } else if (store.get(key) != null) {
+          hits++;
+        }
+      }
+      sink.addAndGet(hits);
+    });
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("threads=%2d  %,.0f ops/s%n", threads, threads * (double) opsPerThread / seconds);
+  }
+
+  private static void runConcurrently(int threads, ThreadBody body) throws InterruptedException {
+    CountDownLatch ready = new CountDownLatch(1);
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      int thread = t;
+      workers[t] = new Thread(() -> {
+        try {
+          ready.await();
+          body.run(thread);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      workers[t].start();
+    }
+    ready.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+  }
+
+  private interface ThreadBody {
+    void run(int thread);
+  }
+}
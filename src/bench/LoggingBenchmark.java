@@ -0,0 +1,62 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import client.TCPClient;
+import server.KeyValue;
+import server.ServerLogger;
+import server.TCPHandler;
+
+/**
+ * Measures text-protocol TCP requests/sec with server request logging off, on for every request
+ * and sampled, using the appenders configured in {@code log4j2.xml}. The results are printed
+ * after all runs, below the log output the runs produce.
+ *
+ * <p>Usage: {@code java bench.LoggingBenchmark [requests] [sampleRate] [rounds]}
+ */
+public class LoggingBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+    int sampleRate = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    Configurator.setLevel("client.ClientLogger", Level.ERROR);
+
+    int port = BenchSupport.freePort();
+    BenchSupport.startServer(new TCPHandler(port, new KeyValue()));
+
+    List<String> results = new ArrayList<>();
+    for (int round = 0; round < rounds; round++) {
+      Configurator.setLevel("server.ServerLogger", Level.ERROR);
+      results.add(run("off", port, requests));
+      Configurator.setLevel("server.ServerLogger", Level.INFO);
+      ServerLogger.setRequestSampling("");
+      results.add(run("every request", port, requests));
+      ServerLogger.setRequestSampling("*:" + sampleRate);
+      results.add(run("1 in " + sampleRate, port, requests));
+    }
+    for (String result : results) {
+      System.out.println(result);
+    }
+  }
+
+  private static String run(String mode, int port, int requests) throws Exception {
+    TCPClient client = new TCPClient("localhost", port);
+    client.connect();
+    try {
+      long begin = System.nanoTime();
+      for (int i = 0; i < requests; i++) {
+        client.sendRequest(i % 2 == 0 ? "PUT key" + i + " " + i : "GET key" + (i - 1));
+        client.receiveResponse();
+      }
+      double seconds = (System.nanoTime() - begin) / 1e9;
+      return String.format("logging %-14s requests=%,d  %,9.0f req/s", mode, requests, requests / seconds);
+    } finally {
+      client.disconnect();
+    }
+  }
+}
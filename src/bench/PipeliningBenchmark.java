@@ -0,0 +1,61 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import client.TCPClient;
+import server.KeyValue;
+import server.NIOHandler;
+import server.TCPHandler;
+
+/**
+ * Compares stop-and-wait requests against pipelined requests on a single binary-protocol
+ * connection, for both the thread-per-connection and the NIO server.
+ *
+ * <p>Usage: {@code java bench.PipeliningBenchmark [requests] [rounds]}
+ */
+public class PipeliningBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    BenchSupport.quietLogging();
+
+    int tcpPort = BenchSupport.freePort();
+    BenchSupport.startServer(new TCPHandler(tcpPort, new KeyValue()));
+    int nioPort = BenchSupport.freePort();
+    BenchSupport.startServer(new NIOHandler(nioPort, new KeyValue(), 1));
+
+    List<String> batch = new ArrayList<>(requests);
+    for (int i = 0; i < requests; i++) {
+      batch.add(i % 2 == 0 ? "PUT key" + i + " " + i : "GET key" + (i - 1));
+    }
+    for (int round = 0; round < rounds; round++) {
+      run("tcp", tcpPort, batch);
+      run("nio", nioPort, batch);
+    }
+  }
+
+  private static void run(String server, int port, List<String> batch) throws Exception {
+    TCPClient client = new TCPClient("localhost", port);
+    client.setBinaryProtocol(true);
+    client.connect();
+    try {
+      long begin = System.nanoTime();
+      for (String request : batch) {
+        client.sendRequest(request);
+        client.receiveResponse();
+      }
+      double stopAndWait = batch.size() / ((System.nanoTime() - begin) / 1e9);
+
+      begin = System.nanoTime();
+      client.sendPipelined(batch);
+      double pipelined = batch.size() / ((System.nanoTime() - begin) / 1e9);
+
+      System.out.printf("%-4s requests=%,d  stop-and-wait %,10.0f req/s  pipelined %,10.0f req/s  (x%.1f)%n",
+              server, batch.size(), stopAndWait, pipelined, pipelined / stopAndWait);
+    } finally {
+      client.disconnect();
+    }
+  }
+}
@@ -0,0 +1,189 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import client.TCPClient;
+import server.KeyValue;
+import server.NIOHandler;
+import server.ReplicationPrimary;
+import server.ReplicationReplica;
+
+/**
+ * Measures primary-replica replication: the pipelined binary PUT throughput of an NIO primary
+ * without replication, with the replication backlog but no replica, and with one and two
+ * replicas; the replication lag during the load, as the largest number of changes a replica had
+ * not acknowledged and the time until the replicas caught up after it; and the time for a single
+ * PUT on the primary to become visible on an idle replica. Each run checks that the replicas end
+ * up with exactly the content of the primary.
+ *
+ * <p>Usage: {@code java bench.ReplicationBenchmark [requests] [rounds] [probes]}
+ */
+public class ReplicationBenchmark {
+  private static final int KEYS = 100_000;
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    int probes = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+    BenchSupport.quietLogging();
+
+    List<String> batch = new ArrayList<>(requests);
+    for (int i = 0; i < requests; i++) {
+      batch.add("PUT key" + (i % KEYS) + " " + i);
+    }
+    for (int round = 0; round < rounds; round++) {
+      run("no replication", -1, batch);
+      run("backlog only", 0, batch);
+      run("1 replica", 1, batch);
+      run("2 replicas", 2, batch);
+    }
+    probeLatency(probes);
+  }
+
+  private static void run(String label, int replicaCount, List<String> batch) throws Exception {
+    KeyValue store = new KeyValue();
+    ReplicationPrimary primary = null;
+    List<ReplicationReplica> replicas = new ArrayList<>();
+    List<KeyValue> replicaStores = new ArrayList<>();
+    if (replicaCount >= 0) {
+      int replicationPort = BenchSupport.freePort();
+      primary = new ReplicationPrimary(store, replicationPort, 1 << 20);
+      primary.start();
+      for (int i = 0; i < replicaCount; i++) {
+        KeyValue replicaStore = new KeyValue();
+        ReplicationReplica replica = new ReplicationReplica(replicaStore, "localhost", replicationPort);
+        replica.start();
+        replicas.add(replica);
+        replicaStores.add(replicaStore);
+      }
+      awaitReplicas(primary, replicaCount);
+    }
+    int port = BenchSupport.freePort();
+    BenchSupport.startServer(new NIOHandler(port, store, 1));
+
+    LagSampler sampler = replicaCount > 0 ? new LagSampler(primary) : null;
+    TCPClient client = new TCPClient("localhost", port);
+    client.setBinaryProtocol(true);
+    client.connect();
+    try {
+      long begin = System.nanoTime();
+      client.sendPipelined(batch);
+      long elapsed = System.nanoTime() - begin;
+      double throughput = batch.size() / (elapsed / 1e9);
+      if (sampler == null) {
+        System.out.printf("%-15s %,10.0f PUT/s%n", label, throughput);
+        return;
+      }
+      sampler.stop();
+      long catchUpBegin = System.nanoTime();
+      while (primary.maxLagRecords() > 0) {
+        Thread.sleep(1);
+      }
+      double catchUpMillis = (System.nanoTime() - catchUpBegin) / 1e6;
+      for (KeyValue replicaStore : replicaStores) {
+        verify(store, replicaStore);
+      }
+      System.out.printf("%-15s %,10.0f PUT/s  max lag %,8d changes  caught up %,7.1f ms after the load%n",
+              label, throughput, sampler.maxLag.get(), catchUpMillis);
+    } finally {
+      if (sampler != null) {
+        sampler.stop();
+      }
+      client.disconnect();
+      for (ReplicationReplica replica : replicas) {
+        replica.promote();
+      }
+      if (primary != null) {
+        primary.close();
+      }
+    }
+  }
+
+  /**
+   * Times how long single PUTs on the primary store take to become visible on a replica store
+   * when nothing else is going on.
+   */
+  private static void probeLatency(int probes) throws Exception {
+    KeyValue store = new KeyValue();
+    KeyValue replicaStore = new KeyValue();
+    int replicationPort = BenchSupport.freePort();
+    ReplicationPrimary primary = new ReplicationPrimary(store, replicationPort, 1 << 16);
+    primary.start();
+    ReplicationReplica replica = new ReplicationReplica(replicaStore, "localhost", replicationPort);
+    replica.start();
+    awaitReplicas(primary, 1);
+    long[] latencies = new long[probes];
+    try {
+      for (int i = 0; i < probes; i++) {
+        long begin = System.nanoTime();
+        store.put("probe", i);
+        Integer seen;
+        while ((seen = replicaStore.get("probe")) == null || seen != i) {
+          Thread.yield();
+        }
+        latencies[i] = System.nanoTime() - begin;
+      }
+    } finally {
+      replica.promote();
+      primary.close();
+    }
+    Arrays.sort(latencies);
+    System.out.printf("Time for a PUT to reach an idle replica over %,d probes: p50 %.1f us  p99 %.1f us  max %.1f us%n",
+            probes, BenchSupport.percentileMicros(latencies, 50), BenchSupport.percentileMicros(latencies, 99),
+            BenchSupport.percentileMicros(latencies, 100));
+  }
+
+  private static void awaitReplicas(ReplicationPrimary primary, int replicaCount) throws InterruptedException {
+    long deadline = System.nanoTime() + 10_000_000_000L;
+    while (primary.replicaCount() < replicaCount || primary.maxLagRecords() > 0) {
+      if (System.nanoTime() > deadline) {
+        throw new IllegalStateException("Replicas did not connect");
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  private static void verify(KeyValue store, KeyValue replicaStore) {
+    if (replicaStore.size() != store.size()) {
+      throw new IllegalStateException("Replica has " + replicaStore.size() + " keys, primary " + store.size());
+    }
+    store.forEach((key, value) -> {
+      Integer replicated = replicaStore.get(key);
+      if (replicated == null || replicated != value) {
+        throw new IllegalStateException("Replica has " + key + "=" + replicated + ", primary " + value);
+      }
+    });
+  }
+
+  /**
+   * Records the largest replication lag seen while the load runs.
+   */
+  private static final class LagSampler {
+    final AtomicLong maxLag = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    LagSampler(ReplicationPrimary primary) {
+      thread = new Thread(() -> {
+        while (running) {
+          maxLag.accumulateAndGet(primary.maxLagRecords(), Math::max);
+          try {
+            Thread.sleep(1);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }, "lag-sampler");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    void stop() throws InterruptedException {
+      running = false;
+      thread.join();
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import client.AbstractClient;
+import client.ConsistentHashRing;
+import client.ShardedClient;
+import client.TCPClient;
+import server.KeyValue;
+import server.NIOHandler;
+
+/**
+ * Measures client-side sharding. First, without servers, how evenly a {@link ConsistentHashRing}
+ * spreads keys with 1 to 160 virtual nodes per node, and how many keys move when a node is added
+ * or removed, compared with picking the node as the hash modulo the node count. Then the batch
+ * throughput of a {@link ShardedClient} against 1, 2 and 4 NIO servers on local ports.
+ *
+ * <p>Usage: {@code java bench.ShardingBenchmark [keys] [batchSize] [seconds]}
+ */
+public class ShardingBenchmark {
+  private static final int NODES = 4;
+
+  public static void main(String[] args) throws Exception {
+    int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int batchSize = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    BenchSupport.quietLogging();
+    String[] names = new String[keys];
+    for (int i = 0; i < keys; i++) {
+      names[i] = "key" + i;
+    }
+
+    System.out.printf("Distribution of %,d keys over %d nodes%n", keys, NODES);
+    for (int virtualNodes : new int[] {1, 16, 160}) {
+      ConsistentHashRing<String> ring = ring(NODES, virtualNodes);
+      Map<String, Integer> shares = new HashMap<>();
+      for (String name : names) {
+        shares.merge(ring.nodeFor(name), 1, Integer::sum);
+      }
+      int max = shares.values().stream().max(Integer::compare).orElse(0);
+      int min = shares.size() < NODES ? 0 : shares.values().stream().min(Integer::compare).orElse(0);
+      System.out.printf("  %3d virtual nodes: largest share %.1f%%, smallest %.1f%% (even: %.1f%%)%n",
+              virtualNodes, 100.0 * max / keys, 100.0 * min / keys, 100.0 / NODES);
+    }
+
+    ConsistentHashRing<String> before = ring(NODES, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    ConsistentHashRing<String> grown = ring(NODES + 1, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    ConsistentHashRing<String> shrunk = ring(NODES, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    shrunk.remove(node(0));
+    int movedOnAdd = 0;
+    int movedElsewhere = 0;
+    int movedOnRemove = 0;
+    int movedModulo = 0;
+    for (String name : names) {
+      String owner = before.nodeFor(name);
+      String newOwner = grown.nodeFor(name);
+      if (!owner.equals(newOwner)) {
+        movedOnAdd++;
+        movedElsewhere += newOwner.equals(node(NODES)) ? 0 : 1;
+      }
+      movedOnRemove += owner.equals(shrunk.nodeFor(name)) ? 0 : 1;
+      int hash = name.hashCode() & 0x7FFFFFFF;
+      movedModulo += hash % NODES == hash % (NODES + 1) ? 0 : 1;
+    }
+    System.out.printf("Adding a node %d -> %d moves %.1f%% of the keys (ideal %.1f%%, %d not to the new node); "
+            + "hash modulo node count moves %.1f%%%n", NODES, NODES + 1, 100.0 * movedOnAdd / keys,
+            100.0 / (NODES + 1), movedElsewhere, 100.0 * movedModulo / keys);
+    System.out.printf("Removing a node %d -> %d moves %.1f%% of the keys (ideal %.1f%%)%n",
+            NODES, NODES - 1, 100.0 * movedOnRemove / keys, 100.0 / NODES);
+
+    int[] ports = new int[NODES];
+    for (int i = 0; i < NODES; i++) {
+      ports[i] = BenchSupport.freePort();
+      BenchSupport.startServer(new NIOHandler(ports[i], new KeyValue(), 1));
+    }
+    System.out.printf("Binary MPUT/MGET of %d keys for %d s each%n", batchSize, seconds);
+    for (int nodes = 1; nodes <= NODES; nodes *= 2) {
+      List<AbstractClient> clients = new ArrayList<>();
+      for (int i = 0; i < nodes; i++) {
+        clients.add(new TCPClient("localhost", ports[i]));
+      }
+      ShardedClient client = new ShardedClient(clients);
+      client.setBinaryProtocol(true);
+      client.connect();
+      try {
+        batchesPerSecond(client, names, batchSize, 1, true);
+        batchesPerSecond(client, names, batchSize, 1, false);
+        double puts = batchesPerSecond(client, names, batchSize, seconds, true);
+        double gets = batchesPerSecond(client, names, batchSize, seconds, false);
+        System.out.printf("  %d node(s): MPUT %,8.0f batches/s (%,10.0f keys/s)  MGET %,8.0f batches/s (%,10.0f keys/s)%n",
+                nodes, puts, puts * batchSize, gets, gets * batchSize);
+      } finally {
+        client.disconnect();
+      }
+    }
+  }
+
+  private static double batchesPerSecond(ShardedClient client, String[] names, int batchSize, int seconds,
+                                         boolean put) throws Exception {
+    long end = System.nanoTime() + seconds * 1_000_000_000L;
+    long start = System.nanoTime();
+    long batches = 0;
+    int next = 0;
+    Map<String, Integer> entries = new LinkedHashMap<>();
+    List<String> keys = new ArrayList<>(batchSize);
+    while (System.nanoTime() < end) {
+      entries.clear();
+      keys.clear();
+      for (int i = 0; i < batchSize; i++) {
+        String name = names[next];
+        next = (next + 1) % names.length;
+        entries.put(name, i);
+        keys.add(name);
+      }
+      String response = put ? client.sendMultiPut(entries) : client.sendMultiGet(keys);
+      if (!response.startsWith("OK")) {
+        throw new IllegalStateException("Unexpected response: " + response);
+      }
+      batches++;
+    }
+    return batches * 1e9 / (System.nanoTime() - start);
+  }
+
+  private static ConsistentHashRing<String> ring(int nodes, int virtualNodes) {
+    ConsistentHashRing<String> ring = new ConsistentHashRing<>(virtualNodes);
+    for (int i = 0; i < nodes; i++) {
+      ring.add(node(i), node(i));
+    }
+    return ring;
+  }
+
+  private static String node(int index) {
+    return "localhost:" + (7000 + index);
+  }
+}
@@ -0,0 +1,90 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import server.KeyValue;
+import server.SnapshotManager;
+import server.WriteAheadLog;
+import server.WriteAheadLog.FsyncPolicy;
+
+/**
+ * Measures how long a background snapshot takes, how much write throughput continues while it
+ * runs, and how long a restart (snapshot load plus log replay) takes until the store is ready,
+ * with an increasing number of writer threads hammering the store during the snapshot.
+ *
+ * <p>Usage: {@code java bench.SnapshotBenchmark [keys] [maxWriterThreads]}
+ */
+public class SnapshotBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int keys = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int maxWriters = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+    BenchSupport.quietLogging();
+
+    for (int writers = 0; writers <= maxWriters; writers = writers == 0 ? 1 : writers * 2) {
+      run(keys, writers);
+    }
+  }
+
+  private static void run(int keys, int writers) throws Exception {
+    Path directory = Files.createTempDirectory("snapshot-bench");
+    Path snapshotFile = directory.resolve("store.snapshot");
+    Path walFile = directory.resolve("store.wal");
+
+    KeyValue store = new KeyValue();
+    WriteAheadLog log = new WriteAheadLog(walFile, FsyncPolicy.NEVER, 0);
+    log.replay(store, 0);
+    store.attachWriteAheadLog(log);
+    for (int i = 0; i < keys; i++) {
+      store.put("key" + i, i);
+    }
+    SnapshotManager snapshots = new SnapshotManager(store, snapshotFile);
+
+    AtomicBoolean stop = new AtomicBoolean();
+    LongAdder writes = new LongAdder();
+    Thread[] writerThreads = new Thread[writers];
+    for (int w = 0; w < writers; w++) {
+      writerThreads[w] = new Thread(() -> {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (!stop.get()) {
+          store.put("key" + random.nextInt(keys), random.nextInt());
+          writes.increment();
+        }
+      });
+      writerThreads[w].start();
+    }
+
+    long start = System.nanoTime();
+    snapshots.takeSnapshot();
+    double snapshotSeconds = (System.nanoTime() - start) / 1e9;
+    long writesDuringSnapshot = writes.sum();
+    stop.set(true);
+    for (Thread writer : writerThreads) {
+      writer.join();
+    }
+    store.close();
+
+    start = System.nanoTime();
+    KeyValue restored = new KeyValue();
+    SnapshotManager restoredSnapshots = new SnapshotManager(restored, snapshotFile);
+    long sequence = restoredSnapshots.load();
+    WriteAheadLog restoredLog = new WriteAheadLog(walFile, FsyncPolicy.NEVER, 0);
+    int replayed = restoredLog.replay(restored, sequence);
+    double restartSeconds = (System.nanoTime() - start) / 1e9;
+    restoredLog.close();
+
+    System.out.printf("writers=%d keys=%,d  snapshot=%.0fms (%,.0f writes/s during it)  restart=%.0fms (replayed %,d)  restored=%,d%n",
+            writers, keys, snapshotSeconds * 1000, writesDuringSnapshot / snapshotSeconds,
+            restartSeconds * 1000, replayed, restored.size());
+    try (var files = Files.list(directory)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(directory);
+  }
+}
@@ -0,0 +1,113 @@
+package bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import server.CompactStorageEngine;
+import server.HeapStorageEngine;
+import server.StorageEngine;
+
+/**
+ * Compares the heap footprint and GC behaviour of the storage engines.
+ * For each engine it inserts N keys, reports the retained heap per entry after a full GC, and
+ * then runs a GET-heavy churn phase while recording the number of collections, the total and
+ * the longest GC pause.
+ *
+ * <p>Run with a fixed heap so both engines see the same collector settings, e.g.
+ * {@code java -Xms4g -Xmx4g bench.StoreFootprintBenchmark 5000000 [heap|compact]}
+ */
+public class StoreFootprintBenchmark {
+
+  private static final AtomicLong gcCount = new AtomicLong();
+  private static final AtomicLong gcMillis = new AtomicLong();
+  private static final AtomicLong maxPauseMillis = new AtomicLong();
+
+  public static void main(String[] args) throws Exception {
+    int keys = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+    String only = args.length > 1 ? args[1] : null;
+    listenForCollections();
+
+    if (only == null || "heap".equals(only)) {
+      measure("heap", keys, HeapStorageEngine::new);
+    }
+    if (only == null || "compact".equals(only)) {
+      measure("compact", keys, () -> new CompactStorageEngine(keys));
+    }
+  }
+
+  private static void measure(String name, int keys, Supplier<StorageEngine> factory) throws Exception {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    fullGc();
+    long before = memory.getHeapMemoryUsage().getUsed();
+
+    StorageEngine engine = factory.get();
+    long start = System.nanoTime();
+    for (int i = 0; i < keys; i++) {
+      engine.put("key:" + i, i);
+    }
+    double loadSeconds = (System.nanoTime() - start) / 1e9;
+    fullGc();
+    long retained = memory.getHeapMemoryUsage().getUsed() - before;
+
+    resetGcStats();
+    long operations = keys * 5L;
+    long hits = 0;
+    start = System.nanoTime();
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    for (long i = 0; i < operations; i++) {
+      String key = "key:" + random.nextInt(keys);
+      if ((i & 15) == 0) {
+        engine.put(key, (int) i);
+      } else if (engine.get(key) != StorageEngine.MISSING) {
+        hits++;
+      }
+    }
+    double churnSeconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.printf("%-8s keys=%,d  load=%.2fs  retained=%,d MB  %.1f bytes/entry%n",
+            name, keys, loadSeconds, retained >> 20, retained / (double) keys);
+    System.out.printf("%-8s churn ops=%,d hits=%,d  %.0f ops/s  gcs=%d gcTime=%dms maxPause=%dms%n",
+            name, operations, hits, operations / churnSeconds, gcCount.get(), gcMillis.get(), maxPauseMillis.get());
+
+    // Keep the engine reachable until the measurements are done.
+    if (engine.size() != keys) {
+      throw new IllegalStateException("Unexpected size " + engine.size());
+    }
+  }
+
+  private static void listenForCollections() {
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      ((NotificationEmitter) collector).addNotificationListener((notification, handback) -> {
+        if (GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+          GarbageCollectionNotificationInfo info =
+                  GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+          long duration = info.getGcInfo().getDuration();
+          gcCount.incrementAndGet();
+          gcMillis.addAndGet(duration);
+          maxPauseMillis.accumulateAndGet(duration, Math::max);
+        }
+      }, null, null);
+    }
+  }
+
+  private static void resetGcStats() {
+    gcCount.set(0);
+    gcMillis.set(0);
+    maxPauseMillis.set(0);
+  }
+
+  private static void fullGc() throws InterruptedException {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package bench;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import client.TCPClient;
+import client.TCPClientPool;
+import server.KeyValue;
+import server.TCPHandler;
+
+/**
+ * Compares many application threads that each open a TCP connection per operation against the
+ * same threads sharing a {@link TCPClientPool} of a few connections. Every thread issues a fixed
+ * number of GET and PUT requests; the benchmark reports throughput, latency percentiles and the
+ * number of connections opened.
+ *
+ * <p>Usage: {@code java bench.TcpClientPoolBenchmark [threads] [requestsPerThread] [poolSize,...]}
+ */
+public class TcpClientPoolBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int requestsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    String[] poolSizes = (args.length > 2 ? args[2] : "4,16").split(",");
+    BenchSupport.quietLogging();
+
+    int port = BenchSupport.freePort();
+    BenchSupport.startServer(new TCPHandler(port, new KeyValue(), Thread::new));
+
+    // Warm up both paths before measuring.
+    run("connect-per-op", port, null, threads, requestsPerThread / 10, false);
+    try (TCPClientPool pool = new TCPClientPool("localhost", port, Integer.parseInt(poolSizes[0]))) {
+      run("pool", port, pool, threads, requestsPerThread / 10, false);
+    }
+
+    run("connect-per-op", port, null, threads, requestsPerThread, true);
+    for (String poolSize : poolSizes) {
+      try (TCPClientPool pool = new TCPClientPool("localhost", port, Integer.parseInt(poolSize))) {
+        run("pool=" + poolSize, port, pool, threads, requestsPerThread, true);
+        System.out.printf("%-16s connections opened=%d%n", "", pool.getOpenConnections());
+      }
+    }
+    System.exit(0);
+  }
+
+  private static void run(String mode, int port, TCPClientPool pool, int threads, int requestsPerThread,
+                          boolean report) throws Exception {
+    long[][] latencies = new long[threads][];
+    long start = System.nanoTime();
+    try (ExecutorService callers = Executors.newFixedThreadPool(threads)) {
+      Future<?>[] futures = new Future<?>[threads];
+      for (int t = 0; t < threads; t++) {
+        int thread = t;
+        futures[t] = callers.submit(() -> {
+          long[] threadLatencies = new long[requestsPerThread];
+          for (int i = 0; i < requestsPerThread; i++) {
+            String request = i % 2 == 0 ? "PUT key" + thread + " " + i : "GET key" + thread;
+            long begin = System.nanoTime();
+            if (pool != null) {
+              pool.send(request);
+            } else {
+              TCPClient client = new TCPClient("localhost", port);
+              client.connect();
+              try {
+                client.sendRequest(request);
+                client.receiveResponse();
+              } finally {
+                client.disconnect();
+              }
+            }
+            threadLatencies[i] = System.nanoTime() - begin;
+          }
+          latencies[thread] = threadLatencies;
+          return null;
+        });
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    if (report) {
+      long[] sorted = BenchSupport.merge(latencies);
+      System.out.printf("%-16s threads=%d requests=%d  %.0f req/s  p50=%.0fus p99=%.0fus p999=%.0fus%n",
+              mode, threads, sorted.length, sorted.length / seconds,
+              BenchSupport.percentileMicros(sorted, 50), BenchSupport.percentileMicros(sorted, 99),
+              BenchSupport.percentileMicros(sorted, 99.9));
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package bench;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import client.TCPClient;
+import server.KeyValue;
+import server.TCPHandler;
+
+/**
+ * Compares the TCP server running one platform thread per connection against one virtual
+ * thread per connection. Every client connection is opened concurrently and issues a fixed
+ * number of requests; the benchmark reports connections per second and request latency
+ * percentiles for each mode.
+ *
+ * <p>Usage: {@code java bench.ThreadModeBenchmark [connections] [requestsPerConnection]}
+ */
+public class ThreadModeBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int requestsPerConnection = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    BenchSupport.quietLogging();
+
+    // Warm up both modes before measuring.
+    run("platform", Thread::new, connections / 10, requestsPerConnection, false);
+    run("virtual", Thread.ofVirtual().factory(), connections / 10, requestsPerConnection, false);
+
+    run("platform", Thread::new, connections, requestsPerConnection, true);
+    run("virtual", Thread.ofVirtual().factory(), connections, requestsPerConnection, true);
+    System.exit(0);
+  }
+
+  private static void run(String mode, ThreadFactory connectionThreads, int connections,
+                          int requestsPerConnection, boolean report) throws Exception {
+    int port = BenchSupport.freePort();
+    KeyValue store = new KeyValue();
+    BenchSupport.startServer(new TCPHandler(port, store, connectionThreads));
+
+    long[][] latencies = new long[connections][];
+    long start = System.nanoTime();
+    try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+      Future<?>[] futures = new Future<?>[connections];
+      for (int c = 0; c < connections; c++) {
+        int connection = c;
+        futures[c] = clients.submit(() -> {
+          latencies[connection] = runConnection(port, connection, requestsPerConnection);
+          return null;
+        });
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    if (report) {
+      long[] sorted = BenchSupport.merge(latencies);
+      System.out.printf("%-8s connections=%d requests=%d  %.0f conn/s  %.0f req/s  p50=%.0fus p99=%.0fus p999=%.0fus%n",
+              mode, connections, sorted.length, connections / seconds, sorted.length / seconds,
+              BenchSupport.percentileMicros(sorted, 50), BenchSupport.percentileMicros(sorted, 99),
+              BenchSupport.percentileMicros(sorted, 99.9));
+    }
+  }
+
+  private static long[] runConnection(int port, int connection, int requests) throws Exception {
+    long[] latencies = new long[requests];
+    TCPClient client = new TCPClient("localhost", port);
+    client.connect();
+    try {
+      for (int i = 0; i < requests; i++) {
+        String request = (i % 2 == 0 ? "PUT key" + connection + " " + i : "GET key" + connection);
+        long begin = System.nanoTime();
+        client.sendRequest(request);
+        client.receiveResponse();
+        latencies[i] = System.nanoTime() - begin;
+      }
+    } finally {
+      client.disconnect();
+    }
+    return latencies;
+  }
+}
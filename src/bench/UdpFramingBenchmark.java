@@ -0,0 +1,68 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import client.UDPClient;
+import server.KeyValue;
+import server.UDPHandler;
+
+/**
+ * Compares one binary request per datagram against the framed UDP mode, which packs many
+ * requests into each datagram, and shows that the framed mode carries an MPUT far larger than a
+ * single datagram.
+ *
+ * <p>Usage: {@code java bench.UdpFramingBenchmark [requests] [largeBatchKeys] [rounds]}
+ */
+public class UdpFramingBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+    int largeBatchKeys = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+    BenchSupport.quietLogging();
+
+    int port = BenchSupport.freePort();
+    BenchSupport.startServer(new UDPHandler(port, new KeyValue()));
+
+    List<String> batch = new ArrayList<>(requests);
+    for (int i = 0; i < requests; i++) {
+      batch.add(i % 2 == 0 ? "PUT key" + i + " " + i : "GET key" + (i - 1));
+    }
+    Map<String, Integer> large = new LinkedHashMap<>();
+    for (int i = 0; i < largeBatchKeys; i++) {
+      large.put("large-key-" + i, i);
+    }
+
+    for (int round = 0; round < rounds; round++) {
+      UDPClient binary = new UDPClient("localhost", port);
+      binary.setBinaryProtocol(true);
+      binary.connect();
+      long begin = System.nanoTime();
+      for (String request : batch) {
+        binary.sendRequest(request);
+        binary.receiveResponse();
+      }
+      double perDatagram = batch.size() / ((System.nanoTime() - begin) / 1e9);
+      binary.disconnect();
+
+      UDPClient framed = new UDPClient("localhost", port);
+      framed.setFramedProtocol(true);
+      framed.connect();
+      begin = System.nanoTime();
+      framed.sendPipelined(batch);
+      double packed = batch.size() / ((System.nanoTime() - begin) / 1e9);
+
+      begin = System.nanoTime();
+      String response = framed.sendMultiPut(large);
+      double largeMillis = (System.nanoTime() - begin) / 1e6;
+      framed.disconnect();
+
+      System.out.printf("requests=%,d  one per datagram %,9.0f req/s  framed %,9.0f req/s  (x%.1f)"
+                      + "  MPUT of %,d keys: %s in %.1f ms%n",
+              batch.size(), perDatagram, packed, packed / perDatagram, large.size(), response, largeMillis);
+    }
+  }
+}
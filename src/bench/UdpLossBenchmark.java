@@ -0,0 +1,120 @@
+package bench;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import client.UDPClient;
+import server.KeyValue;
+import server.UDPHandler;
+
+/**
+ * Measures binary UDP request latency through a relay that drops a given share of the datagrams in
+ * each direction, showing how retransmission bounds the tail latency under packet loss. Each
+ * DELETE removes the key written by the PUT before it and answers "OK" only the first time, so a
+ * request applied twice because of a retransmission fails the run.
+ *
+ * <p>Usage: {@code java bench.UdpLossBenchmark [requests] [lossPercent,...]}
+ */
+public class UdpLossBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int requests = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+    String[] lossPercents = (args.length > 1 ? args[1] : "0,1,5").split(",");
+    BenchSupport.quietLogging();
+
+    int serverPort = BenchSupport.freePort();
+    BenchSupport.startServer(new UDPHandler(serverPort, new KeyValue()));
+
+    for (String lossPercent : lossPercents) {
+      double loss = Double.parseDouble(lossPercent) / 100;
+      try (LossyRelay relay = new LossyRelay(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverPort), loss)) {
+        UDPClient client = new UDPClient("localhost", relay.port());
+        client.setBinaryProtocol(true);
+        client.connect();
+        long[] latencies = new long[requests];
+        try {
+          for (int i = 0; i < requests; i++) {
+            long begin = System.nanoTime();
+            client.sendRequest(i % 2 == 0 ? "PUT key" + i + " " + i : "DELETE key" + (i - 1));
+            String response = client.receiveResponse();
+            latencies[i] = System.nanoTime() - begin;
+            if (!response.equals("OK")) {
+              throw new IllegalStateException("Request " + i + " answered " + response);
+            }
+          }
+        } finally {
+          client.disconnect();
+        }
+        Arrays.sort(latencies);
+        System.out.printf("loss=%4.1f%%  requests=%,d  dropped=%,d  retransmissions=%,d  "
+                        + "p50 %8.1f us  p99 %8.1f us  p99.9 %8.1f us  max %8.1f us%n",
+                loss * 100, requests, relay.dropped.get(), client.getRetransmissions(),
+                BenchSupport.percentileMicros(latencies, 50), BenchSupport.percentileMicros(latencies, 99),
+                BenchSupport.percentileMicros(latencies, 99.9), BenchSupport.percentileMicros(latencies, 100));
+      }
+    }
+  }
+
+  /**
+   * Relays datagrams between one client and the server, dropping each with the given probability.
+   */
+  private static final class LossyRelay implements AutoCloseable {
+    private final DatagramSocket clientSide = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    private final DatagramSocket serverSide = new DatagramSocket();
+    private final SocketAddress server;
+    private final double loss;
+    private volatile SocketAddress client;
+    private final AtomicLong dropped = new AtomicLong();
+
+    LossyRelay(SocketAddress server, double loss) throws Exception {
+      this.server = server;
+      this.loss = loss;
+      start(clientSide, true);
+      start(serverSide, false);
+    }
+
+    int port() {
+      return clientSide.getLocalPort();
+    }
+
+    private void start(DatagramSocket from, boolean towardsServer) {
+      Thread thread = new Thread(() -> {
+        byte[] buffer = new byte[65_507];
+        try {
+          while (true) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            from.receive(packet);
+            if (towardsServer) {
+              client = packet.getSocketAddress();
+            }
+            if (ThreadLocalRandom.current().nextDouble() < loss) {
+              dropped.incrementAndGet();
+              continue;
+            }
+            if (towardsServer) {
+              serverSide.send(new DatagramPacket(buffer, packet.getLength(), server));
+            } else {
+              clientSide.send(new DatagramPacket(buffer, packet.getLength(), client));
+            }
+          }
+        } catch (Exception e) {
+          // The relay was closed.
+        }
+      }, "lossy-relay");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    @Override
+    public void close() {
+      clientSide.close();
+      serverSide.close();
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package bench;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import client.UDPClient;
+import server.KeyValue;
+import server.UDPHandler;
+
+/**
+ * Compares the UDP server with a single receive worker against several receive workers, with many
+ * concurrent clients each sending binary PUT and GET requests one at a time.
+ *
+ * <p>Usage: {@code java bench.UdpWorkersBenchmark [clients] [requestsPerClient] [workers]}
+ */
+public class UdpWorkersBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+    int requestsPerClient = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+    int workers = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(4, Runtime.getRuntime().availableProcessors());
+    BenchSupport.quietLogging();
+
+    // Warm up before measuring.
+    run(1, clients, requestsPerClient / 10, false);
+    run(workers, clients, requestsPerClient / 10, false);
+
+    run(1, clients, requestsPerClient, true);
+    run(workers, clients, requestsPerClient, true);
+    System.exit(0);
+  }
+
+  private static void run(int workers, int clients, int requestsPerClient, boolean report) throws Exception {
+    int port = BenchSupport.freePort();
+    BenchSupport.startServer(new UDPHandler(port, new KeyValue(), Runnable::run, workers));
+
+    long[][] latencies = new long[clients][];
+    long start = System.nanoTime();
+    ExecutorService pool = Executors.newFixedThreadPool(clients);
+    try {
+      Future<?>[] futures = new Future<?>[clients];
+      for (int c = 0; c < clients; c++) {
+        int client = c;
+        futures[c] = pool.submit(() -> {
+          latencies[client] = runClient(port, client, requestsPerClient);
+          return null;
+        });
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      pool.shutdown();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    if (report) {
+      long[] sorted = BenchSupport.merge(latencies);
+      System.out.printf("workers=%-3d clients=%d  %,10.0f req/s  p50=%.0fus p99=%.0fus%n",
+              workers, clients, sorted.length / seconds,
+              BenchSupport.percentileMicros(sorted, 50), BenchSupport.percentileMicros(sorted, 99));
+    }
+  }
+
+  private static long[] runClient(int port, int client, int requests) throws Exception {
+    UDPClient udpClient = new UDPClient("localhost", port);
+    udpClient.setBinaryProtocol(true);
+    udpClient.connect();
+    long[] latencies = new long[requests];
+    try {
+      for (int i = 0; i < requests; i++) {
+        String request = i % 2 == 0 ? "PUT c" + client + "-" + i + " " + i : "GET c" + client + "-" + (i - 1);
+        long begin = System.nanoTime();
+        udpClient.sendRequest(request);
+        udpClient.receiveResponse();
+        latencies[i] = System.nanoTime() - begin;
+      }
+    } finally {
+      udpClient.disconnect();
+    }
+    return latencies;
+  }
+}
@@ -0,0 +1,73 @@
+package bench;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+
+import server.KeyValue;
+import server.WriteAheadLog;
+import server.WriteAheadLog.FsyncPolicy;
+
+/**
+ * Measures PUT throughput through a {@link KeyValue} with a write-ahead log attached, for each
+ * fsync policy, with many writer threads so that group commit can batch their records.
+ * A run without a log is included as the baseline.
+ *
+ * <p>Usage: {@code java bench.WriteAheadLogBenchmark [threads] [putsPerThread] [intervalMillis]}
+ */
+public class WriteAheadLogBenchmark {
+
+  public static void main(String[] args) throws Exception {
+    int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+    int putsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+    long intervalMillis = args.length > 2 ? Long.parseLong(args[2]) : 10;
+    BenchSupport.quietLogging();
+
+    run("no-wal", null, threads, putsPerThread, intervalMillis);
+    for (FsyncPolicy policy : new FsyncPolicy[] {FsyncPolicy.NEVER, FsyncPolicy.INTERVAL, FsyncPolicy.ALWAYS}) {
+      run(policy.name().toLowerCase(), policy, threads, putsPerThread, intervalMillis);
+    }
+  }
+
+  private static void run(String name, FsyncPolicy policy, int threads, int putsPerThread, long intervalMillis)
+          throws Exception {
+    KeyValue store = new KeyValue();
+    Path file = Files.createTempFile("wal-bench", ".log");
+    WriteAheadLog log = null;
+    if (policy != null) {
+      log = new WriteAheadLog(file, policy, intervalMillis);
+      log.replay(store, 0);
+      store.attachWriteAheadLog(log);
+    }
+
+    CountDownLatch start = new CountDownLatch(1);
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      int thread = t;
+      workers[t] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < putsPerThread; i++) {
+          store.put("t" + thread + "-" + i, i);
+        }
+      });
+      workers[t].start();
+    }
+    long begin = System.nanoTime();
+    start.countDown();
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    double seconds = (System.nanoTime() - begin) / 1e9;
+    if (log != null) {
+      log.close();
+    }
+    long puts = (long) threads * putsPerThread;
+    System.out.printf("%-9s threads=%d puts=%,d  %,.0f puts/s  log=%,d KB%n",
+            name, threads, puts, puts / seconds, Files.size(file) / 1024);
+    Files.deleteIfExists(file);
+  }
+}
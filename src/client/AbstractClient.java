@@ -2,9 +2,13 @@ package client;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.CRC32;
 
 /**
@@ -13,8 +17,10 @@ import java.util.zip.CRC32;
 public abstract class AbstractClient {
   protected String serverHost;
   protected int serverPort;
+  protected final String serverEndpoint;
   protected Socket socket;
   protected boolean responseReceived;
+  protected boolean binaryProtocol;
   private static final ClientLogger logger = new ClientLogger();
 
   /**
@@ -25,6 +31,24 @@ public abstract class AbstractClient {
   public AbstractClient(String serverHost, int serverPort) {
     this.serverHost = serverHost;
     this.serverPort = serverPort;
+    this.serverEndpoint = serverHost + ":" + serverPort;
+  }
+
+  /**
+   * Constructor for a client that is not bound to a single server.
+   * @param serverEndpoint A description of the servers, used in log messages.
+   */
+  protected AbstractClient(String serverEndpoint) {
+    this.serverEndpoint = serverEndpoint;
+  }
+
+  /**
+   * Selects the compact binary protocol instead of the text protocol. Must be called before
+   * {@link #connect()}; SNAPSHOT and PROMOTE can only be sent in text mode.
+   * @param binaryProtocol true to use the binary protocol.
+   */
+  public void setBinaryProtocol(boolean binaryProtocol) {
+    this.binaryProtocol = binaryProtocol;
   }
 
   /**
@@ -53,6 +77,71 @@ public abstract class AbstractClient {
    */
   public abstract String receiveResponse() throws IOException, ClassNotFoundException;
 
+  /**
+   * Sends several requests and returns their responses in request order. This implementation
+   * waits for each response before sending the next request; clients that can keep many requests
+   * in flight on one connection override it.
+   * @param requests The requests to be sent to the server.
+   * @return The responses, in the order of the requests.
+   * @throws IOException if an I/O error occurs when sending or receiving data.
+   */
+  public List<String> sendPipelined(List<String> requests) throws IOException {
+    List<String> responses = new ArrayList<>(requests.size());
+    for (String request : requests) {
+      responses.add(exchange(request));
+    }
+    return responses;
+  }
+
+  /**
+   * Inserts many key-value pairs with a single MPUT request.
+   * @param entries The keys and values to be inserted.
+   * @return The response received from the server.
+   * @throws IOException if an I/O error occurs when sending or receiving data.
+   */
+  public String sendMultiPut(Map<String, Integer> entries) throws IOException {
+    StringBuilder request = new StringBuilder("MPUT");
+    for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+      request.append(' ').append(entry.getKey()).append(' ').append(entry.getValue());
+    }
+    return exchange(request.toString());
+  }
+
+  /**
+   * Retrieves the values of many keys with a single MGET request.
+   * @param keys The keys to be retrieved.
+   * @return The response received from the server.
+   * @throws IOException if an I/O error occurs when sending or receiving data.
+   */
+  public String sendMultiGet(Collection<String> keys) throws IOException {
+    return exchange("MGET " + String.join(" ", keys));
+  }
+
+  /**
+   * Deletes many keys with a single MDELETE request.
+   * @param keys The keys to be deleted.
+   * @return The response received from the server.
+   * @throws IOException if an I/O error occurs when sending or receiving data.
+   */
+  public String sendMultiDelete(Collection<String> keys) throws IOException {
+    return exchange("MDELETE " + String.join(" ", keys));
+  }
+
+  /**
+   * Sends one request and waits for its response.
+   * @param request The request to be sent to the server.
+   * @return The response received from the server.
+   * @throws IOException if an I/O error occurs when sending or receiving data.
+   */
+  String exchange(String request) throws IOException {
+    sendRequest(request);
+    try {
+      return receiveResponse();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+  }
+
   /**
    * Starts the client and interacts with the server.
    */
@@ -70,12 +159,17 @@ public abstract class AbstractClient {
 
       do {
         logger.info("Waiting for user input...");
-        System.out.println("Please Enter PUT/GET/DELETE Key Value:");
+        System.out.println("Please Enter PUT/GET/DELETE Key Value [EX Seconds], MPUT/MGET/MDELETE Key [Value] ..."
+                + " or EXPIRE/TTL Key [Seconds]:");
         input = scanner.nextLine();
 
         String[] parts = input.split(" ");
         if (((parts[0].equalsIgnoreCase("DELETE") ||
-                parts[0].equalsIgnoreCase("GET")) && parts.length == 2) || parts.length == 3) {
+                parts[0].equalsIgnoreCase("GET") || parts[0].equalsIgnoreCase("TTL")) && parts.length == 2)
+                || parts.length == 3 || (parts[0].equalsIgnoreCase("PUT") && parts.length == 5)
+                || ((parts[0].equalsIgnoreCase("SNAPSHOT") || parts[0].equalsIgnoreCase("STATS")
+                || parts[0].equalsIgnoreCase("PROMOTE")) && parts.length == 1)
+                || isBatchRequest(parts)) {
           String response = sendWithTimeout(input);
           logger.info("Response received from server: " + response);
         } else {
@@ -90,6 +184,13 @@ public abstract class AbstractClient {
     }
   }
 
+  private static boolean isBatchRequest(String[] parts) {
+    if (parts[0].equalsIgnoreCase("MPUT")) {
+      return parts.length >= 3 && parts.length % 2 == 1;
+    }
+    return (parts[0].equalsIgnoreCase("MGET") || parts[0].equalsIgnoreCase("MDELETE")) && parts.length >= 2;
+  }
+
   /**
    * Calculates CRC32 checksum for a given string.
    * @param data The string for which the checksum needs to be calculated.
@@ -97,12 +198,13 @@ public abstract class AbstractClient {
    */
   public static long calculateChecksum(String data) {
     CRC32 crc32 = new CRC32();
-    crc32.update(data.getBytes());
+    crc32.update(data.getBytes(StandardCharsets.UTF_8));
     return crc32.getValue();
   }
 
   /**
-   * Sends a request to the server with a timeout mechanism.
+   * Sends a request to the server with a timeout mechanism. The timeout is a task on the shared
+   * {@link HashedTimerWheel}, so waiting requests need no thread of their own.
    * @param request The request to be sent to the server.
    * @return The response received from the server.
    * @throws IOException if an I/O error occurs when sending or receiving data.
@@ -110,20 +212,14 @@ public abstract class AbstractClient {
   protected String sendWithTimeout(String request) throws IOException {
     responseReceived = false;
     sendRequest(request);
-    logger.info("Request sent to server: " + request);
-
-    TimerTask timeoutTask = new TimerTask() {
-      @Override
-      public void run() {
-        if (!responseReceived) {
-          logger.error("Server response timed out.");
-          disconnect();
-        }
-      }
-    };
+    logger.info("Request sent to server: {}", request);
 
-    Timer timer = new Timer(true);
-    timer.schedule(timeoutTask, 60000); // Timeout after 60 seconds
+    HashedTimerWheel.Timeout timeout = HashedTimerWheel.shared().schedule(() -> {
+      if (!responseReceived) {
+        logger.error("Server response timed out.");
+        disconnect();
+      }
+    }, 60, TimeUnit.SECONDS);
 
     String response = "";
 
@@ -134,7 +230,7 @@ public abstract class AbstractClient {
       logger.error("An error occurred while receiving response: " + e.getMessage());
       e.printStackTrace();
     } finally {
-      timer.cancel();
+      timeout.cancel();
     }
     return response;
   }
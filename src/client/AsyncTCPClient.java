@@ -0,0 +1,332 @@
+package client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking TCP client whose requests return {@link CompletableFuture}s, so that one caller
+ * thread can keep thousands of requests in flight on a single connection.
+ *
+ * <p>It speaks the binary protocol, whose request IDs let responses be matched to requests as
+ * they arrive. {@link #sendAsync(String)} only queues the encoded frame and registers the request;
+ * one I/O thread per client writes queued frames to the socket channel with gathering writes and
+ * completes the futures as responses are read. Each request's timeout is a task on a shared
+ * {@link HashedTimerWheel}, cancelled when the response arrives.
+ *
+ * <p>Futures complete on the I/O thread, or on the timer wheel thread when they time out, so
+ * dependent actions added without an executor must not block. This class is thread-safe.
+ */
+public class AsyncTCPClient implements AutoCloseable {
+  private static final ClientLogger logger = new ClientLogger();
+  private static final int READ_BUFFER_BYTES = 64 * 1024;
+  private static final int WRITE_BATCH = 64;
+
+  private final String serverHost;
+  private final int serverPort;
+  private final HashedTimerWheel timerWheel;
+  private final ConcurrentHashMap<Integer, PendingRequest> pending = new ConcurrentHashMap<>();
+  private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean wakeupRequested = new AtomicBoolean();
+  private final AtomicInteger nextRequestId = new AtomicInteger();
+  private final ByteBuffer[] writeBatch = new ByteBuffer[WRITE_BATCH];
+  private int writeBatchStart;
+  private int writeBatchEnd;
+  private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+  private long requestTimeoutMillis = 5_000;
+  private SocketChannel channel;
+  private volatile Selector selector;
+  private SelectionKey key;
+  private volatile boolean closed;
+
+  /**
+   * Constructs an AsyncTCPClient that times requests out on the shared timer wheel.
+   *
+   * @param serverHost The host name of the server.
+   * @param serverPort The port number of the server.
+   */
+  public AsyncTCPClient(String serverHost, int serverPort) {
+    this(serverHost, serverPort, HashedTimerWheel.shared());
+  }
+
+  /**
+   * Constructs an AsyncTCPClient.
+   *
+   * @param serverHost The host name of the server.
+   * @param serverPort The port number of the server.
+   * @param timerWheel The wheel that tracks request timeouts.
+   */
+  public AsyncTCPClient(String serverHost, int serverPort, HashedTimerWheel timerWheel) {
+    this.serverHost = serverHost;
+    this.serverPort = serverPort;
+    this.timerWheel = timerWheel;
+  }
+
+  /**
+   * Sets how long a request waits for its response before its future fails with a
+   * {@link TimeoutException}.
+   *
+   * @param requestTimeoutMillis The timeout in milliseconds.
+   */
+  public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+    this.requestTimeoutMillis = requestTimeoutMillis;
+  }
+
+  /**
+   * Connects to the server, negotiates the binary protocol and starts the I/O thread.
+   *
+   * @throws IOException if the connection or the handshake fails.
+   */
+  public void connect() throws IOException {
+    try {
+      channel = SocketChannel.open(new InetSocketAddress(serverHost, serverPort));
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      negotiateBinaryProtocol();
+      channel.configureBlocking(false);
+      selector = Selector.open();
+      key = channel.register(selector, SelectionKey.OP_READ);
+    } catch (IOException e) {
+      logger.error("Error connecting to server " + serverHost + ":" + serverPort + "-" + e.getMessage());
+      close();
+      throw e;
+    }
+    Thread ioThread = new Thread(this::runEventLoop, "async-tcp-client-" + serverHost + ":" + serverPort);
+    ioThread.setDaemon(true);
+    ioThread.start();
+    logger.info("Async client connected to server " + serverHost + ":" + serverPort);
+  }
+
+  /**
+   * Sends the handshake that switches the connection to the binary protocol, in the framing of
+   * {@link java.io.DataOutputStream#writeUTF(String)}, while the channel is still blocking.
+   */
+  private void negotiateBinaryProtocol() throws IOException {
+    byte[] handshake = BinaryProtocol.HANDSHAKE.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer request = ByteBuffer.allocate(Long.BYTES + Short.BYTES + handshake.length)
+            .putLong(AbstractClient.calculateChecksum(BinaryProtocol.HANDSHAKE))
+            .putShort((short) handshake.length).put(handshake).flip();
+    while (request.hasRemaining()) {
+      channel.write(request);
+    }
+    ByteBuffer length = readFully(ByteBuffer.allocate(Short.BYTES));
+    ByteBuffer response = readFully(ByteBuffer.allocate(Short.toUnsignedInt(length.getShort())));
+    String accepted = StandardCharsets.UTF_8.decode(response).toString();
+    if (!BinaryProtocol.HANDSHAKE_ACCEPTED.equals(accepted)) {
+      throw new IOException("Server does not support the binary protocol: " + accepted);
+    }
+  }
+
+  private ByteBuffer readFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new EOFException("Connection closed during the handshake");
+      }
+    }
+    return buffer.flip();
+  }
+
+  /**
+   * Queues a request without blocking. The client must be connected.
+   *
+   * @param request The text command, as accepted by the binary protocol.
+   * @return A future completed with the response text, or failed with an {@link IOException} if
+   *         the request cannot be encoded or the connection fails, or with a
+   *         {@link TimeoutException} if no response arrives within the request timeout.
+   */
+  public CompletableFuture<String> sendAsync(String request) {
+    if (closed || selector == null) {
+      return CompletableFuture.failedFuture(new IOException("Client to " + serverHost + ":" + serverPort
+              + " is not connected"));
+    }
+    ByteBuffer body;
+    try {
+      body = BinaryProtocol.encode(request);
+    } catch (IOException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+    int requestId = nextRequestId.getAndIncrement();
+    PendingRequest pendingRequest = new PendingRequest(request);
+    pending.put(requestId, pendingRequest);
+    pendingRequest.timeout = timerWheel.schedule(() -> {
+      if (pending.remove(requestId, pendingRequest)) {
+        pendingRequest.future.completeExceptionally(new TimeoutException(
+                "No response to request " + requestId + " within " + requestTimeoutMillis + " ms"));
+      }
+    }, requestTimeoutMillis, TimeUnit.MILLISECONDS);
+    if (closed && pending.remove(requestId, pendingRequest)) {
+      // The connection failed while the request was being registered.
+      pendingRequest.fail(new IOException("Client to " + serverHost + ":" + serverPort + " is closed"));
+      return pendingRequest.future;
+    }
+    ByteBuffer frame = ByteBuffer.allocate(BinaryProtocol.FRAME_HEADER_BYTES + body.remaining());
+    frame.putInt(body.remaining()).putInt(BinaryProtocol.checksum(body)).putInt(requestId).put(body).flip();
+    outbound.add(frame);
+    if (wakeupRequested.compareAndSet(false, true)) {
+      selector.wakeup();
+    }
+    return pendingRequest.future;
+  }
+
+  /**
+   * Returns the number of requests waiting for their response.
+   *
+   * @return The in-flight request count.
+   */
+  public int getInFlight() {
+    return pending.size();
+  }
+
+  /**
+   * Closes the connection and fails every request still waiting for its response.
+   */
+  @Override
+  public void close() {
+    fail(new IOException("Client to " + serverHost + ":" + serverPort + " is closed"));
+  }
+
+  private void runEventLoop() {
+    try {
+      while (!closed) {
+        selector.select();
+        selector.selectedKeys().clear();
+        wakeupRequested.set(false);
+        if (key.isReadable()) {
+          read();
+        }
+        flush();
+      }
+    } catch (IOException e) {
+      if (!closed) {
+        logger.error("Connection to server " + serverHost + ":" + serverPort + " failed-" + e.getMessage());
+      }
+      fail(e);
+    } catch (ClosedSelectorException | CancelledKeyException e) {
+      // The client was closed.
+    }
+  }
+
+  /**
+   * Writes queued frames, several per system call, until the queue is empty or the socket buffer
+   * is full, in which case the channel waits to become writable.
+   */
+  private void flush() throws IOException {
+    while (true) {
+      if (writeBatchStart == writeBatchEnd) {
+        writeBatchStart = 0;
+        writeBatchEnd = 0;
+        ByteBuffer frame;
+        while (writeBatchEnd < WRITE_BATCH && (frame = outbound.poll()) != null) {
+          writeBatch[writeBatchEnd++] = frame;
+        }
+        if (writeBatchEnd == 0) {
+          key.interestOps(SelectionKey.OP_READ);
+          return;
+        }
+      }
+      channel.write(writeBatch, writeBatchStart, writeBatchEnd - writeBatchStart);
+      while (writeBatchStart < writeBatchEnd && !writeBatch[writeBatchStart].hasRemaining()) {
+        writeBatch[writeBatchStart++] = null;
+      }
+      if (writeBatchStart < writeBatchEnd) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Reads what the socket has and completes the future of every whole response frame.
+   */
+  private void read() throws IOException {
+    if (channel.read(readBuffer) < 0) {
+      throw new EOFException("Server closed the connection");
+    }
+    readBuffer.flip();
+    while (readBuffer.remaining() >= BinaryProtocol.FRAME_HEADER_BYTES) {
+      int start = readBuffer.position();
+      int length = readBuffer.getInt(start);
+      if (length < 0 || length > BinaryProtocol.MAX_BODY_BYTES) {
+        throw new IOException("Invalid binary frame length " + length);
+      }
+      int frameBytes = BinaryProtocol.FRAME_HEADER_BYTES + length;
+      if (readBuffer.remaining() < frameBytes) {
+        if (readBuffer.capacity() < frameBytes) {
+          readBuffer = ByteBuffer.allocate(frameBytes).put(readBuffer).flip();
+        }
+        break;
+      }
+      int checksum = readBuffer.getInt(start + Integer.BYTES);
+      int requestId = readBuffer.getInt(start + Integer.BYTES * 2);
+      ByteBuffer body = readBuffer.slice(start + BinaryProtocol.FRAME_HEADER_BYTES, length);
+      readBuffer.position(start + frameBytes);
+      PendingRequest pendingRequest = pending.remove(requestId);
+      if (pendingRequest == null) {
+        // The request already timed out.
+        continue;
+      }
+      if (BinaryProtocol.checksum(body) != checksum) {
+        logger.error("Checksum validation failed. Response data may be corrupted.");
+      }
+      pendingRequest.timeout.cancel();
+      pendingRequest.future.complete(BinaryProtocol.describe(pendingRequest.request, body));
+    }
+    readBuffer.compact();
+  }
+
+  private void fail(IOException cause) {
+    closed = true;
+    try {
+      if (channel != null) {
+        channel.close();
+      }
+      if (selector != null) {
+        selector.close();
+      }
+    } catch (IOException e) {
+      logger.error("Error disconnecting from server " + serverHost + ":" + serverPort + "-" + e.getMessage());
+    }
+    for (Integer requestId : pending.keySet()) {
+      PendingRequest pendingRequest = pending.remove(requestId);
+      if (pendingRequest != null) {
+        pendingRequest.fail(cause);
+      }
+    }
+  }
+
+  /**
+   * A request waiting for its response.
+   */
+  private static final class PendingRequest {
+    private final String request;
+    private final CompletableFuture<String> future = new CompletableFuture<>();
+    private volatile HashedTimerWheel.Timeout timeout;
+
+    PendingRequest(String request) {
+      this.request = request;
+    }
+
+    void fail(IOException cause) {
+      HashedTimerWheel.Timeout scheduled = timeout;
+      if (scheduled != null) {
+        scheduled.cancel();
+      }
+      future.completeExceptionally(cause);
+    }
+  }
+}
@@ -0,0 +1,237 @@
+package client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Client side of the compact binary protocol served by {@code server.BinaryProtocol}.
+ * Translates the text commands used throughout the client into binary request bodies and
+ * binary response bodies back into short readable strings, so callers keep working with strings.
+ */
+final class BinaryProtocol {
+
+  static final String HANDSHAKE = "PROTOCOL BINARY";
+  static final String HANDSHAKE_ACCEPTED = "PROTOCOL BINARY OK";
+  static final byte UDP_MAGIC = (byte) 0xB1;
+
+  static final int FRAME_HEADER_BYTES = Integer.BYTES * 3;
+  static final int MAX_BODY_BYTES = 1 << 20;
+  static final int UDP_HEADER_BYTES = 1 + Integer.BYTES * 2;
+  static final int MAX_RESPONSE_BYTES = 65_507 - UDP_HEADER_BYTES;
+
+  static final byte OP_PUT = 1;
+  static final byte OP_GET = 2;
+  static final byte OP_DELETE = 3;
+  static final byte OP_MPUT = 4;
+  static final byte OP_MGET = 5;
+  static final byte OP_MDELETE = 6;
+  static final byte OP_STATS = 7;
+  static final byte OP_EXPIRE = 8;
+  static final byte OP_TTL = 9;
+
+  static final byte STATUS_OK = 0;
+  static final byte STATUS_NOT_FOUND = 1;
+  static final byte STATUS_ERROR = 2;
+  static final byte STATUS_CHECKSUM_MISMATCH = 3;
+
+  private static final ThreadLocal<CRC32C> CRC32C_PER_THREAD = ThreadLocal.withInitial(CRC32C::new);
+
+  private BinaryProtocol() {
+  }
+
+  /**
+   * Encodes a text command ({@code PUT key value}, {@code GET key} or {@code DELETE key}, with an
+   * optional trailing checksum that the binary frame checksum replaces, or one of the batch
+   * commands {@code MPUT k1 v1 k2 v2 ...}, {@code MGET k1 k2 ...} and {@code MDELETE k1 k2 ...},
+   * {@code PUT key value EX seconds|PX milliseconds}, {@code EXPIRE key seconds}, {@code TTL key}
+   * or {@code STATS}) into a request body.
+   *
+   * @param request The text command.
+   * @return A buffer holding the request body, ready to be read.
+   * @throws IOException if the command has no binary encoding.
+   */
+  static ByteBuffer encode(String request) throws IOException {
+    String[] parts = request.trim().split(" ");
+    byte opcode = opcodeOf(parts[0]);
+    if (opcode == OP_STATS) {
+      return ByteBuffer.allocate(1).put(OP_STATS).flip();
+    }
+    if (opcode == OP_EXPIRE || opcode == OP_TTL || (opcode == OP_PUT && parts.length == 5)) {
+      return encodeTtl(request, opcode, parts);
+    }
+    boolean batch = opcode >= OP_MPUT;
+    boolean withValues = opcode == OP_PUT || opcode == OP_MPUT;
+    int keyCount = batch ? (withValues ? (parts.length - 1) / 2 : parts.length - 1) : 1;
+    if (parts.length < (withValues ? 3 : 2) || (opcode == OP_MPUT && parts.length % 2 == 0) || keyCount > 0xFFFF) {
+      throw new IOException("Malformed request: " + request);
+    }
+
+    byte[][] keys = new byte[keyCount][];
+    int bodyBytes = 1 + (batch ? Short.BYTES : 0);
+    for (int i = 0; i < keyCount; i++) {
+      keys[i] = parts[1 + (withValues ? 2 * i : i)].getBytes(StandardCharsets.UTF_8);
+      if (keys[i].length > 0xFFFF) {
+        throw new IOException("Key longer than 65535 bytes");
+      }
+      bodyBytes += Short.BYTES + keys[i].length + (withValues ? Integer.BYTES : 0);
+    }
+    ByteBuffer body = ByteBuffer.allocate(bodyBytes);
+    body.put(opcode);
+    if (batch) {
+      body.putShort((short) keyCount);
+    }
+    for (int i = 0; i < keyCount; i++) {
+      body.putShort((short) keys[i].length).put(keys[i]);
+      if (withValues) {
+        String value = parts[2 + 2 * i];
+        try {
+          body.putInt(Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+          throw new IOException("Value must be an integer: " + value);
+        }
+      }
+    }
+    return body.flip();
+  }
+
+  /**
+   * Encodes {@code PUT key value EX|PX ttl}, {@code EXPIRE key seconds} and {@code TTL key}; the
+   * time to live travels in milliseconds.
+   */
+  private static ByteBuffer encodeTtl(String request, byte opcode, String[] parts) throws IOException {
+    if (parts.length != (opcode == OP_PUT ? 5 : opcode == OP_EXPIRE ? 3 : 2)) {
+      throw new IOException("Malformed request: " + request);
+    }
+    byte[] key = parts[1].getBytes(StandardCharsets.UTF_8);
+    if (key.length > 0xFFFF) {
+      throw new IOException("Key longer than 65535 bytes");
+    }
+    ByteBuffer body = ByteBuffer.allocate(1 + Short.BYTES + key.length + Integer.BYTES + Long.BYTES);
+    body.put(opcode).putShort((short) key.length).put(key);
+    try {
+      if (opcode == OP_PUT) {
+        body.putInt(Integer.parseInt(parts[2]));
+        long ttl = Long.parseLong(parts[4]);
+        if (parts[3].equalsIgnoreCase("EX")) {
+          body.putLong(TimeUnit.SECONDS.toMillis(ttl));
+        } else if (parts[3].equalsIgnoreCase("PX")) {
+          body.putLong(ttl);
+        } else {
+          throw new IOException("Unknown PUT option " + parts[3] + ". Must be one of (EX, PX)");
+        }
+      } else if (opcode == OP_EXPIRE) {
+        body.putLong(TimeUnit.SECONDS.toMillis(Long.parseLong(parts[2])));
+      }
+    } catch (NumberFormatException e) {
+      throw new IOException("Value and TTL must be integers: " + request);
+    }
+    return body.flip();
+  }
+
+  private static byte opcodeOf(String operation) throws IOException {
+    switch (operation.toUpperCase()) {
+      case "PUT":
+        return OP_PUT;
+      case "GET":
+        return OP_GET;
+      case "DELETE":
+        return OP_DELETE;
+      case "MPUT":
+        return OP_MPUT;
+      case "MGET":
+        return OP_MGET;
+      case "MDELETE":
+        return OP_MDELETE;
+      case "STATS":
+        return OP_STATS;
+      case "EXPIRE":
+        return OP_EXPIRE;
+      case "TTL":
+        return OP_TTL;
+      default:
+        throw new IOException("Command not supported by the binary protocol: " + operation);
+    }
+  }
+
+  /**
+   * Turns a response body into a readable string.
+   *
+   * @param request The text command the response answers.
+   * @param body    The response body.
+   * @return The text shown to the user.
+   */
+  static String describe(String request, ByteBuffer body) {
+    if (!body.hasRemaining()) {
+      return "Error: empty response";
+    }
+    byte status = body.get();
+    switch (status) {
+      case STATUS_OK:
+        if (request.regionMatches(true, 0, "MGET ", 0, 5) && body.remaining() >= Short.BYTES) {
+          return describeValues(request, body);
+        }
+        if (request.trim().equalsIgnoreCase("STATS")) {
+          return StandardCharsets.UTF_8.decode(body).toString();
+        }
+        if (request.regionMatches(true, 0, "TTL ", 0, 4) && body.remaining() >= Long.BYTES) {
+          long ttlMillis = body.getLong();
+          // Whole seconds like the text protocol, rounded up so a live key never reports 0.
+          return "OK " + (ttlMillis < 0 ? ttlMillis : (ttlMillis + 999) / 1000);
+        }
+        return body.remaining() >= Integer.BYTES ? "OK " + body.getInt() : "OK";
+      case STATUS_NOT_FOUND:
+        return "Key not found";
+      case STATUS_CHECKSUM_MISMATCH:
+        return "Checksum mismatch";
+      case STATUS_ERROR:
+        return "Error: " + StandardCharsets.UTF_8.decode(body);
+      default:
+        return "Unknown status " + status;
+    }
+  }
+
+  private static String describeValues(String request, ByteBuffer body) {
+    String[] keys = request.trim().split(" ");
+    int count = body.getShort() & 0xFFFF;
+    StringBuilder builder = new StringBuilder("OK");
+    for (int i = 0; i < count && body.hasRemaining(); i++) {
+      builder.append(' ').append(i + 1 < keys.length ? keys[i + 1] : "?").append('=');
+      builder.append(body.get() == STATUS_OK ? String.valueOf(body.getInt()) : "null");
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Calculates the CRC32C checksum of the remaining bytes of a buffer without moving its position.
+   *
+   * @param body The buffer holding the frame body.
+   * @return The checksum as sent on the wire.
+   */
+  static int checksum(ByteBuffer body) {
+    return checksum(body, body.position(), body.remaining());
+  }
+
+  /**
+   * Calculates the CRC32C checksum of a region of a heap or direct buffer. CRC32C runs on the
+   * CPU's CRC instructions where available, and each thread reuses one {@link CRC32C}, so this
+   * neither copies nor allocates. The buffer's position and limit are restored before returning.
+   *
+   * @param buffer The buffer.
+   * @param offset The index of the first byte.
+   * @param length The number of bytes.
+   * @return The checksum as sent on the wire.
+   */
+  static int checksum(ByteBuffer buffer, int offset, int length) {
+    CRC32C crc32c = CRC32C_PER_THREAD.get();
+    crc32c.reset();
+    int position = buffer.position();
+    int limit = buffer.limit();
+    buffer.limit(offset + length).position(offset);
+    crc32c.update(buffer);
+    buffer.limit(limit).position(position);
+    return (int) crc32c.getValue();
+  }
+}
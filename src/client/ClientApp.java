@@ -1,5 +1,11 @@
 package client;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
 /**
  * The main class for the client application.
  * It starts the appropriate client based on the specified protocol.
@@ -9,33 +15,156 @@ public class ClientApp {
 
   /**
    * The entry point of the client application.
-   * @param args Command line arguments: serverHost, serverPort, protocol.
+   * @param args Command line arguments: serverHost, serverPort, protocol and optionally --binary or,
+   *             for UDP, --framed, {@code --nodes=host:port,...} to shard the keys over more
+   *             servers, and --load with {@code --name=value} load settings.
    */
   public static void main(String[] args) {
     if (args.length < 3) {
-      logger.error("Usage: java ClientApp <serverHost> <serverPort> <protocol>");
+      logger.error("Usage: java ClientApp <serverHost> <serverPort> <protocol> [--binary|--framed] "
+              + "[--nodes=host:port,...] [--load [--name=value ...]]");
       return;
     }
 
     String serverHost = args[0];
     int serverPort = Integer.parseInt(args[1]);
     String protocol = args[2].toUpperCase();
+    boolean binary = hasFlag(args, "--binary");
+    boolean framed = hasFlag(args, "--framed");
 
-    AbstractClient client;
+    BiFunction<String, Integer, AbstractClient> nodeFactory;
 
     switch (protocol) {
       case "TCP":
-        logger.info("Starting TCP client...");
-        client = new TCPClient(serverHost, serverPort);
+        nodeFactory = TCPClient::new;
         break;
       case "UDP":
-        logger.info("Starting UDP client...");
-        client = new UDPClient(serverHost, serverPort);
+        nodeFactory = (host, port) -> {
+          UDPClient udpClient = new UDPClient(host, port);
+          udpClient.setFramedProtocol(framed);
+          return udpClient;
+        };
         break;
       default:
         logger.error("Invalid protocol. Please specify TCP or UDP.");
         return;
     }
-    client.start();
+    Supplier<AbstractClient> clientFactory = shardedFactory(serverHost, serverPort, option(args, "nodes", ""),
+            Integer.parseInt(option(args, "virtual-nodes", String.valueOf(ConsistentHashRing.DEFAULT_VIRTUAL_NODES))),
+            nodeFactory);
+    Supplier<AbstractClient> configuredFactory = () -> {
+      AbstractClient client = clientFactory.get();
+      client.setBinaryProtocol(binary);
+      return client;
+    };
+
+    if (hasFlag(args, "--load")) {
+      if (protocol.equals("UDP") && !binary && !framed) {
+        // Text datagrams carry no request ID, so a lost one would stall its thread for good and a
+        // late one would be taken as the response to the next request.
+        logger.error("Load generation over UDP needs --binary or --framed.");
+        return;
+      }
+      runLoad(args, configuredFactory);
+      return;
+    }
+    logger.info("Starting " + protocol + " client...");
+    configuredFactory.get().start();
+  }
+
+  /**
+   * Returns a factory of clients for the given server, or of {@link ShardedClient}s over it and
+   * the additional nodes, with {@code virtualNodes} points per node on the hash ring.
+   *
+   * @param serverHost   The host of the first server.
+   * @param serverPort   The port of the first server.
+   * @param nodes        The other servers as comma-separated {@code host:port} pairs, or empty.
+   * @param virtualNodes The number of points of each node on the hash ring.
+   * @param nodeFactory  Creates the client of one server.
+   * @return The client factory.
+   */
+  private static Supplier<AbstractClient> shardedFactory(String serverHost, int serverPort, String nodes,
+                                                         int virtualNodes,
+                                                         BiFunction<String, Integer, AbstractClient> nodeFactory) {
+    if (nodes.isEmpty()) {
+      return () -> nodeFactory.apply(serverHost, serverPort);
+    }
+    List<String> hosts = new ArrayList<>(List.of(serverHost));
+    List<Integer> ports = new ArrayList<>(List.of(serverPort));
+    for (String node : nodes.split(",")) {
+      int separator = node.lastIndexOf(':');
+      if (separator < 0) {
+        throw new IllegalArgumentException("Node '" + node + "' must be given as host:port");
+      }
+      hosts.add(node.substring(0, separator));
+      ports.add(Integer.parseInt(node.substring(separator + 1)));
+    }
+    logger.info("Sharding keys over " + hosts.size() + " nodes");
+    return () -> {
+      List<AbstractClient> clients = new ArrayList<>(hosts.size());
+      for (int i = 0; i < hosts.size(); i++) {
+        clients.add(nodeFactory.apply(hosts.get(i), ports.get(i)));
+      }
+      return new ShardedClient(clients, virtualNodes);
+    };
+  }
+
+  /**
+   * Runs the load generator with the settings {@code --connections}, {@code --threads},
+   * {@code --read-ratio}, {@code --keys}, {@code --distribution=uniform|zipfian},
+   * {@code --zipf-theta}, {@code --rate} (requests per second, 0 for closed-loop),
+   * {@code --duration} and {@code --warmup} (seconds) and {@code --preload=true|false}.
+   *
+   * @param args          The command-line arguments.
+   * @param clientFactory Creates the client of each connection.
+   */
+  private static void runLoad(String[] args, Supplier<AbstractClient> clientFactory) {
+    int connections = Integer.parseInt(option(args, "connections", "4"));
+    LoadGenerator generator = new LoadGenerator(clientFactory);
+    generator.setConcurrency(connections, Integer.parseInt(option(args, "threads", String.valueOf(connections))));
+    generator.setReadRatio(Double.parseDouble(option(args, "read-ratio", "0.9")));
+    String distribution = option(args, "distribution", "uniform").toLowerCase();
+    if (!distribution.equals("uniform") && !distribution.equals("zipfian")) {
+      throw new IllegalArgumentException("Unknown distribution '" + distribution + "'. Must be one of (uniform, zipfian)");
+    }
+    generator.setKeys(Integer.parseInt(option(args, "keys", "100000")), distribution.equals("zipfian"),
+            Double.parseDouble(option(args, "zipf-theta", String.valueOf(ZipfianGenerator.DEFAULT_THETA))));
+    generator.setTargetRate(Long.parseLong(option(args, "rate", "0")));
+    generator.setDuration(Long.parseLong(option(args, "warmup", "5")), Long.parseLong(option(args, "duration", "30")));
+    generator.setPreload(Boolean.parseBoolean(option(args, "preload", "true")));
+    try {
+      generator.run();
+    } catch (IOException e) {
+      logger.error("Load generation failed: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static boolean hasFlag(String[] args, String flag) {
+    for (int i = 3; i < args.length; i++) {
+      if (args[i].equals(flag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Looks up an optional {@code --name=value} setting among the command-line arguments.
+   *
+   * @param args         The command-line arguments.
+   * @param name         The setting name, without the leading dashes.
+   * @param defaultValue The value returned when the setting is absent.
+   * @return The configured value, or the default.
+   */
+  private static String option(String[] args, String name, String defaultValue) {
+    String prefix = "--" + name + "=";
+    for (int i = 3; i < args.length; i++) {
+      if (args[i].startsWith(prefix)) {
+        return args[i].substring(prefix.length());
+      }
+    }
+    return defaultValue;
   }
 }
@@ -4,7 +4,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
- * Provides logging functionality for the client application.
+ * Provides logging functionality for the client application. Per-request messages take
+ * {@code {}} placeholders, so nothing is formatted or allocated while their level is disabled.
  */
 public class ClientLogger {
   private static final Logger logger = LogManager.getLogger(ClientLogger.class);
@@ -17,6 +18,34 @@ public class ClientLogger {
     logger.info(message);
   }
 
+  /**
+   * Logs an informational message with one {@code {}} placeholder.
+   * @param message The message pattern.
+   * @param arg The placeholder value.
+   */
+  public void info(String message, Object arg) {
+    logger.info(message, arg);
+  }
+
+  /**
+   * Logs a debug message with one {@code {}} placeholder.
+   * @param message The message pattern.
+   * @param arg The placeholder value.
+   */
+  public void debug(String message, Object arg) {
+    logger.debug(message, arg);
+  }
+
+  /**
+   * Logs a debug message with two {@code {}} placeholders.
+   * @param message The message pattern.
+   * @param arg1 The first placeholder value.
+   * @param arg2 The second placeholder value.
+   */
+  public void debug(String message, Object arg1, Object arg2) {
+    logger.debug(message, arg1, arg2);
+  }
+
   /**
    * Logs an error message.
    * @param message The error message to be logged.
@@ -0,0 +1,170 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps keys to nodes by consistent hashing. Every node is placed on a 64-bit hash ring at many
+ * points (virtual nodes), and a key belongs to the node owning the first point at or after the
+ * hash of the key. Adding or removing one of {@code n} nodes therefore moves only about
+ * {@code 1/n} of the keys, all of them to or from that node, and the virtual nodes even out the
+ * share of each node.
+ *
+ * <p>Lookups read an immutable snapshot of the ring without locking; adding and removing nodes
+ * replaces the snapshot, so the ring may be changed while other threads route keys.
+ *
+ * @param <T> The type of the nodes.
+ */
+public final class ConsistentHashRing<T> {
+
+  /**
+   * The number of points per node used by {@link #ConsistentHashRing()}, which keeps the share of
+   * each node within a few percent of the average.
+   */
+  public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+  private final int virtualNodes;
+  private final Map<String, T> nodes = new LinkedHashMap<>();
+  private volatile Snapshot<T> snapshot = new Snapshot<>(new long[0], new Object[0]);
+
+  private static final class Snapshot<T> {
+    final long[] points;
+    final Object[] owners;
+
+    Snapshot(long[] points, Object[] owners) {
+      this.points = points;
+      this.owners = owners;
+    }
+  }
+
+  /**
+   * Constructs an empty ring with {@link #DEFAULT_VIRTUAL_NODES} points per node.
+   */
+  public ConsistentHashRing() {
+    this(DEFAULT_VIRTUAL_NODES);
+  }
+
+  /**
+   * Constructs an empty ring.
+   *
+   * @param virtualNodes The number of points of each node on the ring.
+   */
+  public ConsistentHashRing(int virtualNodes) {
+    if (virtualNodes < 1) {
+      throw new IllegalArgumentException("At least one virtual node is required: " + virtualNodes);
+    }
+    this.virtualNodes = virtualNodes;
+  }
+
+  /**
+   * Adds a node, or replaces the node of the same name. The points of a node depend only on its
+   * name, so every client that adds the same names routes keys the same way.
+   *
+   * @param name The unique name of the node, such as its {@code host:port}.
+   * @param node The node.
+   */
+  public synchronized void add(String name, T node) {
+    nodes.put(name, node);
+    rebuild();
+  }
+
+  /**
+   * Removes a node.
+   *
+   * @param name The name of the node.
+   * @return The removed node, or null if there is no node of that name.
+   */
+  public synchronized T remove(String name) {
+    T node = nodes.remove(name);
+    if (node != null) {
+      rebuild();
+    }
+    return node;
+  }
+
+  /**
+   * Returns the node a key belongs to.
+   *
+   * @param key The key.
+   * @return The node, or null if the ring is empty.
+   */
+  @SuppressWarnings("unchecked")
+  public T nodeFor(String key) {
+    Snapshot<T> current = snapshot;
+    if (current.points.length == 0) {
+      return null;
+    }
+    int index = Arrays.binarySearch(current.points, hash(key));
+    if (index < 0) {
+      index = -index - 1;
+      if (index == current.points.length) {
+        index = 0;
+      }
+    }
+    return (T) current.owners[index];
+  }
+
+  /**
+   * Returns the nodes in the order they were added.
+   *
+   * @return An unmodifiable list of the nodes.
+   */
+  public synchronized List<T> nodes() {
+    return Collections.unmodifiableList(new ArrayList<>(nodes.values()));
+  }
+
+  /**
+   * Returns the number of nodes.
+   *
+   * @return The number of nodes.
+   */
+  public synchronized int size() {
+    return nodes.size();
+  }
+
+  private void rebuild() {
+    List<T> owners = new ArrayList<>(nodes.values());
+    int count = owners.size() * virtualNodes;
+    long[] points = new long[count];
+    Integer[] order = new Integer[count];
+    int n = 0;
+    for (String name : nodes.keySet()) {
+      for (int v = 0; v < virtualNodes; v++) {
+        points[n] = hash(name + "#" + v);
+        order[n] = n;
+        n++;
+      }
+    }
+    // Point i belongs to owner i / virtualNodes; sort the point indexes by point.
+    Arrays.sort(order, (a, b) -> Long.compare(points[a], points[b]));
+    long[] sortedPoints = new long[count];
+    Object[] sortedOwners = new Object[count];
+    for (int i = 0; i < count; i++) {
+      sortedPoints[i] = points[order[i]];
+      sortedOwners[i] = owners.get(order[i] / virtualNodes);
+    }
+    snapshot = new Snapshot<>(sortedPoints, sortedOwners);
+  }
+
+  /**
+   * Hashes a string to a point of the ring: 64-bit FNV-1a over its characters followed by the
+   * MurmurHash3 finalizer. Unlike {@link String#hashCode()}, it spreads similar keys such as
+   * {@code key1} and {@code key2} over the whole ring.
+   */
+  static long hash(String value) {
+    long h = 0xCBF29CE484222325L;
+    for (int i = 0; i < value.length(); i++) {
+      h = (h ^ value.charAt(i)) * 0x100000001B3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
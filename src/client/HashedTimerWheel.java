@@ -0,0 +1,233 @@
+package client;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timer wheel (Varghese and Lauck) for request timeouts: one background thread advances
+ * a ring of buckets one tick at a time and runs the tasks that fall due, so any number of pending
+ * timeouts costs one small object each rather than a thread or a {@link java.util.Timer}.
+ * Scheduling and cancelling are constant-time and lock-free; they only enqueue the timeout, and
+ * the wheel thread files it into its bucket or unlinks it on its next tick. Timeouts fire up to
+ * one tick late, never early.
+ *
+ * <p>Tasks run on the wheel thread and must be short, such as failing a future.
+ */
+public final class HashedTimerWheel {
+  private static final ClientLogger logger = new ClientLogger();
+
+  private final long tickNanos;
+  private final Bucket[] wheel;
+  private final int mask;
+  private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+  private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+  private final long startNanos = System.nanoTime();
+  private final Thread worker;
+  private volatile boolean stopped;
+  private long tick;
+
+  /**
+   * Constructs a wheel and starts its thread.
+   *
+   * @param tickMillis The tick duration, which is the timer resolution.
+   * @param wheelSize  The number of buckets, rounded up to a power of two. A timeout further
+   *                   away than one turn of the wheel is checked once per turn.
+   */
+  public HashedTimerWheel(long tickMillis, int wheelSize) {
+    if (tickMillis < 1 || wheelSize < 1) {
+      throw new IllegalArgumentException("Tick and wheel size must be positive");
+    }
+    this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+    int size = Integer.highestOneBit(wheelSize - 1) << 1;
+    this.wheel = new Bucket[Math.max(1, size)];
+    this.mask = wheel.length - 1;
+    for (int i = 0; i < wheel.length; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.worker = new Thread(this::run, "timer-wheel");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Returns the wheel shared by all clients of this process, with a 10 ms tick and 512 buckets.
+   *
+   * @return The shared wheel.
+   */
+  public static HashedTimerWheel shared() {
+    return Shared.WHEEL;
+  }
+
+  /**
+   * Schedules a task to run once after a delay.
+   *
+   * @param task  The task to run on the wheel thread.
+   * @param delay The delay.
+   * @param unit  The unit of the delay.
+   * @return A handle to cancel the task.
+   */
+  public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+    if (stopped) {
+      throw new IllegalStateException("Timer wheel stopped");
+    }
+    Timeout timeout = new Timeout(this, task, System.nanoTime() - startNanos + unit.toNanos(delay));
+    scheduled.add(timeout);
+    return timeout;
+  }
+
+  /**
+   * Stops the wheel thread. Pending tasks never run.
+   */
+  public void stop() {
+    stopped = true;
+    worker.interrupt();
+  }
+
+  private void run() {
+    while (!stopped) {
+      long deadline = (tick + 1) * tickNanos;
+      long now;
+      while ((now = System.nanoTime() - startNanos) < deadline) {
+        LockSupport.parkNanos(deadline - now);
+        if (stopped) {
+          return;
+        }
+      }
+      unlinkCancelled();
+      fileScheduled();
+      wheel[(int) (tick & mask)].expire(now);
+      tick++;
+    }
+  }
+
+  private void unlinkCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelled.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  private void fileScheduled() {
+    // Bound the work per tick, so that a flood of new timeouts cannot stall expiry.
+    for (int i = 0; i < 100_000; i++) {
+      Timeout timeout = scheduled.poll();
+      if (timeout == null) {
+        return;
+      }
+      if (timeout.state.get() != Timeout.PENDING) {
+        continue;
+      }
+      long dueTick = Math.max(timeout.deadlineNanos / tickNanos, tick);
+      timeout.remainingRounds = (dueTick - tick) / wheel.length;
+      wheel[(int) (dueTick & mask)].add(timeout);
+    }
+  }
+
+  /**
+   * A scheduled task that has not yet run.
+   */
+  public static final class Timeout {
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final HashedTimerWheel wheel;
+    private final Runnable task;
+    private final long deadlineNanos;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    // Only accessed by the wheel thread.
+    private long remainingRounds;
+    private Bucket bucket;
+    private Timeout previous;
+    private Timeout next;
+
+    private Timeout(HashedTimerWheel wheel, Runnable task, long deadlineNanos) {
+      this.wheel = wheel;
+      this.task = task;
+      this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Cancels the task if it has not run yet.
+     *
+     * @return true if the task will not run, false if it already ran or was cancelled.
+     */
+    public boolean cancel() {
+      if (!state.compareAndSet(PENDING, CANCELLED)) {
+        return false;
+      }
+      wheel.cancelled.add(this);
+      return true;
+    }
+
+    private void expire() {
+      if (!state.compareAndSet(PENDING, EXPIRED)) {
+        return;
+      }
+      try {
+        task.run();
+      } catch (RuntimeException e) {
+        logger.error("Timer task failed: " + e);
+      }
+    }
+  }
+
+  /**
+   * A doubly linked list of the timeouts that fall in one slot of the wheel.
+   */
+  private static final class Bucket {
+    private Timeout head;
+    private Timeout tail;
+
+    void add(Timeout timeout) {
+      timeout.bucket = this;
+      timeout.previous = tail;
+      timeout.next = null;
+      if (tail == null) {
+        head = timeout;
+      } else {
+        tail.next = timeout;
+      }
+      tail = timeout;
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.previous == null) {
+        head = timeout.next;
+      } else {
+        timeout.previous.next = timeout.next;
+      }
+      if (timeout.next == null) {
+        tail = timeout.previous;
+      } else {
+        timeout.next.previous = timeout.previous;
+      }
+      timeout.bucket = null;
+      timeout.previous = null;
+      timeout.next = null;
+    }
+
+    void expire(long nowNanos) {
+      Timeout timeout = head;
+      while (timeout != null) {
+        Timeout next = timeout.next;
+        if (timeout.remainingRounds <= 0 && timeout.deadlineNanos <= nowNanos) {
+          remove(timeout);
+          timeout.expire();
+        } else if (timeout.remainingRounds > 0) {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+  }
+
+  private static final class Shared {
+    private static final HashedTimerWheel WHEEL = new HashedTimerWheel(10, 512);
+  }
+}
@@ -1,6 +1,8 @@
 package client;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static client.AbstractClient.calculateChecksum;
 
@@ -21,13 +23,20 @@ public class KeyValueStoreInitializer {
   }
 
   /**
-   * Populates the key-value store with initial data.
+   * Populates the key-value store with initial data using a single MPUT request.
    */
   public void populateKeyValueStore() {
     logger.info("-------------------Initializing the key-value store with 10 pairs---------------");
+    Map<String, Integer> entries = new LinkedHashMap<>();
     for (int i = 1; i <= 10; i++) {
-      String key = "key" + i;
-      performPutOperation(key, i);
+      entries.put("key" + i, i);
+    }
+    try {
+      String response = client.sendMultiPut(entries);
+      logger.info("MPUT: " + entries.size() + " pairs");
+      logger.info("Response: " + response);
+    } catch (IOException e) {
+      e.printStackTrace();
     }
     logger.info("---------------Initialization Done !!! -------------------------------------------");
   }
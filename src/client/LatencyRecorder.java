@@ -0,0 +1,115 @@
+package client;
+
+/**
+ * A histogram of latencies in nanoseconds for one load generator thread. Every power of two is
+ * split into {@value #SUB_BUCKETS} equal buckets, so any recorded value is reported within about
+ * 1% of its true value while the whole range of a {@code long} fits in a fixed array, however
+ * long the run. Recorders are not thread-safe; each thread records into its own and the results
+ * are combined with {@link #add(LatencyRecorder)} at the end of the run.
+ */
+final class LatencyRecorder {
+
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final long[] counts = new long[BUCKETS];
+  private long count;
+  private long sum;
+  private long max;
+
+  /**
+   * Records one latency.
+   *
+   * @param nanos The latency in nanoseconds.
+   */
+  void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts[bucketOf(value)]++;
+    count++;
+    sum += value;
+    max = Math.max(max, value);
+  }
+
+  /**
+   * Adds all latencies recorded by another recorder to this one.
+   *
+   * @param other The recorder to merge.
+   */
+  void add(LatencyRecorder other) {
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] += other.counts[i];
+    }
+    count += other.count;
+    sum += other.sum;
+    max = Math.max(max, other.max);
+  }
+
+  /**
+   * Returns the number of recorded latencies.
+   *
+   * @return The count.
+   */
+  long count() {
+    return count;
+  }
+
+  /**
+   * Returns the mean of the recorded latencies.
+   *
+   * @return The mean in nanoseconds, or 0 if empty.
+   */
+  double mean() {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * Returns the largest recorded latency.
+   *
+   * @return The maximum in nanoseconds.
+   */
+  long max() {
+    return max;
+  }
+
+  /**
+   * Returns the latency at the given percentile.
+   *
+   * @param percentile The percentile, between 0 and 100.
+   * @return The upper bound of the bucket holding that percentile in nanoseconds, never more than
+   *         the maximum, or 0 if empty.
+   */
+  long percentile(double percentile) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), max);
+      }
+    }
+    return max;
+  }
+
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+    int subBucket = (int) (value >>> (exponent - 1)) & (SUB_BUCKETS - 1);
+    return exponent * SUB_BUCKETS + subBucket;
+  }
+
+  private static long upperBoundOf(int bucket) {
+    int exponent = bucket / SUB_BUCKETS;
+    long subBucket = bucket % SUB_BUCKETS;
+    if (exponent == 0) {
+      return subBucket;
+    }
+    long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - 1);
+    return lowerBound + (1L << (exponent - 1)) - 1;
+  }
+}
@@ -0,0 +1,296 @@
+package client;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Drives a server with a mix of GET and PUT requests from several threads and connections, and
+ * reports throughput and latency percentiles.
+ *
+ * <p>Without a target rate the generator runs closed-loop: each thread sends its next request as
+ * soon as the previous one is answered. With a target rate, each thread sends on a fixed schedule
+ * and the latency of a request is measured from the time it was scheduled to be sent, not from
+ * when it was actually sent. A stall in the server then shows up in the latency of every request
+ * that should have been sent during the stall, instead of delaying those requests unseen; this
+ * corrects for what Gil Tene calls coordinated omission. The service time, measured from the
+ * actual send, is reported as well.
+ */
+public class LoadGenerator {
+  private static final ClientLogger logger = new ClientLogger();
+  private static final int PRELOAD_BATCH = 256;
+  private static final double[] PERCENTILES = {0, 50, 75, 90, 95, 99, 99.9, 99.99, 99.999};
+
+  private final Supplier<AbstractClient> clientFactory;
+  private int connections = 4;
+  private int threads = 4;
+  private double readRatio = 0.9;
+  private int keys = 100_000;
+  private boolean zipfian;
+  private double zipfianTheta = ZipfianGenerator.DEFAULT_THETA;
+  private long targetRate;
+  private long durationSeconds = 30;
+  private long warmupSeconds = 5;
+  private boolean preload = true;
+
+  /**
+   * Constructs a LoadGenerator.
+   *
+   * @param clientFactory Creates an unconnected client for each connection.
+   */
+  public LoadGenerator(Supplier<AbstractClient> clientFactory) {
+    this.clientFactory = clientFactory;
+  }
+
+  /**
+   * Sets the number of connections and the number of threads driving them. Each thread owns an
+   * equal share of the connections and sends its requests to them in turn.
+   *
+   * @param connections The number of connections.
+   * @param threads     The number of threads, at most the number of connections.
+   */
+  public void setConcurrency(int connections, int threads) {
+    if (threads < 1 || connections < threads) {
+      throw new IllegalArgumentException("Need at least one thread and one connection per thread");
+    }
+    this.connections = connections;
+    this.threads = threads;
+  }
+
+  /**
+   * Sets the share of requests that are GETs; the others are PUTs.
+   *
+   * @param readRatio The read share, between 0 and 1.
+   */
+  public void setReadRatio(double readRatio) {
+    if (readRatio < 0 || readRatio > 1) {
+      throw new IllegalArgumentException("Read ratio must be between 0 and 1: " + readRatio);
+    }
+    this.readRatio = readRatio;
+  }
+
+  /**
+   * Sets the key space and how requests are spread over it.
+   *
+   * @param keys        The number of distinct keys.
+   * @param zipfian     true to draw keys from a Zipfian distribution, false for uniform.
+   * @param zipfianTheta The skew of the Zipfian distribution.
+   */
+  public void setKeys(int keys, boolean zipfian, double zipfianTheta) {
+    if (keys < 1) {
+      throw new IllegalArgumentException("At least one key is required");
+    }
+    this.keys = keys;
+    this.zipfian = zipfian;
+    this.zipfianTheta = zipfianTheta;
+  }
+
+  /**
+   * Sets the total request rate over all threads, or 0 to run closed-loop.
+   *
+   * @param requestsPerSecond The target rate.
+   */
+  public void setTargetRate(long requestsPerSecond) {
+    this.targetRate = requestsPerSecond;
+  }
+
+  /**
+   * Sets how long the run lasts. Requests scheduled during the warm-up are sent but not counted.
+   *
+   * @param warmupSeconds   The warm-up before measuring.
+   * @param durationSeconds The measured period after the warm-up.
+   */
+  public void setDuration(long warmupSeconds, long durationSeconds) {
+    this.warmupSeconds = warmupSeconds;
+    this.durationSeconds = durationSeconds;
+  }
+
+  /**
+   * Selects whether every key is written once before the run, so that GETs find their keys.
+   *
+   * @param preload true to preload the keys.
+   */
+  public void setPreload(boolean preload) {
+    this.preload = preload;
+  }
+
+  /**
+   * Runs the load and prints the report to standard output.
+   *
+   * @throws IOException if a connection fails.
+   * @throws InterruptedException if interrupted while waiting for the threads.
+   */
+  public void run() throws IOException, InterruptedException {
+    List<AbstractClient> clients = new ArrayList<>(connections);
+    try {
+      for (int i = 0; i < connections; i++) {
+        AbstractClient client = clientFactory.get();
+        client.connect();
+        clients.add(client);
+      }
+      if (preload) {
+        preload(clients.get(0));
+      }
+      logger.info("Generating load: {}", describe());
+      Worker[] workers = new Worker[threads];
+      Thread[] workerThreads = new Thread[threads];
+      // The generator is read-only once built, so all threads share one instead of each
+      // summing the zeta series over the whole key space again.
+      ZipfianGenerator zipfianKeys = zipfian ? new ZipfianGenerator(keys, zipfianTheta) : null;
+      long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10);
+      for (int i = 0; i < threads; i++) {
+        List<AbstractClient> owned = new ArrayList<>();
+        for (int c = i; c < connections; c += threads) {
+          owned.add(clients.get(c));
+        }
+        workers[i] = new Worker(owned, zipfianKeys, startNanos);
+        workerThreads[i] = new Thread(workers[i], "load-" + i);
+        workerThreads[i].start();
+      }
+      LatencyRecorder responseTimes = new LatencyRecorder();
+      LatencyRecorder serviceTimes = new LatencyRecorder();
+      long errors = 0;
+      long measuredNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+      for (int i = 0; i < threads; i++) {
+        workerThreads[i].join();
+        if (workers[i].failure != null) {
+          throw workers[i].failure;
+        }
+        responseTimes.add(workers[i].responseTimes);
+        serviceTimes.add(workers[i].serviceTimes);
+        errors += workers[i].errors;
+        measuredNanos = Math.max(measuredNanos, workers[i].lastDoneNanos - workers[i].measureFromNanos);
+      }
+      printReport(responseTimes, serviceTimes, errors, measuredNanos);
+    } finally {
+      for (AbstractClient client : clients) {
+        client.disconnect();
+      }
+    }
+  }
+
+  private void preload(AbstractClient client) throws IOException {
+    logger.info("Preloading {} keys", keys);
+    Map<String, Integer> batch = new LinkedHashMap<>();
+    for (int i = 0; i < keys; i++) {
+      batch.put("key" + i, i);
+      if (batch.size() == PRELOAD_BATCH || i == keys - 1) {
+        client.sendMultiPut(batch);
+        batch.clear();
+      }
+    }
+  }
+
+  private String describe() {
+    return String.format(Locale.ROOT, "%d connections on %d threads, %.0f%% reads, %s keys over %,d, %s, "
+                    + "%d s after %d s warm-up",
+            connections, threads, readRatio * 100, zipfian ? "zipfian" : "uniform", keys,
+            targetRate > 0 ? String.format(Locale.ROOT, "target %,d req/s", targetRate) : "closed-loop",
+            durationSeconds, warmupSeconds);
+  }
+
+  private void printReport(LatencyRecorder responseTimes, LatencyRecorder serviceTimes, long errors,
+                           long measuredNanos) {
+    StringBuilder report = new StringBuilder();
+    report.append("Load: ").append(describe()).append('\n');
+    report.append(String.format(Locale.ROOT, "Throughput: %,.0f req/s (%,d requests, %,d errors)%n",
+            serviceTimes.count() * 1e9 / measuredNanos, serviceTimes.count(), errors));
+    if (targetRate > 0) {
+      appendPercentiles(report, "Response time from schedule (corrected for coordinated omission)", responseTimes);
+    }
+    appendPercentiles(report, "Service time", serviceTimes);
+    System.out.print(report);
+  }
+
+  private static void appendPercentiles(StringBuilder report, String title, LatencyRecorder recorder) {
+    report.append(title).append(", microseconds:\n");
+    for (double percentile : PERCENTILES) {
+      report.append(String.format(Locale.ROOT, "  p%-7s %12.1f%n",
+              percentile == (long) percentile ? String.valueOf((long) percentile) : String.valueOf(percentile),
+              recorder.percentile(percentile) / 1000.0));
+    }
+    report.append(String.format(Locale.ROOT, "  max      %12.1f%n", recorder.max() / 1000.0));
+    report.append(String.format(Locale.ROOT, "  mean     %12.1f%n", recorder.mean() / 1000.0));
+  }
+
+  private static boolean isError(String response) {
+    return response.startsWith("Error") || response.startsWith("Invalid operation")
+            || response.startsWith("Checksum mismatch") || response.startsWith("Unknown status");
+  }
+
+  /**
+   * Sends requests on the connections of one thread until the run ends.
+   */
+  private final class Worker implements Runnable {
+    private final List<AbstractClient> clients;
+    private final long startNanos;
+    private final long measureFromNanos;
+    private final ZipfianGenerator zipfianKeys;
+    private final LatencyRecorder responseTimes = new LatencyRecorder();
+    private final LatencyRecorder serviceTimes = new LatencyRecorder();
+    private long errors;
+    private long lastDoneNanos;
+    private IOException failure;
+
+    Worker(List<AbstractClient> clients, ZipfianGenerator zipfianKeys, long startNanos) {
+      this.clients = clients;
+      this.zipfianKeys = zipfianKeys;
+      this.startNanos = startNanos;
+      this.measureFromNanos = startNanos + TimeUnit.SECONDS.toNanos(warmupSeconds);
+    }
+
+    @Override
+    public void run() {
+      long intervalNanos = targetRate > 0 ? TimeUnit.SECONDS.toNanos(threads) / targetRate : 0;
+      long endNanos = measureFromNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      // Spread the schedules of the threads evenly over one interval.
+      long scheduledNanos = startNanos + random.nextLong(Math.max(1, intervalNanos));
+      try {
+        for (long n = 0; ; n++) {
+          long sentNanos = System.nanoTime();
+          if (intervalNanos > 0) {
+            while (sentNanos < scheduledNanos) {
+              LockSupport.parkNanos(scheduledNanos - sentNanos);
+              sentNanos = System.nanoTime();
+            }
+          } else {
+            scheduledNanos = sentNanos;
+          }
+          if (scheduledNanos >= endNanos) {
+            return;
+          }
+          int key = zipfianKeys != null ? zipfianKeys.next() : random.nextInt(keys);
+          String request = random.nextDouble() < readRatio ? "GET key" + key : "PUT key" + key + " " + random.nextInt();
+          AbstractClient client = clients.get((int) (n % clients.size()));
+          boolean failed;
+          try {
+            failed = isError(client.exchange(request));
+          } catch (SocketTimeoutException e) {
+            failed = true;
+          }
+          long doneNanos = System.nanoTime();
+          if (scheduledNanos >= measureFromNanos) {
+            responseTimes.record(doneNanos - scheduledNanos);
+            serviceTimes.record(doneNanos - sentNanos);
+            lastDoneNanos = doneNanos;
+            if (failed) {
+              errors++;
+            }
+          }
+          scheduledNanos += intervalNanos;
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+  }
+}
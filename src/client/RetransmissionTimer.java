@@ -0,0 +1,61 @@
+package client;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive retransmission timeout for UDP requests, estimated from measured round trips as TCP
+ * does (RFC 6298): {@code RTO = SRTT + 4 * RTTVAR}, clamped to
+ * [{@value #MIN_TIMEOUT_MILLIS}, {@value #MAX_TIMEOUT_MILLIS}] ms and doubled after every timeout
+ * until the next sample. Callers only sample requests that were sent once (Karn's algorithm), since
+ * the response to a retransmitted request cannot be matched to one particular send. Not thread-safe.
+ */
+final class RetransmissionTimer {
+
+  static final int MIN_TIMEOUT_MILLIS = 2;
+  static final int MAX_TIMEOUT_MILLIS = 2000;
+  static final int INITIAL_TIMEOUT_MILLIS = 200;
+
+  private long smoothedNanos = -1;
+  private long variationNanos;
+  private int backoff = 1;
+
+  /**
+   * Records the round trip of a request that was sent only once.
+   *
+   * @param rttNanos The time from sending the request to receiving its response.
+   */
+  void onSample(long rttNanos) {
+    if (smoothedNanos < 0) {
+      smoothedNanos = rttNanos;
+      variationNanos = rttNanos / 2;
+    } else {
+      variationNanos += (Math.abs(smoothedNanos - rttNanos) - variationNanos) / 4;
+      smoothedNanos += (rttNanos - smoothedNanos) / 8;
+    }
+    backoff = 1;
+  }
+
+  /**
+   * Doubles the timeout after a request timed out.
+   */
+  void onTimeout() {
+    if (timeoutMillis() < MAX_TIMEOUT_MILLIS) {
+      backoff *= 2;
+    }
+  }
+
+  /**
+   * Returns the current retransmission timeout.
+   *
+   * @return The timeout in milliseconds.
+   */
+  int timeoutMillis() {
+    long base = smoothedNanos < 0
+            ? INITIAL_TIMEOUT_MILLIS : divideRoundingUp(smoothedNanos + 4 * variationNanos, TimeUnit.MILLISECONDS.toNanos(1));
+    return (int) Math.min(MAX_TIMEOUT_MILLIS, Math.max(MIN_TIMEOUT_MILLIS, base) * backoff);
+  }
+
+  private static long divideRoundingUp(long dividend, long divisor) {
+    return (dividend + divisor - 1) / divisor;
+  }
+}
@@ -0,0 +1,316 @@
+package client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A client that spreads the keys over several servers. Each server node is reached through its
+ * own client, and every key is routed to one node with a {@link ConsistentHashRing}, so nodes can
+ * be added or removed while moving only a small share of the keys.
+ *
+ * <p>A request naming one key goes to the node of that key. A batch request (MPUT, MGET, MDELETE)
+ * is split into one batch per node; all parts are sent before any response is read, so the nodes
+ * work on them in parallel, and the responses are merged into one in the format of a single
+ * server. STATS, SNAPSHOT and PROMOTE go to every node and the responses are listed per node.
+ *
+ * <p>Like the clients of the single nodes, a ShardedClient is meant to be used by one thread.
+ */
+public class ShardedClient extends AbstractClient {
+  private static final ClientLogger logger = new ClientLogger();
+
+  private final ConsistentHashRing<AbstractClient> ring;
+  private final Map<String, AbstractClient> nodes = new LinkedHashMap<>();
+  private final List<Part> pending = new ArrayList<>();
+  private String pendingOperation;
+  private String[] pendingKeys;
+  private boolean connected;
+
+  /**
+   * The share of a request sent to one node.
+   */
+  private static final class Part {
+    final AbstractClient node;
+    final StringBuilder request;
+
+    Part(AbstractClient node, String request) {
+      this.node = node;
+      this.request = new StringBuilder(request);
+    }
+  }
+
+  /**
+   * Constructs a client over the given nodes with
+   * {@link ConsistentHashRing#DEFAULT_VIRTUAL_NODES} virtual nodes each.
+   * @param nodes The unconnected clients of the server nodes.
+   */
+  public ShardedClient(List<? extends AbstractClient> nodes) {
+    this(nodes, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+  }
+
+  /**
+   * Constructs a client over the given nodes.
+   * @param nodes        The unconnected clients of the server nodes.
+   * @param virtualNodes The number of points of each node on the hash ring.
+   */
+  public ShardedClient(List<? extends AbstractClient> nodes, int virtualNodes) {
+    super(describe(nodes));
+    this.ring = new ConsistentHashRing<>(virtualNodes);
+    for (AbstractClient node : nodes) {
+      this.nodes.put(node.serverEndpoint, node);
+      ring.add(node.serverEndpoint, node);
+    }
+  }
+
+  private static String describe(List<? extends AbstractClient> nodes) {
+    List<String> endpoints = new ArrayList<>(nodes.size());
+    for (AbstractClient node : nodes) {
+      endpoints.add(node.serverEndpoint);
+    }
+    return String.join(",", endpoints);
+  }
+
+  @Override
+  public void setBinaryProtocol(boolean binaryProtocol) {
+    super.setBinaryProtocol(binaryProtocol);
+    for (AbstractClient node : nodes.values()) {
+      node.setBinaryProtocol(binaryProtocol);
+    }
+  }
+
+  /**
+   * Adds a server node, connecting to it if this client is connected. Keys already stored on
+   * other nodes that now belong to the new node are not moved; callers that need them on the new
+   * node write them again.
+   * @param node The unconnected client of the server node.
+   * @throws IOException if the node cannot be connected.
+   */
+  public void addNode(AbstractClient node) throws IOException {
+    node.setBinaryProtocol(binaryProtocol);
+    if (connected) {
+      node.connect();
+    }
+    AbstractClient replaced = nodes.put(node.serverEndpoint, node);
+    ring.add(node.serverEndpoint, node);
+    if (replaced != null && connected) {
+      replaced.disconnect();
+    }
+    logger.info("Added node " + node.serverEndpoint + " to " + nodes.size() + " shards");
+  }
+
+  /**
+   * Removes a server node and disconnects from it. Its keys are routed to the remaining nodes.
+   * @param serverEndpoint The {@code host:port} of the node.
+   * @return true if the node was removed, false if there is no such node.
+   */
+  public boolean removeNode(String serverEndpoint) {
+    AbstractClient node = nodes.remove(serverEndpoint);
+    if (node == null) {
+      return false;
+    }
+    ring.remove(serverEndpoint);
+    if (connected) {
+      node.disconnect();
+    }
+    logger.info("Removed node " + serverEndpoint + ", " + nodes.size() + " shards left");
+    return true;
+  }
+
+  /**
+   * Returns the {@code host:port} of the node a key is routed to.
+   * @param key The key.
+   * @return The endpoint of the node, or null if there are no nodes.
+   */
+  public String nodeFor(String key) {
+    AbstractClient node = ring.nodeFor(key);
+    return node == null ? null : node.serverEndpoint;
+  }
+
+  @Override
+  public void connect() throws IOException {
+    for (AbstractClient node : nodes.values()) {
+      node.connect();
+    }
+    connected = true;
+    logger.info("Connected to " + nodes.size() + " shards: " + serverEndpoint);
+  }
+
+  @Override
+  public void disconnect() {
+    for (AbstractClient node : nodes.values()) {
+      node.disconnect();
+    }
+    connected = false;
+  }
+
+  /**
+   * Sends a request to the node of its key, or its parts to the nodes of their keys. The
+   * response is read with {@link #receiveResponse()}.
+   * @param request The request to be sent.
+   * @throws IOException if an I/O error occurs when sending the request.
+   */
+  @Override
+  public void sendRequest(String request) throws IOException {
+    if (nodes.isEmpty()) {
+      throw new IOException("No server nodes to send to");
+    }
+    pending.clear();
+    String[] parts = request.trim().split(" ");
+    pendingOperation = parts[0].toUpperCase();
+    pendingKeys = null;
+    switch (pendingOperation) {
+      case "MPUT":
+      case "MGET":
+      case "MDELETE":
+        int wordsPerKey = pendingOperation.equals("MPUT") ? 2 : 1;
+        if (parts.length > 1 && (parts.length - 1) % wordsPerKey == 0) {
+          split(parts, wordsPerKey);
+          break;
+        }
+        // A malformed batch goes whole to one node, which rejects it.
+        pending.add(new Part(ring.nodeFor(""), request));
+        break;
+      case "STATS":
+      case "SNAPSHOT":
+      case "PROMOTE":
+        for (AbstractClient node : nodes.values()) {
+          pending.add(new Part(node, request));
+        }
+        break;
+      default:
+        // PUT, GET, DELETE, EXPIRE and TTL name their key first; anything else is sent to some
+        // node for it to reject.
+        pending.add(new Part(ring.nodeFor(parts.length > 1 ? parts[1] : ""), request));
+        break;
+    }
+    for (int i = 0; i < pending.size(); i++) {
+      try {
+        pending.get(i).node.sendRequest(pending.get(i).request.toString());
+      } catch (IOException e) {
+        // Collect the responses of the parts already sent, so that their nodes stay in step.
+        pending.subList(i, pending.size()).clear();
+        try {
+          receiveAll();
+        } catch (IOException ignored) {
+          // The send failure is the one reported.
+        }
+        pending.clear();
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Groups the keys of a batch request, with their values for MPUT, by node.
+   */
+  private void split(String[] parts, int wordsPerKey) {
+    Map<AbstractClient, Part> byNode = new LinkedHashMap<>();
+    pendingKeys = new String[(parts.length - 1) / wordsPerKey];
+    for (int i = 0; i < pendingKeys.length; i++) {
+      int first = 1 + i * wordsPerKey;
+      pendingKeys[i] = parts[first];
+      Part part = byNode.computeIfAbsent(ring.nodeFor(parts[first]), node -> new Part(node, pendingOperation));
+      for (int word = first; word < first + wordsPerKey; word++) {
+        part.request.append(' ').append(parts[word]);
+      }
+    }
+    pending.addAll(byNode.values());
+  }
+
+  /**
+   * Receives the responses to the last request from every node it was sent to and merges them.
+   * @return The response, in the format a single server gives.
+   * @throws IOException if an I/O error occurs when receiving a response.
+   * @throws ClassNotFoundException if the class of a received object cannot be found.
+   */
+  @Override
+  public String receiveResponse() throws IOException, ClassNotFoundException {
+    String[] responses = receiveAll();
+    if (responses.length == 1 && pendingKeys == null) {
+      return responses[0];
+    }
+    if (pendingKeys == null) {
+      return listPerNode(responses);
+    }
+    return pendingOperation.equals("MGET") ? mergeValues(responses) : mergeCounts(responses);
+  }
+
+  /**
+   * Receives the response of every pending part. Reads them all even after a failure, so that no
+   * node is left with an unread response that would be taken for the next one.
+   */
+  private String[] receiveAll() throws IOException {
+    String[] responses = new String[pending.size()];
+    IOException failure = null;
+    for (int i = 0; i < responses.length; i++) {
+      try {
+        responses[i] = pending.get(i).node.receiveResponse();
+      } catch (IOException e) {
+        failure = failure == null ? e : failure;
+      } catch (ClassNotFoundException e) {
+        failure = failure == null ? new IOException(e) : failure;
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return responses;
+  }
+
+  /**
+   * Merges the responses to the parts of an MGET into one listing the keys in request order.
+   */
+  private String mergeValues(String[] responses) {
+    Map<String, String> values = new LinkedHashMap<>();
+    String prefix = null;
+    for (String response : responses) {
+      String[] words = response.split(" ");
+      int first = 0;
+      while (first < words.length && words[first].indexOf('=') < 0) {
+        first++;
+      }
+      if (first == words.length) {
+        // No key=value pairs: the node answered with an error.
+        return response;
+      }
+      prefix = prefix == null ? String.join(" ", List.of(words).subList(0, first)) : prefix;
+      for (int i = first; i < words.length; i++) {
+        int separator = words[i].lastIndexOf('=');
+        values.put(words[i].substring(0, separator), words[i].substring(separator + 1));
+      }
+    }
+    StringBuilder merged = new StringBuilder(prefix);
+    for (String key : pendingKeys) {
+      merged.append(' ').append(key).append('=').append(values.getOrDefault(key, "null"));
+    }
+    return merged.toString();
+  }
+
+  /**
+   * Merges the responses to the parts of an MPUT or MDELETE, which differ only in the number of
+   * keys they report, into one reporting the total. Responses that differ otherwise, such as an
+   * error from one node, are listed per node.
+   */
+  private String mergeCounts(String[] responses) {
+    String shape = responses[0].replaceAll("\\d+", "#");
+    for (String response : responses) {
+      if (!response.replaceAll("\\d+", "#").equals(shape)) {
+        return listPerNode(responses);
+      }
+    }
+    return responses[0].replaceFirst("\\d+", String.valueOf(pendingKeys.length));
+  }
+
+  private String listPerNode(String[] responses) {
+    StringBuilder listing = new StringBuilder();
+    for (int i = 0; i < responses.length; i++) {
+      if (i > 0) {
+        listing.append('\n');
+      }
+      listing.append(pending.get(i).node.serverEndpoint).append(": ").append(responses[i]);
+    }
+    return listing.toString();
+  }
+}
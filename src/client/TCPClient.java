@@ -1,19 +1,34 @@
 package client;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * TCPClient class represents a client using TCP protocol.
+ * In binary mode it negotiates the binary protocol right after connecting and then exchanges
+ * length-prefixed binary frames over buffered streams. Every binary request carries a request ID
+ * that the server echoes, which lets {@link #sendPipelined(List)} keep many requests in flight.
+ * The buffered streams are opened once per connection and reused by every request.
+ *
+ * <p>A TCPClient is not thread-safe; threads that share a server use a {@link TCPClientPool}.
  */
 public class TCPClient extends AbstractClient {
   private static final ClientLogger logger = new ClientLogger();
+  private static final int PIPELINE_WINDOW = 128;
 
   private Socket socket;
   private DataOutputStream outputStream;
   private DataInputStream inputStream;
+  private int nextRequestId;
+  private String lastRequest;
+  private boolean broken;
 
   /**
    * Constructs a TCPClient with the specified server host and port.
@@ -33,13 +48,34 @@ public class TCPClient extends AbstractClient {
     try {
       logger.info("Connecting to the socket");
       socket = new Socket(serverHost, serverPort);
+      socket.setTcpNoDelay(true);
+      outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
       logger.info("Connected to server "+ serverHost+":" +serverPort);
+      if (binaryProtocol) {
+        negotiateBinaryProtocol();
+      }
     } catch (IOException e) {
       logger.error("Error connecting to server "+serverHost+":"+ serverPort+"-"+ e.getMessage());
       throw e;
     }
   }
 
+  /**
+   * Asks the server to switch this connection to the binary protocol.
+   * @throws IOException if the server does not accept the binary protocol.
+   */
+  private void negotiateBinaryProtocol() throws IOException {
+    outputStream.writeLong(calculateChecksum(BinaryProtocol.HANDSHAKE));
+    outputStream.writeUTF(BinaryProtocol.HANDSHAKE);
+    outputStream.flush();
+    String response = inputStream.readUTF();
+    if (!BinaryProtocol.HANDSHAKE_ACCEPTED.equals(response)) {
+      throw new IOException("Server does not support the binary protocol: " + response);
+    }
+    logger.info("Using the binary protocol with server " + serverHost + ":" + serverPort);
+  }
+
   /**
    * Disconnects from the server.
    */
@@ -65,6 +101,33 @@ public class TCPClient extends AbstractClient {
     }
   }
 
+  /**
+   * Checks, without any I/O, whether the connection can carry another request: it is open, no
+   * exchange on it has failed, and no response is waiting unread, which would otherwise be taken
+   * for the response to the next request.
+   * @return true if the connection is usable.
+   */
+  boolean isUsable() {
+    try {
+      return !broken && socket != null && !socket.isClosed() && !socket.isInputShutdown()
+              && !socket.isOutputShutdown() && inputStream.available() == 0;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Sets how long a read of a response waits for the server before it fails.
+   * @param timeoutMillis The timeout in milliseconds, or 0 to wait indefinitely.
+   * @return The previous timeout.
+   * @throws IOException if the timeout cannot be set on the socket.
+   */
+  int setReadTimeout(int timeoutMillis) throws IOException {
+    int previous = socket.getSoTimeout();
+    socket.setSoTimeout(timeoutMillis);
+    return previous;
+  }
+
   /**
    * Sends a request to the server using TCP protocol.
    * @param request The request to be sent.
@@ -72,20 +135,89 @@ public class TCPClient extends AbstractClient {
    */
   @Override
   public void sendRequest(String request) throws IOException {
+    if (binaryProtocol) {
+      sendBinaryRequest(request);
+      return;
+    }
     try {
       // Calculate checksum for request string
       long checksum = calculateChecksum(request);
-      outputStream = new DataOutputStream(socket.getOutputStream());
+      // Buffer the checksum and the request so that the frame leaves in a single segment.
       outputStream.writeLong(checksum);
       outputStream.writeUTF(request);
       outputStream.flush();
-      logger.info("Request sent to server "+ serverHost+":"+ serverPort);
+      logger.debug("Request sent to server {}", serverEndpoint);
+    } catch (IOException e) {
+      broken = true;
+      logger.error("Error sending request to server " +serverHost+":"+ serverPort+"-"+ e.getMessage());
+      throw e;
+    }
+  }
+
+  private void sendBinaryRequest(String request) throws IOException {
+    try {
+      writeBinaryRequest(request);
+      outputStream.flush();
+      lastRequest = request;
+      logger.debug("Binary request sent to server {}", serverEndpoint);
     } catch (IOException e) {
+      broken = true;
       logger.error("Error sending request to server " +serverHost+":"+ serverPort+"-"+ e.getMessage());
       throw e;
     }
   }
 
+  /**
+   * Buffers one binary request frame tagged with the next request ID.
+   * @param request The text command to encode.
+   * @throws IOException if the request cannot be encoded or written.
+   */
+  private void writeBinaryRequest(String request) throws IOException {
+    ByteBuffer body = BinaryProtocol.encode(request);
+    outputStream.writeInt(body.remaining());
+    outputStream.writeInt(BinaryProtocol.checksum(body));
+    outputStream.writeInt(nextRequestId++);
+    outputStream.write(body.array(), 0, body.limit());
+  }
+
+  /**
+   * Sends the requests back-to-back without waiting for each response. Up to
+   * {@value #PIPELINE_WINDOW} requests are in flight at once, so neither side blocks on a full
+   * socket buffer, and responses are matched to requests by their request ID.
+   * Falls back to one request at a time with the text protocol, which carries no request IDs.
+   * @param requests The requests to be sent to the server.
+   * @return The responses, in the order of the requests.
+   * @throws IOException if an I/O error occurs or a response does not match an outstanding request.
+   */
+  @Override
+  public List<String> sendPipelined(List<String> requests) throws IOException {
+    if (!binaryProtocol) {
+      return super.sendPipelined(requests);
+    }
+    String[] responses = new String[requests.size()];
+    int firstRequestId = nextRequestId;
+    int sent = 0;
+    int received = 0;
+    try {
+      while (received < responses.length) {
+        if (sent < responses.length && sent - received <= PIPELINE_WINDOW / 2) {
+          while (sent < responses.length && sent - received < PIPELINE_WINDOW) {
+            writeBinaryRequest(requests.get(sent++));
+          }
+          outputStream.flush();
+        }
+        readBinaryResponse(responses, requests, firstRequestId);
+        received++;
+      }
+    } catch (IOException e) {
+      broken = true;
+      logger.error("Error in pipelined exchange with server " +serverHost+ ":"  + serverPort +" error:" + e.getMessage());
+      throw e;
+    }
+    logger.info("Pipelined " + responses.length + " requests to server " + serverHost + ":" + serverPort);
+    return Arrays.asList(responses);
+  }
+
   /**
    * Receives a response from the server using TCP protocol.
    * @return The response received from the server.
@@ -93,14 +225,58 @@ public class TCPClient extends AbstractClient {
    */
   @Override
   public String receiveResponse() throws IOException {
+    if (binaryProtocol) {
+      return receiveBinaryResponse();
+    }
     try {
-      inputStream = new DataInputStream(socket.getInputStream());
       String response = inputStream.readUTF();
-      logger.info("Response received from server "+serverHost+":"+serverPort+" Response: "+ response);
+      logger.debug("Response received from server {} Response: {}", serverEndpoint, response);
       return response;
     } catch (IOException e) {
+      broken = true;
       logger.error("Error receiving response from server " +serverHost+ ":"  + serverPort +" error:" + e.getMessage());
       throw e;
     }
   }
+
+  private String receiveBinaryResponse() throws IOException {
+    try {
+      String[] response = new String[1];
+      readBinaryResponse(response, List.of(lastRequest), nextRequestId - 1);
+      logger.debug("Response received from server {} Response: {}", serverEndpoint, response[0]);
+      return response[0];
+    } catch (IOException e) {
+      broken = true;
+      logger.error("Error receiving response from server " +serverHost+ ":"  + serverPort +" error:" + e.getMessage());
+      throw e;
+    }
+  }
+
+  /**
+   * Reads one binary response frame and stores it in the slot of its request.
+   * @param responses      The responses of the outstanding requests, indexed from the first request ID.
+   * @param requests       The outstanding requests, in the same order.
+   * @param firstRequestId The request ID of {@code responses[0]}.
+   * @throws IOException if the frame cannot be read or answers no outstanding request.
+   */
+  private void readBinaryResponse(String[] responses, List<String> requests, int firstRequestId)
+          throws IOException {
+    int length = inputStream.readInt();
+    int checksum = inputStream.readInt();
+    int requestId = inputStream.readInt();
+    if (length < 0 || length > BinaryProtocol.MAX_BODY_BYTES) {
+      throw new IOException("Invalid binary frame length " + length);
+    }
+    byte[] body = new byte[length];
+    inputStream.readFully(body);
+    int index = requestId - firstRequestId;
+    if (index < 0 || index >= responses.length || responses[index] != null) {
+      throw new IOException("Unexpected response for request ID " + requestId);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(body);
+    if (BinaryProtocol.checksum(buffer) != checksum) {
+      logger.error("Checksum validation failed. Response data may be corrupted.");
+    }
+    responses[index] = BinaryProtocol.describe(requests.get(index), buffer);
+  }
 }
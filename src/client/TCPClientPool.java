@@ -0,0 +1,267 @@
+package client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread-safe pool of {@link TCPClient} connections to one server, so that many application
+ * threads can drive the server concurrently over a bounded number of sockets.
+ *
+ * <p>A thread either calls {@link #send(String)} or {@link #sendPipelined(List)}, which borrow a
+ * connection for a single exchange, or borrows one with {@link #borrow()} for several exchanges
+ * and hands it back with {@link #release(TCPClient)}. At most the configured number of connections
+ * are open; borrowers wait for a free connection up to the borrow timeout. Connections are opened
+ * on demand and kept open between borrows, along with their buffered streams. The most recently
+ * returned connection is lent out first.
+ *
+ * <p>A connection is dropped instead of being returned to the pool when an exchange on it failed
+ * or a response is left unread on it. {@link #startHealthChecks(long)} additionally sends a GET
+ * over every idle connection periodically, which drops connections the server or a firewall has
+ * closed, or that leave a health check unanswered for two seconds, before an application
+ * thread runs into them.
+ */
+public class TCPClientPool implements AutoCloseable {
+  private static final ClientLogger logger = new ClientLogger();
+  private static final String HEALTH_CHECK_REQUEST = "GET __pool_health_check__";
+  private static final int HEALTH_CHECK_TIMEOUT_MILLIS = 2_000;
+
+  private final String serverHost;
+  private final int serverPort;
+  private final int maxConnections;
+  private final Semaphore permits;
+  private final Deque<TCPClient> idleConnections = new ConcurrentLinkedDeque<>();
+  private final AtomicInteger openConnections = new AtomicInteger();
+  private boolean binaryProtocol;
+  private long borrowTimeoutMillis = 5_000;
+  private ScheduledExecutorService healthChecker;
+  private volatile boolean closed;
+
+  /**
+   * Constructs an empty pool; connections are opened when first borrowed.
+   *
+   * @param serverHost     The host name of the server.
+   * @param serverPort     The port number of the server.
+   * @param maxConnections The maximum number of connections open at once.
+   */
+  public TCPClientPool(String serverHost, int serverPort, int maxConnections) {
+    if (maxConnections < 1) {
+      throw new IllegalArgumentException("A pool needs at least one connection");
+    }
+    this.serverHost = serverHost;
+    this.serverPort = serverPort;
+    this.maxConnections = maxConnections;
+    this.permits = new Semaphore(maxConnections, true);
+  }
+
+  /**
+   * Selects the binary protocol for the connections of this pool. Must be called before the first
+   * connection is borrowed.
+   *
+   * @param binaryProtocol true to use the binary protocol.
+   */
+  public void setBinaryProtocol(boolean binaryProtocol) {
+    this.binaryProtocol = binaryProtocol;
+  }
+
+  /**
+   * Sets how long {@link #borrow()} waits for a free connection when all are in use. Must be
+   * called before the first connection is borrowed.
+   *
+   * @param borrowTimeoutMillis The timeout in milliseconds.
+   */
+  public void setBorrowTimeoutMillis(long borrowTimeoutMillis) {
+    this.borrowTimeoutMillis = borrowTimeoutMillis;
+  }
+
+  /**
+   * Checks every idle connection with a GET request every {@code intervalMillis} milliseconds on
+   * a background thread, and drops those that do not answer.
+   *
+   * @param intervalMillis The check period.
+   */
+  public synchronized void startHealthChecks(long intervalMillis) {
+    if (healthChecker != null) {
+      throw new IllegalStateException("Health checks already started");
+    }
+    healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "tcp-pool-health-check");
+      thread.setDaemon(true);
+      return thread;
+    });
+    healthChecker.scheduleWithFixedDelay(this::checkIdleConnections, intervalMillis, intervalMillis,
+            TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Takes a connection out of the pool, opening a new one if none is idle and fewer than the
+   * maximum are open. The caller has exclusive use of it until it passes it to
+   * {@link #release(TCPClient)}, which it must do exactly once, also after a failed exchange.
+   *
+   * @return A connected client.
+   * @throws IOException if no connection became free within the borrow timeout, a new connection
+   *                     could not be opened, or the pool is closed.
+   */
+  public TCPClient borrow() throws IOException {
+    try {
+      if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new IOException("None of the " + maxConnections + " connections to " + serverHost + ":" + serverPort
+                + " became free within " + borrowTimeoutMillis + " ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a pooled connection");
+    }
+    try {
+      if (closed) {
+        throw new IOException("Connection pool to " + serverHost + ":" + serverPort + " is closed");
+      }
+      TCPClient client;
+      while ((client = idleConnections.pollFirst()) != null) {
+        if (client.isUsable()) {
+          return client;
+        }
+        discard(client);
+      }
+      client = new TCPClient(serverHost, serverPort);
+      client.setBinaryProtocol(binaryProtocol);
+      client.connect();
+      openConnections.incrementAndGet();
+      return client;
+    } catch (IOException | RuntimeException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Returns a borrowed connection to the pool, or closes it if it is no longer usable or the pool
+   * is closed.
+   *
+   * @param client A client obtained from {@link #borrow()}.
+   */
+  public void release(TCPClient client) {
+    if (closed || !client.isUsable()) {
+      discard(client);
+    } else {
+      idleConnections.offerFirst(client);
+    }
+    permits.release();
+  }
+
+  /**
+   * Sends one request over a pooled connection and waits for its response.
+   *
+   * @param request The request to be sent to the server.
+   * @return The response received from the server.
+   * @throws IOException if no connection is available or the exchange fails.
+   */
+  public String send(String request) throws IOException {
+    TCPClient client = borrow();
+    try {
+      return client.exchange(request);
+    } finally {
+      release(client);
+    }
+  }
+
+  /**
+   * Sends several requests over one pooled connection, pipelining them in binary mode.
+   *
+   * @param requests The requests to be sent to the server.
+   * @return The responses, in the order of the requests.
+   * @throws IOException if no connection is available or the exchange fails.
+   */
+  public List<String> sendPipelined(List<String> requests) throws IOException {
+    TCPClient client = borrow();
+    try {
+      return client.sendPipelined(requests);
+    } finally {
+      release(client);
+    }
+  }
+
+  /**
+   * Returns the number of connections currently open, whether idle or borrowed.
+   *
+   * @return The open connection count.
+   */
+  public int getOpenConnections() {
+    return openConnections.get();
+  }
+
+  /**
+   * Returns the number of open connections not currently borrowed.
+   *
+   * @return The idle connection count.
+   */
+  public int getIdleConnections() {
+    return idleConnections.size();
+  }
+
+  /**
+   * Closes the idle connections and stops health checks. Borrowed connections are closed when
+   * they are released.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    synchronized (this) {
+      if (healthChecker != null) {
+        healthChecker.shutdownNow();
+      }
+    }
+    TCPClient client;
+    while ((client = idleConnections.pollFirst()) != null) {
+      discard(client);
+    }
+  }
+
+  /**
+   * Checks the idle connections from the least recently used one, taking a permit for each so
+   * that the pool never holds more than its maximum while a connection is being checked.
+   */
+  private void checkIdleConnections() {
+    for (int checked = idleConnections.size(); checked > 0 && !closed; checked--) {
+      if (!permits.tryAcquire()) {
+        return;
+      }
+      TCPClient client = idleConnections.pollLast();
+      if (client == null) {
+        permits.release();
+        return;
+      }
+      boolean healthy = false;
+      try {
+        if (client.isUsable()) {
+          // Without a read timeout an unresponsive server would hold the checker and this permit forever.
+          int readTimeout = client.setReadTimeout(HEALTH_CHECK_TIMEOUT_MILLIS);
+          healthy = !client.exchange(HEALTH_CHECK_REQUEST).isEmpty();
+          client.setReadTimeout(readTimeout);
+        }
+      } catch (IOException e) {
+        healthy = false;
+      }
+      if (healthy) {
+        release(client);
+      } else {
+        logger.warn("Dropping a pooled connection to server " + serverHost + ":" + serverPort
+                + " that failed its health check");
+        discard(client);
+        permits.release();
+      }
+    }
+  }
+
+  private void discard(TCPClient client) {
+    openConnections.decrementAndGet();
+    client.disconnect();
+  }
+}
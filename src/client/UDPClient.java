@@ -4,14 +4,51 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import protocol.UdpFraming;
 
 /**
  * UDPClient class represents a client that communicates with a server using the UDP protocol.
  * It extends the AbstractClient class and implements the methods to connect, send requests, and receive responses.
+ * In binary mode every datagram is {@code [magic][int crc32c(body)][int requestId][body]}. In framed
+ * mode requests are packed several to a datagram and split over several datagrams when large (see
+ * {@link UdpFraming}), which lets {@link #sendPipelined(List)} send a whole batch in a few datagrams.
+ * The send and receive buffers are allocated once per client and reused.
+ *
+ * <p>In the binary and framed modes every request carries an ID, which the server echoes and uses to
+ * answer a retransmitted request from its dedupe window instead of applying it twice. A request
+ * that is not answered within the adaptive timeout of a {@link RetransmissionTimer} is sent again,
+ * up to {@value #MAX_ATTEMPTS} times, after which the exchange fails with a
+ * {@link SocketTimeoutException}. Responses to earlier requests or attempts are recognised by their
+ * ID and ignored. Text datagrams carry no ID and are never retransmitted.
  */
 public class UDPClient extends AbstractClient {
   private static final ClientLogger logger = new ClientLogger();
+  private static final int MAX_DATAGRAM_BYTES = 65_507;
+  private static final int PIPELINE_WINDOW_BYTES = 64 * 1024;
+  private static final int SOCKET_RECEIVE_BUFFER_BYTES = 1024 * 1024;
+  private static final int MAX_ATTEMPTS = 8;
   private DatagramSocket socket;
+  private InetSocketAddress serverAddress;
+  private String lastRequest;
+  private boolean framedProtocol;
+  private int nextMessageId = ThreadLocalRandom.current().nextInt();
+  private int lastMessageId;
+  private ByteBuffer lastBody;
+  private long lastSentNanos;
+  private long retransmissions;
+  private final RetransmissionTimer retransmissionTimer = new RetransmissionTimer();
+  private final byte[] receiveBuffer = new byte[MAX_DATAGRAM_BYTES];
+  private final ByteBuffer sendBuffer = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+  private final UdpFraming.Packer packer = new UdpFraming.Packer(ByteBuffer.allocate(UdpFraming.MAX_DATAGRAM_BYTES),
+          this::sendDatagram);
 
   /**
    * Constructs a UDPClient with the specified server host and port.
@@ -23,6 +60,19 @@ public class UDPClient extends AbstractClient {
     super(serverHost, serverPort);
   }
 
+  /**
+   * Selects the framed UDP mode, which implies the binary protocol. Must be called before
+   * {@link #connect()}.
+   *
+   * @param framedProtocol true to use the framed mode.
+   */
+  public void setFramedProtocol(boolean framedProtocol) {
+    this.framedProtocol = framedProtocol;
+    if (framedProtocol) {
+      binaryProtocol = true;
+    }
+  }
+
   /**
    * Connects the UDP client to the server.
    *
@@ -31,6 +81,10 @@ public class UDPClient extends AbstractClient {
   @Override
   public void connect() throws IOException {
     socket = new DatagramSocket();
+    if (framedProtocol) {
+      socket.setReceiveBufferSize(SOCKET_RECEIVE_BUFFER_BYTES);
+    }
+    serverAddress = new InetSocketAddress(InetAddress.getByName(serverHost), serverPort);
     logger.info("UDP client connected to server " + serverHost + ":" + serverPort);
   }
 
@@ -45,6 +99,15 @@ public class UDPClient extends AbstractClient {
     }
   }
 
+  /**
+   * Returns how many requests were sent again because their response did not arrive in time.
+   *
+   * @return The number of retransmissions since the client was created.
+   */
+  public long getRetransmissions() {
+    return retransmissions;
+  }
+
   /**
    * Sends a request to the server using UDP.
    *
@@ -54,17 +117,39 @@ public class UDPClient extends AbstractClient {
   @Override
   public void sendRequest(String request) throws IOException {
     try {
-      byte[] requestData = request.getBytes();
-      InetAddress serverAddress = InetAddress.getByName(serverHost);
-      DatagramPacket packet = new DatagramPacket(requestData, requestData.length, serverAddress, serverPort);
-      socket.send(packet);
-      logger.info("Request sent to server " + serverHost + ":" + serverPort);
+      lastRequest = request;
+      lastMessageId = nextMessageId++;
+      lastSentNanos = System.nanoTime();
+      if (framedProtocol) {
+        lastBody = BinaryProtocol.encode(request);
+        packer.add(lastMessageId, lastBody.duplicate());
+        packer.flush();
+      } else {
+        sendBuffer.clear();
+        if (binaryProtocol) {
+          ByteBuffer body = BinaryProtocol.encode(request);
+          sendBuffer.put(BinaryProtocol.UDP_MAGIC).putInt(BinaryProtocol.checksum(body)).putInt(lastMessageId)
+                  .put(body);
+        } else {
+          sendBuffer.put(request.getBytes());
+        }
+        // The buffer keeps the datagram, so a retransmission sends it again as it is.
+        sendDatagram(sendBuffer.flip());
+      }
+      logger.debug("Request sent to server {}", serverEndpoint);
+    } catch (BufferOverflowException e) {
+      logger.error("Request to server " + serverHost + ":" + serverPort + " does not fit one datagram");
+      throw new IOException("Request larger than " + MAX_DATAGRAM_BYTES + " bytes; use the framed mode", e);
     } catch (IOException e) {
       logger.error("Error sending request to server " + serverHost + ":" + serverPort + "-" + e.getMessage());
       throw e;
     }
   }
 
+  private void sendDatagram(ByteBuffer datagram) throws IOException {
+    socket.send(new DatagramPacket(datagram.array(), datagram.position(), datagram.remaining(), serverAddress));
+  }
+
   /**
    * Receives a response from the server using UDP.
    *
@@ -74,15 +159,197 @@ public class UDPClient extends AbstractClient {
   @Override
   public String receiveResponse() throws IOException {
     try {
-      byte[] responseData = new byte[1024];
-      DatagramPacket packet = new DatagramPacket(responseData, responseData.length);
-      socket.receive(packet);
-      logger.info("Response received from server " + serverHost + ":" + serverPort);
-
-      return new String(packet.getData(), 0, packet.getLength());
+      if (framedProtocol) {
+        FramedExchange exchange = new FramedExchange(List.of(lastRequest), lastMessageId);
+        exchange.sentNanos[0] = lastSentNanos;
+        exchange.requestBytes[0] = lastBody.remaining();
+        while (exchange.received < 1) {
+          if (!exchange.receiveDatagram()) {
+            exchange.retransmit(1);
+          }
+        }
+        return exchange.responses[0];
+      }
+      DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+      if (!binaryProtocol) {
+        socket.setSoTimeout(0);
+        socket.receive(packet);
+        logger.debug("Response received from server {}", serverEndpoint);
+        return new String(packet.getData(), 0, packet.getLength());
+      }
+      int attempts = 1;
+      while (true) {
+        socket.setSoTimeout(retransmissionTimer.timeoutMillis());
+        try {
+          socket.receive(packet);
+        } catch (SocketTimeoutException e) {
+          if (attempts++ == MAX_ATTEMPTS) {
+            throw new SocketTimeoutException("No response after " + MAX_ATTEMPTS + " attempts");
+          }
+          retransmissionTimer.onTimeout();
+          retransmissions++;
+          logger.warn("Retransmitting request " + lastMessageId + " to server " + serverHost + ":" + serverPort);
+          sendDatagram(sendBuffer);
+          continue;
+        }
+        ByteBuffer datagram = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+        if (datagram.remaining() >= BinaryProtocol.UDP_HEADER_BYTES && datagram.getInt(1 + Integer.BYTES) == lastMessageId) {
+          if (attempts == 1) {
+            retransmissionTimer.onSample(System.nanoTime() - lastSentNanos);
+          }
+          logger.debug("Response received from server {}", serverEndpoint);
+          return decodeBinaryResponse(lastRequest, datagram);
+        }
+      }
     } catch (IOException e) {
       logger.error("Error receiving response from server " + serverHost + ":" + serverPort + "-" + e.getMessage());
       throw e;
     }
   }
+
+  /**
+   * In framed mode, packs the requests into as few datagrams as possible and collects the
+   * responses by message ID. At most {@value #PIPELINE_WINDOW_BYTES} bytes of requests are in
+   * flight, so that a large batch does not overrun the server's socket buffer. Other modes send
+   * one request at a time.
+   *
+   * @param requests The requests to be sent to the server.
+   * @return The responses, in the order of the requests.
+   * @throws IOException if an I/O error occurs when sending or receiving data.
+   */
+  @Override
+  public List<String> sendPipelined(List<String> requests) throws IOException {
+    if (!framedProtocol) {
+      return super.sendPipelined(requests);
+    }
+    FramedExchange exchange = new FramedExchange(requests, nextMessageId);
+    nextMessageId += requests.size();
+    int sent = 0;
+    try {
+      while (exchange.received < requests.size()) {
+        if (sent < requests.size() && exchange.outstandingBytes <= PIPELINE_WINDOW_BYTES / 2) {
+          while (sent < requests.size() && exchange.outstandingBytes < PIPELINE_WINDOW_BYTES) {
+            ByteBuffer body = BinaryProtocol.encode(requests.get(sent));
+            exchange.requestBytes[sent] = body.remaining();
+            exchange.outstandingBytes += body.remaining();
+            exchange.sentNanos[sent] = System.nanoTime();
+            packer.add(exchange.firstMessageId + sent, body);
+            sent++;
+          }
+          packer.flush();
+        }
+        if (!exchange.receiveDatagram()) {
+          exchange.retransmit(sent);
+        }
+      }
+    } catch (IOException e) {
+      logger.error("Error in pipelined exchange with server " + serverHost + ":" + serverPort + "-" + e.getMessage());
+      throw e;
+    }
+    logger.info("Pipelined " + requests.size() + " requests to server " + serverHost + ":" + serverPort);
+    return Arrays.asList(exchange.responses);
+  }
+
+  private static String decodeBinaryResponse(String request, ByteBuffer datagram) throws IOException {
+    if (datagram.get() != BinaryProtocol.UDP_MAGIC) {
+      throw new IOException("Not a binary response");
+    }
+    int checksum = datagram.getInt();
+    ByteBuffer body = datagram.position(BinaryProtocol.UDP_HEADER_BYTES).slice();
+    if (BinaryProtocol.checksum(body) != checksum) {
+      logger.error("Checksum validation failed. Response data may be corrupted.");
+    }
+    return BinaryProtocol.describe(request, body);
+  }
+
+  /**
+   * The responses of a run of framed requests with consecutive message IDs, and the send times
+   * from which the retransmission timeout is estimated.
+   */
+  private final class FramedExchange {
+    private final List<String> requests;
+    private final int firstMessageId;
+    private final String[] responses;
+    private final int[] requestBytes;
+    private final long[] sentNanos;
+    private final boolean[] retransmitted;
+    private final UdpFraming.Reassembler reassembler = new UdpFraming.Reassembler(MAX_DATAGRAM_BYTES);
+    private int received;
+    private int outstandingBytes;
+    private int timeouts;
+
+    FramedExchange(List<String> requests, int firstMessageId) {
+      this.requests = requests;
+      this.firstMessageId = firstMessageId;
+      this.responses = new String[requests.size()];
+      this.requestBytes = new int[requests.size()];
+      this.sentNanos = new long[requests.size()];
+      this.retransmitted = new boolean[requests.size()];
+    }
+
+    /**
+     * Receives one datagram and records every response it completes. Responses to other
+     * message IDs, e.g. late answers to an earlier exchange, are ignored.
+     *
+     * @return false if no datagram arrived within the retransmission timeout.
+     * @throws IOException if the datagram cannot be received, or the timeout expired
+     *                     {@value #MAX_ATTEMPTS} times in a row.
+     */
+    boolean receiveDatagram() throws IOException {
+      DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+      socket.setSoTimeout(retransmissionTimer.timeoutMillis());
+      try {
+        socket.receive(packet);
+      } catch (SocketTimeoutException e) {
+        if (++timeouts == MAX_ATTEMPTS) {
+          throw new SocketTimeoutException((responses.length - received) + " of " + responses.length
+                  + " responses not received after " + MAX_ATTEMPTS + " attempts");
+        }
+        retransmissionTimer.onTimeout();
+        return false;
+      }
+      boolean valid = UdpFraming.forEachRecord(ByteBuffer.wrap(receiveBuffer, 0, packet.getLength()),
+              (messageId, fragmentIndex, fragmentCount, chunk) -> {
+                int index = messageId - firstMessageId;
+                if (index < 0 || index >= responses.length || responses[index] != null) {
+                  return;
+                }
+                ByteBuffer body = fragmentCount == 1
+                        ? chunk : reassembler.add(packet.getSocketAddress(), messageId, fragmentIndex, fragmentCount, chunk);
+                if (body != null) {
+                  responses[index] = BinaryProtocol.describe(requests.get(index), body);
+                  outstandingBytes -= requestBytes[index];
+                  received++;
+                  timeouts = 0;
+                  if (!retransmitted[index]) {
+                    retransmissionTimer.onSample(System.nanoTime() - sentNanos[index]);
+                  }
+                }
+              });
+      if (!valid) {
+        logger.error("Checksum validation failed. Response data may be corrupted.");
+      }
+      return true;
+    }
+
+    /**
+     * Sends every request that has been sent but not answered yet once more.
+     *
+     * @param sent The number of requests sent so far.
+     * @throws IOException if a datagram cannot be sent.
+     */
+    void retransmit(int sent) throws IOException {
+      int count = 0;
+      for (int index = 0; index < sent; index++) {
+        if (responses[index] == null) {
+          packer.add(firstMessageId + index, BinaryProtocol.encode(requests.get(index)));
+          retransmitted[index] = true;
+          count++;
+        }
+      }
+      packer.flush();
+      retransmissions += count;
+      logger.warn("Retransmitted " + count + " requests to server " + serverHost + ":" + serverPort);
+    }
+  }
 }
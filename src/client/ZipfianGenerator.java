@@ -0,0 +1,71 @@
+package client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Draws key indexes from a Zipfian distribution, so that a few keys receive most of the requests
+ * the way real caches and stores see them. Index 0 is the most popular key. This is the
+ * constant-time method of Gray et al., "Quickly Generating Billion-Record Synthetic Databases",
+ * also used by YCSB; only the constructor is linear in the number of keys. Instances are
+ * immutable and may be shared by any number of threads.
+ */
+public final class ZipfianGenerator {
+
+  /**
+   * The skew YCSB uses by default, under which about 20% of the keys receive 80% of the requests.
+   */
+  public static final double DEFAULT_THETA = 0.99;
+
+  private final int items;
+  private final double theta;
+  private final double zetaN;
+  private final double alpha;
+  private final double eta;
+
+  /**
+   * Constructs a generator over the indexes {@code 0} to {@code items - 1}.
+   *
+   * @param items The number of keys.
+   * @param theta The skew, greater than 0 and other than 1; larger values concentrate requests
+   *              on fewer keys.
+   */
+  public ZipfianGenerator(int items, double theta) {
+    if (items < 1) {
+      throw new IllegalArgumentException("At least one key is required");
+    }
+    if (theta <= 0 || theta == 1) {
+      throw new IllegalArgumentException("Zipfian skew must be positive and other than 1: " + theta);
+    }
+    this.items = items;
+    this.theta = theta;
+    this.zetaN = zeta(items, theta);
+    this.alpha = 1 / (1 - theta);
+    this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+  }
+
+  /**
+   * Draws the next key index.
+   *
+   * @return An index between 0 and the number of keys, exclusive.
+   */
+  public int next() {
+    double u = ThreadLocalRandom.current().nextDouble();
+    double uz = u * zetaN;
+    if (uz < 1) {
+      return 0;
+    }
+    if (uz < 1 + Math.pow(0.5, theta)) {
+      return Math.min(1, items - 1);
+    }
+    int index = (int) (items * Math.pow(eta * u - eta + 1, alpha));
+    return Math.min(index, items - 1);
+  }
+
+  private static double zeta(int items, double theta) {
+    double sum = 0;
+    for (int i = 1; i <= items; i++) {
+      sum += 1 / Math.pow(i, theta);
+    }
+    return sum;
+  }
+}
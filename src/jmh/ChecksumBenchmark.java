@@ -0,0 +1,78 @@
+package jmh;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.AbstractHandler;
+import server.BinaryProtocol;
+
+/**
+ * Cost of the request checksum: {@link AbstractHandler#calculateChecksum(String)}, which encodes
+ * the string to UTF-8 before running CRC32, against CRC32 and CRC32C over bytes
+ * that are already encoded, and {@link BinaryProtocol#checksum(ByteBuffer)} over a direct buffer.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChecksumBenchmark {
+
+  @Param({"16", "256", "4096"})
+  public int length;
+
+  private String request;
+  private byte[] bytes;
+  private ByteBuffer direct;
+
+  @Setup
+  public void setUp() {
+    StringBuilder builder = new StringBuilder("PUT ");
+    while (builder.length() < length) {
+      builder.append((char) ('a' + builder.length() % 26));
+    }
+    request = builder.substring(0, length);
+    bytes = request.getBytes(StandardCharsets.UTF_8);
+    direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+  }
+
+  @Benchmark
+  public long calculateChecksum() {
+    return AbstractHandler.calculateChecksum(request);
+  }
+
+  @Benchmark
+  public long crc32OfBytes() {
+    CRC32 crc32 = new CRC32();
+    crc32.update(bytes);
+    return crc32.getValue();
+  }
+
+  @Benchmark
+  public long crc32cOfBytes() {
+    CRC32C crc32c = new CRC32C();
+    crc32c.update(bytes);
+    return crc32c.getValue();
+  }
+
+  @Benchmark
+  public int binaryProtocolChecksum() {
+    return BinaryProtocol.checksum(direct);
+  }
+}
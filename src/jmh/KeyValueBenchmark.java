@@ -0,0 +1,77 @@
+package jmh;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.CompactStorageEngine;
+import server.HeapStorageEngine;
+import server.KeyValue;
+
+/**
+ * Throughput of {@link KeyValue} put, get and delete on a pre-populated store, for each storage
+ * engine and store size. The store is shared by all benchmark threads, so running with
+ * {@code -t 1}, {@code -t 4}, ... shows how the striped locks scale.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class KeyValueBenchmark {
+
+  @Param({"1000", "100000", "1000000"})
+  public int size;
+
+  @Param({"heap", "compact"})
+  public String engine;
+
+  private KeyValue store;
+  private String[] keys;
+
+  @Setup
+  public void populate() {
+    store = new KeyValue("compact".equals(engine) ? new CompactStorageEngine(size) : new HeapStorageEngine());
+    keys = new String[size];
+    for (int i = 0; i < size; i++) {
+      keys[i] = "key" + i;
+      store.put(keys[i], i);
+    }
+  }
+
+  private String randomKey() {
+    return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+  }
+
+  @Benchmark
+  public Integer get() {
+    return store.get(randomKey());
+  }
+
+  @Benchmark
+  public void put() {
+    store.put(randomKey(), ThreadLocalRandom.current().nextInt());
+  }
+
+  /**
+   * Deletes a key and puts it back, so that the store keeps its size during the measurement.
+   */
+  @Benchmark
+  public void deleteAndPut() {
+    String key = randomKey();
+    store.delete(key);
+    store.put(key, 1);
+  }
+}
@@ -0,0 +1,108 @@
+package jmh;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import server.AbstractHandler;
+import server.BinaryProtocol;
+import server.KeyValue;
+
+/**
+ * Cost of parsing and dispatching one request in {@link AbstractHandler}, without any network
+ * I/O: the text path through {@code handleRequest} and the binary path through
+ * {@code processBinaryRequest}. Server logging is left as configured, so run with the server
+ * logger at ERROR to measure the handler alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestHandlingBenchmark {
+
+  private DirectHandler handler;
+  private ByteBuffer binaryGet;
+  private ByteBuffer binaryPut;
+  private final ByteBuffer response = ByteBuffer.allocate(BinaryProtocol.RESPONSE_BUFFER_BYTES);
+
+  @Setup
+  public void setUp() {
+    handler = new DirectHandler(new KeyValue());
+    handler.handle("PUT key42 42");
+    binaryGet = encode(BinaryProtocol.OP_GET, "key42", null);
+    binaryPut = encode(BinaryProtocol.OP_PUT, "key42", 42);
+  }
+
+  @Benchmark
+  public void textGet(Blackhole blackhole) {
+    blackhole.consume(handler.handle("GET key42"));
+  }
+
+  @Benchmark
+  public void textPut(Blackhole blackhole) {
+    blackhole.consume(handler.handle("PUT key42 42"));
+  }
+
+  @Benchmark
+  public ByteBuffer binaryGet() {
+    return handler.handleBinary(binaryGet.rewind(), response);
+  }
+
+  @Benchmark
+  public ByteBuffer binaryPut() {
+    return handler.handleBinary(binaryPut.rewind(), response);
+  }
+
+  private static ByteBuffer encode(byte opcode, String key, Integer value) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer body = ByteBuffer.allocate(1 + Short.BYTES + keyBytes.length + (value == null ? 0 : Integer.BYTES));
+    body.put(opcode).putShort((short) keyBytes.length).put(keyBytes);
+    if (value != null) {
+      body.putInt(value);
+    }
+    return body.flip();
+  }
+
+  /**
+   * A handler without a transport that hands the response of {@code handleRequest} back to the caller.
+   */
+  private static final class DirectHandler extends AbstractHandler {
+    private String lastResponse;
+
+    DirectHandler(KeyValue keyValueStore) {
+      super(keyValueStore);
+    }
+
+    String handle(String request) {
+      handleRequest(request);
+      return lastResponse;
+    }
+
+    ByteBuffer handleBinary(ByteBuffer request, ByteBuffer response) {
+      return processBinaryRequest(request, response);
+    }
+
+    @Override
+    public void sendResponse(String response) {
+      lastResponse = response;
+    }
+
+    @Override
+    public void run() {
+    }
+  }
+}
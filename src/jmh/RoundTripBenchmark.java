@@ -0,0 +1,105 @@
+package jmh;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import client.AbstractClient;
+import client.TCPClient;
+import client.UDPClient;
+import server.AbstractHandler;
+import server.KeyValue;
+import server.NIOHandler;
+import server.TCPHandler;
+import server.UDPHandler;
+
+/**
+ * Latency of one GET round trip over loopback, from the client sending the request to the
+ * client decoding the response, for every server transport and wire protocol. Each benchmark
+ * thread uses its own client connection; the server and client loggers are raised to ERROR.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+  @Param({"tcp", "nio", "udp"})
+  public String transport;
+
+  @Param({"text", "binary"})
+  public String protocol;
+
+  private int port;
+
+  @Setup
+  public void startServer() throws Exception {
+    Configurator.setLevel("server.ServerLogger", Level.ERROR);
+    Configurator.setLevel("client.ClientLogger", Level.ERROR);
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    KeyValue store = new KeyValue();
+    store.put("key42", 42);
+    AbstractHandler handler;
+    switch (transport) {
+      case "nio":
+        handler = new NIOHandler(port, store, 1);
+        break;
+      case "udp":
+        handler = new UDPHandler(port, store);
+        break;
+      default:
+        handler = new TCPHandler(port, store);
+        break;
+    }
+    Thread serverThread = new Thread(handler, "jmh-server");
+    serverThread.setDaemon(true);
+    serverThread.start();
+    Thread.sleep(200);
+  }
+
+  /**
+   * One client connection per benchmark thread.
+   */
+  @State(Scope.Thread)
+  public static class Connection {
+    private AbstractClient client;
+
+    @Setup
+    public void connect(RoundTripBenchmark benchmark) throws IOException {
+      client = "udp".equals(benchmark.transport)
+              ? new UDPClient("localhost", benchmark.port) : new TCPClient("localhost", benchmark.port);
+      client.setBinaryProtocol("binary".equals(benchmark.protocol));
+      client.connect();
+    }
+
+    @TearDown
+    public void disconnect() {
+      client.disconnect();
+    }
+  }
+
+  @Benchmark
+  public String get(Connection connection) throws Exception {
+    connection.client.sendRequest("GET key42");
+    return connection.client.receiveResponse();
+  }
+}
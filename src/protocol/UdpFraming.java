@@ -0,0 +1,293 @@
+package protocol;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * The framed UDP mode of the binary protocol. A framed datagram is
+ * {@code [byte UDP_FRAMED_MAGIC][int crc32c(records)][records...]} and never exceeds
+ * {@link #MAX_DATAGRAM_BYTES}, a payload that fits the usual 1500 byte Ethernet MTU without IP
+ * fragmentation. Each record is
+ * {@code [int messageId][short fragmentIndex][short fragmentCount][short chunkLength][chunk]}.
+ *
+ * <p>Small messages (binary request or response bodies) are packed several to a datagram, so a
+ * batch of requests costs one send and one receive instead of one per request; a message larger
+ * than a datagram is split into fragments and reassembled by the receiver. Responses carry the
+ * message ID of their request.
+ *
+ * <p>Both ends pack and reassemble datagrams the same way, so the client and the server share
+ * this one implementation.
+ */
+public final class UdpFraming {
+
+  public static final byte UDP_FRAMED_MAGIC = (byte) 0xB2;
+  public static final int MAX_DATAGRAM_BYTES = 1472;
+  public static final int DATAGRAM_HEADER_BYTES = 1 + Integer.BYTES;
+  public static final int RECORD_HEADER_BYTES = Integer.BYTES + Short.BYTES * 3;
+  public static final int MAX_CHUNK_BYTES = MAX_DATAGRAM_BYTES - DATAGRAM_HEADER_BYTES - RECORD_HEADER_BYTES;
+
+  private static final ThreadLocal<CRC32C> CRC32C_PER_THREAD = ThreadLocal.withInitial(CRC32C::new);
+
+  private UdpFraming() {
+  }
+
+  /**
+   * Receives the datagrams completed by a {@link Packer}.
+   */
+  public interface DatagramSink {
+    /**
+     * Sends one datagram.
+     *
+     * @param datagram The datagram, from position to limit.
+     * @throws IOException if the datagram cannot be sent.
+     */
+    void send(ByteBuffer datagram) throws IOException;
+  }
+
+  /**
+   * Receives the records of a framed datagram.
+   */
+  public interface RecordVisitor {
+    /**
+     * Handles one record.
+     *
+     * @param messageId     The ID of the message the record belongs to.
+     * @param fragmentIndex The index of this fragment within the message.
+     * @param fragmentCount The number of fragments of the message.
+     * @param chunk         The bytes of this fragment, from position to limit.
+     * @throws IOException if handling the record fails.
+     */
+    void visit(int messageId, int fragmentIndex, int fragmentCount, ByteBuffer chunk) throws IOException;
+  }
+
+  /**
+   * Verifies the checksum of a framed datagram and passes each of its records to the visitor.
+   *
+   * @param datagram The datagram, from position to limit, starting with the magic byte.
+   * @param visitor  The visitor of the records.
+   * @return false if the datagram is corrupted or malformed.
+   * @throws IOException if the visitor fails.
+   */
+  public static boolean forEachRecord(ByteBuffer datagram, RecordVisitor visitor) throws IOException {
+    int start = datagram.position();
+    if (datagram.remaining() < DATAGRAM_HEADER_BYTES || datagram.get(start) != UDP_FRAMED_MAGIC) {
+      return false;
+    }
+    ByteBuffer records = datagram.duplicate().position(start + DATAGRAM_HEADER_BYTES);
+    if (checksum(records, records.position(), records.remaining()) != datagram.getInt(start + 1)) {
+      return false;
+    }
+    while (records.remaining() >= RECORD_HEADER_BYTES) {
+      int messageId = records.getInt();
+      int fragmentIndex = records.getShort() & 0xFFFF;
+      int fragmentCount = records.getShort() & 0xFFFF;
+      int chunkLength = records.getShort() & 0xFFFF;
+      if (chunkLength > records.remaining() || fragmentIndex >= fragmentCount) {
+        return false;
+      }
+      ByteBuffer chunk = records.slice(records.position(), chunkLength);
+      records.position(records.position() + chunkLength);
+      visitor.visit(messageId, fragmentIndex, fragmentCount, chunk);
+    }
+    return true;
+  }
+
+  /**
+   * Calculates the CRC32C checksum of a region of a buffer, as {@code BinaryProtocol.checksum}
+   * does for frames, leaving its position and limit unchanged.
+   */
+  private static int checksum(ByteBuffer buffer, int offset, int length) {
+    CRC32C crc32c = CRC32C_PER_THREAD.get();
+    crc32c.reset();
+    int position = buffer.position();
+    int limit = buffer.limit();
+    buffer.limit(offset + length).position(offset);
+    crc32c.update(buffer);
+    buffer.limit(limit).position(position);
+    return (int) crc32c.getValue();
+  }
+
+  /**
+   * Packs messages into framed datagrams, splitting those that do not fit into one. Not thread-safe.
+   */
+  public static final class Packer {
+    private final ByteBuffer datagram;
+    private final DatagramSink sink;
+
+    /**
+     * Constructs a Packer writing into the given buffer.
+     *
+     * @param buffer A buffer of at least {@link #MAX_DATAGRAM_BYTES}, reused for every datagram.
+     * @param sink   Where completed datagrams are sent.
+     */
+    public Packer(ByteBuffer buffer, DatagramSink sink) {
+      this.datagram = buffer;
+      this.sink = sink;
+      reset();
+    }
+
+    /**
+     * Adds a message, sending the current datagram first whenever the next fragment does not fit.
+     *
+     * @param messageId The message ID.
+     * @param message   The message, from position to limit.
+     * @throws IOException if a datagram cannot be sent.
+     */
+    public void add(int messageId, ByteBuffer message) throws IOException {
+      int fragmentCount = Math.max(1, (message.remaining() + MAX_CHUNK_BYTES - 1) / MAX_CHUNK_BYTES);
+      if (fragmentCount > 0xFFFF) {
+        throw new IOException("Message of " + message.remaining() + " bytes is too large");
+      }
+      for (int fragment = 0; fragment < fragmentCount; fragment++) {
+        int chunkLength = Math.min(MAX_CHUNK_BYTES, message.remaining());
+        if (datagram.position() + RECORD_HEADER_BYTES + chunkLength > MAX_DATAGRAM_BYTES) {
+          flush();
+        }
+        datagram.putInt(messageId).putShort((short) fragment).putShort((short) fragmentCount)
+                .putShort((short) chunkLength);
+        datagram.put(message.slice(message.position(), chunkLength));
+        message.position(message.position() + chunkLength);
+      }
+    }
+
+    /**
+     * Sends the current datagram if it holds any record.
+     *
+     * @throws IOException if the datagram cannot be sent.
+     */
+    public void flush() throws IOException {
+      if (datagram.position() == DATAGRAM_HEADER_BYTES) {
+        return;
+      }
+      int checksum = checksum(datagram, DATAGRAM_HEADER_BYTES, datagram.position() - DATAGRAM_HEADER_BYTES);
+      datagram.putInt(1, checksum).flip();
+      sink.send(datagram);
+      reset();
+    }
+
+    private void reset() {
+      datagram.clear();
+      datagram.put(UDP_FRAMED_MAGIC).putInt(0);
+    }
+  }
+
+  /**
+   * Collects the fragments of messages split over several datagrams. Incomplete messages are
+   * dropped once they are older than {@link #TIMEOUT_NANOS}, so lost fragments do not leak memory.
+   */
+  public static final class Reassembler {
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final int SWEEP_THRESHOLD = 1024;
+
+    private final ConcurrentHashMap<MessageKey, Partial> partials = new ConcurrentHashMap<>();
+    private final int maxMessageBytes;
+
+    /**
+     * Constructs a Reassembler.
+     *
+     * @param maxMessageBytes The largest message that may be reassembled.
+     */
+    public Reassembler(int maxMessageBytes) {
+      this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /**
+     * Adds one fragment.
+     *
+     * @param sender        The address the fragment came from.
+     * @param messageId     The message ID.
+     * @param fragmentIndex The index of the fragment.
+     * @param fragmentCount The number of fragments of the message.
+     * @param chunk         The bytes of the fragment.
+     * @return The complete message once its last fragment arrives, otherwise null.
+     * @throws IOException if the message would exceed the maximum size.
+     */
+    public ByteBuffer add(SocketAddress sender, int messageId, int fragmentIndex, int fragmentCount, ByteBuffer chunk)
+            throws IOException {
+      if ((long) fragmentCount * MAX_CHUNK_BYTES > maxMessageBytes + (long) MAX_CHUNK_BYTES) {
+        throw new IOException("Fragmented message of " + fragmentCount + " fragments is too large");
+      }
+      if (partials.size() > SWEEP_THRESHOLD) {
+        long now = System.nanoTime();
+        partials.values().removeIf(partial -> now - partial.createdNanos > TIMEOUT_NANOS);
+      }
+      MessageKey key = new MessageKey(sender, messageId);
+      Partial partial = partials.computeIfAbsent(key, k -> new Partial(fragmentCount));
+      ByteBuffer message;
+      synchronized (partial) {
+        message = partial.add(fragmentIndex, chunk);
+      }
+      if (message != null) {
+        partials.remove(key, partial);
+      }
+      return message;
+    }
+  }
+
+  private static final class Partial {
+    private final byte[][] chunks;
+    private final long createdNanos = System.nanoTime();
+    private int received;
+    private int bytes;
+
+    Partial(int fragmentCount) {
+      chunks = new byte[fragmentCount][];
+    }
+
+    ByteBuffer add(int fragmentIndex, ByteBuffer chunk) {
+      if (fragmentIndex >= chunks.length || chunks[fragmentIndex] != null) {
+        return null;
+      }
+      byte[] copy = new byte[chunk.remaining()];
+      chunk.get(copy);
+      chunks[fragmentIndex] = copy;
+      bytes += copy.length;
+      if (++received < chunks.length) {
+        return null;
+      }
+      ByteBuffer message = ByteBuffer.allocate(bytes);
+      for (byte[] part : chunks) {
+        message.put(part);
+      }
+      return message.flip();
+    }
+  }
+
+  /**
+   * Identifies a message by its sender and message ID.
+   */
+  public static final class MessageKey {
+    private final SocketAddress sender;
+    private final int messageId;
+
+    /**
+     * Constructs the key of a message.
+     *
+     * @param sender    The address the message came from.
+     * @param messageId The message ID.
+     */
+    public MessageKey(SocketAddress sender, int messageId) {
+      this.sender = sender;
+      this.messageId = messageId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof MessageKey)) {
+        return false;
+      }
+      MessageKey key = (MessageKey) other;
+      return messageId == key.messageId && sender.equals(key.sender);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(sender, messageId);
+    }
+  }
+}
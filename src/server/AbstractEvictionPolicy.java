@@ -0,0 +1,78 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * The part of an {@link EvictionPolicy} common to the CLOCK-based policies: an index from key to
+ * {@link ClockRing.Node}, which readers look up without locking to set the reference bit.
+ */
+abstract class AbstractEvictionPolicy implements EvictionPolicy {
+  protected final long maximumWeight;
+  protected final ToLongFunction<String> weigher;
+  protected final Map<String, ClockRing.Node> nodes = new ConcurrentHashMap<>();
+
+  /**
+   * Constructs a policy.
+   *
+   * @param maximumWeight The total weight the keys may have.
+   * @param weigher       The weight of a key, such as {@link EvictionPolicy#ENTRIES}.
+   */
+  protected AbstractEvictionPolicy(long maximumWeight, ToLongFunction<String> weigher) {
+    if (maximumWeight < 1) {
+      throw new IllegalArgumentException("Maximum weight must be positive: " + maximumWeight);
+    }
+    this.maximumWeight = maximumWeight;
+    this.weigher = weigher;
+  }
+
+  @Override
+  public void recordAccess(String key) {
+    ClockRing.Node node = nodes.get(key);
+    if (node != null) {
+      node.reference();
+    }
+  }
+
+  @Override
+  public void recordWrite(String key) {
+    ClockRing.Node node = nodes.get(key);
+    if (node != null) {
+      node.reference();
+      return;
+    }
+    node = new ClockRing.Node(key, weigher.applyAsLong(key));
+    nodes.put(key, node);
+    admit(node);
+  }
+
+  @Override
+  public void recordRemoval(String key) {
+    ClockRing.Node node = nodes.remove(key);
+    if (node != null && node.ring() != null) {
+      node.ring().remove(node);
+    }
+  }
+
+  /**
+   * Removes an entry chosen for eviction from the index and its ring.
+   *
+   * @param node The entry.
+   * @return The key of the entry.
+   */
+  protected String forget(ClockRing.Node node) {
+    nodes.remove(node.key);
+    if (node.ring() != null) {
+      node.ring().remove(node);
+    }
+    return node.key;
+  }
+
+  /**
+   * Places a new entry in the rings of the policy.
+   *
+   * @param node The entry.
+   */
+  protected abstract void admit(ClockRing.Node node);
+}
@@ -1,5 +1,11 @@
 package server;
 
+import java.io.UTFDataFormatException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.CRC32;
 
 /**
@@ -8,7 +14,12 @@ import java.util.zip.CRC32;
  */
 public abstract class AbstractHandler implements Runnable {
   protected KeyValue keyValueStore;
+  protected final ServerMetrics metrics;
+  private SnapshotManager snapshotManager;
+  private volatile ReplicationReplica replica;
   private static final ServerLogger logger = new ServerLogger();
+  private static final String INVALID_OPERATION =
+          "Invalid operation. Must be one of (PUT, GET, DELETE, MPUT, MGET, MDELETE, EXPIRE, TTL, SNAPSHOT, STATS, PROMOTE)";
 
   /**
    * Constructs an AbstractHandler with the specified key-value store.
@@ -17,6 +28,35 @@ public abstract class AbstractHandler implements Runnable {
    */
   public AbstractHandler(KeyValue keyValueStore) {
     this.keyValueStore = keyValueStore;
+    this.metrics = new ServerMetrics(keyValueStore::size);
+  }
+
+  /**
+   * Returns the request counters and latency histograms of this handler.
+   *
+   * @return The metrics.
+   */
+  public ServerMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Enables the SNAPSHOT admin command, which starts a background snapshot of the store.
+   *
+   * @param snapshotManager The snapshot manager of the store.
+   */
+  public void setSnapshotManager(SnapshotManager snapshotManager) {
+    this.snapshotManager = snapshotManager;
+  }
+
+  /**
+   * Makes this handler serve a replica: writes are rejected while the replica follows its
+   * primary, and the PROMOTE admin command makes the server a writable primary.
+   *
+   * @param replica The replication link of the server.
+   */
+  public void setReplica(ReplicationReplica replica) {
+    this.replica = replica;
   }
 
   /**
@@ -39,10 +79,52 @@ public abstract class AbstractHandler implements Runnable {
    */
   public static long calculateChecksum(String data) {
     CRC32 crc32 = new CRC32();
-    crc32.update(data.getBytes());
+    crc32.update(data.getBytes(StandardCharsets.UTF_8));
     return crc32.getValue();
   }
 
+  /**
+   * Returns the number of bytes {@link java.io.DataOutputStream#writeUTF(String)} writes for the
+   * given string, including its two-byte length prefix, without encoding it.
+   *
+   * @param data The string.
+   * @return The encoded length in bytes.
+   */
+  protected static int writeUtfLength(String data) {
+    int length = Short.BYTES;
+    for (int i = 0; i < data.length(); i++) {
+      char c = data.charAt(i);
+      length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+    }
+    return length;
+  }
+
+  /**
+   * Encodes a string into a buffer exactly as {@link java.io.DataOutputStream#writeUTF(String)}
+   * would, without an intermediate byte array.
+   *
+   * @param buffer The buffer, with at least {@link #writeUtfLength(String)} bytes remaining.
+   * @param data   The string.
+   * @throws UTFDataFormatException if the encoded string is longer than 65535 bytes.
+   */
+  protected static void putUtf(ByteBuffer buffer, String data) throws UTFDataFormatException {
+    int length = writeUtfLength(data) - Short.BYTES;
+    if (length > 0xFFFF) {
+      throw new UTFDataFormatException("Encoded string too long: " + length + " bytes");
+    }
+    buffer.putShort((short) length);
+    for (int i = 0; i < data.length(); i++) {
+      char c = data.charAt(i);
+      if (c >= 0x0001 && c <= 0x007F) {
+        buffer.put((byte) c);
+      } else if (c <= 0x07FF) {
+        buffer.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+      } else {
+        buffer.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
   /**
    * Handles the incoming request by parsing the request string,
    * extracting the operation and data, and performing the corresponding action on the key-value store.
@@ -50,42 +132,439 @@ public abstract class AbstractHandler implements Runnable {
    * @param requestData The request data string received from the client.
    */
   protected void handleRequest(String requestData) {
+    sendResponse(processRequest(requestData));
+  }
+
+  /**
+   * Parses the request string, performs the corresponding action on the key-value store
+   * and returns the response message instead of sending it. Handlers that track several
+   * clients at once (e.g. the NIO event loops) use this to route the reply themselves.
+   *
+   * @param requestData The request data string received from the client.
+   * @return The response message for the client.
+   */
+  protected String processRequest(String requestData) {
     // Parse the request and extract the operation (PUT, GET, DELETE) and data (key, value)
     String requestString = requestData.trim();
     String[] parts = requestString.split(" ");
     String operation = parts[0];
-    String key = parts[1];
-    String value = parts.length > 2 ? parts[2] : null;
+    boolean logged = logger.isRequestSampled(operation);
+    long startNanos = System.nanoTime();
+    String response;
 
     try {
+      if ("SNAPSHOT".equals(operation)) {
+        return processSnapshot();
+      }
+      if ("STATS".equals(operation)) {
+        return metrics.report();
+      }
+      if ("PROMOTE".equals(operation)) {
+        return processPromote();
+      }
+      if (isWrite(operation) && isReadOnly()) {
+        response = readOnlyError();
+        metrics.recordError();
+        logger.error(response);
+        return response;
+      }
+      if (operation.startsWith("M")) {
+        return processBatch(operation, parts, logged, startNanos);
+      }
+      String key = parts[1];
+      String value = parts.length > 2 ? parts[2] : null;
       switch (operation) {
         case "PUT":
           int putValue = Integer.parseInt(value);
-          keyValueStore.put(key, putValue);
-          sendResponse("Inserted Key & value using PUT: " + "Key: " + key + " Value: " + putValue);
-          logger.info("Inserted Key & value using PUT: " + "Key: " + key + " Value: " + putValue);
+          if (parts.length > 3) {
+            long ttlMillis = parseTtl(parts);
+            keyValueStore.put(key, putValue, ttlMillis);
+            response = "Inserted Key & value using PUT: " + "Key: " + key + " Value: " + putValue
+                    + " TTL (ms): " + ttlMillis;
+          } else {
+            keyValueStore.put(key, putValue);
+            response = "Inserted Key & value using PUT: " + "Key: " + key + " Value: " + putValue;
+          }
+          metrics.recordLatency(ServerMetrics.Operation.PUT, startNanos);
+          if (logged) {
+            logger.info(response);
+          }
           break;
         case "GET":
           Integer retrievedValue = keyValueStore.get(key);
-          sendResponse("Retrieved Key value using GET: " + "Key: " + key + " Value: " + retrievedValue);
-          logger.info("Retrieved Key value using GET: " + "Key: " + key + " Value: " + retrievedValue);
+          response = "Retrieved Key value using GET: " + "Key: " + key + " Value: " + retrievedValue;
+          metrics.recordLatency(ServerMetrics.Operation.GET, startNanos);
+          if (logged) {
+            logger.info(response);
+          }
           break;
         case "DELETE":
           keyValueStore.delete(key);
-          sendResponse("Deletion of  Key Successful: " + "Key: " + key);
-          logger.info("Deletion of  Key Successful: " + "Key: " + key);
+          response = "Deletion of  Key Successful: " + "Key: " + key;
+          metrics.recordLatency(ServerMetrics.Operation.DELETE, startNanos);
+          if (logged) {
+            logger.info(response);
+          }
+          break;
+        case "EXPIRE":
+          long seconds = Long.parseLong(value);
+          if (keyValueStore.expire(key, TimeUnit.SECONDS.toMillis(seconds))) {
+            response = "Set expiry using EXPIRE: " + "Key: " + key + " Seconds: " + seconds;
+          } else {
+            response = "Key not found for EXPIRE: " + "Key: " + key;
+          }
+          metrics.recordLatency(ServerMetrics.Operation.EXPIRE, startNanos);
+          if (logged) {
+            logger.info(response);
+          }
+          break;
+        case "TTL":
+          response = "Retrieved TTL using TTL: " + "Key: " + key + " Seconds: " + ttlSeconds(keyValueStore.ttl(key));
+          metrics.recordLatency(ServerMetrics.Operation.TTL, startNanos);
+          if (logged) {
+            logger.info(response);
+          }
           break;
         default:
           // Handle invalid operation
-          sendResponse("Invalid operation. Must be one of (PUT, GET, DELETE)");
-          logger.error("Invalid operation. Must be one of (PUT, GET, DELETE)");
+          response = INVALID_OPERATION;
+          metrics.recordError();
+          logger.error(response);
           break;
       }
     } catch (Exception e) {
       // Handle exceptions
       e.printStackTrace();
-      sendResponse("Error processing request: " + e.getMessage());
-      logger.error("Error processing request: " + e.getMessage());
+      response = "Error processing request: " + e.getMessage();
+      metrics.recordError();
+      logger.error(response);
+    }
+    return response;
+  }
+
+  /**
+   * Parses the {@code EX seconds} or {@code PX milliseconds} option of {@code PUT key value EX seconds}.
+   *
+   * @param parts The request split into words.
+   * @return The time to live in milliseconds.
+   */
+  private static long parseTtl(String[] parts) {
+    if (parts.length != 5) {
+      throw new IllegalArgumentException("PUT expects key value [EX seconds|PX milliseconds]");
+    }
+    long ttl = Long.parseLong(parts[4]);
+    switch (parts[3].toUpperCase()) {
+      case "EX":
+        return TimeUnit.SECONDS.toMillis(ttl);
+      case "PX":
+        return ttl;
+      default:
+        throw new IllegalArgumentException("Unknown PUT option " + parts[3] + ". Must be one of (EX, PX)");
+    }
+  }
+
+  /**
+   * Converts the result of {@link KeyValue#ttl(String)} to whole seconds, rounding up so that a key
+   * that still exists never reports 0, and keeping the negative markers.
+   *
+   * @param ttlMillis The remaining time in milliseconds, or a negative marker.
+   * @return The remaining time in seconds, or the marker.
+   */
+  private static long ttlSeconds(long ttlMillis) {
+    return ttlMillis < 0 ? ttlMillis : (ttlMillis + 999) / 1000;
+  }
+
+  /**
+   * Handles the batch commands {@code MPUT k1 v1 k2 v2 ...}, {@code MGET k1 k2 ...} and
+   * {@code MDELETE k1 k2 ...}, each applied to the store in a single pass.
+   *
+   * @param operation The batch operation.
+   * @param parts     The request split into words, starting with the operation.
+   * @param logged     Whether the request is sampled for logging.
+   * @param startNanos The time at which handling of the request started.
+   * @return The combined response message for the client.
+   */
+  private String processBatch(String operation, String[] parts, boolean logged, long startNanos) {
+    String response;
+    switch (operation) {
+      case "MPUT":
+        if (parts.length < 3 || parts.length % 2 == 0) {
+          throw new IllegalArgumentException("MPUT expects key value pairs");
+        }
+        String[] keys = new String[parts.length / 2];
+        int[] values = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+          keys[i] = parts[1 + 2 * i];
+          values[i] = Integer.parseInt(parts[2 + 2 * i]);
+        }
+        keyValueStore.putAll(keys, values);
+        response = "Inserted " + keys.length + " Keys & values using MPUT";
+        metrics.recordLatency(ServerMetrics.Operation.MPUT, startNanos);
+        if (logged) {
+          logger.info(response);
+        }
+        break;
+      case "MGET":
+        String[] getKeys = Arrays.copyOfRange(parts, 1, parts.length);
+        Integer[] retrievedValues = keyValueStore.getAll(getKeys);
+        StringBuilder builder = new StringBuilder("Retrieved Key values using MGET:");
+        for (int i = 0; i < getKeys.length; i++) {
+          builder.append(' ').append(getKeys[i]).append('=').append(retrievedValues[i]);
+        }
+        response = builder.toString();
+        metrics.recordLatency(ServerMetrics.Operation.MGET, startNanos);
+        if (logged) {
+          logger.info("Retrieved {} Key values using MGET", getKeys.length);
+        }
+        break;
+      case "MDELETE":
+        String[] deleteKeys = Arrays.copyOfRange(parts, 1, parts.length);
+        keyValueStore.deleteAll(deleteKeys);
+        response = "Deletion of " + deleteKeys.length + " Keys Successful using MDELETE";
+        metrics.recordLatency(ServerMetrics.Operation.MDELETE, startNanos);
+        if (logged) {
+          logger.info(response);
+        }
+        break;
+      default:
+        response = INVALID_OPERATION;
+        metrics.recordError();
+        logger.error(response);
+        break;
+    }
+    return response;
+  }
+
+  /**
+   * Handles one request of the binary protocol. The request body is read from the position to
+   * the limit of {@code request}; the response body is written into {@code response}, or into a
+   * larger buffer if a batch response does not fit. See {@link BinaryProtocol} for the encoding.
+   *
+   * @param request  The request body.
+   * @param response A buffer of at least {@link BinaryProtocol#RESPONSE_BUFFER_BYTES} for the response body.
+   * @return The buffer holding the response body, flipped and ready to be sent.
+   */
+  protected ByteBuffer processBinaryRequest(ByteBuffer request, ByteBuffer response) {
+    response.clear();
+    long startNanos = System.nanoTime();
+    try {
+      byte opcode = request.get();
+      if (isWrite(opcode) && isReadOnly()) {
+        binaryError(response, readOnlyError());
+        return response.flip();
+      }
+      switch (opcode) {
+        case BinaryProtocol.OP_PUT: {
+          String key = readKey(request);
+          int value = request.getInt();
+          if (request.remaining() >= Long.BYTES) {
+            keyValueStore.put(key, value, request.getLong());
+          } else {
+            keyValueStore.put(key, value);
+          }
+          response.put(BinaryProtocol.STATUS_OK);
+          metrics.recordLatency(ServerMetrics.Operation.PUT, startNanos);
+          break;
+        }
+        case BinaryProtocol.OP_GET:
+          putValue(response, lookUp(request));
+          metrics.recordLatency(ServerMetrics.Operation.GET, startNanos);
+          break;
+        case BinaryProtocol.OP_DELETE:
+          keyValueStore.delete(readKey(request));
+          response.put(BinaryProtocol.STATUS_OK);
+          metrics.recordLatency(ServerMetrics.Operation.DELETE, startNanos);
+          break;
+        case BinaryProtocol.OP_MPUT: {
+          String[] keys = new String[request.getShort() & 0xFFFF];
+          int[] values = new int[keys.length];
+          for (int i = 0; i < keys.length; i++) {
+            keys[i] = readKey(request);
+            values[i] = request.getInt();
+          }
+          keyValueStore.putAll(keys, values);
+          response.put(BinaryProtocol.STATUS_OK);
+          metrics.recordLatency(ServerMetrics.Operation.MPUT, startNanos);
+          break;
+        }
+        case BinaryProtocol.OP_MGET: {
+          int keyCount = request.getShort() & 0xFFFF;
+          int responseBytes = 1 + Short.BYTES + keyCount * (1 + Integer.BYTES);
+          if (responseBytes > BinaryProtocol.MAX_RESPONSE_BYTES) {
+            binaryError(response, "Too many keys for one MGET: " + keyCount);
+            break;
+          }
+          if (responseBytes > response.capacity()) {
+            response = ByteBuffer.allocate(responseBytes);
+          }
+          response.put(BinaryProtocol.STATUS_OK).putShort((short) keyCount);
+          for (int i = 0; i < keyCount; i++) {
+            putValue(response, lookUp(request));
+          }
+          metrics.recordLatency(ServerMetrics.Operation.MGET, startNanos);
+          break;
+        }
+        case BinaryProtocol.OP_MDELETE:
+          keyValueStore.deleteAll(readKeys(request));
+          response.put(BinaryProtocol.STATUS_OK);
+          metrics.recordLatency(ServerMetrics.Operation.MDELETE, startNanos);
+          break;
+        case BinaryProtocol.OP_STATS: {
+          byte[] report = metrics.report().getBytes(StandardCharsets.UTF_8);
+          if (1 + report.length > response.capacity()) {
+            response = ByteBuffer.allocate(1 + report.length);
+          }
+          response.put(BinaryProtocol.STATUS_OK).put(report);
+          break;
+        }
+        case BinaryProtocol.OP_EXPIRE: {
+          boolean found = keyValueStore.expire(readKey(request), request.getLong());
+          response.put(found ? BinaryProtocol.STATUS_OK : BinaryProtocol.STATUS_NOT_FOUND);
+          metrics.recordLatency(ServerMetrics.Operation.EXPIRE, startNanos);
+          break;
+        }
+        case BinaryProtocol.OP_TTL: {
+          long ttlMillis = keyValueStore.ttl(readKey(request));
+          if (ttlMillis == KeyValue.TTL_MISSING) {
+            response.put(BinaryProtocol.STATUS_NOT_FOUND);
+          } else {
+            response.put(BinaryProtocol.STATUS_OK).putLong(ttlMillis);
+          }
+          metrics.recordLatency(ServerMetrics.Operation.TTL, startNanos);
+          break;
+        }
+        default:
+          binaryError(response, "Invalid opcode " + opcode);
+          break;
+      }
+    } catch (BufferUnderflowException e) {
+      binaryError(response, "Malformed binary request");
+    } catch (Exception e) {
+      binaryError(response, "Error processing request: " + e.getMessage());
+    }
+    return response.flip();
+  }
+
+  private static void putValue(ByteBuffer response, long value) {
+    if (value == StorageEngine.MISSING) {
+      response.put(BinaryProtocol.STATUS_NOT_FOUND);
+    } else {
+      response.put(BinaryProtocol.STATUS_OK).putInt((int) value);
+    }
+  }
+
+  /**
+   * Reads the next key of a request and looks it up where it lies in the request buffer, so that
+   * no key string is created unless the storage engine needs one.
+   */
+  private long lookUp(ByteBuffer request) {
+    int keyLength = request.getShort() & 0xFFFF;
+    if (request.remaining() < keyLength) {
+      throw new BufferUnderflowException();
+    }
+    int offset = request.position();
+    request.position(offset + keyLength);
+    return keyValueStore.get(request, offset, keyLength);
+  }
+
+  private static String[] readKeys(ByteBuffer request) {
+    String[] keys = new String[request.getShort() & 0xFFFF];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = readKey(request);
+    }
+    return keys;
+  }
+
+  private static String readKey(ByteBuffer request) {
+    int keyLength = request.getShort() & 0xFFFF;
+    if (request.remaining() < keyLength) {
+      throw new BufferUnderflowException();
+    }
+    String key;
+    if (request.hasArray()) {
+      key = new String(request.array(), request.arrayOffset() + request.position(), keyLength, StandardCharsets.UTF_8);
+      request.position(request.position() + keyLength);
+    } else {
+      byte[] bytes = new byte[keyLength];
+      request.get(bytes);
+      key = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return key;
+  }
+
+  private void binaryError(ByteBuffer response, String message) {
+    metrics.recordError();
+    logger.error(message);
+    byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+    response.clear();
+    response.put(BinaryProtocol.STATUS_ERROR).put(bytes, 0, Math.min(bytes.length, response.remaining()));
+  }
+
+  private boolean isReadOnly() {
+    ReplicationReplica current = replica;
+    return current != null && current.isActive();
+  }
+
+  private static boolean isWrite(String operation) {
+    switch (operation) {
+      case "PUT":
+      case "DELETE":
+      case "MPUT":
+      case "MDELETE":
+      case "EXPIRE":
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isWrite(byte opcode) {
+    return opcode == BinaryProtocol.OP_PUT || opcode == BinaryProtocol.OP_DELETE || opcode == BinaryProtocol.OP_MPUT
+            || opcode == BinaryProtocol.OP_MDELETE || opcode == BinaryProtocol.OP_EXPIRE;
+  }
+
+  private String readOnlyError() {
+    return "Error processing request: read-only replica of " + replica.primary();
+  }
+
+  /**
+   * Handles the PROMOTE admin command, which makes a replica stop following its primary and
+   * accept writes.
+   *
+   * @return The response message for the client.
+   */
+  private String processPromote() {
+    ReplicationReplica current = replica;
+    String response;
+    if (current == null || !current.promote()) {
+      response = "This server is not a replica";
+      logger.error(response);
+    } else {
+      response = "Promoted to primary";
+      logger.info(response);
+    }
+    return response;
+  }
+
+  /**
+   * Handles the SNAPSHOT admin command.
+   *
+   * @return The response message for the client.
+   */
+  private String processSnapshot() {
+    String response;
+    if (snapshotManager == null) {
+      response = "Snapshots are not enabled on this server";
+      logger.error(response);
+    } else {
+      try {
+        response = snapshotManager.requestSnapshot() ? "Snapshot started" : "Snapshot already in progress";
+        logger.info(response);
+      } catch (IllegalStateException e) {
+        response = e.getMessage();
+        logger.error(response);
+      }
     }
+    return response;
   }
 }
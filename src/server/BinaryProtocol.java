@@ -0,0 +1,96 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+/**
+ * Constants and helpers of the compact binary protocol.
+ *
+ * <p>Over TCP a client switches a connection to the binary protocol by sending the text request
+ * {@link #HANDSHAKE}; the server answers {@link #HANDSHAKE_ACCEPTED} and from then on both sides
+ * exchange frames of {@code [int bodyLength][int crc32c(body)][int requestId][body]}. The server
+ * copies the request ID into the matching response frame, so a client may pipeline many requests
+ * on one connection and match the responses by ID. Over UDP a datagram whose
+ * first byte is {@link #UDP_MAGIC} carries {@code [int crc32c(body)][int requestId][body]}, and the
+ * request ID lets the server recognise a retransmitted request; any other datagram is a text
+ * request. Clients that never send the handshake keep using the text protocol.
+ *
+ * <p>A request body is {@code [byte opcode][short keyLength][key utf-8]} followed by an
+ * {@code int} value for PUT. A response body is {@code [byte status]} followed by the
+ * {@code int} value for a successful GET, or a UTF-8 message for {@link #STATUS_ERROR}.
+ *
+ * <p>Batch requests are {@code [byte opcode][short count]} followed by {@code count} keys, each
+ * followed by its {@code int} value for MPUT. An MGET response is {@code [byte status][short count]}
+ * followed by one GET response per key: {@code [STATUS_OK][int value]} or {@code [STATUS_NOT_FOUND]}.
+ *
+ * <p>A STATS request is the bare opcode {@link #OP_STATS}; its response is {@code [STATUS_OK]}
+ * followed by the UTF-8 text of {@link ServerMetrics#report()}.
+ *
+ * <p>A PUT may end with a {@code long} time to live in milliseconds. An EXPIRE request is
+ * {@code [OP_EXPIRE][short keyLength][key][long ttlMillis]} and is answered {@link #STATUS_OK}, or
+ * {@link #STATUS_NOT_FOUND} if the key does not exist. A TTL request is a key alone and is answered
+ * {@code [STATUS_OK][long ttlMillis]}, with -1 for a key without TTL, or {@link #STATUS_NOT_FOUND}.
+ */
+public final class BinaryProtocol {
+
+  public static final String HANDSHAKE = "PROTOCOL BINARY";
+  public static final String HANDSHAKE_ACCEPTED = "PROTOCOL BINARY OK";
+  public static final byte UDP_MAGIC = (byte) 0xB1;
+
+  public static final int FRAME_HEADER_BYTES = Integer.BYTES * 3;
+  public static final int MAX_BODY_BYTES = 1 << 20;
+  public static final int UDP_HEADER_BYTES = 1 + Integer.BYTES * 2;
+  public static final int MAX_RESPONSE_BYTES = 65_507 - UDP_HEADER_BYTES;
+  public static final int RESPONSE_BUFFER_BYTES = 4096;
+
+  public static final byte OP_PUT = 1;
+  public static final byte OP_GET = 2;
+  public static final byte OP_DELETE = 3;
+  public static final byte OP_MPUT = 4;
+  public static final byte OP_MGET = 5;
+  public static final byte OP_MDELETE = 6;
+  public static final byte OP_STATS = 7;
+  public static final byte OP_EXPIRE = 8;
+  public static final byte OP_TTL = 9;
+
+  public static final byte STATUS_OK = 0;
+  public static final byte STATUS_NOT_FOUND = 1;
+  public static final byte STATUS_ERROR = 2;
+  public static final byte STATUS_CHECKSUM_MISMATCH = 3;
+
+  private static final ThreadLocal<CRC32C> CRC32C_PER_THREAD = ThreadLocal.withInitial(CRC32C::new);
+
+  private BinaryProtocol() {
+  }
+
+  /**
+   * Calculates the CRC32C checksum of the remaining bytes of a buffer without moving its position.
+   *
+   * @param body The buffer holding the frame body.
+   * @return The checksum as sent on the wire.
+   */
+  public static int checksum(ByteBuffer body) {
+    return checksum(body, body.position(), body.remaining());
+  }
+
+  /**
+   * Calculates the CRC32C checksum of a region of a heap or direct buffer. CRC32C runs on the
+   * CPU's CRC instructions where available, and each thread reuses one {@link CRC32C}, so this
+   * neither copies nor allocates. The buffer's position and limit are restored before returning.
+   *
+   * @param buffer The buffer.
+   * @param offset The index of the first byte.
+   * @param length The number of bytes.
+   * @return The checksum as sent on the wire.
+   */
+  public static int checksum(ByteBuffer buffer, int offset, int length) {
+    CRC32C crc32c = CRC32C_PER_THREAD.get();
+    crc32c.reset();
+    int position = buffer.position();
+    int limit = buffer.limit();
+    buffer.limit(offset + length).position(offset);
+    crc32c.update(buffer);
+    buffer.limit(limit).position(position);
+    return (int) crc32c.getValue();
+  }
+}
@@ -0,0 +1,56 @@
+package server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of equally sized byte arrays, reused across datagrams instead of allocating a
+ * fresh array for every packet. When the pool is empty a new array is allocated; arrays released
+ * while the pool is full are left to the garbage collector.
+ */
+final class BufferPool {
+
+  private final int bufferBytes;
+  private final int maxPooled;
+  private final Queue<byte[]> free = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooled = new AtomicInteger();
+
+  /**
+   * Constructs an empty pool.
+   *
+   * @param bufferBytes The size of every buffer.
+   * @param maxPooled   The maximum number of idle buffers kept.
+   */
+  BufferPool(int bufferBytes, int maxPooled) {
+    this.bufferBytes = bufferBytes;
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * Takes a buffer from the pool, or allocates one if none is idle.
+   *
+   * @return A buffer of {@code bufferBytes} bytes with arbitrary content.
+   */
+  byte[] acquire() {
+    byte[] buffer = free.poll();
+    if (buffer == null) {
+      return new byte[bufferBytes];
+    }
+    pooled.decrementAndGet();
+    return buffer;
+  }
+
+  /**
+   * Returns a buffer to the pool.
+   *
+   * @param buffer A buffer obtained from {@link #acquire()}.
+   */
+  void release(byte[] buffer) {
+    if (buffer.length == bufferBytes && pooled.incrementAndGet() <= maxPooled) {
+      free.add(buffer);
+    } else if (buffer.length == bufferBytes) {
+      pooled.decrementAndGet();
+    }
+  }
+}
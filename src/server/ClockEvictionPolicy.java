@@ -0,0 +1,34 @@
+package server;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Evicts approximately the least recently used keys with the CLOCK algorithm (see
+ * {@link ClockRing}). A read costs one lock-free map lookup and at most one write of a flag.
+ */
+public class ClockEvictionPolicy extends AbstractEvictionPolicy {
+  private final ClockRing ring = new ClockRing();
+
+  /**
+   * Constructs a CLOCK policy.
+   *
+   * @param maximumWeight The total weight the keys may have.
+   * @param weigher       The weight of a key, such as {@link EvictionPolicy#ENTRIES}.
+   */
+  public ClockEvictionPolicy(long maximumWeight, ToLongFunction<String> weigher) {
+    super(maximumWeight, weigher);
+  }
+
+  @Override
+  protected void admit(ClockRing.Node node) {
+    ring.add(node);
+  }
+
+  @Override
+  public String evict() {
+    if (ring.weight() <= maximumWeight) {
+      return null;
+    }
+    return forget(ring.victim());
+  }
+}
@@ -0,0 +1,138 @@
+package server;
+
+/**
+ * A CLOCK ring of entries, which approximates least-recently-used order: a read only sets the
+ * reference bit of its entry, and the hand looking for a victim clears set bits as it sweeps and
+ * stops at the first entry that was not referenced since the last sweep.
+ *
+ * <p>The ring is a dense array; removing an entry moves the last entry into its place, which
+ * only perturbs the sweep order. Except for {@link Node#reference()}, every method must be
+ * called with the owning policy locked.
+ */
+final class ClockRing {
+  private Node[] nodes = new Node[16];
+  private int size;
+  private int hand;
+  private long weight;
+
+  /**
+   * The bookkeeping of one key.
+   */
+  static final class Node {
+    final String key;
+    final long weight;
+    // Written by readers without synchronization; a lost update only coarsens the approximation.
+    private boolean referenced;
+    private ClockRing ring;
+    private int index;
+
+    Node(String key, long weight) {
+      this.key = key;
+      this.weight = weight;
+    }
+
+    /**
+     * Marks the entry as recently used.
+     */
+    void reference() {
+      if (!referenced) {
+        referenced = true;
+      }
+    }
+
+    /**
+     * Returns the ring holding the entry.
+     *
+     * @return The ring, or null if the entry is in none.
+     */
+    ClockRing ring() {
+      return ring;
+    }
+  }
+
+  /**
+   * Adds an entry, unreferenced, just behind the hand.
+   *
+   * @param node An entry not in any ring.
+   */
+  void add(Node node) {
+    if (size == nodes.length) {
+      Node[] larger = new Node[size * 2];
+      System.arraycopy(nodes, 0, larger, 0, size);
+      nodes = larger;
+    }
+    node.ring = this;
+    node.index = size;
+    node.referenced = false;
+    nodes[size++] = node;
+    weight += node.weight;
+  }
+
+  /**
+   * Removes an entry.
+   *
+   * @param node An entry of this ring.
+   */
+  void remove(Node node) {
+    Node last = nodes[--size];
+    nodes[node.index] = last;
+    last.index = node.index;
+    nodes[size] = null;
+    node.ring = null;
+    weight -= node.weight;
+    if (hand >= size) {
+      hand = 0;
+    }
+  }
+
+  /**
+   * Advances the hand to the next entry that was not referenced since the hand last passed it,
+   * clearing the reference bits on the way. Gives up after two full sweeps, which only happens
+   * while readers keep referencing every entry.
+   *
+   * @return The victim, still in the ring, or null if the ring is empty.
+   */
+  Node victim() {
+    if (size == 0) {
+      return null;
+    }
+    for (int step = 0; step < 2 * size; step++) {
+      if (hand >= size) {
+        hand = 0;
+      }
+      Node node = nodes[hand];
+      if (!node.referenced) {
+        return node;
+      }
+      node.referenced = false;
+      hand++;
+    }
+    return nodes[hand % size];
+  }
+
+  /**
+   * Moves the hand past the current victim, which is kept, so that the next search starts with
+   * the entry after it.
+   */
+  void skip() {
+    hand++;
+  }
+
+  /**
+   * Returns the total weight of the entries.
+   *
+   * @return The weight.
+   */
+  long weight() {
+    return weight;
+  }
+
+  /**
+   * Tells whether the ring holds no entry.
+   *
+   * @return true if the ring is empty.
+   */
+  boolean isEmpty() {
+    return size == 0;
+  }
+}
@@ -0,0 +1,440 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * CompactStorageEngine keeps keys and values out of individual Java objects.
+ * Each of a fixed number of segments owns an open-addressing table made of three parallel
+ * primitive arrays (hash, key reference, {@code int} value) and an arena of large byte chunks
+ * holding the keys as length-prefixed UTF-8. An entry therefore costs roughly 16 bytes of table
+ * plus its encoded key, instead of a {@code HashMap.Node}, a {@code String} and an {@code Integer}.
+ *
+ * <p>Keys are hashed and compared by encoding the {@code String} to UTF-8 on the fly, or straight
+ * from the request buffer when the key arrives as bytes, so lookups do not allocate. Reads are optimistic ({@link StampedLock#tryOptimisticRead()}) and only fall
+ * back to a read lock if a writer touched the same segment meanwhile. Deleted keys leave a
+ * tombstone; their arena bytes are reclaimed when the segment is rebuilt.
+ */
+public class CompactStorageEngine implements StorageEngine {
+
+  private static final int SEGMENT_BITS = 6;
+  private static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+  private static final int MIN_SEGMENT_CAPACITY = 16;
+  private static final int MIN_CHUNK_BYTES = 4096;
+  private static final int MAX_CHUNK_BYTES = 1 << 20;
+  private static final int MAX_KEY_BYTES = 0xFFFF;
+  private static final int LENGTH_PREFIX_BYTES = 2;
+
+  private static final long EMPTY = 0;
+  private static final long DELETED = -1;
+
+  private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+  /**
+   * Constructs an empty engine sized for a small number of keys.
+   */
+  public CompactStorageEngine() {
+    this(0);
+  }
+
+  /**
+   * Constructs an empty engine presized for the expected number of keys.
+   *
+   * @param expectedKeys The number of keys the engine should hold without rebuilding.
+   */
+  public CompactStorageEngine(int expectedKeys) {
+    int segmentCapacity = capacityFor(expectedKeys / SEGMENT_COUNT);
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = new Segment(segmentCapacity);
+    }
+  }
+
+  @Override
+  public void put(String key, int value) {
+    int hash = Utf8.hash(key);
+    segmentFor(hash).put(key, hash, value);
+  }
+
+  @Override
+  public long get(String key) {
+    int hash = Utf8.hash(key);
+    return segmentFor(hash).get(key, hash);
+  }
+
+  @Override
+  public long get(ByteBuffer buffer, int offset, int length) {
+    int hash = Utf8.hash(buffer, offset, length);
+    return segmentFor(hash).get(buffer, offset, length, hash);
+  }
+
+  @Override
+  public void delete(String key) {
+    int hash = Utf8.hash(key);
+    segmentFor(hash).delete(key, hash);
+  }
+
+  @Override
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      size += segment.size;
+    }
+    return size;
+  }
+
+  /**
+   * Visits the entries one segment at a time. Each segment's slot arrays are copied under a short
+   * read lock; the keys are decoded from the arena afterwards, since arena bytes of a key never
+   * change once written.
+   */
+  @Override
+  public void forEach(ObjIntConsumer<String> action) {
+    for (Segment segment : segments) {
+      segment.forEach(action);
+    }
+  }
+
+  private Segment segmentFor(int hash) {
+    return segments[hash >>> (Integer.SIZE - SEGMENT_BITS)];
+  }
+
+  /**
+   * Returns a power-of-two table capacity that keeps the given number of keys at most half full.
+   */
+  private static int capacityFor(int keys) {
+    int capacity = Integer.highestOneBit(Math.max(MIN_SEGMENT_CAPACITY, keys * 2 - 1)) << 1;
+    return Math.max(MIN_SEGMENT_CAPACITY, capacity);
+  }
+
+  /**
+   * One independently locked open-addressing table.
+   */
+  private static final class Segment {
+    private final StampedLock lock = new StampedLock();
+    private Table table;
+    private volatile int size;
+    private int tombstones;
+
+    Segment(int capacity) {
+      table = new Table(capacity, MIN_CHUNK_BYTES);
+    }
+
+    long get(String key, int hash) {
+      long stamp = lock.tryOptimisticRead();
+      if (stamp != 0) {
+        Table t = table;
+        int index = t.find(key, hash);
+        long value = index < 0 ? MISSING : t.values[index];
+        if (lock.validate(stamp)) {
+          return value;
+        }
+      }
+      stamp = lock.readLock();
+      try {
+        Table t = table;
+        int index = t.find(key, hash);
+        return index < 0 ? MISSING : t.values[index];
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    long get(ByteBuffer buffer, int offset, int length, int hash) {
+      long stamp = lock.tryOptimisticRead();
+      if (stamp != 0) {
+        Table t = table;
+        int index = t.find(buffer, offset, length, hash);
+        long value = index < 0 ? MISSING : t.values[index];
+        if (lock.validate(stamp)) {
+          return value;
+        }
+      }
+      stamp = lock.readLock();
+      try {
+        Table t = table;
+        int index = t.find(buffer, offset, length, hash);
+        return index < 0 ? MISSING : t.values[index];
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    void put(String key, int hash, int value) {
+      long stamp = lock.writeLock();
+      try {
+        Table t = table;
+        int index = hash & t.mask;
+        int firstDeleted = -1;
+        while (true) {
+          long ref = t.refs[index];
+          if (ref == EMPTY) {
+            break;
+          }
+          if (ref == DELETED) {
+            if (firstDeleted < 0) {
+              firstDeleted = index;
+            }
+          } else if (t.hashes[index] == hash && t.keyEquals(ref, key)) {
+            t.values[index] = value;
+            return;
+          }
+          index = (index + 1) & t.mask;
+        }
+
+        if (firstDeleted >= 0) {
+          index = firstDeleted;
+          tombstones--;
+        } else if ((size + tombstones + 1) * 4L > t.capacity() * 3L) {
+          rebuild(capacityFor(size + 1));
+          t = table;
+          index = t.emptySlot(hash);
+        }
+        t.hashes[index] = hash;
+        t.values[index] = value;
+        t.refs[index] = t.appendKey(key);
+        size++;
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    void delete(String key, int hash) {
+      long stamp = lock.writeLock();
+      try {
+        int index = table.find(key, hash);
+        if (index >= 0) {
+          table.refs[index] = DELETED;
+          size--;
+          tombstones++;
+        }
+      } finally {
+        lock.unlockWrite(stamp);
+      }
+    }
+
+    void forEach(ObjIntConsumer<String> action) {
+      long[] refs;
+      int[] values;
+      byte[][] chunks;
+      long stamp = lock.readLock();
+      try {
+        refs = table.refs.clone();
+        values = table.values.clone();
+        chunks = table.chunks;
+      } finally {
+        lock.unlockRead(stamp);
+      }
+      for (int i = 0; i < refs.length; i++) {
+        long ref = refs[i];
+        if (ref != EMPTY && ref != DELETED) {
+          byte[] bytes = chunks[(int) (ref >>> 32) - 1];
+          int offset = (int) ref;
+          int length = ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+          action.accept(new String(bytes, offset + LENGTH_PREFIX_BYTES, length, StandardCharsets.UTF_8), values[i]);
+        }
+      }
+    }
+
+    /**
+     * Rehashes the live entries into a fresh table and arena, dropping tombstones and the
+     * bytes of deleted keys.
+     */
+    private void rebuild(int capacity) {
+      Table old = table;
+      Table rebuilt = new Table(capacity, old.chunkCount == 0 ? MIN_CHUNK_BYTES : old.chunks[old.chunkCount - 1].length);
+      for (int i = 0; i < old.refs.length; i++) {
+        long ref = old.refs[i];
+        if (ref != EMPTY && ref != DELETED) {
+          int index = rebuilt.emptySlot(old.hashes[i]);
+          rebuilt.hashes[index] = old.hashes[i];
+          rebuilt.values[index] = old.values[i];
+          rebuilt.refs[index] = rebuilt.copyKey(old, ref);
+        }
+      }
+      table = rebuilt;
+      tombstones = 0;
+    }
+  }
+
+  /**
+   * The arrays of one segment generation. Key references pack {@code (chunk + 1) << 32 | offset}
+   * so that zero can mean an empty slot.
+   */
+  private static final class Table {
+    final int mask;
+    final int[] hashes;
+    final long[] refs;
+    final int[] values;
+    byte[][] chunks = new byte[4][];
+    int chunkCount;
+    int chunkPosition;
+    private final int firstChunkBytes;
+
+    Table(int capacity, int firstChunkBytes) {
+      this.mask = capacity - 1;
+      this.hashes = new int[capacity];
+      this.refs = new long[capacity];
+      this.values = new int[capacity];
+      this.firstChunkBytes = firstChunkBytes;
+    }
+
+    int capacity() {
+      return mask + 1;
+    }
+
+    /**
+     * Finds the slot of a key. This runs under optimistic reads too, so every array access is
+     * bounds checked and the probe sequence is limited to the table size.
+     *
+     * @return The slot index, or -1 if the key is not present.
+     */
+    int find(String key, int hash) {
+      int index = hash & mask;
+      for (int probes = 0; probes <= mask; probes++) {
+        long ref = refs[index];
+        if (ref == EMPTY) {
+          return -1;
+        }
+        if (ref != DELETED && hashes[index] == hash && keyEquals(ref, key)) {
+          return index;
+        }
+        index = (index + 1) & mask;
+      }
+      return -1;
+    }
+
+    /**
+     * Finds the slot of a key given as UTF-8 bytes, with the same safeguards as
+     * {@link #find(String, int)}.
+     *
+     * @return The slot index, or -1 if the key is not present.
+     */
+    int find(ByteBuffer buffer, int offset, int length, int hash) {
+      int index = hash & mask;
+      for (int probes = 0; probes <= mask; probes++) {
+        long ref = refs[index];
+        if (ref == EMPTY) {
+          return -1;
+        }
+        if (ref != DELETED && hashes[index] == hash && keyEquals(ref, buffer, offset, length)) {
+          return index;
+        }
+        index = (index + 1) & mask;
+      }
+      return -1;
+    }
+
+    int emptySlot(int hash) {
+      int index = hash & mask;
+      while (refs[index] != EMPTY) {
+        index = (index + 1) & mask;
+      }
+      return index;
+    }
+
+    boolean keyEquals(long ref, String key) {
+      byte[][] currentChunks = chunks;
+      int chunk = (int) (ref >>> 32) - 1;
+      int offset = (int) ref;
+      if (chunk < 0 || chunk >= currentChunks.length || currentChunks[chunk] == null) {
+        return false;
+      }
+      byte[] bytes = currentChunks[chunk];
+      if (offset < 0 || offset + LENGTH_PREFIX_BYTES > bytes.length) {
+        return false;
+      }
+      int position = offset + LENGTH_PREFIX_BYTES;
+      int end = position + (((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF));
+      if (end > bytes.length) {
+        return false;
+      }
+      for (int i = 0; i < key.length(); ) {
+        long encoded = Utf8.encodeAt(key, i);
+        int count = Utf8.byteCount(encoded);
+        if (position + count > end) {
+          return false;
+        }
+        for (int b = 0; b < count; b++) {
+          if (bytes[position++] != Utf8.byteAt(encoded, b)) {
+            return false;
+          }
+        }
+        i += Utf8.charCount(encoded);
+      }
+      return position == end;
+    }
+
+    boolean keyEquals(long ref, ByteBuffer buffer, int offset, int length) {
+      byte[][] currentChunks = chunks;
+      int chunk = (int) (ref >>> 32) - 1;
+      int position = (int) ref;
+      if (chunk < 0 || chunk >= currentChunks.length || currentChunks[chunk] == null) {
+        return false;
+      }
+      byte[] bytes = currentChunks[chunk];
+      if (position < 0 || position + LENGTH_PREFIX_BYTES + length > bytes.length
+              || (((bytes[position] & 0xFF) << 8) | (bytes[position + 1] & 0xFF)) != length) {
+        return false;
+      }
+      position += LENGTH_PREFIX_BYTES;
+      for (int i = 0; i < length; i++) {
+        if (bytes[position + i] != buffer.get(offset + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    long appendKey(String key) {
+      int length = Utf8.length(key);
+      if (length > MAX_KEY_BYTES) {
+        throw new IllegalArgumentException("Key longer than " + MAX_KEY_BYTES + " bytes");
+      }
+      long ref = reserve(LENGTH_PREFIX_BYTES + length);
+      byte[] bytes = chunks[chunkCount - 1];
+      int position = (int) ref;
+      bytes[position++] = (byte) (length >>> 8);
+      bytes[position++] = (byte) length;
+      for (int i = 0; i < key.length(); ) {
+        long encoded = Utf8.encodeAt(key, i);
+        for (int b = 0; b < Utf8.byteCount(encoded); b++) {
+          bytes[position++] = Utf8.byteAt(encoded, b);
+        }
+        i += Utf8.charCount(encoded);
+      }
+      return ref;
+    }
+
+    long copyKey(Table source, long sourceRef) {
+      byte[] sourceBytes = source.chunks[(int) (sourceRef >>> 32) - 1];
+      int sourceOffset = (int) sourceRef;
+      int total = LENGTH_PREFIX_BYTES + (((sourceBytes[sourceOffset] & 0xFF) << 8) | (sourceBytes[sourceOffset + 1] & 0xFF));
+      long ref = reserve(total);
+      System.arraycopy(sourceBytes, sourceOffset, chunks[chunkCount - 1], (int) ref, total);
+      return ref;
+    }
+
+    /**
+     * Reserves space for one key in the current chunk, starting a new chunk if it does not fit.
+     *
+     * @return The key reference of the reserved space.
+     */
+    private long reserve(int bytes) {
+      if (chunkCount == 0 || chunkPosition + bytes > chunks[chunkCount - 1].length) {
+        int previous = chunkCount == 0 ? firstChunkBytes / 2 : chunks[chunkCount - 1].length;
+        int chunkBytes = Math.max(bytes, Math.min(MAX_CHUNK_BYTES, previous * 2));
+        if (chunkCount == chunks.length) {
+          chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        chunks[chunkCount++] = new byte[chunkBytes];
+        chunkPosition = 0;
+      }
+      long ref = ((long) chunkCount << 32) | chunkPosition;
+      chunkPosition += bytes;
+      return ref;
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package server;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import protocol.UdpFraming;
+
+/**
+ * Remembers the responses to recent UDP requests by sender and request ID, so that a request the
+ * client retransmits because its response was lost is answered again from the window instead of
+ * being applied a second time. Entries leave the window in arrival order once they are older than
+ * the retention period or the window holds more than its maximum number of entries.
+ */
+final class DedupeWindow {
+
+  private static final ByteBuffer IN_PROGRESS = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
+  private final int maxEntries;
+  private final long retentionNanos;
+  private final ConcurrentHashMap<UdpFraming.MessageKey, Entry> entries = new ConcurrentHashMap<>();
+  private final Queue<UdpFraming.MessageKey> arrivalOrder = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Constructs an empty DedupeWindow.
+   *
+   * @param maxEntries     The maximum number of requests remembered.
+   * @param retentionNanos How long a response is remembered.
+   */
+  DedupeWindow(int maxEntries, long retentionNanos) {
+    this.maxEntries = maxEntries;
+    this.retentionNanos = retentionNanos;
+  }
+
+  /**
+   * Registers a request before it is handled.
+   *
+   * @param sender    The address the request came from.
+   * @param requestId The request ID.
+   * @return null if the request is new and must be handled and then passed to {@link #complete};
+   *         otherwise the response to send again, which is empty while the first copy of the
+   *         request is still being handled.
+   */
+  ByteBuffer claim(SocketAddress sender, int requestId) {
+    UdpFraming.MessageKey key = new UdpFraming.MessageKey(sender, requestId);
+    long now = System.nanoTime();
+    Entry existing = entries.putIfAbsent(key, new Entry(now));
+    if (existing != null) {
+      byte[] response = existing.response;
+      return response == null ? IN_PROGRESS : ByteBuffer.wrap(response);
+    }
+    arrivalOrder.add(key);
+    evict(now);
+    return null;
+  }
+
+  /**
+   * Stores the response to a request registered with {@link #claim}.
+   *
+   * @param sender    The address the request came from.
+   * @param requestId The request ID.
+   * @param response  The response, from position to limit; its position is not changed.
+   */
+  void complete(SocketAddress sender, int requestId, ByteBuffer response) {
+    Entry entry = entries.get(new UdpFraming.MessageKey(sender, requestId));
+    if (entry != null) {
+      byte[] copy = new byte[response.remaining()];
+      response.duplicate().get(copy);
+      entry.response = copy;
+    }
+  }
+
+  private void evict(long now) {
+    UdpFraming.MessageKey oldest;
+    while ((oldest = arrivalOrder.peek()) != null) {
+      Entry entry = entries.get(oldest);
+      if (entry != null && entries.size() <= maxEntries && now - entry.arrivalNanos < retentionNanos) {
+        return;
+      }
+      UdpFraming.MessageKey removed = arrivalOrder.poll();
+      if (removed != null) {
+        entries.remove(removed);
+      }
+    }
+  }
+
+  private static final class Entry {
+    private final long arrivalNanos;
+    private volatile byte[] response;
+
+    Entry(long arrivalNanos) {
+      this.arrivalNanos = arrivalNanos;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of equally sized direct buffers that responses are encoded into. A direct buffer
+ * is written to a channel without the copy into a temporary native buffer that a heap buffer
+ * needs, but is expensive to allocate, so the buffers are reused instead of being allocated per
+ * response. When the pool is empty a new buffer is allocated; buffers released while the pool is
+ * full are left to the garbage collector.
+ */
+final class DirectBufferPool {
+
+  private final int bufferBytes;
+  private final int maxPooled;
+  private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooled = new AtomicInteger();
+
+  /**
+   * Constructs an empty pool.
+   *
+   * @param bufferBytes The capacity of every buffer.
+   * @param maxPooled   The maximum number of idle buffers kept.
+   */
+  DirectBufferPool(int bufferBytes, int maxPooled) {
+    this.bufferBytes = bufferBytes;
+    this.maxPooled = maxPooled;
+  }
+
+  /**
+   * Takes a buffer from the pool, or allocates one if none is idle.
+   *
+   * @return A cleared direct buffer of {@code bufferBytes} bytes.
+   */
+  ByteBuffer acquire() {
+    ByteBuffer buffer = free.poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(bufferBytes);
+    }
+    pooled.decrementAndGet();
+    return buffer.clear();
+  }
+
+  /**
+   * Tells whether a buffer came from this pool, as opposed to one allocated for a single large
+   * response.
+   *
+   * @param buffer The buffer.
+   * @return true if the buffer can be passed to {@link #release(ByteBuffer)}.
+   */
+  boolean owns(ByteBuffer buffer) {
+    return buffer.isDirect() && buffer.capacity() == bufferBytes;
+  }
+
+  /**
+   * Returns a buffer to the pool.
+   *
+   * @param buffer A buffer obtained from {@link #acquire()}.
+   */
+  void release(ByteBuffer buffer) {
+    if (owns(buffer) && pooled.incrementAndGet() <= maxPooled) {
+      free.add(buffer);
+    } else if (owns(buffer)) {
+      pooled.decrementAndGet();
+    }
+  }
+}
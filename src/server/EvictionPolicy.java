@@ -0,0 +1,58 @@
+package server;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Decides which keys a bounded {@link KeyValue} drops when it holds more than its maximum weight,
+ * so that the server can run as a fixed-size cache.
+ *
+ * <p>{@link #recordAccess(String)} is called after every read that found its key, concurrently and
+ * without a lock, and must not block. The other methods are called by writers while they hold the
+ * monitor of the policy, which serializes writes to a bounded store.
+ */
+public interface EvictionPolicy {
+
+  /**
+   * Rough heap cost of one entry besides its key: the map entry and boxed value of the heap engine
+   * plus the bookkeeping of the policy.
+   */
+  long ENTRY_OVERHEAD_BYTES = 160;
+
+  /**
+   * Weighs every entry as 1, to bound the number of keys.
+   */
+  ToLongFunction<String> ENTRIES = key -> 1;
+
+  /**
+   * Weighs every entry by its estimated memory use in bytes, to bound the memory of the store.
+   */
+  ToLongFunction<String> ESTIMATED_BYTES = key -> ENTRY_OVERHEAD_BYTES + 2L * key.length();
+
+  /**
+   * Records that a key was read. May be lossy under contention.
+   *
+   * @param key The key that was found.
+   */
+  void recordAccess(String key);
+
+  /**
+   * Records that a key was written, whether it is new or replaced.
+   *
+   * @param key The key.
+   */
+  void recordWrite(String key);
+
+  /**
+   * Records that a key was removed other than by {@link #evict()}.
+   *
+   * @param key The key.
+   */
+  void recordRemoval(String key);
+
+  /**
+   * Picks the next key to evict and forgets it, if the keys hold more than the maximum weight.
+   *
+   * @return The key to remove from the store, or null if the store is within its bound.
+   */
+  String evict();
+}
@@ -0,0 +1,289 @@
+package server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timing wheel that finds the keys whose TTL has run out, so that they are
+ * reclaimed even if nobody reads them again.
+ *
+ * <p>Level 0 has one slot per tick; each slot of level {@code n} spans all of level {@code n - 1}.
+ * A deadline is filed in the lowest level whose span reaches it, and when a lower level has gone
+ * round once, the next slot of the level above is cascaded down into it. Scheduling is a
+ * lock-free enqueue, and filing, cascading and firing a deadline are constant-time pointer moves,
+ * whatever the number of keys with a TTL. Deadlines fire up to one tick late, never early.
+ *
+ * <p>Deadlines that have fallen due are handed to the expirer for at most a fixed time budget per
+ * tick, and the rest wait for the following ticks. Millions of keys expiring together therefore
+ * turn into a steady stream of deletes that takes a bounded share of one core, each holding the
+ * store only as long as a single DELETE, instead of one long stall. Keys that are read while
+ * they wait are expired by the read itself.
+ *
+ * <p>Each key has at most one deadline. A deadline moved to a later time stays in its slot and is
+ * filed again when that slot fires; a deadline moved to an earlier time is rescheduled, and a
+ * cancelled one is unlinked from its slot. Slots are doubly linked so that the wheel thread does
+ * either in constant time, and refreshing the TTL of a key over and over leaves nothing behind.
+ */
+final class ExpiryWheel {
+  private static final int SLOT_BITS = 8;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int MASK = SLOTS - 1;
+  private static final int LEVELS = 4;
+  // How many deadlines are expired between two checks of the time budget.
+  private static final int BUDGET_CHECK_INTERVAL = 32;
+  // Locations of a deadline that is not in a slot.
+  private static final int UNFILED = -1;
+  private static final int DUE = -2;
+
+  private static final ServerLogger logger = new ServerLogger();
+
+  private final long tickMillis;
+  private final long budgetNanos;
+  private final Consumer<Deadline> expirer;
+  private final Queue<Deadline> scheduled = new ConcurrentLinkedQueue<>();
+  private final Thread worker;
+  private volatile boolean stopped;
+
+  // Only accessed by the worker thread.
+  private final Deadline[][] levels = new Deadline[LEVELS][SLOTS];
+  private final long startMillis = nowMillis();
+  private long tick;
+  private Deadline dueHead;
+  private Deadline dueTail;
+
+  /**
+   * A point in time at which a key expires. The time is changed under the lock of the key; the
+   * wheel reads it without one and relies on the owner to reschedule the deadline when it moves
+   * earlier.
+   */
+  static final class Deadline {
+    final String key;
+    volatile long expiresAtMillis;
+    private volatile boolean cancelled;
+    // Only accessed by the worker thread.
+    private Deadline next;
+    private Deadline prev;
+    private int location = UNFILED;
+
+    /**
+     * Constructs a deadline.
+     *
+     * @param key             The key that expires.
+     * @param expiresAtMillis The expiry time on the {@link #nowMillis()} clock.
+     */
+    Deadline(String key, long expiresAtMillis) {
+      this.key = key;
+      this.expiresAtMillis = expiresAtMillis;
+    }
+  }
+
+  /**
+   * Constructs a wheel and starts its thread.
+   *
+   * @param tickMillis   The tick duration, which is the expiry resolution.
+   * @param budgetMillis How long the expirer may run per tick before the remaining due deadlines
+   *                     wait for the next tick.
+   * @param expirer      Called on the wheel thread with every deadline that falls due.
+   */
+  ExpiryWheel(long tickMillis, long budgetMillis, Consumer<Deadline> expirer) {
+    if (tickMillis < 1 || budgetMillis < 1 || budgetMillis > tickMillis) {
+      throw new IllegalArgumentException("Tick must be positive and the budget between 1 ms and one tick");
+    }
+    this.tickMillis = tickMillis;
+    this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    this.expirer = expirer;
+    this.worker = new Thread(this::run, "key-expiry");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  /**
+   * Returns the current time of the clock deadlines are measured on, which is monotonic and not
+   * related to the wall clock.
+   *
+   * @return The time in milliseconds.
+   */
+  static long nowMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+  }
+
+  /**
+   * Files a deadline, or moves it if it is already filed; it is handed to the expirer once its
+   * time has come.
+   *
+   * @param deadline The deadline.
+   */
+  void schedule(Deadline deadline) {
+    scheduled.add(deadline);
+  }
+
+  /**
+   * Removes a deadline from the wheel; it is never handed to the expirer unless it has already
+   * fallen due.
+   *
+   * @param deadline The deadline.
+   */
+  void cancel(Deadline deadline) {
+    deadline.cancelled = true;
+    scheduled.add(deadline);
+  }
+
+  /**
+   * Stops the wheel thread. Deadlines that have not fired yet never do.
+   */
+  void stop() {
+    stopped = true;
+    worker.interrupt();
+  }
+
+  private void run() {
+    while (!stopped) {
+      long deadline = startMillis + (tick + 1) * tickMillis;
+      long now;
+      while ((now = nowMillis()) < deadline) {
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(deadline - now));
+        if (stopped) {
+          return;
+        }
+      }
+      // Catch up tick by tick after a stall, so that no slot is skipped.
+      long target = (now - startMillis) / tickMillis;
+      while (tick < target) {
+        tick++;
+        cascade();
+        fire(levels[0], (int) (tick & MASK));
+      }
+      fileScheduled();
+      expireBatch();
+    }
+  }
+
+  /**
+   * Moves the slots of the higher levels that start at the current tick down a level.
+   */
+  private void cascade() {
+    for (int level = 1; level < LEVELS; level++) {
+      if ((tick & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+        return;
+      }
+      Deadline deadline = levels[level][(int) ((tick >>> (SLOT_BITS * level)) & MASK)];
+      levels[level][(int) ((tick >>> (SLOT_BITS * level)) & MASK)] = null;
+      while (deadline != null) {
+        Deadline next = deadline.next;
+        file(deadline);
+        deadline = next;
+      }
+    }
+  }
+
+  private void fire(Deadline[] slots, int slot) {
+    Deadline deadline = slots[slot];
+    slots[slot] = null;
+    while (deadline != null) {
+      Deadline next = deadline.next;
+      appendDue(deadline);
+      deadline = next;
+    }
+  }
+
+  private void fileScheduled() {
+    Deadline deadline;
+    while ((deadline = scheduled.poll()) != null) {
+      // A due deadline goes to the expirer anyway, which checks its current time.
+      if (deadline.location == DUE) {
+        continue;
+      }
+      unlink(deadline);
+      if (!deadline.cancelled) {
+        file(deadline);
+      }
+    }
+  }
+
+  private void unlink(Deadline deadline) {
+    if (deadline.location == UNFILED) {
+      return;
+    }
+    if (deadline.prev != null) {
+      deadline.prev.next = deadline.next;
+    } else {
+      levels[deadline.location >>> SLOT_BITS][deadline.location & MASK] = deadline.next;
+    }
+    if (deadline.next != null) {
+      deadline.next.prev = deadline.prev;
+    }
+    deadline.next = null;
+    deadline.prev = null;
+    deadline.location = UNFILED;
+  }
+
+  /**
+   * Files a deadline in the lowest level whose current revolution contains its tick, or queues
+   * it to expire right away if the tick has passed.
+   */
+  private void file(Deadline deadline) {
+    long dueTick = Math.floorDiv(deadline.expiresAtMillis - startMillis + tickMillis - 1, tickMillis);
+    if (dueTick <= tick) {
+      appendDue(deadline);
+      return;
+    }
+    for (int level = 0; level < LEVELS; level++) {
+      int shift = SLOT_BITS * (level + 1);
+      if (level == LEVELS - 1 || dueTick >>> shift == tick >>> shift) {
+        long slotTick = level == LEVELS - 1 && dueTick >>> shift != tick >>> shift
+                // Beyond the top level: park in the slot cascaded last in this revolution.
+                ? (tick >>> (SLOT_BITS * level)) - 1
+                : dueTick >>> (SLOT_BITS * level);
+        int slot = (int) (slotTick & MASK);
+        Deadline head = levels[level][slot];
+        deadline.prev = null;
+        deadline.next = head;
+        if (head != null) {
+          head.prev = deadline;
+        }
+        levels[level][slot] = deadline;
+        deadline.location = (level << SLOT_BITS) | slot;
+        return;
+      }
+    }
+  }
+
+  private void appendDue(Deadline deadline) {
+    deadline.next = null;
+    deadline.prev = null;
+    deadline.location = DUE;
+    if (dueTail == null) {
+      dueHead = deadline;
+    } else {
+      dueTail.next = deadline;
+    }
+    dueTail = deadline;
+  }
+
+  private void expireBatch() {
+    long batchStart = System.nanoTime();
+    for (int i = 1; dueHead != null; i++) {
+      Deadline deadline = dueHead;
+      dueHead = deadline.next;
+      if (dueHead == null) {
+        dueTail = null;
+      }
+      deadline.next = null;
+      deadline.location = UNFILED;
+      if (deadline.cancelled) {
+        continue;
+      }
+      try {
+        expirer.accept(deadline);
+      } catch (RuntimeException e) {
+        logger.error("Error expiring key " + deadline.key + ": " + e.getMessage());
+      }
+      if (i % BUDGET_CHECK_INTERVAL == 0 && System.nanoTime() - batchStart >= budgetNanos) {
+        return;
+      }
+    }
+  }
+}
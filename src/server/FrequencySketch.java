@@ -0,0 +1,106 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A count-min sketch of 4-bit counters that estimates how often each key was used recently, in a
+ * fixed amount of memory independent of the number of distinct keys. Each key maps to one counter
+ * in each of four rows, and its estimate is the smallest of them. Once the number of increments
+ * reaches ten times the number of counters per row, every counter is halved, so that the sketch
+ * follows changes in popularity (the aging of TinyLFU).
+ *
+ * <p>Reads count uses without holding the policy lock, so every counter is updated with a
+ * compare-and-set of its word: an increment never carries into the neighbouring counter, and a
+ * halving never loses a concurrent increment's word update.
+ */
+final class FrequencySketch {
+  private static final int[] SEEDS = {0x97CB3127, 0xB4C3AC2D, 0xCE2FB6A5, 0x68A8E9DB};
+  private static final long RESET_MASK = 0x7777777777777777L;
+
+  private final AtomicLongArray table;
+  private final int mask;
+  private final int sampleSize;
+  private final AtomicInteger additions = new AtomicInteger();
+
+  /**
+   * Constructs a sketch sized for the given number of keys.
+   *
+   * @param expectedEntries The number of keys the cache holds.
+   */
+  FrequencySketch(long expectedEntries) {
+    // One word per entry: 16 counters, four for each row.
+    int words = (int) Math.min(1 << 22, Math.max(64, Long.highestOneBit(Math.max(1, expectedEntries) - 1) << 1));
+    this.table = new AtomicLongArray(words);
+    this.mask = words - 1;
+    this.sampleSize = 10 * words;
+  }
+
+  /**
+   * Returns the estimated recent use count of a key, between 0 and 15.
+   *
+   * @param hash The hash code of the key.
+   * @return The estimate.
+   */
+  int frequency(int hash) {
+    int frequency = 15;
+    for (int row = 0; row < SEEDS.length; row++) {
+      int h = rehash(hash, row);
+      frequency = Math.min(frequency, (int) (table.get(h & mask) >>> offset(h, row)) & 0xF);
+    }
+    return frequency;
+  }
+
+  /**
+   * Counts one use of a key.
+   *
+   * @param hash The hash code of the key.
+   */
+  void increment(int hash) {
+    boolean added = false;
+    for (int row = 0; row < SEEDS.length; row++) {
+      int h = rehash(hash, row);
+      added |= incrementAt(h & mask, offset(h, row));
+    }
+    // Exactly one increment reaches the sample size, so only one thread halves the counters.
+    if (added && additions.incrementAndGet() == sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   * Adds one to the counter at the given offset of a word, unless it is saturated.
+   *
+   * @return true if the counter was incremented.
+   */
+  private boolean incrementAt(int index, int offset) {
+    while (true) {
+      long word = table.get(index);
+      if (((word >>> offset) & 0xF) == 15) {
+        return false;
+      }
+      if (table.compareAndSet(index, word, word + (1L << offset))) {
+        return true;
+      }
+    }
+  }
+
+  private void reset() {
+    for (int i = 0; i < table.length(); i++) {
+      table.getAndUpdate(i, word -> (word >>> 1) & RESET_MASK);
+    }
+    additions.addAndGet(-(sampleSize / 2));
+  }
+
+  private static int rehash(int hash, int row) {
+    int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Picks the counter of a row within the word: each row uses its own quarter of the 16 counters.
+   */
+  private static int offset(int h, int row) {
+    return ((row << 2) + ((h >>> 28) & 3)) << 2;
+  }
+}
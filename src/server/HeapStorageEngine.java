@@ -0,0 +1,39 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The default storage engine, backed by a {@link ConcurrentHashMap}:
+ * reads are lock-free and writes only contend with writes to the same bin.
+ */
+public class HeapStorageEngine implements StorageEngine {
+  private final Map<String, Integer> map = new ConcurrentHashMap<>();
+
+  @Override
+  public void put(String key, int value) {
+    map.put(key, value);
+  }
+
+  @Override
+  public long get(String key) {
+    Integer value = map.get(key);
+    return value == null ? MISSING : value;
+  }
+
+  @Override
+  public void delete(String key) {
+    map.remove(key);
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public void forEach(ObjIntConsumer<String> action) {
+    map.forEach(action::accept);
+  }
+}
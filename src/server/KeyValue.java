@@ -1,19 +1,135 @@
 package server;
 
-import java.util.HashMap;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Represents a key-value store implementation.
+ * The store is shared by every handler thread; the data itself lives in a pluggable
+ * {@link StorageEngine}, which defaults to the {@link HeapStorageEngine}.
+ * When a {@link WriteAheadLog} is attached, every PUT and DELETE is logged before it is applied
+ * and only returns once the log policy considers it durable.
+ *
+ * <p>A key can be given a time to live. An expired key is removed by the first read that finds
+ * it, and otherwise by an {@link ExpiryWheel} that reclaims expired keys in small batches in the
+ * background. A plain PUT clears the TTL of a key. The write-ahead log, snapshots and replication
+ * record a TTL as the absolute wall-clock time at which the key expires, so a key restored after a
+ * restart or copied to a replica expires at the same moment, as long as the clocks agree; a key
+ * whose time passed meanwhile is reclaimed right after it is restored.
+ *
+ * <p>With an {@link EvictionPolicy}, the store is a bounded cache: every write that takes it past
+ * the policy's bound evicts keys the policy chooses, and the evictions are logged like deletes.
+ * Reads only tell the policy about the hit, without locking; writes, their log records and the
+ * evictions they cause are serialized on the policy, so that the log order stays the apply order.
+ *
+ * <p>When a {@link ReplicationBacklog} is attached, every PUT and DELETE that changes the store,
+ * including expiries and evictions, is recorded in it right after it is applied and under the
+ * same per-key lock, so the backlog holds the changes of each key in the order they were applied.
  */
 public class KeyValue {
-  private Map<String, Integer> keyValueStore;
+  private static final int LOG_LOCK_STRIPES = 256;
+  private static final long EXPIRY_TICK_MILLIS = 10;
+  // The expiry wheel spends at most this long per tick deleting expired keys, a fifth of one core.
+  private static final long EXPIRY_BUDGET_MILLIS = 2;
+  // Longer TTLs (millions of years) are shortened to this, so that adding one to the clock cannot overflow.
+  private static final long MAX_TTL_MILLIS = Long.MAX_VALUE / 4;
+
+  /**
+   * Value returned by {@link #ttl(String)} when the key is not present.
+   */
+  public static final long TTL_MISSING = -2;
+
+  /**
+   * Value returned by {@link #ttl(String)} when the key has no TTL.
+   */
+  public static final long TTL_NONE = -1;
+
+  /**
+   * Expiry time passed to an {@link ExpiringEntryConsumer} for a key without a TTL.
+   */
+  static final long NO_EXPIRY = 0;
+
+  /**
+   * Receives the entries of the store together with their expiry times.
+   */
+  @FunctionalInterface
+  interface ExpiringEntryConsumer {
+    /**
+     * Receives one entry.
+     *
+     * @param key             The key.
+     * @param value           The value.
+     * @param expiresAtMillis The wall-clock time at which the key expires, or {@link #NO_EXPIRY}.
+     */
+    void accept(String key, int value, long expiresAtMillis);
+  }
+
+  private final StorageEngine engine;
+  private final Object[] logLocks = new Object[LOG_LOCK_STRIPES];
+  private final Map<String, ExpiryWheel.Deadline> deadlines = new ConcurrentHashMap<>();
+  private volatile WriteAheadLog writeAheadLog;
+  private volatile ExpiryWheel expiryWheel;
+  private volatile EvictionPolicy evictionPolicy;
+  private volatile ReplicationBacklog replicationBacklog;
 
   /**
    * Constructs a new KeyValue object with an empty key-value store.
    */
   public KeyValue() {
-    keyValueStore = new HashMap<>();
+    this(new HeapStorageEngine());
+  }
+
+  /**
+   * Constructs a new KeyValue object on top of the given storage engine.
+   *
+   * @param engine The storage engine holding the data.
+   */
+  public KeyValue(StorageEngine engine) {
+    this.engine = engine;
+    for (int i = 0; i < LOG_LOCK_STRIPES; i++) {
+      logLocks[i] = new Object();
+    }
+  }
+
+  /**
+   * Starts logging every mutation to the given write-ahead log. The log should already have
+   * been replayed into this store.
+   *
+   * @param writeAheadLog The write-ahead log.
+   */
+  public void attachWriteAheadLog(WriteAheadLog writeAheadLog) {
+    this.writeAheadLog = writeAheadLog;
+  }
+
+  /**
+   * Starts recording every change to the store in the given backlog for replication. Changes
+   * made before this call are not recorded; a replica gets them from a full copy of the store.
+   *
+   * @param replicationBacklog The backlog.
+   */
+  void attachReplicationBacklog(ReplicationBacklog replicationBacklog) {
+    this.replicationBacklog = replicationBacklog;
+  }
+
+  /**
+   * Bounds the store with an eviction policy. The policy only learns about keys written after
+   * this call, so it must be set while the store is empty, before a snapshot or log is loaded.
+   *
+   * @param evictionPolicy The eviction policy.
+   */
+  public void setEvictionPolicy(EvictionPolicy evictionPolicy) {
+    this.evictionPolicy = evictionPolicy;
   }
 
   /**
@@ -23,7 +139,103 @@ public class KeyValue {
    * @param value The value associated with the key.
    */
   public void put(String key, int value) {
-    keyValueStore.put(key, value);
+    WriteAheadLog log = writeAheadLog;
+    long sequence;
+    // Logging and applying under the same per-key lock keeps the log order equal to the apply order,
+    // keeps a concurrent expiry from deleting the new value, and clears any TTL set before it. The
+    // lock is taken even without a log or TTLs: a TTL set between checking for none and storing
+    // would otherwise survive the PUT.
+    synchronized (logLockFor(key)) {
+      sequence = store(log, key, value, NO_EXPIRY);
+      clearDeadline(key);
+    }
+    if (log != null) {
+      log.awaitDurable(sequence);
+    }
+  }
+
+  /**
+   * Inserts a key-value pair that expires after the given time.
+   *
+   * @param key       The key to be inserted.
+   * @param value     The value associated with the key.
+   * @param ttlMillis The time to live in milliseconds.
+   */
+  public void put(String key, int value, long ttlMillis) {
+    putExpiringAt(key, value, expiryTime(ttlMillis));
+  }
+
+  /**
+   * Inserts a key-value pair that expires at the given wall-clock time, as recorded by the
+   * write-ahead log, a snapshot or a replication stream. If that time has passed, the key is
+   * reclaimed as soon as the expiry wheel gets to it and reads no longer find it.
+   *
+   * @param key             The key to be inserted.
+   * @param value           The value associated with the key.
+   * @param expiresAtMillis The expiry time in milliseconds since the epoch.
+   */
+  public void putExpiringAt(String key, int value, long expiresAtMillis) {
+    long deadlineMillis = deadlineFor(expiresAtMillis);
+    WriteAheadLog log = writeAheadLog;
+    long sequence;
+    synchronized (logLockFor(key)) {
+      sequence = store(log, key, value, expiresAtMillis);
+      setDeadline(key, deadlineMillis);
+    }
+    if (log != null) {
+      log.awaitDurable(sequence);
+    }
+  }
+
+  /**
+   * Sets the time to live of an existing key, replacing any earlier one.
+   *
+   * @param key       The key.
+   * @param ttlMillis The time to live in milliseconds.
+   * @return true if the key exists, false if it does not.
+   */
+  public boolean expire(String key, long ttlMillis) {
+    return expireAt(key, expiryTime(ttlMillis));
+  }
+
+  /**
+   * Sets the wall-clock time at which an existing key expires, replacing any earlier one.
+   *
+   * @param key             The key.
+   * @param expiresAtMillis The expiry time in milliseconds since the epoch.
+   * @return true if the key exists, false if it does not.
+   */
+  public boolean expireAt(String key, long expiresAtMillis) {
+    long deadlineMillis = deadlineFor(expiresAtMillis);
+    WriteAheadLog log = writeAheadLog;
+    long sequence;
+    synchronized (logLockFor(key)) {
+      if (expireIfDue(key) || engine.get(key) == StorageEngine.MISSING) {
+        return false;
+      }
+      sequence = log == null ? 0 : log.appendExpire(key, expiresAtMillis);
+      replicate(ReplicationBacklog.OP_EXPIRE, key, 0, expiresAtMillis);
+      setDeadline(key, deadlineMillis);
+    }
+    if (log != null) {
+      log.awaitDurable(sequence);
+    }
+    return true;
+  }
+
+  /**
+   * Returns the remaining time to live of a key.
+   *
+   * @param key The key.
+   * @return The remaining time in milliseconds, {@link #TTL_NONE} if the key has no TTL, or
+   *         {@link #TTL_MISSING} if the key is not present.
+   */
+  public long ttl(String key) {
+    if (expireIfDue(key) || engine.get(key) == StorageEngine.MISSING) {
+      return TTL_MISSING;
+    }
+    ExpiryWheel.Deadline deadline = deadlines.get(key);
+    return deadline == null ? TTL_NONE : Math.max(0, deadline.expiresAtMillis - ExpiryWheel.nowMillis());
   }
 
   /**
@@ -33,7 +245,43 @@ public class KeyValue {
    * @return The value associated with the key, or null if the key is not found.
    */
   public Integer get(String key) {
-    return keyValueStore.get(key);
+    if (expireIfDue(key)) {
+      return null;
+    }
+    long value = engine.get(key);
+    if (value == StorageEngine.MISSING) {
+      return null;
+    }
+    EvictionPolicy policy = evictionPolicy;
+    if (policy != null) {
+      policy.recordAccess(key);
+    }
+    return (int) value;
+  }
+
+  /**
+   * Retrieves the value of a key given as UTF-8 bytes, without boxing the value and, with a
+   * storage engine that keeps keys as bytes, without decoding the key.
+   *
+   * @param buffer The buffer holding the key; its position and limit are not used or changed.
+   * @param offset The index of the first byte of the key.
+   * @param length The length of the key in bytes.
+   * @return The value, or {@link StorageEngine#MISSING} if the key is not found.
+   */
+  public long get(ByteBuffer buffer, int offset, int length) {
+    EvictionPolicy policy = evictionPolicy;
+    if (policy == null && deadlines.isEmpty()) {
+      return engine.get(buffer, offset, length);
+    }
+    String key = Utf8.decode(buffer, offset, length);
+    if (expireIfDue(key)) {
+      return StorageEngine.MISSING;
+    }
+    long value = engine.get(buffer, offset, length);
+    if (value != StorageEngine.MISSING && policy != null) {
+      policy.recordAccess(key);
+    }
+    return value;
   }
 
   /**
@@ -42,6 +290,404 @@ public class KeyValue {
    * @param key The key to be deleted.
    */
   public void delete(String key) {
-    keyValueStore.remove(key);
+    WriteAheadLog log = writeAheadLog;
+    long sequence;
+    synchronized (logLockFor(key)) {
+      sequence = remove(log, key);
+      clearDeadline(key);
+    }
+    if (log != null) {
+      log.awaitDurable(sequence);
+    }
+  }
+
+  /**
+   * Inserts several key-value pairs in one pass. With a write-ahead log attached, all records are
+   * appended first and the call waits for durability once, so the whole batch shares one flush.
+   *
+   * @param keys   The keys to be inserted.
+   * @param values The values associated with the keys, in the same order.
+   */
+  public void putAll(String[] keys, int[] values) {
+    WriteAheadLog log = writeAheadLog;
+    long sequence = 0;
+    for (int i = 0; i < keys.length; i++) {
+      synchronized (logLockFor(keys[i])) {
+        sequence = store(log, keys[i], values[i], NO_EXPIRY);
+        clearDeadline(keys[i]);
+      }
+    }
+    if (log != null) {
+      log.awaitDurable(sequence);
+    }
+  }
+
+  /**
+   * Retrieves the values associated with several keys.
+   *
+   * @param keys The keys for which to retrieve the values.
+   * @return The values in the order of the keys, with null for every key that is not found.
+   */
+  public Integer[] getAll(String[] keys) {
+    Integer[] values = new Integer[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      values[i] = get(keys[i]);
+    }
+    return values;
+  }
+
+  /**
+   * Deletes several keys in one pass, waiting for the write-ahead log once for the whole batch.
+   *
+   * @param keys The keys to be deleted.
+   */
+  public void deleteAll(String[] keys) {
+    WriteAheadLog log = writeAheadLog;
+    long sequence = 0;
+    for (String key : keys) {
+      synchronized (logLockFor(key)) {
+        sequence = remove(log, key);
+        clearDeadline(key);
+      }
+    }
+    if (log != null) {
+      log.awaitDurable(sequence);
+    }
+  }
+
+  /**
+   * Returns the number of keys in the store.
+   *
+   * @return The number of key-value pairs.
+   */
+  public int size() {
+    return engine.size();
+  }
+
+  /**
+   * Visits every entry of the store without blocking request handling;
+   * see {@link StorageEngine#forEach(ObjIntConsumer)}.
+   *
+   * @param action The action to run for each key and value.
+   */
+  public void forEach(ObjIntConsumer<String> action) {
+    engine.forEach(action);
+  }
+
+  /**
+   * Visits every entry like {@link #forEach(ObjIntConsumer)}, together with the wall-clock time at
+   * which it expires. A TTL set or changed while the walk runs may be missed, like a value
+   * written meanwhile.
+   *
+   * @param action The action to run for each key, value and expiry time.
+   */
+  void forEachWithExpiry(ExpiringEntryConsumer action) {
+    if (deadlines.isEmpty()) {
+      engine.forEach((key, value) -> action.accept(key, value, NO_EXPIRY));
+      return;
+    }
+    long wallClockOffset = System.currentTimeMillis() - ExpiryWheel.nowMillis();
+    engine.forEach((key, value) -> {
+      ExpiryWheel.Deadline deadline = deadlines.get(key);
+      action.accept(key, value, deadline == null ? NO_EXPIRY : deadline.expiresAtMillis + wallClockOffset);
+    });
+  }
+
+  /**
+   * Writes the expiry time of every key with a TTL to a file, for a storage engine that keeps its
+   * data across restarts without a write-ahead log; {@link #loadExpiries(Path)} gives the keys
+   * their TTLs back after the restart. The file is replaced atomically.
+   *
+   * @param file The file to write.
+   * @return The number of expiry times written.
+   * @throws IOException if the file cannot be written.
+   */
+  public int saveExpiries(Path file) throws IOException {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    long wallClockOffset = System.currentTimeMillis() - ExpiryWheel.nowMillis();
+    int saved = 0;
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+      for (ExpiryWheel.Deadline deadline : deadlines.values()) {
+        out.writeUTF(deadline.key);
+        out.writeLong(deadline.expiresAtMillis + wallClockOffset);
+        saved++;
+      }
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return saved;
+  }
+
+  /**
+   * Restores the expiry times written by {@link #saveExpiries(Path)} and deletes the file, so
+   * that an older file is not applied again after a restart that did not save a new one.
+   *
+   * @param file The file to read; nothing happens if it does not exist.
+   * @return The number of keys given back their TTL.
+   * @throws IOException if the file cannot be read.
+   */
+  public int loadExpiries(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+    int restored = 0;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      while (true) {
+        String key;
+        try {
+          key = in.readUTF();
+        } catch (EOFException e) {
+          break;
+        }
+        if (expireAt(key, in.readLong())) {
+          restored++;
+        }
+      }
+    }
+    Files.delete(file);
+    return restored;
+  }
+
+  /**
+   * Returns the attached write-ahead log.
+   *
+   * @return The write-ahead log, or null if none is attached.
+   */
+  public WriteAheadLog getWriteAheadLog() {
+    return writeAheadLog;
+  }
+
+  /**
+   * Returns the sequence number of the last write-ahead log record whose operation has also been
+   * applied to the store, as the point a snapshot taken from now on covers. Records are appended
+   * before they are applied, both under the lock of the key, so the sequence is read with every
+   * key lock held.
+   *
+   * @return The sequence number, or 0 without a log.
+   */
+  long appliedLogSequence() {
+    WriteAheadLog log = writeAheadLog;
+    return log == null ? 0 : appliedLogSequence(log, 0);
+  }
+
+  private long appliedLogSequence(WriteAheadLog log, int stripe) {
+    if (stripe == LOG_LOCK_STRIPES) {
+      return log.lastSequence();
+    }
+    synchronized (logLocks[stripe]) {
+      return appliedLogSequence(log, stripe + 1);
+    }
+  }
+
+  /**
+   * Closes the write-ahead log, if any, and releases the resources of the underlying storage engine.
+   */
+  public void close() {
+    ExpiryWheel wheel = expiryWheel;
+    if (wheel != null) {
+      wheel.stop();
+    }
+    WriteAheadLog log = writeAheadLog;
+    if (log != null) {
+      log.close();
+    }
+    engine.close();
+  }
+
+  /**
+   * Removes a key whose TTL has run out.
+   *
+   * @param key The key.
+   * @return true if the key had expired and was removed.
+   */
+  private boolean expireIfDue(String key) {
+    if (deadlines.isEmpty()) {
+      return false;
+    }
+    ExpiryWheel.Deadline deadline = deadlines.get(key);
+    return deadline != null && deadline.expiresAtMillis <= ExpiryWheel.nowMillis() && reclaim(deadline);
+  }
+
+  /**
+   * Removes the key of a deadline that has fallen due, unless its TTL was cleared or moved later
+   * since; a deadline moved later is filed again for its new time. The delete is logged but,
+   * unlike a client's DELETE, nobody waits for it to be durable.
+   *
+   * @param deadline The deadline.
+   * @return true if the key was removed.
+   */
+  private boolean reclaim(ExpiryWheel.Deadline deadline) {
+    WriteAheadLog log = writeAheadLog;
+    synchronized (logLockFor(deadline.key)) {
+      if (deadlines.get(deadline.key) != deadline) {
+        return false;
+      }
+      if (deadline.expiresAtMillis > ExpiryWheel.nowMillis()) {
+        expiryWheel().schedule(deadline);
+        return false;
+      }
+      deadlines.remove(deadline.key);
+      remove(log, deadline.key);
+    }
+    return true;
+  }
+
+  /**
+   * Sets the expiry time of a key, reusing its deadline if it has one so that a refreshed TTL
+   * leaves no stale deadline in the wheel. Must be called with the lock of the key held.
+   */
+  private void setDeadline(String key, long expiresAtMillis) {
+    ExpiryWheel.Deadline deadline = deadlines.get(key);
+    if (deadline == null) {
+      deadline = new ExpiryWheel.Deadline(key, expiresAtMillis);
+      deadlines.put(key, deadline);
+      expiryWheel().schedule(deadline);
+      return;
+    }
+    long previous = deadline.expiresAtMillis;
+    deadline.expiresAtMillis = expiresAtMillis;
+    // A later time is picked up when the deadline fires at the old one; an earlier time would
+    // fire late, so the deadline is moved now.
+    if (expiresAtMillis < previous) {
+      expiryWheel().schedule(deadline);
+    }
+  }
+
+  /**
+   * Removes the TTL of a key and its deadline from the wheel. Must be called with the lock of the
+   * key held, or for an evicted key with the eviction policy locked.
+   */
+  private void clearDeadline(String key) {
+    if (deadlines.isEmpty()) {
+      return;
+    }
+    ExpiryWheel.Deadline deadline = deadlines.remove(key);
+    if (deadline != null) {
+      expiryWheel().cancel(deadline);
+    }
+  }
+
+  /**
+   * Logs and applies a PUT, then evicts whatever the eviction policy, if any, chooses.
+   *
+   * @param log             The write-ahead log, or null.
+   * @param key             The key.
+   * @param value           The value.
+   * @param expiresAtMillis The wall-clock expiry time to record, or {@link #NO_EXPIRY}.
+   * @return The log sequence of the PUT, or 0 without a log.
+   */
+  private long store(WriteAheadLog log, String key, int value, long expiresAtMillis) {
+    EvictionPolicy policy = evictionPolicy;
+    if (policy == null) {
+      long sequence = logPut(log, key, value, expiresAtMillis);
+      engine.put(key, value);
+      replicatePut(key, value, expiresAtMillis);
+      return sequence;
+    }
+    synchronized (policy) {
+      long sequence = logPut(log, key, value, expiresAtMillis);
+      engine.put(key, value);
+      replicatePut(key, value, expiresAtMillis);
+      policy.recordWrite(key);
+      evictOverflow(policy, log);
+      return sequence;
+    }
+  }
+
+  /**
+   * Logs and applies a DELETE.
+   *
+   * @param log The write-ahead log, or null.
+   * @param key The key.
+   * @return The log sequence of the DELETE, or 0 without a log.
+   */
+  private long remove(WriteAheadLog log, String key) {
+    EvictionPolicy policy = evictionPolicy;
+    if (policy == null) {
+      long sequence = log == null ? 0 : log.appendDelete(key);
+      engine.delete(key);
+      replicate(ReplicationBacklog.OP_DELETE, key, 0, NO_EXPIRY);
+      return sequence;
+    }
+    synchronized (policy) {
+      long sequence = log == null ? 0 : log.appendDelete(key);
+      engine.delete(key);
+      replicate(ReplicationBacklog.OP_DELETE, key, 0, NO_EXPIRY);
+      policy.recordRemoval(key);
+      return sequence;
+    }
+  }
+
+  /**
+   * Deletes keys until the store is back within the bound of the policy. Must be called with the
+   * policy locked. Like expiries, evictions are logged without waiting for them to be durable.
+   */
+  private void evictOverflow(EvictionPolicy policy, WriteAheadLog log) {
+    String victim;
+    while ((victim = policy.evict()) != null) {
+      if (log != null) {
+        log.appendDelete(victim);
+      }
+      engine.delete(victim);
+      replicate(ReplicationBacklog.OP_DELETE, victim, 0, NO_EXPIRY);
+      // Left in place, the deadline would only delete the key again if it is written back.
+      clearDeadline(victim);
+    }
+  }
+
+  private static long logPut(WriteAheadLog log, String key, int value, long expiresAtMillis) {
+    if (log == null) {
+      return 0;
+    }
+    return expiresAtMillis == NO_EXPIRY ? log.appendPut(key, value) : log.appendPutExpiring(key, value, expiresAtMillis);
+  }
+
+  private void replicatePut(String key, int value, long expiresAtMillis) {
+    replicate(expiresAtMillis == NO_EXPIRY ? ReplicationBacklog.OP_PUT : ReplicationBacklog.OP_PUT_EXPIRING,
+            key, value, expiresAtMillis);
+  }
+
+  private void replicate(byte op, String key, int value, long expiresAtMillis) {
+    ReplicationBacklog backlog = replicationBacklog;
+    if (backlog != null) {
+      backlog.append(op, key, value, expiresAtMillis);
+    }
+  }
+
+  /**
+   * Returns the wall-clock time a TTL ends at, which is what the log and replicas record.
+   */
+  private static long expiryTime(long ttlMillis) {
+    if (ttlMillis <= 0) {
+      throw new IllegalArgumentException("TTL must be positive: " + ttlMillis);
+    }
+    return System.currentTimeMillis() + Math.min(ttlMillis, MAX_TTL_MILLIS);
+  }
+
+  /**
+   * Converts a wall-clock expiry time to the monotonic clock of the expiry wheel.
+   */
+  private static long deadlineFor(long expiresAtMillis) {
+    return ExpiryWheel.nowMillis() + Math.min(expiresAtMillis - System.currentTimeMillis(), MAX_TTL_MILLIS);
+  }
+
+  /**
+   * Returns the expiry wheel, starting it when the first TTL is set.
+   */
+  private ExpiryWheel expiryWheel() {
+    ExpiryWheel wheel = expiryWheel;
+    if (wheel == null) {
+      synchronized (deadlines) {
+        wheel = expiryWheel;
+        if (wheel == null) {
+          wheel = new ExpiryWheel(EXPIRY_TICK_MILLIS, EXPIRY_BUDGET_MILLIS, this::reclaim);
+          expiryWheel = wheel;
+        }
+      }
+    }
+    return wheel;
+  }
+
+  private Object logLockFor(String key) {
+    return logLocks[(key.hashCode() & 0x7FFFFFFF) % LOG_LOCK_STRIPES];
   }
 }
@@ -0,0 +1,112 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds with log-linear buckets: every power of two
+ * is split into {@value #SUB_BUCKETS} equal buckets, so any recorded value is reported within
+ * about 6% of its true value while the whole range of a {@code long} fits in a fixed array.
+ * Recording is a single atomic increment and may run on any number of threads at once.
+ */
+final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong max = new AtomicLong();
+
+  /**
+   * Records one latency.
+   *
+   * @param nanos The latency in nanoseconds.
+   */
+  void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucketOf(value));
+    if (value > max.get()) {
+      max.accumulateAndGet(value, Math::max);
+    }
+  }
+
+  /**
+   * Copies the current bucket counts. Recording may continue meanwhile, so the copy is only
+   * approximately a single point in time.
+   *
+   * @return The count of every bucket.
+   */
+  long[] snapshot() {
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Returns the largest latency recorded so far.
+   *
+   * @return The maximum in nanoseconds.
+   */
+  long max() {
+    return max.get();
+  }
+
+  /**
+   * Returns the total count of a snapshot.
+   *
+   * @param snapshot Bucket counts from {@link #snapshot()}, or the difference of two snapshots.
+   * @return The number of recorded values.
+   */
+  static long count(long[] snapshot) {
+    long count = 0;
+    for (long bucket : snapshot) {
+      count += bucket;
+    }
+    return count;
+  }
+
+  /**
+   * Returns the latency at the given percentile of a snapshot.
+   *
+   * @param snapshot   Bucket counts from {@link #snapshot()}, or the difference of two snapshots.
+   * @param percentile The percentile, between 0 and 100.
+   * @return The upper bound of the bucket holding that percentile in nanoseconds, or 0 if empty.
+   */
+  static long percentile(long[] snapshot, double percentile) {
+    long count = count(snapshot);
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return upperBoundOf(i);
+      }
+    }
+    return upperBoundOf(snapshot.length - 1);
+  }
+
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+    int subBucket = (int) (value >>> (exponent - 1)) & (SUB_BUCKETS - 1);
+    return exponent * SUB_BUCKETS + subBucket;
+  }
+
+  private static long upperBoundOf(int bucket) {
+    int exponent = bucket / SUB_BUCKETS;
+    long subBucket = bucket % SUB_BUCKETS;
+    if (exponent == 0) {
+      return subBucket;
+    }
+    long lowerBound = (SUB_BUCKETS + subBucket) << (exponent - 1);
+    return lowerBound + (1L << (exponent - 1)) - 1;
+  }
+}
@@ -0,0 +1,558 @@
+package server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * MappedStorageEngine keeps the whole hash table in memory-mapped files, off the Java heap.
+ * An index file holds a header and an open-addressing table of fixed 16 byte slots
+ * (key reference, hash, {@code int} value); a keys file holds the keys as length-prefixed UTF-8.
+ * Opening an existing directory only maps the files, so a restart is ready immediately and the
+ * OS page cache does the warm-up; datasets larger than the heap only need enough disk and
+ * address space.
+ *
+ * <p>When the table fills up both files are rewritten as the next generation, dropping deleted
+ * keys, and the previous generation is removed once the new one is complete. Writes go to the
+ * page cache; they are forced to disk on {@link #close()}.
+ */
+public class MappedStorageEngine implements StorageEngine {
+
+  private static final int MAGIC = 0x4B564D31;
+  private static final int HEADER_BYTES = 64;
+  private static final int MAGIC_OFFSET = 0;
+  private static final int CAPACITY_OFFSET = 4;
+  private static final int SIZE_OFFSET = 8;
+  private static final int TOMBSTONES_OFFSET = 12;
+  private static final int KEYS_END_OFFSET = 16;
+
+  private static final int SLOT_BYTES = 16;
+  private static final int SLOT_HASH_OFFSET = 8;
+  private static final int SLOT_VALUE_OFFSET = 12;
+  private static final int INDEX_REGION_BYTES = 1 << 30;
+  private static final int KEY_REGION_BYTES = 1 << 26;
+  private static final int LENGTH_PREFIX_BYTES = 2;
+  private static final int MAX_KEY_BYTES = 0xFFFF;
+  private static final int MIN_CAPACITY = 1024;
+  private static final int VISIT_BATCH_SLOTS = 1024;
+
+  private static final long EMPTY = 0;
+  private static final long DELETED = -1;
+
+  private static final ServerLogger logger = new ServerLogger();
+
+  private final Path directory;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  private int generation;
+  private FileChannel indexChannel;
+  private FileChannel keysChannel;
+  private MappedByteBuffer[] indexRegions;
+  private final List<MappedByteBuffer> keyRegions = new ArrayList<>();
+  private int mask;
+  private int size;
+  private int tombstones;
+  private long keysEnd;
+
+  /**
+   * Opens the engine stored in the given directory, creating an empty one if there is none.
+   *
+   * @param directory    The directory holding the data files.
+   * @param expectedKeys The number of keys a new engine should hold without being rebuilt.
+   * @throws IOException if the files cannot be created or mapped.
+   */
+  public MappedStorageEngine(Path directory, int expectedKeys) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+
+    int latest = latestCompleteGeneration();
+    if (latest >= 0) {
+      openGeneration(latest);
+      logger.info("Opened mapped store generation " + latest + " in " + directory + " with " + size + " keys");
+    } else {
+      createGeneration(0, capacityFor(expectedKeys));
+      openGeneration(0);
+      markComplete();
+      logger.info("Created mapped store in " + directory);
+    }
+    deleteOtherGenerations();
+  }
+
+  @Override
+  public void put(String key, int value) {
+    int hash = Utf8.hash(key);
+    lock.writeLock().lock();
+    try {
+      int index = hash & mask;
+      int firstDeleted = -1;
+      while (true) {
+        long ref = slotRef(index);
+        if (ref == EMPTY) {
+          break;
+        }
+        if (ref == DELETED) {
+          if (firstDeleted < 0) {
+            firstDeleted = index;
+          }
+        } else if (slotHash(index) == hash && keyEquals(ref - 1, key)) {
+          slotRegion(index).putInt(slotOffset(index) + SLOT_VALUE_OFFSET, value);
+          return;
+        }
+        index = (index + 1) & mask;
+      }
+
+      if (firstDeleted >= 0) {
+        index = firstDeleted;
+        tombstones--;
+      } else if ((size + tombstones + 1) * 4L > (mask + 1) * 3L) {
+        rebuild(capacityFor(size + 1));
+        index = emptySlot(hash);
+      }
+      long keyOffset = appendKey(key);
+      writeSlot(index, keyOffset + 1, hash, value);
+      size++;
+      writeCounters();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public long get(String key) {
+    int hash = Utf8.hash(key);
+    lock.readLock().lock();
+    try {
+      int index = find(key, hash);
+      return index < 0 ? MISSING : slotRegion(index).getInt(slotOffset(index) + SLOT_VALUE_OFFSET);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public long get(ByteBuffer buffer, int offset, int length) {
+    int hash = Utf8.hash(buffer, offset, length);
+    lock.readLock().lock();
+    try {
+      int index = find(buffer, offset, length, hash);
+      return index < 0 ? MISSING : slotRegion(index).getInt(slotOffset(index) + SLOT_VALUE_OFFSET);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  @Override
+  public void delete(String key) {
+    int hash = Utf8.hash(key);
+    lock.writeLock().lock();
+    try {
+      int index = find(key, hash);
+      if (index >= 0) {
+        slotRegion(index).putLong(slotOffset(index), DELETED);
+        size--;
+        tombstones++;
+        writeCounters();
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Visits the table in small slot ranges, holding the read lock only while a range is copied.
+   * If the table is rebuilt in between, the visit starts over on the new generation and visits
+   * the entries seen before the rebuild again: remembering them instead would take heap in
+   * proportion to the store, which this engine is meant to keep off the heap.
+   */
+  @Override
+  public void forEach(ObjIntConsumer<String> action) {
+    String[] keys = new String[VISIT_BATCH_SLOTS];
+    int[] values = new int[VISIT_BATCH_SLOTS];
+    int visitedGeneration = -1;
+    int next = 0;
+    while (true) {
+      int count = 0;
+      lock.readLock().lock();
+      try {
+        if (generation != visitedGeneration) {
+          visitedGeneration = generation;
+          next = 0;
+        }
+        if (next > mask) {
+          return;
+        }
+        int end = Math.min(mask + 1, next + VISIT_BATCH_SLOTS);
+        for (; next < end; next++) {
+          long ref = slotRef(next);
+          if (ref != EMPTY && ref != DELETED) {
+            keys[count] = readKey(ref - 1);
+            values[count++] = slotRegion(next).getInt(slotOffset(next) + SLOT_VALUE_OFFSET);
+          }
+        }
+      } finally {
+        lock.readLock().unlock();
+      }
+      for (int i = 0; i < count; i++) {
+        action.accept(keys[i], values[i]);
+      }
+    }
+  }
+
+  /**
+   * Forces the mapped files to disk and closes them.
+   */
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      force();
+      indexChannel.close();
+      keysChannel.close();
+      logger.info("Closed mapped store in " + directory + " with " + size + " keys");
+    } catch (IOException e) {
+      logger.error("Error closing mapped store: " + e.getMessage());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private int find(String key, int hash) {
+    int index = hash & mask;
+    for (int probes = 0; probes <= mask; probes++) {
+      long ref = slotRef(index);
+      if (ref == EMPTY) {
+        return -1;
+      }
+      if (ref != DELETED && slotHash(index) == hash && keyEquals(ref - 1, key)) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  private int find(ByteBuffer buffer, int offset, int length, int hash) {
+    int index = hash & mask;
+    for (int probes = 0; probes <= mask; probes++) {
+      long ref = slotRef(index);
+      if (ref == EMPTY) {
+        return -1;
+      }
+      if (ref != DELETED && slotHash(index) == hash && keyEquals(ref - 1, buffer, offset, length)) {
+        return index;
+      }
+      index = (index + 1) & mask;
+    }
+    return -1;
+  }
+
+  private int emptySlot(int hash) {
+    int index = hash & mask;
+    while (slotRef(index) != EMPTY) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  private MappedByteBuffer slotRegion(int index) {
+    return indexRegions[(int) (slotPosition(index) / INDEX_REGION_BYTES)];
+  }
+
+  private int slotOffset(int index) {
+    return (int) (slotPosition(index) % INDEX_REGION_BYTES);
+  }
+
+  private static long slotPosition(int index) {
+    return HEADER_BYTES + (long) index * SLOT_BYTES;
+  }
+
+  private long slotRef(int index) {
+    return slotRegion(index).getLong(slotOffset(index));
+  }
+
+  private int slotHash(int index) {
+    return slotRegion(index).getInt(slotOffset(index) + SLOT_HASH_OFFSET);
+  }
+
+  private void writeSlot(int index, long ref, int hash, int value) {
+    MappedByteBuffer region = slotRegion(index);
+    int offset = slotOffset(index);
+    region.putInt(offset + SLOT_HASH_OFFSET, hash);
+    region.putInt(offset + SLOT_VALUE_OFFSET, value);
+    region.putLong(offset, ref);
+  }
+
+  private void writeCounters() {
+    MappedByteBuffer header = indexRegions[0];
+    header.putInt(SIZE_OFFSET, size);
+    header.putInt(TOMBSTONES_OFFSET, tombstones);
+    header.putLong(KEYS_END_OFFSET, keysEnd);
+  }
+
+  private boolean keyEquals(long keyOffset, String key) {
+    MappedByteBuffer region = keyRegions.get((int) (keyOffset / KEY_REGION_BYTES));
+    int position = (int) (keyOffset % KEY_REGION_BYTES);
+    int end = position + LENGTH_PREFIX_BYTES + (region.getShort(position) & 0xFFFF);
+    position += LENGTH_PREFIX_BYTES;
+    for (int i = 0; i < key.length(); ) {
+      long encoded = Utf8.encodeAt(key, i);
+      int count = Utf8.byteCount(encoded);
+      if (position + count > end) {
+        return false;
+      }
+      for (int b = 0; b < count; b++) {
+        if (region.get(position++) != Utf8.byteAt(encoded, b)) {
+          return false;
+        }
+      }
+      i += Utf8.charCount(encoded);
+    }
+    return position == end;
+  }
+
+  private boolean keyEquals(long keyOffset, ByteBuffer buffer, int offset, int length) {
+    MappedByteBuffer region = keyRegions.get((int) (keyOffset / KEY_REGION_BYTES));
+    int position = (int) (keyOffset % KEY_REGION_BYTES);
+    if ((region.getShort(position) & 0xFFFF) != length) {
+      return false;
+    }
+    position += LENGTH_PREFIX_BYTES;
+    for (int i = 0; i < length; i++) {
+      if (region.get(position + i) != buffer.get(offset + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String readKey(long keyOffset) {
+    MappedByteBuffer region = keyRegions.get((int) (keyOffset / KEY_REGION_BYTES));
+    int position = (int) (keyOffset % KEY_REGION_BYTES);
+    byte[] bytes = new byte[region.getShort(position) & 0xFFFF];
+    region.get(position + LENGTH_PREFIX_BYTES, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Appends a key to the keys file. Keys never straddle two mapped regions.
+   *
+   * @return The offset of the key in the keys file.
+   */
+  private long appendKey(String key) throws IOException {
+    int length = Utf8.length(key);
+    if (length > MAX_KEY_BYTES) {
+      throw new IllegalArgumentException("Key longer than " + MAX_KEY_BYTES + " bytes");
+    }
+    long offset = reserveKeyBytes(LENGTH_PREFIX_BYTES + length);
+    MappedByteBuffer region = keyRegions.get((int) (offset / KEY_REGION_BYTES));
+    int position = (int) (offset % KEY_REGION_BYTES);
+    region.putShort(position, (short) length);
+    position += LENGTH_PREFIX_BYTES;
+    for (int i = 0; i < key.length(); ) {
+      long encoded = Utf8.encodeAt(key, i);
+      for (int b = 0; b < Utf8.byteCount(encoded); b++) {
+        region.put(position++, Utf8.byteAt(encoded, b));
+      }
+      i += Utf8.charCount(encoded);
+    }
+    return offset;
+  }
+
+  private long reserveKeyBytes(int bytes) throws IOException {
+    long offset = keysEnd;
+    if (offset % KEY_REGION_BYTES + bytes > KEY_REGION_BYTES) {
+      offset = (offset / KEY_REGION_BYTES + 1) * KEY_REGION_BYTES;
+    }
+    int region = (int) (offset / KEY_REGION_BYTES);
+    while (keyRegions.size() <= region) {
+      keyRegions.add(keysChannel.map(FileChannel.MapMode.READ_WRITE,
+              (long) keyRegions.size() * KEY_REGION_BYTES, KEY_REGION_BYTES));
+    }
+    keysEnd = offset + bytes;
+    return offset;
+  }
+
+  /**
+   * Rewrites the live entries into the next generation of files and switches over to it.
+   */
+  private void rebuild(int capacity) throws IOException {
+    int next = generation + 1;
+    createGeneration(next, capacity);
+    MappedStorageEngine target = new MappedStorageEngine(directory);
+    target.openGeneration(next);
+    for (int index = 0; index <= mask; index++) {
+      long ref = slotRef(index);
+      if (ref != EMPTY && ref != DELETED) {
+        int hash = slotHash(index);
+        int slot = target.emptySlot(hash);
+        long keyOffset = target.copyKey(this, ref - 1);
+        target.writeSlot(slot, keyOffset + 1, hash, slotRegion(index).getInt(slotOffset(index) + SLOT_VALUE_OFFSET));
+        target.size++;
+      }
+    }
+    target.writeCounters();
+    target.force();
+    target.markComplete();
+
+    force();
+    indexChannel.close();
+    keysChannel.close();
+    generation = next;
+    indexChannel = target.indexChannel;
+    keysChannel = target.keysChannel;
+    indexRegions = target.indexRegions;
+    keyRegions.clear();
+    keyRegions.addAll(target.keyRegions);
+    mask = target.mask;
+    size = target.size;
+    tombstones = 0;
+    keysEnd = target.keysEnd;
+    deleteOtherGenerations();
+    logger.info("Rebuilt mapped store as generation " + generation + " with capacity " + (mask + 1));
+  }
+
+  /**
+   * Only used while rebuilding: a bare engine that the next generation is written through.
+   */
+  private MappedStorageEngine(Path directory) {
+    this.directory = directory;
+  }
+
+  private long copyKey(MappedStorageEngine source, long sourceOffset) throws IOException {
+    MappedByteBuffer sourceRegion = source.keyRegions.get((int) (sourceOffset / KEY_REGION_BYTES));
+    int sourcePosition = (int) (sourceOffset % KEY_REGION_BYTES);
+    int bytes = LENGTH_PREFIX_BYTES + (sourceRegion.getShort(sourcePosition) & 0xFFFF);
+    long offset = reserveKeyBytes(bytes);
+    MappedByteBuffer region = keyRegions.get((int) (offset / KEY_REGION_BYTES));
+    region.put((int) (offset % KEY_REGION_BYTES), sourceRegion, sourcePosition, bytes);
+    return offset;
+  }
+
+  private void force() {
+    for (MappedByteBuffer region : indexRegions) {
+      region.force();
+    }
+    for (MappedByteBuffer region : keyRegions) {
+      region.force();
+    }
+  }
+
+  /**
+   * Creates empty files for a generation. The magic number is only written by
+   * {@link #markComplete()}, so a generation without it was never completed and is ignored on startup.
+   */
+  private void createGeneration(int gen, int capacity) throws IOException {
+    try (FileChannel channel = FileChannel.open(indexFile(gen), StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+      header.putInt(CAPACITY_OFFSET, capacity);
+      channel.write(header, 0);
+      channel.write(ByteBuffer.allocate(1), HEADER_BYTES + (long) capacity * SLOT_BYTES - 1);
+    }
+    Files.deleteIfExists(keysFile(gen));
+    Files.createFile(keysFile(gen));
+  }
+
+  private void markComplete() {
+    MappedByteBuffer header = indexRegions[0];
+    header.putInt(MAGIC_OFFSET, MAGIC);
+    header.force();
+  }
+
+  private void openGeneration(int gen) throws IOException {
+    generation = gen;
+    indexChannel = FileChannel.open(indexFile(gen), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    keysChannel = FileChannel.open(keysFile(gen), StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+    long indexBytes = indexChannel.size();
+    indexRegions = new MappedByteBuffer[(int) ((indexBytes + INDEX_REGION_BYTES - 1) / INDEX_REGION_BYTES)];
+    for (int i = 0; i < indexRegions.length; i++) {
+      long start = (long) i * INDEX_REGION_BYTES;
+      indexRegions[i] = indexChannel.map(FileChannel.MapMode.READ_WRITE, start,
+              Math.min(INDEX_REGION_BYTES, indexBytes - start));
+    }
+    MappedByteBuffer header = indexRegions[0];
+    int capacity = header.getInt(CAPACITY_OFFSET);
+    mask = capacity - 1;
+    size = header.getInt(SIZE_OFFSET);
+    tombstones = header.getInt(TOMBSTONES_OFFSET);
+    keysEnd = header.getLong(KEYS_END_OFFSET);
+
+    keyRegions.clear();
+    long keyBytes = keysChannel.size();
+    for (long start = 0; start < keyBytes; start += KEY_REGION_BYTES) {
+      keyRegions.add(keysChannel.map(FileChannel.MapMode.READ_WRITE, start, KEY_REGION_BYTES));
+    }
+  }
+
+  private int latestCompleteGeneration() throws IOException {
+    int latest = -1;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "index-*.dat")) {
+      for (Path file : files) {
+        int gen = generationOf(file);
+        if (gen > latest && Files.exists(keysFile(gen)) && Files.size(file) >= HEADER_BYTES) {
+          try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(magic, MAGIC_OFFSET);
+            if (magic.getInt(0) == MAGIC) {
+              latest = gen;
+            }
+          }
+        }
+      }
+    }
+    return latest;
+  }
+
+  private void deleteOtherGenerations() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "{index,keys}-*.dat")) {
+      for (Path file : files) {
+        if (generationOf(file) != generation) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+
+  private Path indexFile(int gen) {
+    return directory.resolve("index-" + gen + ".dat");
+  }
+
+  private Path keysFile(int gen) {
+    return directory.resolve("keys-" + gen + ".dat");
+  }
+
+  private static int generationOf(Path file) {
+    String name = file.getFileName().toString();
+    return Integer.parseInt(name.substring(name.indexOf('-') + 1, name.length() - ".dat".length()));
+  }
+
+  private static int capacityFor(int keys) {
+    int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, keys * 2 - 1)) << 1;
+    return Math.max(MIN_CAPACITY, capacity);
+  }
+}
@@ -0,0 +1,498 @@
+package server;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * NIOHandler serves the TCP protocol with non-blocking channels.
+ * One acceptor thread hands new connections to a small, fixed pool of selector-driven
+ * event loops, so the number of open connections no longer depends on the number of threads.
+ * The wire format is the same as {@link TCPHandler}: an 8 byte checksum followed by a
+ * {@code writeUTF} encoded request, answered by a {@code writeUTF} encoded response.
+ * After the {@link BinaryProtocol#HANDSHAKE} a connection switches to binary frames.
+ *
+ * <p>Responses are encoded straight into pooled direct buffers: a binary frame header and its
+ * body are written back to back, and the responses to all requests read in one go share a buffer.
+ * The queued buffers of a connection then go out in a single gathering write, so a burst of
+ * pipelined requests is answered with one system call and no per-response allocation.
+ *
+ * <p>A client that pipelines requests without reading the responses would otherwise make the
+ * server queue output without bound. Once a connection has {@link #WRITE_HIGH_WATER_BYTES} of
+ * responses queued, it stops handling the requests it has buffered and stops reading the socket;
+ * when the queue has drained to {@link #WRITE_LOW_WATER_BYTES}, it picks up where it left off.
+ */
+public class NIOHandler extends AbstractHandler {
+
+  private static final int HEADER_BYTES = Long.BYTES + Short.BYTES;
+  private static final int MAX_FRAME_BYTES = HEADER_BYTES + 0xFFFF;
+  private static final int INITIAL_BUFFER_BYTES = 4096;
+  private static final int ACCEPT_BACKLOG = 1024;
+  private static final int OUTPUT_BUFFER_BYTES = 16 * 1024;
+  private static final int MAX_POOLED_OUTPUT_BUFFERS = 256;
+  private static final int MAX_GATHERED_BUFFERS = 64;
+  private static final int WRITE_HIGH_WATER_BYTES = 256 * 1024;
+  private static final int WRITE_LOW_WATER_BYTES = 64 * 1024;
+  private static final byte[] HANDSHAKE_RESPONSE = encodeConstant(BinaryProtocol.HANDSHAKE_ACCEPTED);
+
+  private final int port;
+  private final int eventLoopCount;
+  private final ThreadLocal<Connection> currentConnection = new ThreadLocal<>();
+  private final DirectBufferPool outputBuffers = new DirectBufferPool(OUTPUT_BUFFER_BYTES, MAX_POOLED_OUTPUT_BUFFERS);
+
+  private static final ServerLogger logger = new ServerLogger();
+
+  /**
+   * Constructs a NIOHandler with the specified port, key-value store and number of event loops.
+   *
+   * @param port           The port on which the server will listen.
+   * @param keyValueStore  The key-value store to handle the requests.
+   * @param eventLoopCount The number of selector threads serving the accepted connections.
+   */
+  public NIOHandler(int port, KeyValue keyValueStore, int eventLoopCount) {
+    super(keyValueStore);
+    this.port = port;
+    this.eventLoopCount = Math.max(1, eventLoopCount);
+  }
+
+  /**
+   * Starts the event loops and accepts incoming connections.
+   */
+  @Override
+  public void run() {
+    try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+         Selector acceptSelector = Selector.open()) {
+      serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+      serverChannel.configureBlocking(false);
+      serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+      EventLoop[] eventLoops = new EventLoop[eventLoopCount];
+      for (int i = 0; i < eventLoopCount; i++) {
+        eventLoops[i] = new EventLoop();
+        Thread loopThread = new Thread(eventLoops[i], "nio-event-loop-" + i);
+        loopThread.setDaemon(true);
+        loopThread.start();
+      }
+      logger.info("NIO TCP Server started on port " + port + " with " + eventLoopCount + " event loops");
+
+      int next = 0;
+      while (true) {
+        acceptSelector.select();
+        acceptSelector.selectedKeys().clear();
+        SocketChannel clientChannel;
+        while ((clientChannel = serverChannel.accept()) != null) {
+          clientChannel.configureBlocking(false);
+          clientChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+          logger.info("New connection from " + clientChannel.getRemoteAddress());
+          eventLoops[next].register(clientChannel);
+          next = (next + 1) % eventLoopCount;
+        }
+      }
+    } catch (IOException e) {
+      logger.error("Error in NIO TCP server: " + e.getMessage());
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Queues a response for the connection whose request is currently being handled
+   * by the calling event loop.
+   *
+   * @param response The response message to be sent.
+   */
+  @Override
+  public void sendResponse(String response) {
+    Connection connection = currentConnection.get();
+    if (connection == null) {
+      logger.error("No connection bound to thread " + Thread.currentThread().getName());
+      return;
+    }
+    try {
+      int length = writeUtfLength(response);
+      putUtf(length <= OUTPUT_BUFFER_BYTES ? connection.reserve(length) : connection.enqueue(length), response);
+    } catch (IOException e) {
+      logger.error("Error encoding response for client: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Encodes a constant response once, the same way {@link java.io.DataOutputStream#writeUTF(String)} does.
+   *
+   * @param response The response message.
+   * @return The encoded response.
+   */
+  private static byte[] encodeConstant(String response) {
+    ByteBuffer encoded = ByteBuffer.allocate(writeUtfLength(response));
+    try {
+      putUtf(encoded, response);
+    } catch (IOException e) {
+      throw new IllegalArgumentException(e);
+    }
+    return encoded.array();
+  }
+
+  /**
+   * A selector thread owning a subset of the connections.
+   */
+  private class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    // Binary responses are encoded here and copied into their frame; connections of this loop share it.
+    private final ByteBuffer responseBuffer = ByteBuffer.allocate(BinaryProtocol.RESPONSE_BUFFER_BYTES);
+    // The buffers handed to one gathering write, reused by every connection of this loop.
+    private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+
+    EventLoop() throws IOException {
+      selector = Selector.open();
+    }
+
+    /**
+     * Hands a freshly accepted channel over to this event loop.
+     *
+     * @param channel The accepted client channel.
+     */
+    void register(SocketChannel channel) {
+      pendingChannels.add(channel);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        try {
+          selector.select();
+          registerPendingChannels();
+
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Connection connection = (Connection) key.attachment();
+            try {
+              if (key.isValid() && key.isReadable()) {
+                connection.read();
+              }
+              if (key.isValid() && key.isWritable()) {
+                connection.write();
+              }
+            } catch (IOException e) {
+              logger.error("Error handling client connection: " + e.getMessage());
+              connection.close();
+            }
+          }
+        } catch (IOException e) {
+          logger.error("Error in NIO event loop: " + e.getMessage());
+          e.printStackTrace();
+        }
+      }
+    }
+
+    private void registerPendingChannels() {
+      SocketChannel channel;
+      while ((channel = pendingChannels.poll()) != null) {
+        try {
+          SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+          key.attach(new Connection(channel, key, responseBuffer, gatherBuffers));
+          metrics.connectionOpened();
+        } catch (IOException e) {
+          logger.error("Error registering client channel: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  /**
+   * Per-connection state: a read buffer holding partially received frames, the pooled buffer
+   * responses are being encoded into and a queue of encoded responses that are not written yet.
+   * While the queue is above the high-water mark, reading is paused and complete frames wait in
+   * the read buffer.
+   */
+  private class Connection {
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private final ByteBuffer responseBuffer;
+    private final ByteBuffer[] gatherBuffers;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_BYTES);
+    // The pooled buffer responses are appended to, in write mode, or null.
+    private ByteBuffer outputBuffer;
+    private boolean binary;
+    // The bytes in the write queue that are not written yet.
+    private long queuedBytes;
+    private boolean readPaused;
+
+    Connection(SocketChannel channel, SelectionKey key, ByteBuffer responseBuffer, ByteBuffer[] gatherBuffers) {
+      this.channel = channel;
+      this.key = key;
+      this.responseBuffer = responseBuffer;
+      this.gatherBuffers = gatherBuffers;
+    }
+
+    /**
+     * Reads whatever is available, handles every complete frame and keeps the remainder.
+     *
+     * @throws IOException if the channel cannot be read.
+     */
+    void read() throws IOException {
+      int read = channel.read(readBuffer);
+      if (read > 0) {
+        metrics.recordBytesIn(read);
+      }
+      if (read < 0) {
+        logger.info("Client closed connection " + channel.getRemoteAddress());
+        close();
+        return;
+      }
+
+      handleBufferedFrames();
+    }
+
+    /**
+     * Writes queued responses once the channel is writable again, and resumes handling buffered
+     * frames if that drained the queue below the low-water mark.
+     *
+     * @throws IOException if the channel cannot be written.
+     */
+    void write() throws IOException {
+      if (flush()) {
+        handleBufferedFrames();
+      }
+    }
+
+    /**
+     * Handles the complete frames in the read buffer until none is left or the write queue reaches
+     * the high-water mark, and flushes the responses.
+     *
+     * @throws IOException if a frame cannot be decoded or the channel cannot be written.
+     */
+    private void handleBufferedFrames() throws IOException {
+      do {
+        readBuffer.flip();
+        while (queuedBytes < WRITE_HIGH_WATER_BYTES && (binary ? handleBinaryFrame() : handleTextFrame())) {
+          // Keep going while complete frames are buffered.
+        }
+        readBuffer.compact();
+        readPaused = queuedBytes >= WRITE_HIGH_WATER_BYTES;
+
+        // A single frame may be larger than the buffer; grow up to the largest possible frame.
+        int maxFrameBytes = binary ? BinaryProtocol.FRAME_HEADER_BYTES + BinaryProtocol.MAX_BODY_BYTES : MAX_FRAME_BYTES;
+        if (!readPaused && !readBuffer.hasRemaining() && readBuffer.capacity() < maxFrameBytes) {
+          ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, maxFrameBytes));
+          readBuffer.flip();
+          larger.put(readBuffer);
+          readBuffer = larger;
+        }
+      } while (flush());
+    }
+
+    /**
+     * Handles one buffered text frame, switching the connection to the binary protocol if the
+     * frame is the handshake.
+     *
+     * @return false if no complete frame is buffered.
+     * @throws IOException if the frame cannot be decoded.
+     */
+    private boolean handleTextFrame() throws IOException {
+      if (readBuffer.remaining() < HEADER_BYTES) {
+        return false;
+      }
+      int frameStart = readBuffer.position();
+      long receivedChecksum = readBuffer.getLong(frameStart);
+      int length = readBuffer.getShort(frameStart + Long.BYTES) & 0xFFFF;
+      if (readBuffer.remaining() < HEADER_BYTES + length) {
+        return false;
+      }
+      String requestData = new DataInputStream(new ByteArrayInputStream(
+              readBuffer.array(), frameStart + Long.BYTES, Short.BYTES + length)).readUTF();
+      readBuffer.position(frameStart + HEADER_BYTES + length);
+
+      if (receivedChecksum != calculateChecksum(requestData)) {
+        metrics.recordChecksumFailure();
+        logger.error("Checksum validation failed. Request data may be corrupted.");
+      }
+      if (BinaryProtocol.HANDSHAKE.equals(requestData)) {
+        reserve(HANDSHAKE_RESPONSE.length).put(HANDSHAKE_RESPONSE);
+        binary = true;
+        logger.info("Client " + channel.getRemoteAddress() + " switched to the binary protocol");
+        return true;
+      }
+      currentConnection.set(this);
+      try {
+        handleRequest(requestData);
+      } finally {
+        currentConnection.remove();
+      }
+      return true;
+    }
+
+    /**
+     * Handles one buffered binary frame and queues the response frame.
+     *
+     * @return false if no complete frame is buffered.
+     * @throws IOException if the frame length is invalid.
+     */
+    private boolean handleBinaryFrame() throws IOException {
+      if (readBuffer.remaining() < BinaryProtocol.FRAME_HEADER_BYTES) {
+        return false;
+      }
+      int frameStart = readBuffer.position();
+      int length = readBuffer.getInt(frameStart);
+      int receivedChecksum = readBuffer.getInt(frameStart + Integer.BYTES);
+      int requestId = readBuffer.getInt(frameStart + Integer.BYTES * 2);
+      if (length < 0 || length > BinaryProtocol.MAX_BODY_BYTES) {
+        throw new IOException("Invalid binary frame length " + length);
+      }
+      if (readBuffer.remaining() < BinaryProtocol.FRAME_HEADER_BYTES + length) {
+        return false;
+      }
+      int bodyStart = frameStart + BinaryProtocol.FRAME_HEADER_BYTES;
+      int bufferedLimit = readBuffer.limit();
+      // Decode the body where it lies: narrow the read buffer to it instead of slicing a copy.
+      readBuffer.limit(bodyStart + length).position(bodyStart);
+
+      ByteBuffer response;
+      if (BinaryProtocol.checksum(readBuffer) == receivedChecksum) {
+        response = processBinaryRequest(readBuffer, responseBuffer);
+      } else {
+        metrics.recordChecksumFailure();
+        logger.error("Checksum validation failed. Request data may be corrupted.");
+        response = responseBuffer.clear().put(BinaryProtocol.STATUS_CHECKSUM_MISMATCH).flip();
+      }
+      readBuffer.limit(bufferedLimit).position(bodyStart + length);
+      int bodyLength = response.remaining();
+      if (BinaryProtocol.FRAME_HEADER_BYTES + bodyLength <= OUTPUT_BUFFER_BYTES) {
+        reserve(BinaryProtocol.FRAME_HEADER_BYTES + bodyLength).putInt(bodyLength)
+                .putInt(BinaryProtocol.checksum(response)).putInt(requestId).put(response);
+      } else {
+        // A large batch response was encoded into a buffer of its own: queue it after its header
+        // rather than copying it, and the gathering write still sends both in one call.
+        reserve(BinaryProtocol.FRAME_HEADER_BYTES).putInt(bodyLength)
+                .putInt(BinaryProtocol.checksum(response)).putInt(requestId);
+        seal();
+        queue(response);
+      }
+      return true;
+    }
+
+    /**
+     * Returns the pooled buffer to append a response of the given size to, taking a fresh one from
+     * the pool when the current one is full.
+     *
+     * @param bytes The size of the response, at most {@link #OUTPUT_BUFFER_BYTES}.
+     * @return A buffer in write mode with at least {@code bytes} bytes remaining.
+     */
+    ByteBuffer reserve(int bytes) {
+      if (outputBuffer != null && outputBuffer.remaining() < bytes) {
+        seal();
+      }
+      if (outputBuffer == null) {
+        outputBuffer = outputBuffers.acquire();
+      }
+      return outputBuffer;
+    }
+
+    /**
+     * Queues a buffer of its own for a response too large for a pooled buffer.
+     *
+     * @param bytes The size of the response.
+     * @return A buffer in write mode with exactly {@code bytes} bytes remaining.
+     */
+    ByteBuffer enqueue(int bytes) {
+      seal();
+      outputBuffer = ByteBuffer.allocate(bytes);
+      return outputBuffer;
+    }
+
+    /**
+     * Moves the buffer being filled to the write queue.
+     */
+    private void seal() {
+      if (outputBuffer == null) {
+        return;
+      }
+      if (outputBuffer.position() == 0) {
+        outputBuffers.release(outputBuffer);
+      } else {
+        queue(outputBuffer.flip());
+      }
+      outputBuffer = null;
+    }
+
+    private void queue(ByteBuffer buffer) {
+      writeQueue.add(buffer);
+      queuedBytes += buffer.remaining();
+    }
+
+    /**
+     * Writes queued responses, up to {@link #MAX_GATHERED_BUFFERS} buffers per gathering write,
+     * until the socket buffer is full, then waits for OP_WRITE. Written pooled buffers go back to
+     * the pool. Reading stays paused while the queue is above the low-water mark.
+     *
+     * @return true if reading was paused and the queue has now drained to the low-water mark, so
+     *         the buffered frames should be handled again.
+     * @throws IOException if the channel cannot be written.
+     */
+    boolean flush() throws IOException {
+      seal();
+      while (!writeQueue.isEmpty()) {
+        int count = 0;
+        for (ByteBuffer buffer : writeQueue) {
+          gatherBuffers[count++] = buffer;
+          if (count == gatherBuffers.length) {
+            break;
+          }
+        }
+        long written = channel.write(gatherBuffers, 0, count);
+        Arrays.fill(gatherBuffers, 0, count, null);
+        metrics.recordBytesOut(written);
+        queuedBytes -= written;
+        ByteBuffer buffer;
+        while ((buffer = writeQueue.peek()) != null && !buffer.hasRemaining()) {
+          writeQueue.poll();
+          outputBuffers.release(buffer);
+        }
+        if (buffer != null && buffer.position() > 0 || written == 0) {
+          break;
+        }
+      }
+      boolean resumed = readPaused && queuedBytes <= WRITE_LOW_WATER_BYTES;
+      if (resumed) {
+        readPaused = false;
+      }
+      if (key.isValid()) {
+        key.interestOps((readPaused ? 0 : SelectionKey.OP_READ) | (writeQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+      }
+      return resumed;
+    }
+
+    void close() {
+      key.cancel();
+      seal();
+      ByteBuffer buffer;
+      while ((buffer = writeQueue.poll()) != null) {
+        outputBuffers.release(buffer);
+      }
+      queuedBytes = 0;
+      if (channel.isOpen()) {
+        metrics.connectionClosed();
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.error("Error closing client channel: " + e.getMessage());
+      }
+    }
+  }
+}
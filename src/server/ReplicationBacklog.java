@@ -0,0 +1,129 @@
+package server;
+
+/**
+ * The most recent PUT, DELETE and EXPIRE operations applied to a {@link KeyValue}, numbered in the order
+ * they were recorded, from which {@link ReplicationPrimary} streams changes to its replicas. The
+ * backlog is a fixed ring: once it is full, each new record overwrites the oldest, and a replica
+ * that has not been sent that record yet has to start over with a full copy of the store.
+ *
+ * <p>Records are stored in parallel arrays, so recording allocates nothing beyond the key the
+ * store already holds. Writers record under the monitor of the backlog, which is held only to
+ * fill one slot.
+ */
+final class ReplicationBacklog {
+  static final byte OP_PUT = 1;
+  static final byte OP_DELETE = 2;
+  // Numbered after the link control codes of ReplicationPrimary, as they share the stream.
+  static final byte OP_PUT_EXPIRING = 7;
+  static final byte OP_EXPIRE = 8;
+
+  private final byte[] ops;
+  private final String[] keys;
+  private final int[] values;
+  private final long[] expiries;
+  private final int mask;
+  private long nextSequence = 1;
+  private boolean readersWaiting;
+
+  /**
+   * Constructs a backlog.
+   *
+   * @param capacity The number of records kept, rounded up to a power of two.
+   */
+  ReplicationBacklog(int capacity) {
+    int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+    this.ops = new byte[size];
+    this.keys = new String[size];
+    this.values = new int[size];
+    this.expiries = new long[size];
+    this.mask = size - 1;
+  }
+
+  /**
+   * Records an operation that has been applied to the store.
+   *
+   * @param op              {@link #OP_PUT}, {@link #OP_DELETE}, {@link #OP_PUT_EXPIRING} or
+   *                        {@link #OP_EXPIRE}.
+   * @param key             The key.
+   * @param value           The value of a PUT.
+   * @param expiresAtMillis The wall-clock expiry time of a PUT with a TTL or an EXPIRE.
+   */
+  synchronized void append(byte op, String key, int value, long expiresAtMillis) {
+    int slot = (int) (nextSequence & mask);
+    ops[slot] = op;
+    keys[slot] = key;
+    values[slot] = value;
+    expiries[slot] = expiresAtMillis;
+    nextSequence++;
+    if (readersWaiting) {
+      readersWaiting = false;
+      notifyAll();
+    }
+  }
+
+  /**
+   * Returns the sequence number of the last record.
+   *
+   * @return The sequence number, or 0 if nothing was recorded yet.
+   */
+  synchronized long lastSequence() {
+    return nextSequence - 1;
+  }
+
+  /**
+   * Tells whether the records from the given sequence number on can still be read.
+   *
+   * @param sequence The sequence number of the first record wanted.
+   * @return true if no record from that one on has been overwritten.
+   */
+  synchronized boolean covers(long sequence) {
+    return sequence > 0 && sequence <= nextSequence && nextSequence - sequence <= ops.length;
+  }
+
+  /**
+   * Copies consecutive records into the given arrays.
+   *
+   * @param sequence The sequence number of the first record to copy.
+   * @param ops      Receives the operations.
+   * @param keys     Receives the keys.
+   * @param values   Receives the values.
+   * @param expiries Receives the expiry times.
+   * @return The number of records copied, at most the length of the arrays; 0 if there are no
+   *         records from {@code sequence} on yet, or -1 if they have been overwritten.
+   */
+  synchronized int read(long sequence, byte[] ops, String[] keys, int[] values, long[] expiries) {
+    if (!covers(sequence)) {
+      return -1;
+    }
+    int count = (int) Math.min(ops.length, nextSequence - sequence);
+    for (int i = 0; i < count; i++) {
+      int slot = (int) ((sequence + i) & mask);
+      ops[i] = this.ops[slot];
+      keys[i] = this.keys[slot];
+      values[i] = this.values[slot];
+      expiries[i] = this.expiries[slot];
+    }
+    return count;
+  }
+
+  /**
+   * Waits until a record after the given one exists.
+   *
+   * @param sequence      The last sequence number already read.
+   * @param timeoutMillis The longest time to wait.
+   * @return true if a newer record exists.
+   * @throws InterruptedException if interrupted while waiting.
+   */
+  synchronized boolean awaitAfter(long sequence, long timeoutMillis) throws InterruptedException {
+    long deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+    while (nextSequence - 1 <= sequence) {
+      long remainingMillis = (deadline - System.nanoTime()) / 1_000_000;
+      if (remainingMillis <= 0) {
+        return false;
+      }
+      readersWaiting = true;
+      wait(remainingMillis);
+    }
+    return true;
+  }
+}
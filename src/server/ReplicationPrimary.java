@@ -0,0 +1,286 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams every change to a {@link KeyValue} to replica servers, which run a
+ * {@link ReplicationReplica}, over one persistent TCP connection each.
+ *
+ * <p>The store records each PUT and DELETE it applies in a {@link ReplicationBacklog}. One sender
+ * thread per replica reads the backlog from the replica's position and writes the records to a
+ * buffered stream, flushing when it has caught up, so that records go out in large batches under
+ * load and immediately when the primary is idle; a second thread reads the acknowledgements.
+ * Requests never wait for a replica.
+ *
+ * <p>A replica connects with the replication ID of the primary it last followed and the last
+ * sequence number it applied. If that is this primary and the backlog still holds the following
+ * records, streaming continues from there; otherwise the replica first receives a full copy of
+ * the store, taken like a snapshot with {@link KeyValue#forEach} while writes go on, followed by
+ * the records recorded since the copy started. Because records are absolute PUTs, DELETEs and
+ * EXPIREs of single keys, replaying them over the fuzzy copy converges to the state of the primary.
+ *
+ * <p>The link carries {@code [int magic][long replicationId][long appliedSequence]} from the
+ * replica, then from the primary {@code [byte CONTINUE|FULL_SYNC][long replicationId][long sequence]},
+ * for a full sync the entries as PUT and PUT_EXPIRING records and a SYNC_END, and then the stream of records
+ * {@code [byte PUT][utf key][int value]}, {@code [byte DELETE][utf key]},
+ * {@code [byte PUT_EXPIRING][utf key][int value][long expiresAtMillis]} and
+ * {@code [byte EXPIRE][utf key][long expiresAtMillis]}, with a
+ * {@code [byte PING][long sequence]} heartbeat while idle. The replica acknowledges by sending the
+ * last sequence number it applied as a long whenever it has applied everything it received.
+ */
+public class ReplicationPrimary {
+  static final int MAGIC = 0x4B565250;
+  static final byte OP_PUT = ReplicationBacklog.OP_PUT;
+  static final byte OP_DELETE = ReplicationBacklog.OP_DELETE;
+  static final byte OP_PUT_EXPIRING = ReplicationBacklog.OP_PUT_EXPIRING;
+  static final byte OP_EXPIRE = ReplicationBacklog.OP_EXPIRE;
+  static final byte OP_CONTINUE = 3;
+  static final byte OP_FULL_SYNC = 4;
+  static final byte OP_SYNC_END = 5;
+  static final byte OP_PING = 6;
+  static final long HEARTBEAT_MILLIS = 1000;
+
+  private static final int STREAM_BUFFER_BYTES = 64 * 1024;
+  private static final int READ_BATCH = 1024;
+  private static final ServerLogger logger = new ServerLogger();
+
+  private final KeyValue store;
+  private final int port;
+  private final ReplicationBacklog backlog;
+  private final long replicationId = ThreadLocalRandom.current().nextLong();
+  private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+  private final AtomicInteger senderCount = new AtomicInteger();
+  private volatile ServerSocket serverSocket;
+  private volatile boolean running = true;
+
+  /**
+   * The progress of one connected replica.
+   */
+  private static final class Replica {
+    final String address;
+    volatile long ackedSequence;
+
+    Replica(String address) {
+      this.address = address;
+    }
+  }
+
+  /**
+   * Constructs a primary and starts recording the changes to the store. Call {@link #start()}
+   * to accept replicas.
+   *
+   * @param store           The store to replicate.
+   * @param port            The port replicas connect to.
+   * @param backlogRecords  The number of recent changes kept for replicas that fall behind or
+   *                        reconnect.
+   */
+  public ReplicationPrimary(KeyValue store, int port, int backlogRecords) {
+    this.store = store;
+    this.port = port;
+    this.backlog = new ReplicationBacklog(backlogRecords);
+    store.attachReplicationBacklog(backlog);
+  }
+
+  /**
+   * Starts accepting replicas on a daemon thread.
+   *
+   * @throws IOException if the port cannot be bound.
+   */
+  public void start() throws IOException {
+    serverSocket = new ServerSocket(port);
+    Thread acceptor = new Thread(this::acceptReplicas, "replication-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    logger.info("Accepting replicas on port " + port);
+  }
+
+  /**
+   * Stops accepting replicas; the links to the connected ones close within a heartbeat.
+   */
+  public void close() {
+    running = false;
+    try {
+      if (serverSocket != null) {
+        serverSocket.close();
+      }
+    } catch (IOException e) {
+      logger.error("Error closing replication socket: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Returns the number of connected replicas.
+   *
+   * @return The number of replicas.
+   */
+  public int replicaCount() {
+    return replicas.size();
+  }
+
+  /**
+   * Returns the sequence number of the last change recorded.
+   *
+   * @return The sequence number.
+   */
+  public long lastSequence() {
+    return backlog.lastSequence();
+  }
+
+  /**
+   * Returns how many recorded changes the slowest connected replica has not acknowledged yet.
+   *
+   * @return The lag in changes, or 0 without replicas.
+   */
+  public long maxLagRecords() {
+    long last = backlog.lastSequence();
+    long lag = 0;
+    for (Replica replica : replicas) {
+      lag = Math.max(lag, last - replica.ackedSequence);
+    }
+    return lag;
+  }
+
+  private void acceptReplicas() {
+    while (running) {
+      try {
+        Socket socket = serverSocket.accept();
+        Thread sender = new Thread(() -> serve(socket), "replication-sender-" + senderCount.incrementAndGet());
+        sender.setDaemon(true);
+        sender.start();
+      } catch (IOException e) {
+        if (running) {
+          logger.error("Error accepting replica: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    Replica replica = new Replica(String.valueOf(socket.getRemoteSocketAddress()));
+    try (socket) {
+      socket.setTcpNoDelay(true);
+      DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_BYTES));
+      if (in.readInt() != MAGIC) {
+        logger.error("Rejected replication connection from " + replica.address + ": bad handshake");
+        return;
+      }
+      long followedId = in.readLong();
+      long appliedSequence = in.readLong();
+      long next;
+      if (followedId == replicationId && backlog.covers(appliedSequence + 1)) {
+        out.writeByte(OP_CONTINUE);
+        out.writeLong(replicationId);
+        out.writeLong(appliedSequence);
+        next = appliedSequence + 1;
+        replica.ackedSequence = appliedSequence;
+        logger.info("Replica " + replica.address + " continues after change " + appliedSequence);
+      } else {
+        next = sendFullSync(out) + 1;
+        logger.info("Sent a full copy of the store to replica " + replica.address);
+      }
+      // Until the replica acknowledges the copy, it counts as lagging by every change so far.
+      replicas.add(replica);
+      Thread acks = new Thread(() -> readAcks(replica, in), Thread.currentThread().getName() + "-acks");
+      acks.setDaemon(true);
+      acks.start();
+      stream(replica, out, next);
+    } catch (IOException | UncheckedIOException e) {
+      if (running) {
+        logger.error("Replication link to " + replica.address + " closed: " + e.getMessage());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      replicas.remove(replica);
+    }
+  }
+
+  /**
+   * Sends every entry of the store, and returns the sequence number the copy starts after.
+   * The sequence is read before the walk: every change up to it was applied before it was
+   * recorded, so the walk sees it, and every later one is streamed after the copy. A key the walk
+   * visits twice is sent twice; the replica applies the copies in order, and if the value changed
+   * during the walk, the streamed change restores the final one.
+   */
+  private long sendFullSync(DataOutputStream out) throws IOException {
+    long start = backlog.lastSequence();
+    out.writeByte(OP_FULL_SYNC);
+    out.writeLong(replicationId);
+    out.writeLong(start);
+    store.forEachWithExpiry((key, value, expiresAtMillis) -> {
+      try {
+        out.writeByte(expiresAtMillis == KeyValue.NO_EXPIRY ? OP_PUT : OP_PUT_EXPIRING);
+        out.writeUTF(key);
+        out.writeInt(value);
+        if (expiresAtMillis != KeyValue.NO_EXPIRY) {
+          out.writeLong(expiresAtMillis);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    });
+    out.writeByte(OP_SYNC_END);
+    return start;
+  }
+
+  /**
+   * Records the acknowledgements of a replica until the link closes. Reading them on their own
+   * thread keeps the sender from blocking on them and the lag current while the sender waits.
+   */
+  private void readAcks(Replica replica, DataInputStream in) {
+    try {
+      while (true) {
+        replica.ackedSequence = in.readLong();
+      }
+    } catch (IOException e) {
+      // The sender notices the closed link on its next write.
+    }
+  }
+
+  private void stream(Replica replica, DataOutputStream out, long next)
+          throws IOException, InterruptedException {
+    byte[] ops = new byte[READ_BATCH];
+    String[] keys = new String[READ_BATCH];
+    int[] values = new int[READ_BATCH];
+    long[] expiries = new long[READ_BATCH];
+    while (running) {
+      int count = backlog.read(next, ops, keys, values, expiries);
+      if (count < 0) {
+        // Closing the link makes the replica reconnect and start over with a full copy.
+        logger.error("Replica " + replica.address + " fell more than the backlog behind; resynchronizing");
+        return;
+      }
+      for (int i = 0; i < count; i++) {
+        out.writeByte(ops[i]);
+        out.writeUTF(keys[i]);
+        if (ops[i] == OP_PUT || ops[i] == OP_PUT_EXPIRING) {
+          out.writeInt(values[i]);
+        }
+        if (ops[i] == OP_PUT_EXPIRING || ops[i] == OP_EXPIRE) {
+          out.writeLong(expiries[i]);
+        }
+      }
+      next += count;
+      if (count == 0) {
+        out.flush();
+        if (!backlog.awaitAfter(next - 1, HEARTBEAT_MILLIS)) {
+          out.writeByte(OP_PING);
+          out.writeLong(next - 1);
+          out.flush();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps a {@link KeyValue} in step with a {@link ReplicationPrimary}: connects to the primary,
+ * applies the changes it streams and acknowledges them, and reconnects when the link drops, where
+ * possible without copying the whole store again. While it is active, the handlers of the
+ * replica serve reads and reject writes.
+ *
+ * <p>{@link #promote()} stops following the primary and makes the server writable, so that it
+ * can take over from a failed primary with the data it has already received.
+ */
+public class ReplicationReplica {
+  private static final long RECONNECT_MILLIS = 1000;
+  private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+  private static final ServerLogger logger = new ServerLogger();
+
+  private final KeyValue store;
+  private final String primaryHost;
+  private final int primaryPort;
+  private volatile boolean active = true;
+  private volatile Socket socket;
+  private volatile long appliedSequence;
+  private long replicationId;
+
+  /**
+   * Constructs a replica of the primary at the given address. Call {@link #start()} to connect.
+   *
+   * @param store       The store to keep in step with the primary.
+   * @param primaryHost The host of the primary.
+   * @param primaryPort The replication port of the primary.
+   */
+  public ReplicationReplica(KeyValue store, String primaryHost, int primaryPort) {
+    this.store = store;
+    this.primaryHost = primaryHost;
+    this.primaryPort = primaryPort;
+  }
+
+  /**
+   * Starts following the primary on a daemon thread.
+   */
+  public void start() {
+    Thread thread = new Thread(this::follow, "replication-replica");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Stops following the primary; from then on the server accepts writes.
+   *
+   * @return true if the server was a replica until now.
+   */
+  public boolean promote() {
+    if (!active) {
+      return false;
+    }
+    active = false;
+    closeSocket();
+    logger.info("Promoted to primary after applying change " + appliedSequence + " of " + primaryHost + ":" + primaryPort);
+    return true;
+  }
+
+  /**
+   * Tells whether the server still follows the primary and so rejects writes.
+   *
+   * @return true until {@link #promote()} is called.
+   */
+  public boolean isActive() {
+    return active;
+  }
+
+  /**
+   * Returns the sequence number of the last change applied from the primary.
+   *
+   * @return The sequence number.
+   */
+  public long appliedSequence() {
+    return appliedSequence;
+  }
+
+  /**
+   * Returns the address of the primary.
+   *
+   * @return The primary as {@code host:port}.
+   */
+  public String primary() {
+    return primaryHost + ":" + primaryPort;
+  }
+
+  private void follow() {
+    while (active) {
+      try {
+        Socket connection = new Socket();
+        socket = connection;
+        connection.connect(new InetSocketAddress(primaryHost, primaryPort), CONNECT_TIMEOUT_MILLIS);
+        // Several missed heartbeats mean the primary is gone even if the connection looks open.
+        connection.setSoTimeout((int) ReplicationPrimary.HEARTBEAT_MILLIS * 5);
+        connection.setTcpNoDelay(true);
+        receive(connection);
+      } catch (IOException e) {
+        if (active) {
+          String reason = e instanceof EOFException ? "closed by the primary" : e.getMessage();
+          logger.error("Replication link to " + primary() + " lost: " + reason + "; retrying");
+        }
+      } finally {
+        closeSocket();
+      }
+      if (active) {
+        try {
+          Thread.sleep(RECONNECT_MILLIS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+    }
+  }
+
+  private void receive(Socket connection) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream(), 64 * 1024));
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+    out.writeInt(ReplicationPrimary.MAGIC);
+    out.writeLong(replicationId);
+    out.writeLong(appliedSequence);
+    out.flush();
+
+    byte reply = in.readByte();
+    long primaryId = in.readLong();
+    long sequence = in.readLong();
+    if (reply == ReplicationPrimary.OP_FULL_SYNC) {
+      logger.info("Receiving a full copy of the store from " + primary());
+      receiveFullSync(in);
+      logger.info("Copied " + store.size() + " keys from " + primary());
+    } else if (reply != ReplicationPrimary.OP_CONTINUE) {
+      throw new IOException("Unexpected replication reply " + reply);
+    } else {
+      logger.info("Continuing replication from " + primary() + " after change " + sequence);
+    }
+    replicationId = primaryId;
+    appliedSequence = sequence;
+
+    while (active) {
+      byte op = in.readByte();
+      switch (op) {
+        case ReplicationPrimary.OP_PUT:
+          store.put(in.readUTF(), in.readInt());
+          appliedSequence++;
+          break;
+        case ReplicationPrimary.OP_DELETE:
+          store.delete(in.readUTF());
+          appliedSequence++;
+          break;
+        case ReplicationPrimary.OP_PUT_EXPIRING:
+          store.putExpiringAt(in.readUTF(), in.readInt(), in.readLong());
+          appliedSequence++;
+          break;
+        case ReplicationPrimary.OP_EXPIRE:
+          store.expireAt(in.readUTF(), in.readLong());
+          appliedSequence++;
+          break;
+        case ReplicationPrimary.OP_PING:
+          long primarySequence = in.readLong();
+          if (primarySequence != appliedSequence) {
+            throw new IOException("Replication stream out of step: applied " + appliedSequence
+                    + " but primary is at " + primarySequence);
+          }
+          break;
+        default:
+          throw new IOException("Unexpected replication record " + op);
+      }
+      if (in.available() == 0) {
+        out.writeLong(appliedSequence);
+        out.flush();
+      }
+    }
+  }
+
+  /**
+   * Replaces the content of the store with the copy sent by the primary.
+   */
+  private void receiveFullSync(DataInputStream in) throws IOException {
+    List<String> stale = new ArrayList<>();
+    store.forEach((key, value) -> stale.add(key));
+    for (String key : stale) {
+      store.delete(key);
+    }
+    byte op;
+    while ((op = in.readByte()) == ReplicationPrimary.OP_PUT || op == ReplicationPrimary.OP_PUT_EXPIRING) {
+      if (op == ReplicationPrimary.OP_PUT) {
+        store.put(in.readUTF(), in.readInt());
+      } else {
+        store.putExpiringAt(in.readUTF(), in.readInt(), in.readLong());
+      }
+    }
+    if (op != ReplicationPrimary.OP_SYNC_END) {
+      throw new IOException("Unexpected record " + op + " in full copy");
+    }
+  }
+
+  private void closeSocket() {
+    Socket current = socket;
+    if (current != null) {
+      try {
+        current.close();
+      } catch (IOException e) {
+        logger.error("Error closing replication link: " + e.getMessage());
+      }
+    }
+  }
+}
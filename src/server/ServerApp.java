@@ -1,5 +1,14 @@
 package server;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.ToLongFunction;
+
 /**
  * Main class for the server application.
  */
@@ -9,31 +18,270 @@ public class ServerApp {
   /**
    * Main method to start the server application.
    *
-   * @param args Command-line arguments containing the port number and server type.
+   * @param args Command-line arguments containing the port number, server type (TCP, NIO or UDP)
+   *             and optional {@code --name=value} settings.
    */
   public static void main(String[] args) {
     if (args.length < 2) {
-      logger.error("Insufficient arguments. Usage: java ServerApp <Port> <serverType>");
+      logger.error("Insufficient arguments. Usage: java ServerApp <Port> <serverType> [--name=value ...]");
       return;
     }
 
     int port = Integer.parseInt(args[0]);
     String serverType = args[1].toUpperCase();
+    ServerLogger.setRequestSampling(option(args, "log-sample", ""));
 
-    KeyValue keyValueStore = new KeyValue();
+    KeyValue keyValueStore = new KeyValue(createStorageEngine(args));
+    EvictionPolicy evictionPolicy = createEvictionPolicy(args);
+    if (evictionPolicy != null) {
+      keyValueStore.setEvictionPolicy(evictionPolicy);
+    }
+    Path expiryFile = restoreExpiries(args, keyValueStore);
+    SnapshotManager snapshotManager = openSnapshots(args, keyValueStore);
+    startReplicationPrimary(args, keyValueStore);
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      if (expiryFile != null) {
+        saveExpiries(keyValueStore, expiryFile);
+      }
+      keyValueStore.close();
+    }, "store-shutdown"));
+    boolean virtualThreads = "virtual".equalsIgnoreCase(option(args, "threads", "platform"));
 
+    AbstractHandler handler;
     if ("TCP".equals(serverType)) {
-      logger.info("Starting TCP Server...");
-      TCPHandler tcpHandler = new TCPHandler(port, keyValueStore);
-      Thread tcpThread = new Thread(tcpHandler);
-      tcpThread.start();
+      logger.info("Starting TCP Server" + (virtualThreads ? " on virtual threads..." : "..."));
+      ThreadFactory connectionThreads = virtualThreads ? Thread.ofVirtual().name("tcp-conn-", 0).factory() : Thread::new;
+      handler = new TCPHandler(port, keyValueStore, connectionThreads);
+    } else if ("NIO".equals(serverType)) {
+      int eventLoops = Integer.parseInt(option(args, "event-loops",
+              String.valueOf(Runtime.getRuntime().availableProcessors())));
+      logger.info("Starting NIO TCP Server...");
+      handler = new NIOHandler(port, keyValueStore, eventLoops);
     } else if ("UDP".equals(serverType)) {
-      logger.info("Starting UDP Server...");
-      UDPHandler udpHandler = new UDPHandler(port, keyValueStore);
-      Thread udpThread = new Thread(udpHandler);
-      udpThread.start();
+      int receiveWorkers = Integer.parseInt(option(args, "udp-workers", "1"));
+      logger.info("Starting UDP Server" + (virtualThreads ? " on virtual threads..." : "..."));
+      Executor requestExecutor = virtualThreads ? Executors.newVirtualThreadPerTaskExecutor() : Runnable::run;
+      handler = new UDPHandler(port, keyValueStore, requestExecutor, receiveWorkers);
     } else {
-      logger.error("Invalid server type. Please specify TCP or UDP.");
+      logger.error("Invalid server type. Please specify TCP, NIO or UDP.");
+      return;
+    }
+    handler.setSnapshotManager(snapshotManager);
+    String primary = option(args, "replica-of", null);
+    if (primary != null) {
+      handler.setReplica(startReplica(primary, keyValueStore));
+    }
+    long statsIntervalSeconds = Long.parseLong(option(args, "stats-interval", "0"));
+    if (statsIntervalSeconds > 0) {
+      handler.getMetrics().scheduleDump(statsIntervalSeconds);
+      logger.info("Logging server metrics every " + statsIntervalSeconds + " seconds");
+    }
+    Thread serverThread = new Thread(handler);
+    serverThread.start();
+  }
+
+  /**
+   * Creates the storage engine selected with {@code --store=heap|compact|mmap}.
+   *
+   * @param args The command-line arguments.
+   * @return The storage engine to back the key-value store.
+   */
+  private static StorageEngine createStorageEngine(String[] args) {
+    String store = option(args, "store", "heap").toLowerCase();
+    int expectedKeys = Integer.parseInt(option(args, "expected-keys", "0"));
+    switch (store) {
+      case "compact":
+        logger.info("Using compact off-object storage engine");
+        return new CompactStorageEngine(expectedKeys);
+      case "mmap":
+        String dataDir = option(args, "data-dir", "data");
+        logger.info("Using memory-mapped storage engine in " + dataDir);
+        try {
+          return new MappedStorageEngine(Paths.get(dataDir), expectedKeys);
+        } catch (IOException e) {
+          throw new UncheckedIOException("Cannot open mapped store in " + dataDir, e);
+        }
+      case "heap":
+        return new HeapStorageEngine();
+      default:
+        throw new IllegalArgumentException("Unknown store '" + store + "'. Must be one of (heap, compact, mmap)");
+    }
+  }
+
+  /**
+   * Gives the keys of a {@code --store=mmap} store the TTLs they had when the server last shut
+   * down. The mapped files keep the data across restarts but have no room for TTLs, so they are
+   * saved next to them at shutdown; the write-ahead log restores them as well, and also after a
+   * crash.
+   *
+   * @param args          The command-line arguments.
+   * @param keyValueStore The store opened on the mapped files.
+   * @return The file to save the TTLs to at shutdown, or null for an engine that does not persist.
+   */
+  private static Path restoreExpiries(String[] args, KeyValue keyValueStore) {
+    if (!"mmap".equalsIgnoreCase(option(args, "store", "heap"))) {
+      return null;
+    }
+    Path expiryFile = Paths.get(option(args, "data-dir", "data"), "expiries");
+    try {
+      int restored = keyValueStore.loadExpiries(expiryFile);
+      if (restored > 0) {
+        logger.info("Restored the TTLs of " + restored + " keys from " + expiryFile);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot restore TTLs from " + expiryFile, e);
+    }
+    return expiryFile;
+  }
+
+  private static void saveExpiries(KeyValue keyValueStore, Path expiryFile) {
+    try {
+      keyValueStore.saveExpiries(expiryFile);
+    } catch (IOException e) {
+      logger.error("Cannot save TTLs to " + expiryFile + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Creates the eviction policy selected with {@code --eviction=tinylfu|clock} that bounds the
+   * store to {@code --max-keys=n} keys or to about {@code --max-bytes=n} bytes of keys and entries.
+   *
+   * @param args The command-line arguments.
+   * @return The eviction policy, or null if the store is unbounded.
+   */
+  private static EvictionPolicy createEvictionPolicy(String[] args) {
+    long maxKeys = Long.parseLong(option(args, "max-keys", "0"));
+    long maxBytes = Long.parseLong(option(args, "max-bytes", "0"));
+    if (maxKeys <= 0 && maxBytes <= 0) {
+      return null;
+    }
+    long maximumWeight = maxKeys > 0 ? maxKeys : maxBytes;
+    ToLongFunction<String> weigher = maxKeys > 0 ? EvictionPolicy.ENTRIES : EvictionPolicy.ESTIMATED_BYTES;
+    long expectedEntries = maxKeys > 0 ? maxKeys : maxBytes / EvictionPolicy.ENTRY_OVERHEAD_BYTES;
+    String eviction = option(args, "eviction", "tinylfu").toLowerCase();
+    logger.info("Bounding the store to " + maximumWeight + (maxKeys > 0 ? " keys" : " bytes") + " with " + eviction + " eviction");
+    switch (eviction) {
+      case "tinylfu":
+        return new TinyLfuEvictionPolicy(maximumWeight, weigher, expectedEntries);
+      case "clock":
+        return new ClockEvictionPolicy(maximumWeight, weigher);
+      default:
+        throw new IllegalArgumentException("Unknown eviction '" + eviction + "'. Must be one of (tinylfu, clock)");
+    }
+  }
+
+  /**
+   * Restores the store from the snapshot selected with {@code --snapshot=file}, replays the
+   * write-ahead log selected with {@code --wal=file} on top of it, and schedules periodic
+   * snapshots every {@code --snapshot-interval=seconds}. Snapshots require the log.
+   *
+   * @param args          The command-line arguments.
+   * @param keyValueStore The store to restore.
+   * @return The snapshot manager, or null if snapshots are not enabled.
+   * @throws IllegalArgumentException if {@code --snapshot} is given without {@code --wal}.
+   */
+  private static SnapshotManager openSnapshots(String[] args, KeyValue keyValueStore) {
+    String snapshotFile = option(args, "snapshot", null);
+    SnapshotManager snapshotManager = null;
+    long snapshotSequence = 0;
+    if (snapshotFile != null && option(args, "wal", null) == null) {
+      throw new IllegalArgumentException("--snapshot needs --wal: a snapshot is only consistent with the log replayed on top of it");
+    }
+    try {
+      if (snapshotFile != null) {
+        snapshotManager = new SnapshotManager(keyValueStore, Paths.get(snapshotFile));
+        snapshotSequence = snapshotManager.load();
+      }
+      openWriteAheadLog(args, keyValueStore, snapshotSequence);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot restore the store", e);
+    }
+    long intervalSeconds = Long.parseLong(option(args, "snapshot-interval", "0"));
+    if (snapshotManager != null && intervalSeconds > 0) {
+      snapshotManager.schedule(intervalSeconds);
+      logger.info("Taking a snapshot every " + intervalSeconds + " seconds");
+    }
+    return snapshotManager;
+  }
+
+  /**
+   * Replays and attaches the write-ahead log selected with {@code --wal=file}, using the
+   * {@code --fsync=always|interval|never} policy and {@code --fsync-interval=millis}.
+   *
+   * @param args          The command-line arguments.
+   * @param keyValueStore The store to replay the log into.
+   * @param afterSequence The log sequence already covered by a loaded snapshot.
+   * @throws IOException if the log cannot be opened or replayed.
+   */
+  private static void openWriteAheadLog(String[] args, KeyValue keyValueStore, long afterSequence) throws IOException {
+    String walFile = option(args, "wal", null);
+    if (walFile == null) {
+      return;
+    }
+    WriteAheadLog.FsyncPolicy policy = WriteAheadLog.FsyncPolicy.valueOf(option(args, "fsync", "always").toUpperCase());
+    long intervalMillis = Long.parseLong(option(args, "fsync-interval", "10"));
+    WriteAheadLog writeAheadLog = new WriteAheadLog(Paths.get(walFile), policy, intervalMillis);
+    writeAheadLog.replay(keyValueStore, afterSequence);
+    keyValueStore.attachWriteAheadLog(writeAheadLog);
+    logger.info("Write-ahead log " + walFile + " attached with fsync policy " + policy);
+  }
+
+  /**
+   * Streams the changes to the store to replicas connecting to {@code --replication-port=n},
+   * keeping the last {@code --replication-backlog=n} changes for replicas that fall behind.
+   *
+   * @param args          The command-line arguments.
+   * @param keyValueStore The store to replicate.
+   */
+  private static void startReplicationPrimary(String[] args, KeyValue keyValueStore) {
+    String replicationPort = option(args, "replication-port", null);
+    if (replicationPort == null) {
+      return;
+    }
+    int backlogRecords = Integer.parseInt(option(args, "replication-backlog", "1000000"));
+    ReplicationPrimary primary = new ReplicationPrimary(keyValueStore, Integer.parseInt(replicationPort), backlogRecords);
+    try {
+      primary.start();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Cannot accept replicas on port " + replicationPort, e);
+    }
+  }
+
+  /**
+   * Makes the store a replica of the primary selected with {@code --replica-of=host:port}, the
+   * replication port of the primary.
+   *
+   * @param primary       The {@code host:port} of the primary.
+   * @param keyValueStore The store to keep in step with the primary.
+   * @return The replica, which the handler consults to reject writes.
+   */
+  private static ReplicationReplica startReplica(String primary, KeyValue keyValueStore) {
+    int separator = primary.lastIndexOf(':');
+    if (separator < 0) {
+      throw new IllegalArgumentException("Invalid primary '" + primary + "'. Must be host:port");
+    }
+    ReplicationReplica replica = new ReplicationReplica(keyValueStore, primary.substring(0, separator),
+            Integer.parseInt(primary.substring(separator + 1)));
+    replica.start();
+    logger.info("Replicating from " + primary);
+    return replica;
+  }
+
+  /**
+   * Looks up an optional {@code --name=value} setting among the command-line arguments.
+   *
+   * @param args         The command-line arguments.
+   * @param name         The setting name, without the leading dashes.
+   * @param defaultValue The value returned when the setting is absent.
+   * @return The configured value, or the default.
+   */
+  static String option(String[] args, String name, String defaultValue) {
+    String prefix = "--" + name + "=";
+    for (int i = 2; i < args.length; i++) {
+      if (args[i].startsWith(prefix)) {
+        return args[i].substring(prefix.length());
+      }
     }
+    return defaultValue;
   }
 }
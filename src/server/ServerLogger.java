@@ -1,14 +1,60 @@
 package server;
 
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 /**
  * Custom logger class for the server application.
+ *
+ * <p>Per-request messages take {@code {}} placeholders instead of concatenated strings, so that
+ * nothing is formatted or allocated while their level is disabled. Request logs can also be
+ * sampled per operation with {@link #setRequestSampling(String)}, so that busy servers log only
+ * one in N requests of an operation.
  */
 public class ServerLogger {
   private static final Logger logger = LogManager.getLogger(ServerLogger.class);
 
+  private static volatile RequestSampling requestSampling = RequestSampling.parse("");
+
+  /**
+   * Configures request log sampling from a specification such as {@code GET:1000,PUT:100,*:1},
+   * logging one in 1000 GET requests, one in 100 PUT requests and every other request.
+   * Operations not listed use the {@code *} rate, which defaults to 1.
+   *
+   * @param specification Comma separated {@code operation:rate} pairs.
+   * @throws IllegalArgumentException if the specification is malformed.
+   */
+  public static void setRequestSampling(String specification) {
+    requestSampling = RequestSampling.parse(specification);
+  }
+
+  /**
+   * Decides whether the request starting with the given operation is one of the sampled requests
+   * whose handling is logged at INFO level.
+   *
+   * @param request The request text, or just its operation.
+   * @return true if the request should be logged.
+   */
+  public boolean isRequestSampled(String request) {
+    if (!logger.isInfoEnabled()) {
+      return false;
+    }
+    int rate = requestSampling.rateFor(request);
+    return rate <= 1 || ThreadLocalRandom.current().nextInt(rate) == 0;
+  }
+
+  /**
+   * Returns whether debug messages are logged, for callers whose arguments are costly to build.
+   *
+   * @return true if the debug level is enabled.
+   */
+  public boolean isDebugEnabled() {
+    return logger.isDebugEnabled();
+  }
+
   /**
    * Logs an informational message.
    *
@@ -18,6 +64,46 @@ public class ServerLogger {
     logger.info(message);
   }
 
+  /**
+   * Logs an informational message with one {@code {}} placeholder.
+   *
+   * @param message The message pattern.
+   * @param arg     The placeholder value.
+   */
+  public void info(String message, Object arg) {
+    logger.info(message, arg);
+  }
+
+  /**
+   * Logs an informational message with two {@code {}} placeholders.
+   *
+   * @param message The message pattern.
+   * @param arg1    The first placeholder value.
+   * @param arg2    The second placeholder value.
+   */
+  public void info(String message, Object arg1, Object arg2) {
+    logger.info(message, arg1, arg2);
+  }
+
+  /**
+   * Logs a debug message.
+   *
+   * @param message The message to be logged.
+   */
+  public void debug(String message) {
+    logger.debug(message);
+  }
+
+  /**
+   * Logs a debug message with one {@code {}} placeholder.
+   *
+   * @param message The message pattern.
+   * @param arg     The placeholder value.
+   */
+  public void debug(String message, Object arg) {
+    logger.debug(message, arg);
+  }
+
   /**
    * Logs an error message.
    *
@@ -35,4 +121,59 @@ public class ServerLogger {
   public void severe(String message) {
     logger.fatal(message);
   }
+
+  /**
+   * An immutable table of sampling rates by operation.
+   */
+  private static final class RequestSampling {
+    private final String[] operations;
+    private final int[] rates;
+    private final int defaultRate;
+
+    private RequestSampling(String[] operations, int[] rates, int defaultRate) {
+      this.operations = operations;
+      this.rates = rates;
+      this.defaultRate = defaultRate;
+    }
+
+    static RequestSampling parse(String specification) {
+      String[] pairs = specification.isBlank() ? new String[0] : specification.split(",");
+      String[] operations = new String[pairs.length];
+      int[] rates = new int[pairs.length];
+      int defaultRate = 1;
+      int count = 0;
+      for (String pair : pairs) {
+        int separator = pair.indexOf(':');
+        if (separator <= 0) {
+          throw new IllegalArgumentException("Expected operation:rate but got " + pair);
+        }
+        String operation = pair.substring(0, separator).trim().toUpperCase();
+        int rate = Integer.parseInt(pair.substring(separator + 1).trim());
+        if (rate < 1) {
+          throw new IllegalArgumentException("Sampling rate must be at least 1: " + pair);
+        }
+        if ("*".equals(operation)) {
+          defaultRate = rate;
+        } else {
+          operations[count] = operation;
+          rates[count++] = rate;
+        }
+      }
+      return new RequestSampling(Arrays.copyOf(operations, count), Arrays.copyOf(rates, count), defaultRate);
+    }
+
+    /**
+     * Looks up the rate of the operation the request starts with, without allocating.
+     */
+    int rateFor(String request) {
+      for (int i = 0; i < operations.length; i++) {
+        String operation = operations[i];
+        if (request.startsWith(operation)
+                && (request.length() == operation.length() || request.charAt(operation.length()) == ' ')) {
+          return rates[i];
+        }
+      }
+      return defaultRate;
+    }
+  }
 }
@@ -0,0 +1,186 @@
+package server;
+
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Counters and per-operation latency histograms of one server, cheap enough to update on every
+ * request: counters are {@link LongAdder}s, which threads update without contending, and each
+ * latency is one atomic increment in a {@link LatencyHistogram}.
+ *
+ * <p>{@link #report()} renders everything since startup as {@code name=value} lines, which the
+ * STATS command returns to clients; {@link #scheduleDump(long)} logs the same figures
+ * periodically, except that the counts and percentiles of each operation cover the last period
+ * only. Maximum latencies always cover the time since startup.
+ */
+public class ServerMetrics {
+
+  /**
+   * The operations whose latency is measured.
+   */
+  public enum Operation {
+    PUT, GET, DELETE, MPUT, MGET, MDELETE, EXPIRE, TTL
+  }
+
+  private static final ServerLogger logger = new ServerLogger();
+  private static final Operation[] OPERATIONS = Operation.values();
+
+  private final long startNanos = System.nanoTime();
+  private final IntSupplier storeSize;
+  private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+  private final LongAdder activeConnections = new LongAdder();
+  private final LongAdder totalConnections = new LongAdder();
+  private final LongAdder bytesIn = new LongAdder();
+  private final LongAdder bytesOut = new LongAdder();
+  private final LongAdder checksumFailures = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+  private final long[][] lastDump = new long[OPERATIONS.length][];
+
+  /**
+   * Constructs the metrics of a server.
+   *
+   * @param storeSize Supplies the number of keys in the store.
+   */
+  public ServerMetrics(IntSupplier storeSize) {
+    this.storeSize = storeSize;
+    for (int i = 0; i < latencies.length; i++) {
+      latencies[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Records the handling time of one request.
+   *
+   * @param operation  The operation of the request.
+   * @param startNanos The {@link System#nanoTime()} at which handling started.
+   */
+  public void recordLatency(Operation operation, long startNanos) {
+    latencies[operation.ordinal()].record(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Records a request that failed.
+   */
+  public void recordError() {
+    errors.increment();
+  }
+
+  /**
+   * Records a request whose checksum did not match its content.
+   */
+  public void recordChecksumFailure() {
+    checksumFailures.increment();
+  }
+
+  /**
+   * Records bytes received from clients, including protocol headers.
+   *
+   * @param bytes The number of bytes.
+   */
+  public void recordBytesIn(long bytes) {
+    bytesIn.add(bytes);
+  }
+
+  /**
+   * Records bytes sent to clients, including protocol headers.
+   *
+   * @param bytes The number of bytes.
+   */
+  public void recordBytesOut(long bytes) {
+    bytesOut.add(bytes);
+  }
+
+  /**
+   * Records a newly accepted connection.
+   */
+  public void connectionOpened() {
+    activeConnections.increment();
+    totalConnections.increment();
+  }
+
+  /**
+   * Records a closed connection.
+   */
+  public void connectionClosed() {
+    activeConnections.decrement();
+  }
+
+  /**
+   * Renders all counters, and the latency percentiles of each operation since startup.
+   *
+   * @return One {@code name=value} line per figure.
+   */
+  public String report() {
+    StringBuilder report = new StringBuilder();
+    appendCounters(report);
+    for (Operation operation : OPERATIONS) {
+      LatencyHistogram histogram = latencies[operation.ordinal()];
+      appendLatencies(report, operation, histogram.snapshot(), histogram.max());
+    }
+    return report.toString();
+  }
+
+  /**
+   * Logs the counters and the latency percentiles of the last period every {@code periodSeconds}
+   * seconds on a background thread.
+   *
+   * @param periodSeconds The dump period.
+   */
+  public void scheduleDump(long periodSeconds) {
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "metrics-dump");
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleAtFixedRate(() -> logger.info("Server metrics:\n{}", dumpSinceLast()),
+            periodSeconds, periodSeconds, TimeUnit.SECONDS);
+  }
+
+  private synchronized String dumpSinceLast() {
+    StringBuilder report = new StringBuilder();
+    appendCounters(report);
+    for (Operation operation : OPERATIONS) {
+      LatencyHistogram histogram = latencies[operation.ordinal()];
+      long[] current = histogram.snapshot();
+      long[] period = current.clone();
+      long[] previous = lastDump[operation.ordinal()];
+      if (previous != null) {
+        for (int i = 0; i < period.length; i++) {
+          period[i] -= previous[i];
+        }
+      }
+      lastDump[operation.ordinal()] = current;
+      appendLatencies(report, operation, period, histogram.max());
+    }
+    return report.toString();
+  }
+
+  private void appendCounters(StringBuilder report) {
+    report.append("uptime_seconds=").append(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos))
+            .append('\n')
+            .append("connections_active=").append(activeConnections.sum()).append('\n')
+            .append("connections_total=").append(totalConnections.sum()).append('\n')
+            .append("bytes_in=").append(bytesIn.sum()).append('\n')
+            .append("bytes_out=").append(bytesOut.sum()).append('\n')
+            .append("checksum_failures=").append(checksumFailures.sum()).append('\n')
+            .append("errors=").append(errors.sum()).append('\n')
+            .append("store_keys=").append(storeSize.getAsInt());
+  }
+
+  private static void appendLatencies(StringBuilder report, Operation operation, long[] counts, long maxNanos) {
+    String name = operation.name().toLowerCase();
+    report.append('\n').append(name).append("_count=").append(LatencyHistogram.count(counts))
+            .append('\n').append(name).append("_p50_us=").append(micros(LatencyHistogram.percentile(counts, 50)))
+            .append('\n').append(name).append("_p99_us=").append(micros(LatencyHistogram.percentile(counts, 99)))
+            .append('\n').append(name).append("_p999_us=").append(micros(LatencyHistogram.percentile(counts, 99.9)))
+            .append('\n').append(name).append("_max_us=").append(micros(maxNanos));
+  }
+
+  private static String micros(long nanos) {
+    return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+  }
+}
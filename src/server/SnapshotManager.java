@@ -0,0 +1,296 @@
+package server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * SnapshotManager writes checkpoints of the {@link KeyValue} store to disk in the background and
+ * loads them on startup.
+ *
+ * <p>Snapshots are fuzzy checkpoints, not point-in-time images: the store is walked with
+ * {@link KeyValue#forEach} while requests keep being served, so a snapshot on its own may mix
+ * values from before and after writes that ran during the walk. It is only consistent together
+ * with the write-ahead log, which is why the store must have one attached. The log sequence
+ * number up to which every record had been applied when the walk starts is stored in the file,
+ * and replaying the log records after that sequence on top of the snapshot yields exactly the
+ * state at the end of the log, because PUT, DELETE and EXPIRE records are absolute; a TTL is
+ * stored as its wall-clock end, so it stays absolute too. For the same reason a snapshot may hold
+ * a key twice, as {@link StorageEngine#forEach} allows: either copy may be loaded, and a key whose
+ * value changed during the walk has a later log record that restores its final value.
+ * Once a snapshot is safely on disk, the covered prefix of the log is discarded, so restart time
+ * depends on the snapshot size rather than on how many writes the server has ever seen.
+ *
+ * <p>The file is {@code [int magic][int version][long walSequence]} followed by independent chunks
+ * {@code [int entries][int bytes][int crc32][entries...]} with entries encoded as
+ * {@code [short keyLength][key utf-8][int value][long expiresAtMillis]}, where the expiry is the
+ * wall-clock time the TTL of the key ends, or 0 without one; chunks are decoded in parallel on
+ * load. Version 1 files, whose entries have no expiry, can still be loaded.
+ */
+public class SnapshotManager {
+
+  private static final int MAGIC = 0x4B565331;
+  private static final int VERSION = 2;
+  private static final int VERSION_WITHOUT_EXPIRY = 1;
+  private static final int FILE_HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES;
+  private static final int CHUNK_HEADER_BYTES = Integer.BYTES * 3;
+  private static final int CHUNK_BYTES = 1 << 20;
+
+  private static final ServerLogger logger = new ServerLogger();
+
+  private final KeyValue store;
+  private final Path file;
+  private final AtomicBoolean running = new AtomicBoolean();
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "snapshot-writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  /**
+   * Constructs a SnapshotManager for the given store and snapshot file.
+   *
+   * @param store The store to snapshot and restore.
+   * @param file  The snapshot file.
+   */
+  public SnapshotManager(KeyValue store, Path file) {
+    this.store = store;
+    this.file = file;
+  }
+
+  /**
+   * Takes a snapshot every {@code periodSeconds} seconds in the background.
+   *
+   * @param periodSeconds The snapshot period.
+   */
+  public void schedule(long periodSeconds) {
+    executor.scheduleWithFixedDelay(this::snapshotInBackground, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Starts a snapshot in the background unless one is already running.
+   *
+   * @return true if a new snapshot was started.
+   * @throws IllegalStateException if the store has no write-ahead log attached.
+   */
+  public boolean requestSnapshot() {
+    requireWriteAheadLog();
+    if (running.get()) {
+      return false;
+    }
+    executor.execute(this::snapshotInBackground);
+    return true;
+  }
+
+  private void snapshotInBackground() {
+    try {
+      takeSnapshot();
+    } catch (Exception e) {
+      logger.error("Snapshot failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Writes a snapshot of the store on the calling thread, then discards the part of the
+   * write-ahead log it covers.
+   *
+   * @return The number of entries written, or -1 if another snapshot was already running.
+   * @throws IOException if the snapshot cannot be written.
+   * @throws IllegalStateException if the store has no write-ahead log attached.
+   */
+  public int takeSnapshot() throws IOException {
+    requireWriteAheadLog();
+    if (!running.compareAndSet(false, true)) {
+      return -1;
+    }
+    try {
+      long start = System.nanoTime();
+      WriteAheadLog log = store.getWriteAheadLog();
+      long walSequence = store.appliedLogSequence();
+      Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+      int entries;
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(walSequence).flip();
+        writeFully(channel, header);
+        ChunkWriter writer = new ChunkWriter(channel);
+        try {
+          store.forEachWithExpiry(writer::add);
+        } catch (UncheckedIOException e) {
+          throw e.getCause();
+        }
+        writer.finish();
+        entries = writer.totalEntries;
+        channel.force(true);
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      log.discardUpTo(walSequence);
+      logger.info("Snapshot of " + entries + " entries written to " + file + " in "
+              + (System.nanoTime() - start) / 1_000_000 + " ms at log sequence " + walSequence);
+      return entries;
+    } finally {
+      running.set(false);
+    }
+  }
+
+  private void requireWriteAheadLog() {
+    if (store.getWriteAheadLog() == null) {
+      throw new IllegalStateException("Snapshots need a write-ahead log to replay the writes made during the walk");
+    }
+  }
+
+  /**
+   * Loads the snapshot file, if present, into the store, decoding its chunks in parallel.
+   *
+   * @return The write-ahead log sequence number covered by the snapshot, or 0 if there is none.
+   * @throws IOException if the snapshot exists but cannot be read.
+   */
+  public long load() throws IOException {
+    if (!Files.exists(file)) {
+      return 0;
+    }
+    long start = System.nanoTime();
+    int threads = Runtime.getRuntime().availableProcessors();
+    ExecutorService decoders = Executors.newFixedThreadPool(threads);
+    AtomicInteger loaded = new AtomicInteger();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+      readFully(channel, header, 0);
+      int version = header.getInt(Integer.BYTES);
+      if (header.getInt(0) != MAGIC || (version != VERSION && version != VERSION_WITHOUT_EXPIRY)) {
+        throw new IOException("Not a snapshot file: " + file);
+      }
+      boolean withExpiry = version == VERSION;
+      long walSequence = header.getLong(Integer.BYTES * 2);
+
+      List<Future<?>> decoded = new ArrayList<>();
+      long position = FILE_HEADER_BYTES;
+      long size = channel.size();
+      while (position < size) {
+        ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_BYTES);
+        readFully(channel, chunkHeader, position);
+        int count = chunkHeader.getInt(0);
+        int bytes = chunkHeader.getInt(Integer.BYTES);
+        int crc = chunkHeader.getInt(Integer.BYTES * 2);
+        ByteBuffer chunk = ByteBuffer.allocate(bytes);
+        readFully(channel, chunk, position + CHUNK_HEADER_BYTES);
+        position += CHUNK_HEADER_BYTES + bytes;
+        decoded.add(decoders.submit(() -> {
+          decodeChunk(chunk.array(), count, crc, withExpiry);
+          loaded.addAndGet(count);
+          return null;
+        }));
+      }
+      for (Future<?> future : decoded) {
+        future.get();
+      }
+      logger.info("Loaded snapshot of " + loaded.get() + " entries from " + file + " in "
+              + (System.nanoTime() - start) / 1_000_000 + " ms using " + threads + " threads");
+      return walSequence;
+    } catch (Exception e) {
+      throw e instanceof IOException ? (IOException) e : new IOException("Cannot load snapshot " + file, e);
+    } finally {
+      decoders.shutdown();
+    }
+  }
+
+  private void decodeChunk(byte[] bytes, int count, int expectedCrc, boolean withExpiry) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    if ((int) crc.getValue() != expectedCrc) {
+      throw new IOException("Snapshot chunk checksum mismatch in " + file);
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    for (int i = 0; i < count; i++) {
+      int keyLength = buffer.getShort() & 0xFFFF;
+      String key = new String(bytes, buffer.position(), keyLength, StandardCharsets.UTF_8);
+      buffer.position(buffer.position() + keyLength);
+      int value = buffer.getInt();
+      long expiresAtMillis = withExpiry ? buffer.getLong() : KeyValue.NO_EXPIRY;
+      if (expiresAtMillis == KeyValue.NO_EXPIRY) {
+        store.put(key, value);
+      } else {
+        store.putExpiringAt(key, value, expiresAtMillis);
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Truncated snapshot file");
+      }
+    }
+  }
+
+  /**
+   * Packs entries into checksummed chunks and writes each chunk once it is full.
+   */
+  private static final class ChunkWriter {
+    private final FileChannel channel;
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_HEADER_BYTES + CHUNK_BYTES);
+    private final CRC32 crc = new CRC32();
+    private int chunkEntries;
+    private int totalEntries;
+
+    ChunkWriter(FileChannel channel) {
+      this.channel = channel;
+      chunk.position(CHUNK_HEADER_BYTES);
+    }
+
+    void add(String key, int value, long expiresAtMillis) {
+      byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+      try {
+        if (chunk.remaining() < Short.BYTES + keyBytes.length + Integer.BYTES + Long.BYTES) {
+          flushChunk();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      chunk.putShort((short) keyBytes.length).put(keyBytes).putInt(value).putLong(expiresAtMillis);
+      chunkEntries++;
+      totalEntries++;
+    }
+
+    void finish() throws IOException {
+      if (chunkEntries > 0) {
+        flushChunk();
+      }
+    }
+
+    private void flushChunk() throws IOException {
+      int bytes = chunk.position() - CHUNK_HEADER_BYTES;
+      crc.reset();
+      crc.update(chunk.array(), CHUNK_HEADER_BYTES, bytes);
+      chunk.putInt(0, chunkEntries).putInt(Integer.BYTES, bytes).putInt(Integer.BYTES * 2, (int) crc.getValue());
+      chunk.flip();
+      writeFully(channel, chunk);
+      chunk.clear().position(CHUNK_HEADER_BYTES);
+      chunkEntries = 0;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * StorageEngine is the data structure behind {@link KeyValue}.
+ * Implementations must be safe for concurrent use by all handler threads.
+ * Lookups return a primitive {@code long} so that engines holding primitive values do not
+ * have to box them; a missing key is reported as {@link #MISSING}.
+ */
+public interface StorageEngine {
+
+  /**
+   * Value returned by {@link #get(String)} when the key is not present.
+   */
+  long MISSING = Long.MIN_VALUE;
+
+  /**
+   * Inserts or replaces the value of a key.
+   *
+   * @param key   The key to be inserted.
+   * @param value The value associated with the key.
+   */
+  void put(String key, int value);
+
+  /**
+   * Retrieves the value associated with a key.
+   *
+   * @param key The key to look up.
+   * @return The value, or {@link #MISSING} if the key is not present.
+   */
+  long get(String key);
+
+  /**
+   * Retrieves the value of a key given as UTF-8 bytes, such as a key still in the request buffer.
+   * This default decodes the key to a {@code String}; engines that keep keys as bytes override it
+   * to look the key up without allocating.
+   *
+   * @param buffer The buffer holding the key; its position and limit are not used or changed.
+   * @param offset The index of the first byte of the key.
+   * @param length The length of the key in bytes.
+   * @return The value, or {@link #MISSING} if the key is not present.
+   */
+  default long get(ByteBuffer buffer, int offset, int length) {
+    return get(Utf8.decode(buffer, offset, length));
+  }
+
+  /**
+   * Removes a key.
+   *
+   * @param key The key to be deleted.
+   */
+  void delete(String key);
+
+  /**
+   * Returns the number of keys in the engine.
+   *
+   * @return The number of key-value pairs.
+   */
+  int size();
+
+  /**
+   * Visits every entry without blocking writers for longer than a small part of the data.
+   * The iteration is weakly consistent: each entry is seen with a value it had at some point
+   * during the call, and entries changed meanwhile may or may not be seen. An engine that
+   * reorganises its data during the call may visit an entry more than once, each time with a
+   * value it had at some point, so callers must not rely on the last visit carrying the current value.
+   *
+   * @param action The action to run for each key and value.
+   */
+  void forEach(ObjIntConsumer<String> action);
+
+  /**
+   * Releases any resources held by the engine.
+   */
+  default void close() {
+  }
+}
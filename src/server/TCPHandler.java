@@ -3,15 +3,20 @@ package server;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * TCPHandler class handles TCP connections for the server.
  */
 public class TCPHandler extends AbstractHandler {
 
+  private static final int ACCEPT_BACKLOG = 1024;
+
   private final int port;
+  private final ThreadFactory connectionThreadFactory;
+  private final ThreadLocal<DataOutputStream> responseStream = new ThreadLocal<>();
   private ServerSocket serverSocket;
-  private Socket clientSocket;
 
   private static final ServerLogger logger = new ServerLogger();
 
@@ -22,8 +27,21 @@ public class TCPHandler extends AbstractHandler {
    * @param keyValueStore  The key-value store to handle the requests.
    */
   public TCPHandler(int port, KeyValue keyValueStore) {
+    this(port, keyValueStore, Thread::new);
+  }
+
+  /**
+   * Constructs a TCPHandler that starts each connection on a thread from the given factory,
+   * e.g. {@code Thread.ofVirtual().factory()} to serve every connection on a virtual thread.
+   *
+   * @param port                    The port on which the server will listen.
+   * @param keyValueStore           The key-value store to handle the requests.
+   * @param connectionThreadFactory The factory creating one thread per accepted connection.
+   */
+  public TCPHandler(int port, KeyValue keyValueStore, ThreadFactory connectionThreadFactory) {
     super(keyValueStore);
     this.port = port;
+    this.connectionThreadFactory = connectionThreadFactory;
   }
 
   /**
@@ -32,21 +50,17 @@ public class TCPHandler extends AbstractHandler {
   @Override
   public void run() {
     try {
-      serverSocket = new ServerSocket(port);
+      serverSocket = new ServerSocket(port, ACCEPT_BACKLOG);
       logger.info("TCP Server started on port " + port);
 
       while (true) {
         logger.info("Waiting for new connections...");
-        clientSocket = serverSocket.accept();
+        Socket clientSocket = serverSocket.accept();
+        clientSocket.setTcpNoDelay(true);
         logger.info("New connection from " + clientSocket.getInetAddress());
 
-        // Create a new thread to handle each client request
-        Thread handlerThread = new Thread(() -> {
-          while (true) {
-            // Handle the client request
-            handleClientRequest(clientSocket);
-          }
-        });
+        // Create a new thread to handle each client connection
+        Thread handlerThread = connectionThreadFactory.newThread(() -> handleConnection(clientSocket));
         handlerThread.start();
       }
     } catch (IOException e) {
@@ -66,64 +80,142 @@ public class TCPHandler extends AbstractHandler {
     }
   }
 
+  /**
+   * Serves one client connection until the client disconnects.
+   *
+   * @param clientSocket The socket of the accepted client.
+   */
+  private void handleConnection(Socket clientSocket) {
+    metrics.connectionOpened();
+    try (Socket socket = clientSocket) {
+      DataInputStream dataInputStream = new DataInputStream(socket.getInputStream());
+      DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+      responseStream.set(outputStream);
+      while (!socket.isClosed()) {
+        // Handle the client request
+        boolean binary = handleClientRequest(dataInputStream);
+        // Answer pipelined requests with one write once no further request is waiting.
+        if (binary || dataInputStream.available() == 0) {
+          outputStream.flush();
+        }
+        if (binary) {
+          serveBinaryProtocol(socket);
+        }
+      }
+    } catch (EOFException e) {
+      logger.info("Client closed connection " + clientSocket.getInetAddress());
+    } catch (IOException e) {
+      logger.error("Error handling client request: " + e.getMessage());
+      e.printStackTrace();
+    } finally {
+      responseStream.remove();
+      metrics.connectionClosed();
+    }
+  }
+
   /**
    * Handles the client request.
    *
-   * @param clientSocket The client socket from which the request is received.
+   * @param dataInputStream The input stream of the client connection.
+   * @return true if the client asked to switch the connection to the binary protocol.
+   * @throws IOException if the request cannot be read from the client.
    */
-  private void handleClientRequest(Socket clientSocket) {
-    if (clientSocket == null || clientSocket.isClosed()) {
-      return; // Exit method if client socket is invalid or closed
+  private boolean handleClientRequest(DataInputStream dataInputStream) throws IOException {
+    logger.debug("Handling client request...");
+    // Read checksum sent by client
+    long receivedChecksum = dataInputStream.readLong();
+    String requestData =  dataInputStream.readUTF();
+    metrics.recordBytesIn(Long.BYTES + writeUtfLength(requestData));
+
+    // Calculate checksum of received request string
+    long calculatedChecksum = calculateChecksum(requestData);
+
+    // Compare received checksum with calculated checksum
+    if (receivedChecksum == calculatedChecksum) {
+      // Checksums match, request data is intact
+      if (logger.isRequestSampled(requestData)) {
+        logger.info("Checksum validation successful. Request received: {} (checksum {})", requestData,
+                receivedChecksum);
+      }
+    } else {
+      // Checksums do not match, request data may be corrupted
+      metrics.recordChecksumFailure();
+      logger.error("Checksum validation failed. Request data may be corrupted.");
     }
-    try {
-      logger.info("Handling client request...");
-      // Read request data from the client
-      InputStream inputStream = clientSocket.getInputStream();
-      DataInputStream dataInputStream = new DataInputStream(inputStream);
-      // Read checksum sent by client
-      long receivedChecksum = dataInputStream.readLong();
-      String requestData =  dataInputStream.readUTF();
-      logger.info("receivedChecksum: "+ receivedChecksum);
-      logger.info("Request Data: "+ requestData);
-
-      // Calculate checksum of received request string
-      long calculatedChecksum = calculateChecksum(requestData);
-
-      // Compare received checksum with calculated checksum
-      if (receivedChecksum == calculatedChecksum) {
-        // Checksums match, request data is intact
-        logger.info("Checksum validation successful. Request received: " + requestData);
-
-        // Process the request here...
+
+    if (BinaryProtocol.HANDSHAKE.equals(requestData)) {
+      sendResponse(BinaryProtocol.HANDSHAKE_ACCEPTED);
+      logger.info("Client switched to the binary protocol");
+      return true;
+    }
+
+    // Handle the request
+    handleRequest(requestData);
+    logger.debug("Client request handled successfully.");
+    return false;
+  }
+
+  /**
+   * Serves binary protocol frames on the connection until the client disconnects. Responses are
+   * only flushed once no further pipelined request is buffered, so a burst of requests is answered
+   * with a few large writes instead of one write per response.
+   *
+   * @param socket The client socket.
+   * @throws IOException if a frame cannot be read or the response cannot be written.
+   */
+  private void serveBinaryProtocol(Socket socket) throws IOException {
+    DataInputStream dataInputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    ByteBuffer request = ByteBuffer.allocate(256);
+    ByteBuffer responseBuffer = ByteBuffer.allocate(BinaryProtocol.RESPONSE_BUFFER_BYTES);
+    while (true) {
+      int length = dataInputStream.readInt();
+      int receivedChecksum = dataInputStream.readInt();
+      int requestId = dataInputStream.readInt();
+      if (length < 0 || length > BinaryProtocol.MAX_BODY_BYTES) {
+        throw new IOException("Invalid binary frame length " + length);
+      }
+      if (request.capacity() < length) {
+        request = ByteBuffer.allocate(length);
+      }
+      dataInputStream.readFully(request.array(), 0, length);
+      request.clear().limit(length);
+      metrics.recordBytesIn(BinaryProtocol.FRAME_HEADER_BYTES + length);
+
+      ByteBuffer response;
+      if (BinaryProtocol.checksum(request) == receivedChecksum) {
+        response = processBinaryRequest(request, responseBuffer);
       } else {
-        // Checksums do not match, request data may be corrupted
+        metrics.recordChecksumFailure();
         logger.error("Checksum validation failed. Request data may be corrupted.");
+        response = responseBuffer.clear().put(BinaryProtocol.STATUS_CHECKSUM_MISMATCH).flip();
+      }
+      metrics.recordBytesOut(BinaryProtocol.FRAME_HEADER_BYTES + response.remaining());
+      outputStream.writeInt(response.remaining());
+      outputStream.writeInt(BinaryProtocol.checksum(response));
+      outputStream.writeInt(requestId);
+      outputStream.write(response.array(), 0, response.limit());
+      if (dataInputStream.available() == 0) {
+        outputStream.flush();
       }
-
-      // Handle the request
-      handleRequest(requestData);
-      logger.info("Client request handled successfully.");
-
-    } catch (IOException e) {
-      logger.error("Error handling client request: " + e.getMessage());
-      e.printStackTrace();
     }
   }
 
   /**
-   * Sends a response to the client.
+   * Sends a response to the client whose connection is served by the calling thread. The response
+   * is buffered until the connection has no further request waiting.
    *
    * @param response The response message to be sent.
    */
   @Override
   public void sendResponse(String response) {
     try {
-      logger.info("Sending response to client...");
+      logger.debug("Sending response to client...");
       // Send the response back to the client
-      DataOutputStream outputStream = new DataOutputStream(clientSocket.getOutputStream());
+      DataOutputStream outputStream = responseStream.get();
       outputStream.writeUTF(response);
-      //outputStream.flush();
-      logger.info("Response sent successfully." + response);
+      metrics.recordBytesOut(writeUtfLength(response));
+      logger.debug("Response sent successfully. {}", response);
     } catch (IOException e) {
       logger.error("Error sending response to client: " + e.getMessage());
       e.printStackTrace();
@@ -0,0 +1,78 @@
+package server;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * A W-TinyLFU policy (Einziger, Friedman and Manes): new keys enter a small admission window,
+ * and a key pushed out of the window only replaces the victim of the main area if a
+ * {@link FrequencySketch} says it has been used more often recently. Keys that are used once,
+ * such as a scan, then pass through the window without displacing the popular keys, while the
+ * window still lets a newly popular key build up its count.
+ *
+ * <p>The window holds 1% of the maximum weight. Both areas are {@link ClockRing}s rather than the
+ * exact LRU lists of the original design, so that a read stays a lock-free map lookup, a flag
+ * write and a sketch increment.
+ */
+public class TinyLfuEvictionPolicy extends AbstractEvictionPolicy {
+  private final ClockRing window = new ClockRing();
+  private final ClockRing main = new ClockRing();
+  private final long maximumWindowWeight;
+  private final FrequencySketch sketch;
+
+  /**
+   * Constructs a W-TinyLFU policy.
+   *
+   * @param maximumWeight   The total weight the keys may have.
+   * @param weigher         The weight of a key, such as {@link EvictionPolicy#ENTRIES}.
+   * @param expectedEntries The number of keys the store holds when full, which sizes the sketch.
+   */
+  public TinyLfuEvictionPolicy(long maximumWeight, ToLongFunction<String> weigher, long expectedEntries) {
+    super(maximumWeight, weigher);
+    this.maximumWindowWeight = Math.max(1, maximumWeight / 100);
+    this.sketch = new FrequencySketch(expectedEntries);
+  }
+
+  @Override
+  public void recordAccess(String key) {
+    super.recordAccess(key);
+    sketch.increment(key.hashCode());
+  }
+
+  @Override
+  public void recordWrite(String key) {
+    super.recordWrite(key);
+    sketch.increment(key.hashCode());
+  }
+
+  @Override
+  protected void admit(ClockRing.Node node) {
+    window.add(node);
+  }
+
+  @Override
+  public String evict() {
+    while (window.weight() + main.weight() > maximumWeight) {
+      if (window.weight() <= maximumWindowWeight) {
+        return forget(main.isEmpty() ? window.victim() : main.victim());
+      }
+      // The window is over its share: its victim becomes a candidate for the main area.
+      ClockRing.Node candidate = window.victim();
+      window.remove(candidate);
+      if (main.weight() + candidate.weight <= maximumWeight - maximumWindowWeight) {
+        main.add(candidate);
+        continue;
+      }
+      ClockRing.Node victim = main.victim();
+      if (victim != null && sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+        main.add(candidate);
+        return forget(victim);
+      }
+      // The victim stays, and the hand moves on so that the next candidate contests another
+      // entry: otherwise an entry used often enough to keep winning would shield the rest of
+      // the main area from ever being evicted.
+      main.skip();
+      return forget(candidate);
+    }
+    return null;
+  }
+}
@@ -3,17 +3,50 @@ package server;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import protocol.UdpFraming;
 
 /**
  * UDPHandler class handles UDP connections for the server.
+ * Datagrams starting with {@link BinaryProtocol#UDP_MAGIC} carry binary requests and are
+ * answered in kind, datagrams starting with {@link UdpFraming#UDP_FRAMED_MAGIC} carry batches or
+ * fragments of binary requests (see {@link UdpFraming}), and every other datagram is a text request.
+ * Datagrams are received into and answered from pooled buffers.
+ *
+ * <p>Binary and framed requests carry a request ID. The responses to recent requests are kept in a
+ * {@link DedupeWindow}, so a request retransmitted by the client after a lost response is answered
+ * again without applying a PUT or DELETE twice, and a retransmission arriving while the first copy
+ * is still being handled is dropped.
+ *
+ * <p>Several receive workers can serve the port at once. Where the platform supports
+ * {@code SO_REUSEPORT} every worker binds its own socket to the port and the kernel spreads the
+ * clients over them, so datagrams of one client always reach the same worker in order; otherwise
+ * the workers share one socket. Every request is answered through the socket it arrived on and
+ * to the address it came from, so requests never share reply state.
  */
 public class UDPHandler extends AbstractHandler {
 
+  private static final int MAX_DATAGRAM_BYTES = 65_507;
+  // Room for bursts such as the fragments of a large framed request; the kernel caps it at net.core.rmem_max.
+  private static final int SOCKET_RECEIVE_BUFFER_BYTES = 4 * 1024 * 1024;
+  private static final int DEDUPE_WINDOW_ENTRIES = 65_536;
+  private static final long DEDUPE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(30);
+
   private final int port;
-  private DatagramSocket socket;
-  private int clientPort;
-  private InetAddress address;
+  private final Executor requestExecutor;
+  private final int receiveWorkers;
+  private final ThreadLocal<ReplyContext> replyContext = new ThreadLocal<>();
+  private final BufferPool datagramBuffers = new BufferPool(MAX_DATAGRAM_BYTES, 256);
+  private final UdpFraming.Reassembler reassembler = new UdpFraming.Reassembler(BinaryProtocol.MAX_BODY_BYTES);
+  private final DedupeWindow dedupeWindow = new DedupeWindow(DEDUPE_WINDOW_ENTRIES, DEDUPE_WINDOW_NANOS);
 
   private static final ServerLogger logger = new ServerLogger();
 
@@ -24,8 +57,36 @@ public class UDPHandler extends AbstractHandler {
    * @param keyValueStore  The key-value store to handle the requests.
    */
   public UDPHandler(int port, KeyValue keyValueStore) {
+    this(port, keyValueStore, Runnable::run);
+  }
+
+  /**
+   * Constructs a UDPHandler that dispatches each received datagram to the given executor,
+   * e.g. {@code Executors.newVirtualThreadPerTaskExecutor()} to handle every request on its own
+   * virtual thread while the receive loop goes straight back to the socket.
+   *
+   * @param port            The port on which the server will listen.
+   * @param keyValueStore   The key-value store to handle the requests.
+   * @param requestExecutor The executor running the handling of each datagram.
+   */
+  public UDPHandler(int port, KeyValue keyValueStore, Executor requestExecutor) {
+    this(port, keyValueStore, requestExecutor, 1);
+  }
+
+  /**
+   * Constructs a UDPHandler with several receive workers, each receiving and handling datagrams
+   * on its own thread.
+   *
+   * @param port            The port on which the server will listen.
+   * @param keyValueStore   The key-value store to handle the requests.
+   * @param requestExecutor The executor running the handling of each datagram.
+   * @param receiveWorkers  The number of threads receiving datagrams.
+   */
+  public UDPHandler(int port, KeyValue keyValueStore, Executor requestExecutor, int receiveWorkers) {
     super(keyValueStore);
     this.port = port;
+    this.requestExecutor = requestExecutor;
+    this.receiveWorkers = Math.max(1, receiveWorkers);
   }
 
   /**
@@ -33,44 +94,121 @@ public class UDPHandler extends AbstractHandler {
    */
   @Override
   public void run() {
+    List<DatagramSocket> sockets = new ArrayList<>();
     try {
-      socket = new DatagramSocket(port);
-      logger.info("UDP Server started on port " + port);
+      sockets.addAll(openSockets());
+      logger.info("UDP Server started on port " + port + " with " + receiveWorkers + " receive workers on "
+              + sockets.size() + " sockets");
       logger.info("Waiting for new connections...");
 
+      for (int i = 1; i < receiveWorkers; i++) {
+        DatagramSocket socket = sockets.get(i % sockets.size());
+        Thread worker = new Thread(() -> receiveLoop(socket), "udp-receiver-" + i);
+        worker.setDaemon(true);
+        worker.start();
+      }
+      receiveLoop(sockets.get(0));
+    } catch (IOException e) {
+      logger.error("Error in UDP server: " + e.getMessage());
+      e.printStackTrace();
+    } finally {
+      for (DatagramSocket socket : sockets) {
+        socket.close();
+      }
+      logger.info("UDP Server socket closed");
+    }
+  }
+
+  /**
+   * Opens one socket per receive worker with {@code SO_REUSEPORT}, or a single shared socket
+   * if there is only one worker or the option is not supported.
+   *
+   * @return The bound sockets.
+   * @throws IOException if the port cannot be bound.
+   */
+  private List<DatagramSocket> openSockets() throws IOException {
+    List<DatagramSocket> sockets = new ArrayList<>();
+    DatagramSocket first = new DatagramSocket(null);
+    boolean reusePort = receiveWorkers > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+    if (reusePort) {
+      first.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+    }
+    first.setReceiveBufferSize(SOCKET_RECEIVE_BUFFER_BYTES);
+    first.bind(new InetSocketAddress(port));
+    sockets.add(first);
+    if (reusePort) {
+      for (int i = 1; i < receiveWorkers; i++) {
+        DatagramSocket socket = new DatagramSocket(null);
+        socket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        socket.setReceiveBufferSize(SOCKET_RECEIVE_BUFFER_BYTES);
+        socket.bind(new InetSocketAddress(port));
+        sockets.add(socket);
+      }
+    } else if (receiveWorkers > 1) {
+      logger.info("SO_REUSEPORT is not supported, receive workers share one socket");
+    }
+    return sockets;
+  }
+
+  /**
+   * Receives datagrams from one socket until it is closed and dispatches each to the request executor.
+   *
+   * @param socket The socket to receive from.
+   */
+  private void receiveLoop(DatagramSocket socket) {
+    try {
       while (true) {
-        byte[] buffer = new byte[1024];
+        // Every buffer is large enough for any UDP payload and goes back to the pool once the request is handled.
+        byte[] buffer = datagramBuffers.acquire();
         DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
         socket.receive(packet);
-        address = packet.getAddress();
-        clientPort = packet.getPort();
-        logger.info("Received request from client: " + address + ":" + clientPort);
+        metrics.recordBytesIn(packet.getLength());
+        if (logger.isDebugEnabled()) {
+          logger.debug("Received request from client: {}", packet.getSocketAddress());
+        }
 
         // Handle the client request
-        handleClientRequest(packet);
+        requestExecutor.execute(() -> {
+          try {
+            handleClientRequest(socket, packet);
+          } finally {
+            datagramBuffers.release(buffer);
+          }
+        });
       }
     } catch (IOException e) {
-      logger.error("Error in UDP server: " + e.getMessage());
-      e.printStackTrace();
-    } finally {
-      if (socket != null) {
-        socket.close();
-        logger.info("UDP Server socket closed");
+      if (!socket.isClosed()) {
+        logger.error("Error receiving UDP datagram: " + e.getMessage());
+        e.printStackTrace();
       }
     }
   }
 
   /**
-   * Handles the client request received as a DatagramPacket.
+   * Handles the client request received as a DatagramPacket and replies to its sender.
    *
+   * @param socket The socket the request arrived on.
    * @param packet The DatagramPacket containing the client request.
    */
-  private void handleClientRequest(DatagramPacket packet) {
+  private void handleClientRequest(DatagramSocket socket, DatagramPacket packet) {
     try {
-      logger.info("Handling client request");
+      logger.debug("Handling client request");
+      byte first = packet.getLength() > 0 ? packet.getData()[0] : 0;
+      if (first == BinaryProtocol.UDP_MAGIC) {
+        handleBinaryRequest(socket, packet);
+        return;
+      }
+      if (first == UdpFraming.UDP_FRAMED_MAGIC) {
+        handleFramedRequest(socket, packet);
+        return;
+      }
       // Handle the request
-      handleRequest(new String(packet.getData(), 0, packet.getLength()));
-
+      replyContext.set(new ReplyContext(socket, packet.getSocketAddress()));
+      try {
+        handleRequest(new String(packet.getData(), 0, packet.getLength()));
+      } finally {
+        replyContext.remove();
+      }
     } catch (Exception e) {
       logger.error("Error handling client request: " + e.getMessage());
       e.printStackTrace();
@@ -78,22 +216,130 @@ public class UDPHandler extends AbstractHandler {
   }
 
   /**
-   * Sends a response back to the client.
+   * Handles a binary request datagram {@code [magic][int crc32c(body)][int requestId][body]} and
+   * replies with a datagram of the same layout.
+   *
+   * @param socket The socket the request arrived on.
+   * @param packet The DatagramPacket containing the binary request.
+   * @throws IOException if the response cannot be sent.
+   */
+  private void handleBinaryRequest(DatagramSocket socket, DatagramPacket packet) throws IOException {
+    ByteBuffer datagram = ByteBuffer.wrap(packet.getData(), 0, packet.getLength());
+    if (datagram.remaining() < BinaryProtocol.UDP_HEADER_BYTES) {
+      logger.error("Binary datagram too short: " + packet.getLength() + " bytes");
+      return;
+    }
+    int receivedChecksum = datagram.getInt(1);
+    int requestId = datagram.getInt(1 + Integer.BYTES);
+    ByteBuffer request = datagram.position(BinaryProtocol.UDP_HEADER_BYTES).slice();
+    ByteBuffer responseBuffer = ByteBuffer.allocate(BinaryProtocol.RESPONSE_BUFFER_BYTES);
+    ByteBuffer response;
+    if (BinaryProtocol.checksum(request) == receivedChecksum) {
+      response = dedupeWindow.claim(packet.getSocketAddress(), requestId);
+      if (response == null) {
+        response = processBinaryRequest(request, responseBuffer);
+        dedupeWindow.complete(packet.getSocketAddress(), requestId, response);
+      } else if (!response.hasRemaining()) {
+        logger.debug("Dropped retransmission of request {} still in progress", requestId);
+        return;
+      }
+    } else {
+      metrics.recordChecksumFailure();
+      logger.error("Checksum validation failed. Request data may be corrupted.");
+      response = responseBuffer.put(BinaryProtocol.STATUS_CHECKSUM_MISMATCH).flip();
+    }
+    byte[] responseData = datagramBuffers.acquire();
+    try {
+      int length = ByteBuffer.wrap(responseData).put(BinaryProtocol.UDP_MAGIC).putInt(BinaryProtocol.checksum(response))
+              .putInt(requestId).put(response).position();
+      socket.send(new DatagramPacket(responseData, length, packet.getSocketAddress()));
+      metrics.recordBytesOut(length);
+    } finally {
+      datagramBuffers.release(responseData);
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Binary response sent to client {}", packet.getSocketAddress());
+    }
+  }
+
+  /**
+   * Handles a framed datagram: every complete request it carries, or completes by its last
+   * fragment, is processed and the responses are packed into as few datagrams as possible. A
+   * request already answered is answered again from the dedupe window.
+   *
+   * @param socket The socket the request arrived on.
+   * @param packet The DatagramPacket containing the framed requests.
+   * @throws IOException if a response cannot be sent.
+   */
+  private void handleFramedRequest(DatagramSocket socket, DatagramPacket packet) throws IOException {
+    SocketAddress sender = packet.getSocketAddress();
+    byte[] responseData = datagramBuffers.acquire();
+    try {
+      UdpFraming.Packer packer = new UdpFraming.Packer(ByteBuffer.wrap(responseData),
+              datagram -> {
+                socket.send(new DatagramPacket(datagram.array(), datagram.limit(), sender));
+                metrics.recordBytesOut(datagram.limit());
+              });
+      ByteBuffer responseBuffer = ByteBuffer.allocate(BinaryProtocol.RESPONSE_BUFFER_BYTES);
+      boolean valid = UdpFraming.forEachRecord(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()),
+              (messageId, fragmentIndex, fragmentCount, chunk) -> {
+                ByteBuffer request = fragmentCount == 1
+                        ? chunk : reassembler.add(sender, messageId, fragmentIndex, fragmentCount, chunk);
+                if (request == null) {
+                  return;
+                }
+                ByteBuffer response = dedupeWindow.claim(sender, messageId);
+                if (response == null) {
+                  response = processBinaryRequest(request, responseBuffer);
+                  dedupeWindow.complete(sender, messageId, response);
+                }
+                if (response.hasRemaining()) {
+                  packer.add(messageId, response);
+                }
+              });
+      packer.flush();
+      if (!valid) {
+        metrics.recordChecksumFailure();
+        logger.error("Dropped corrupted framed datagram from " + sender);
+      }
+    } finally {
+      datagramBuffers.release(responseData);
+    }
+  }
+
+  /**
+   * Sends a response back to the client whose request is being handled by the calling thread.
    *
    * @param response The response message to be sent.
    */
   @Override
   public void sendResponse(String response) {
+    ReplyContext context = replyContext.get();
+    if (context == null) {
+      logger.error("No client request bound to thread " + Thread.currentThread().getName());
+      return;
+    }
     try {
       byte[] responseData = response.getBytes();
-      DatagramPacket packet = new DatagramPacket(responseData, responseData.length);
-      packet.setAddress(address);
-      packet.setPort(clientPort);
-      socket.send(packet);
-      logger.info("Response sent to client " + response);
+      context.socket.send(new DatagramPacket(responseData, responseData.length, context.address));
+      metrics.recordBytesOut(responseData.length);
+      logger.debug("Response sent to client {}", response);
     } catch (IOException e) {
       logger.error("Error sending response to client: " + e.getMessage());
       e.printStackTrace();
     }
   }
+
+  /**
+   * Where to send the reply to one request: the socket it arrived on and the address of its sender.
+   */
+  private static final class ReplyContext {
+    private final DatagramSocket socket;
+    private final SocketAddress address;
+
+    ReplyContext(DatagramSocket socket, SocketAddress address) {
+      this.socket = socket;
+      this.address = address;
+    }
+  }
 }
@@ -0,0 +1,134 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Allocation-free UTF-8 helpers used by the storage engines that keep keys as bytes, which lets
+ * them look keys up straight from a request buffer.
+ * The encoding of the code point at a given index is packed into a {@code long}: the bytes in
+ * bits 0-31, the byte count in bits 32-39 and the number of chars consumed in bits 40-47.
+ */
+final class Utf8 {
+
+  private Utf8() {
+  }
+
+  /**
+   * Hashes the UTF-8 encoding of a key (FNV-1a followed by a murmur3 finalizer) without
+   * materializing the bytes.
+   *
+   * @param key The key to hash.
+   * @return The hash of the key.
+   */
+  static int hash(String key) {
+    int hash = 0x811C9DC5;
+    for (int i = 0; i < key.length(); ) {
+      long encoded = encodeAt(key, i);
+      for (int b = 0; b < byteCount(encoded); b++) {
+        hash = (hash ^ (byteAt(encoded, b) & 0xFF)) * 0x01000193;
+      }
+      i += charCount(encoded);
+    }
+    return finish(hash);
+  }
+
+  /**
+   * Hashes a key given as UTF-8 bytes in a heap or direct buffer, equal to {@link #hash(String)}
+   * of the decoded key. The buffer's position is not used or changed.
+   *
+   * @param buffer The buffer holding the key.
+   * @param offset The index of the first byte of the key.
+   * @param length The length of the key in bytes.
+   * @return The hash of the key.
+   */
+  static int hash(ByteBuffer buffer, int offset, int length) {
+    int hash = 0x811C9DC5;
+    for (int i = offset; i < offset + length; i++) {
+      hash = (hash ^ (buffer.get(i) & 0xFF)) * 0x01000193;
+    }
+    return finish(hash);
+  }
+
+  /**
+   * Decodes a key given as UTF-8 bytes in a heap or direct buffer, for code paths that need it as
+   * a {@code String}. The buffer's position is not used or changed.
+   *
+   * @param buffer The buffer holding the key.
+   * @param offset The index of the first byte of the key.
+   * @param length The length of the key in bytes.
+   * @return The key.
+   */
+  static String decode(ByteBuffer buffer, int offset, int length) {
+    if (buffer.hasArray()) {
+      return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(offset, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Encodes the code point starting at the given index.
+   *
+   * @param s     The string to encode.
+   * @param index The index of the first char of the code point.
+   * @return The packed encoding.
+   */
+  static long encodeAt(String s, int index) {
+    char c = s.charAt(index);
+    if (c < 0x80) {
+      return pack(c, 1, 1);
+    }
+    if (c < 0x800) {
+      return pack((0xC0 | (c >>> 6)) | (0x80 | (c & 0x3F)) << 8, 2, 1);
+    }
+    if (Character.isHighSurrogate(c) && index + 1 < s.length() && Character.isLowSurrogate(s.charAt(index + 1))) {
+      int cp = Character.toCodePoint(c, s.charAt(index + 1));
+      return pack((0xF0 | (cp >>> 18)) | (0x80 | ((cp >>> 12) & 0x3F)) << 8
+              | (0x80 | ((cp >>> 6) & 0x3F)) << 16 | (0x80 | (cp & 0x3F)) << 24, 4, 2);
+    }
+    return pack((0xE0 | (c >>> 12)) | (0x80 | ((c >>> 6) & 0x3F)) << 8 | (0x80 | (c & 0x3F)) << 16, 3, 1);
+  }
+
+  /**
+   * Returns the number of bytes of the UTF-8 encoding of a string.
+   *
+   * @param s The string to measure.
+   * @return The encoded length in bytes.
+   */
+  static int length(String s) {
+    int length = 0;
+    for (int i = 0; i < s.length(); ) {
+      long encoded = encodeAt(s, i);
+      length += byteCount(encoded);
+      i += charCount(encoded);
+    }
+    return length;
+  }
+
+  static int byteCount(long encoded) {
+    return (int) (encoded >>> 32) & 0xFF;
+  }
+
+  static int charCount(long encoded) {
+    return (int) (encoded >>> 40) & 0xFF;
+  }
+
+  static byte byteAt(long encoded, int index) {
+    return (byte) (encoded >>> (index * 8));
+  }
+
+  private static int finish(int hash) {
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    hash ^= hash >>> 13;
+    hash *= 0xC2B2AE35;
+    hash ^= hash >>> 16;
+    return hash;
+  }
+
+  private static long pack(int bytes, int byteCount, int charCount) {
+    return (bytes & 0xFFFFFFFFL) | ((long) byteCount << 32) | ((long) charCount << 40);
+  }
+}
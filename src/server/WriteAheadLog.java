@@ -0,0 +1,444 @@
+package server;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * WriteAheadLog is an append-only log of the PUT, DELETE and EXPIRE operations applied to the store.
+ * Appending only copies the record into an in-memory batch; a single writer thread turns every
+ * batch into one {@code FileChannel.write} and, depending on the {@link FsyncPolicy}, one
+ * {@code force}. Requests that arrive while a batch is being forced are written together with the
+ * next one (group commit), so durable writes cost one fsync per batch instead of one per request.
+ *
+ * <p>Each record is {@code [int length][long sequence][byte op][short keyLength][key][int value][int crc32]},
+ * where a PUT with a TTL and an EXPIRE also carry {@code [long expiresAtMillis]}, the wall-clock
+ * expiry time, right before the checksum.
+ * On startup {@link #replay(KeyValue, long)} applies the log to the store and cuts off a torn
+ * record at the end of the file. Once a snapshot covers a prefix of the log,
+ * {@link #discardUpTo(long)} drops that prefix so the log does not grow without bound.
+ */
+public class WriteAheadLog implements AutoCloseable {
+
+  /**
+   * When appended records are forced to disk.
+   */
+  public enum FsyncPolicy {
+    /** Every write waits until its batch has been forced. */
+    ALWAYS,
+    /** Batches are forced at most once per interval; writes do not wait. */
+    INTERVAL,
+    /** Batches are written but never forced; the OS decides when they reach the disk. */
+    NEVER
+  }
+
+  private static final byte OP_PUT = 1;
+  private static final byte OP_DELETE = 2;
+  private static final byte OP_PUT_EXPIRING = 3;
+  private static final byte OP_EXPIRE = 4;
+  private static final int LENGTH_BYTES = Integer.BYTES;
+  private static final int FIXED_RECORD_BYTES = Long.BYTES + 1 + Short.BYTES + Integer.BYTES;
+  private static final int CRC_BYTES = Integer.BYTES;
+  private static final int INITIAL_BATCH_BYTES = 64 * 1024;
+  private static final int MAX_PENDING_BYTES = 16 * 1024 * 1024;
+
+  private static final ServerLogger logger = new ServerLogger();
+
+  private final Path file;
+  private final ReentrantLock ioLock = new ReentrantLock();
+  private FileChannel channel;
+  private final FsyncPolicy policy;
+  private final long intervalMillis;
+  private final Thread writerThread;
+
+  private ByteBuffer pending = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+  private long appendedSequence;
+  private long writtenSequence;
+  private long durableSequence;
+  private long nextForceMillis;
+  private boolean closed;
+  private IOException failure;
+
+  /**
+   * Opens (or creates) the log file. Appends are accepted once {@link #replay(KeyValue, long)} has run.
+   *
+   * @param file           The log file.
+   * @param policy         When to force appended records to disk.
+   * @param intervalMillis The force interval for {@link FsyncPolicy#INTERVAL}.
+   * @throws IOException if the file cannot be opened.
+   */
+  public WriteAheadLog(Path file, FsyncPolicy policy, long intervalMillis) throws IOException {
+    this.file = file;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    this.policy = policy;
+    this.intervalMillis = Math.max(1, intervalMillis);
+    this.writerThread = new Thread(this::writeLoop, "wal-writer");
+    this.writerThread.setDaemon(true);
+  }
+
+  /**
+   * Applies every complete record with a sequence number above {@code afterSequence} to the store,
+   * truncates a torn record at the end of the log and starts accepting appends. New records are
+   * numbered after both the last record in the file and {@code afterSequence}.
+   * The store must not have this log attached yet, so replayed operations are not logged again.
+   *
+   * @param store         The store to apply the log to.
+   * @param afterSequence Records up to and including this sequence number are skipped.
+   * @return The number of records applied.
+   * @throws IOException if the log cannot be read.
+   */
+  public synchronized int replay(KeyValue store, long afterSequence) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+    long position = 0;
+    long validEnd = 0;
+    int applied = 0;
+    CRC32 crc = new CRC32();
+    channel.position(0);
+
+    while (true) {
+      buffer.clear().limit(LENGTH_BYTES);
+      if (readFully(buffer, position) < LENGTH_BYTES) {
+        break;
+      }
+      int length = buffer.getInt(0);
+      if (length < FIXED_RECORD_BYTES || length > FIXED_RECORD_BYTES + 0xFFFF + Long.BYTES) {
+        break;
+      }
+      if (buffer.capacity() < length + CRC_BYTES) {
+        buffer = ByteBuffer.allocate(length + CRC_BYTES);
+      }
+      buffer.clear().limit(length + CRC_BYTES);
+      if (readFully(buffer, position + LENGTH_BYTES) < length + CRC_BYTES) {
+        break;
+      }
+      crc.reset();
+      crc.update(buffer.array(), 0, length);
+      if ((int) crc.getValue() != buffer.getInt(length)) {
+        break;
+      }
+
+      long sequence = buffer.getLong(0);
+      byte op = buffer.get(Long.BYTES);
+      int keyLength = buffer.getShort(Long.BYTES + 1) & 0xFFFF;
+      String key = new String(buffer.array(), Long.BYTES + 1 + Short.BYTES, keyLength, StandardCharsets.UTF_8);
+      int value = buffer.getInt(Long.BYTES + 1 + Short.BYTES + keyLength);
+      if (sequence > afterSequence) {
+        if (op == OP_PUT) {
+          store.put(key, value);
+        } else if (op == OP_DELETE) {
+          store.delete(key);
+        } else if (op == OP_PUT_EXPIRING) {
+          store.putExpiringAt(key, value, buffer.getLong(FIXED_RECORD_BYTES + keyLength));
+        } else if (op == OP_EXPIRE) {
+          store.expireAt(key, buffer.getLong(FIXED_RECORD_BYTES + keyLength));
+        }
+        applied++;
+      }
+      appendedSequence = Math.max(appendedSequence, sequence);
+      position += LENGTH_BYTES + length + CRC_BYTES;
+      validEnd = position;
+    }
+
+    // A snapshot may have discarded every record; numbering must still continue after the ones it covers.
+    appendedSequence = Math.max(appendedSequence, afterSequence);
+    if (validEnd < channel.size()) {
+      logger.error("Truncating torn write-ahead log tail at byte " + validEnd);
+      channel.truncate(validEnd);
+    }
+    channel.position(validEnd);
+    writtenSequence = appendedSequence;
+    durableSequence = appendedSequence;
+    nextForceMillis = System.currentTimeMillis() + intervalMillis;
+    if (!writerThread.isAlive()) {
+      writerThread.start();
+    }
+    logger.info("Replayed " + applied + " write-ahead log records up to sequence " + appendedSequence);
+    return applied;
+  }
+
+  private int readFully(ByteBuffer buffer, long position) throws IOException {
+    int total = 0;
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + total);
+      if (read < 0) {
+        break;
+      }
+      total += read;
+    }
+    return total;
+  }
+
+  /**
+   * Appends a PUT record to the current batch.
+   *
+   * @param key   The key.
+   * @param value The value.
+   * @return The sequence number of the record, to be passed to {@link #awaitDurable(long)}.
+   */
+  public long appendPut(String key, int value) {
+    return append(OP_PUT, key, value, 0);
+  }
+
+  /**
+   * Appends a record of a PUT with a TTL to the current batch.
+   *
+   * @param key             The key.
+   * @param value           The value.
+   * @param expiresAtMillis The wall-clock time at which the key expires.
+   * @return The sequence number of the record, to be passed to {@link #awaitDurable(long)}.
+   */
+  public long appendPutExpiring(String key, int value, long expiresAtMillis) {
+    return append(OP_PUT_EXPIRING, key, value, expiresAtMillis);
+  }
+
+  /**
+   * Appends a record of a new TTL for an existing key to the current batch.
+   *
+   * @param key             The key.
+   * @param expiresAtMillis The wall-clock time at which the key expires.
+   * @return The sequence number of the record, to be passed to {@link #awaitDurable(long)}.
+   */
+  public long appendExpire(String key, long expiresAtMillis) {
+    return append(OP_EXPIRE, key, 0, expiresAtMillis);
+  }
+
+  /**
+   * Appends a DELETE record to the current batch.
+   *
+   * @param key The key.
+   * @return The sequence number of the record, to be passed to {@link #awaitDurable(long)}.
+   */
+  public long appendDelete(String key) {
+    return append(OP_DELETE, key, 0, 0);
+  }
+
+  private synchronized long append(byte op, String key, int value, long expiresAtMillis) {
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    if (keyBytes.length > 0xFFFF) {
+      throw new IllegalArgumentException("Key longer than 65535 bytes");
+    }
+    boolean expiring = op == OP_PUT_EXPIRING || op == OP_EXPIRE;
+    int length = FIXED_RECORD_BYTES + keyBytes.length + (expiring ? Long.BYTES : 0);
+    int recordBytes = LENGTH_BYTES + length + CRC_BYTES;
+    try {
+      while (pending.position() > MAX_PENDING_BYTES && failure == null && !closed) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the write-ahead log", e);
+    }
+    checkUsable();
+    if (pending.remaining() < recordBytes) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + recordBytes));
+      pending.flip();
+      larger.put(pending);
+      pending = larger;
+    }
+
+    long sequence = ++appendedSequence;
+    int start = pending.position();
+    pending.putInt(length);
+    pending.putLong(sequence);
+    pending.put(op);
+    pending.putShort((short) keyBytes.length);
+    pending.put(keyBytes);
+    pending.putInt(value);
+    if (expiring) {
+      pending.putLong(expiresAtMillis);
+    }
+    CRC32 crc = new CRC32();
+    crc.update(pending.array(), start + LENGTH_BYTES, length);
+    pending.putInt((int) crc.getValue());
+    notifyAll();
+    return sequence;
+  }
+
+  /**
+   * Blocks until the record with the given sequence number is as durable as the policy promises:
+   * forced to disk for {@link FsyncPolicy#ALWAYS}; other policies return immediately.
+   *
+   * @param sequence The sequence number returned by an append.
+   */
+  public synchronized void awaitDurable(long sequence) {
+    if (policy != FsyncPolicy.ALWAYS) {
+      return;
+    }
+    try {
+      while (durableSequence < sequence && failure == null) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for the write-ahead log", e);
+    }
+    if (durableSequence < sequence) {
+      checkUsable();
+    }
+  }
+
+  /**
+   * Returns the sequence number of the last appended record.
+   *
+   * @return The last sequence number.
+   */
+  public synchronized long lastSequence() {
+    return appendedSequence;
+  }
+
+  private void checkUsable() {
+    if (failure != null) {
+      throw new UncheckedIOException("Write-ahead log failed", failure);
+    }
+    if (closed) {
+      throw new IllegalStateException("Write-ahead log is closed");
+    }
+  }
+
+  private void writeLoop() {
+    ByteBuffer batch = ByteBuffer.allocate(INITIAL_BATCH_BYTES);
+    try {
+      while (true) {
+        long batchSequence;
+        synchronized (this) {
+          while (pending.position() == 0 && !closed && !forceDue()) {
+            // Only wake for the interval force while written records are still unforced; an
+            // idle log waits for the next append instead of polling.
+            boolean unforced = policy == FsyncPolicy.INTERVAL && writtenSequence > durableSequence;
+            wait(unforced ? Math.max(1, nextForceMillis - System.currentTimeMillis()) : 0);
+          }
+          if (pending.position() == 0 && closed) {
+            break;
+          }
+          ByteBuffer full = pending;
+          pending = batch;
+          pending.clear();
+          batch = full;
+          batchSequence = appendedSequence;
+          notifyAll();
+        }
+
+        boolean force = policy == FsyncPolicy.ALWAYS || (policy == FsyncPolicy.INTERVAL && forceDue());
+        ioLock.lock();
+        try {
+          batch.flip();
+          while (batch.hasRemaining()) {
+            channel.write(batch);
+          }
+          if (force) {
+            channel.force(false);
+            nextForceMillis = System.currentTimeMillis() + intervalMillis;
+          }
+        } finally {
+          ioLock.unlock();
+        }
+        synchronized (this) {
+          writtenSequence = batchSequence;
+          if (force) {
+            durableSequence = batchSequence;
+          }
+          notifyAll();
+        }
+      }
+      ioLock.lock();
+      try {
+        channel.force(false);
+      } finally {
+        ioLock.unlock();
+      }
+      synchronized (this) {
+        durableSequence = writtenSequence;
+        notifyAll();
+      }
+    } catch (IOException e) {
+      logger.error("Write-ahead log writer failed: " + e.getMessage());
+      synchronized (this) {
+        failure = e;
+        notifyAll();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Removes every record with a sequence number up to and including the given one, e.g. after a
+   * snapshot has captured their effect. The remaining tail is copied to a new file which then
+   * atomically replaces the log; appends wait only while the tail is copied.
+   *
+   * @param sequence The last sequence number that no longer needs to be replayed.
+   * @throws IOException if the log cannot be rewritten.
+   */
+  public void discardUpTo(long sequence) throws IOException {
+    ioLock.lock();
+    try {
+      synchronized (this) {
+        checkUsable();
+        long keepFrom = 0;
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(LENGTH_BYTES + Long.BYTES);
+        while (keepFrom < size) {
+          header.clear();
+          if (readFully(header, keepFrom) < header.capacity() || header.getLong(LENGTH_BYTES) > sequence) {
+            break;
+          }
+          keepFrom += LENGTH_BYTES + header.getInt(0) + CRC_BYTES;
+        }
+        if (keepFrom == 0) {
+          return;
+        }
+
+        Path rewritten = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel target = FileChannel.open(rewritten, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+          long copied = 0;
+          while (keepFrom + copied < size) {
+            copied += channel.transferTo(keepFrom + copied, size - keepFrom - copied, target);
+          }
+          target.force(true);
+        }
+        channel.close();
+        Files.move(rewritten, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        logger.info("Discarded " + keepFrom + " bytes of write-ahead log up to sequence " + sequence);
+      }
+    } finally {
+      ioLock.unlock();
+    }
+  }
+
+  private boolean forceDue() {
+    return policy == FsyncPolicy.INTERVAL && writtenSequence > durableSequence
+            && System.currentTimeMillis() >= nextForceMillis;
+  }
+
+  /**
+   * Writes and forces the remaining records, then closes the log file.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    try {
+      if (writerThread.isAlive()) {
+        writerThread.join();
+      }
+      channel.close();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      logger.error("Error closing write-ahead log: " + e.getMessage());
+    }
+  }
+}